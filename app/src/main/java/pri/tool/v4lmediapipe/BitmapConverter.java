@@ -10,11 +10,18 @@ import com.google.mediapipe.components.TextureFrameConsumer;
 import com.google.mediapipe.components.TextureFrameProducer;
 import com.google.mediapipe.framework.AppTextureFrame;
 import com.google.mediapipe.glutil.GlThread;
-import com.google.mediapipe.glutil.ShaderUtil;
+
+import pri.tool.v4l2camera.DropPolicy;
+import pri.tool.v4l2camera.PipelineMetrics;
+import pri.tool.v4l2camera.StageMetrics;
+import pri.tool.v4l2camera.Trace;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.microedition.khronos.egl.EGLContext;
 
@@ -24,14 +31,36 @@ public class BitmapConverter implements TextureFrameProducer, CustomFrameAvailab
     private static final int DEFAULT_NUM_BUFFERS = 2;
     private static final String THREAD_NAME = "BitmapConverter";
 
+    /**
+     * 接收不再使用的 Bitmap：被新帧覆盖、没有上传的旧帧，以及已经上传成纹理的帧，调用方可以复用它们。
+     * 在采集回调线程或者 GL 线程中调用，实现需要线程安全。
+     */
+    public interface BitmapRecycler {
+        void recycle(Bitmap bitmap);
+    }
+
     private RenderThread thread;
     @Override
     public void setConsumer(TextureFrameConsumer next) {
         thread.setConsumer(next);
     }
 
+    /**
+     * 添加一个消费者，只保留最新一帧。
+     */
     public void addConsumer(TextureFrameConsumer consumer) {
-        thread.addConsumer(consumer);
+        thread.addConsumer(consumer, DropPolicy.LATEST_WINS, 1);
+    }
+
+    /**
+     * 添加一个消费者。每个消费者有自己的投递线程和有界队列，onNewFrame 不在 GL 线程中执行，
+     * 慢的消费者只在自己的队列里丢帧，不影响其他消费者。可以在任意线程调用，不会等待正在渲染的帧。
+     *
+     * @param policy {@link DropPolicy#LATEST_WINS} 或 {@link DropPolicy#DROP_OLDEST}
+     * @param capacity 队列中最多等待投递的帧数
+     */
+    public void addConsumer(TextureFrameConsumer consumer, int policy, int capacity) {
+        thread.addConsumer(consumer, policy, capacity);
     }
 
     public void removeConsumer(TextureFrameConsumer consumer) {
@@ -80,47 +109,161 @@ public class BitmapConverter implements TextureFrameProducer, CustomFrameAvailab
     }
 
     @Override
-    public void onFrame(Bitmap bitmap) {
-        thread.onFrame(bitmap);
+    public void onFrame(Bitmap bitmap, long timestampUs, int sequence) {
+        thread.onFrame(bitmap, timestampUs, sequence);
+    }
+
+    public void setBitmapRecycler(@Nullable BitmapRecycler recycler) {
+        thread.setBitmapRecycler(recycler);
+    }
+
+    /**
+     * GL 线程来不及上传、在 mailbox 中被新帧覆盖的帧数。
+     */
+    public long getCoalescedFrames() {
+        return thread.getCoalescedFrames();
+    }
+
+    /**
+     * 所有消费者的队列中被丢掉的帧数。
+     */
+    public long getConsumerDroppedFrames() {
+        return thread.getConsumerDroppedFrames();
     }
 
+    /**
+     * 根据帧序号的间隔统计的、没有送进 graph 的帧数，包括驱动丢弃的帧、变化检测跳过的帧和上传前被新帧覆盖的帧。
+     */
+    public long getSkippedFrames() {
+        return thread.getSkippedFrames();
+    }
+
+
+    private static final class PendingFrame {
+        Bitmap bitmap;
+        long timestampUs;
+        int sequence;
+    }
+
+    /**
+     * 发给一个消费者的纹理帧，同一帧的所有消费者共享同一个池化纹理。
+     * 每个纹理为每个消费者保留一个，复用之前纹理池会取回还在队列中的、等已经投递的 release。
+     */
+    private static final class SharedTextureFrame extends AppTextureFrame {
+        private final TexturePool.PooledTexture texture;
+        private final FrameDeliveryQueue owner;
+        private final AtomicBoolean outstanding = new AtomicBoolean(false);
+
+        SharedTextureFrame(TexturePool.PooledTexture texture, FrameDeliveryQueue owner) {
+            super(texture.name, texture.width, texture.height);
+            this.texture = texture;
+            this.owner = owner;
+        }
+
+        boolean isOutstanding() {
+            return outstanding.get();
+        }
+
+        void handOut() {
+            outstanding.set(true);
+            texture.retain();
+            setInUse();
+        }
+
+        @Override
+        public void release() {
+            //先减引用再唤醒 waitUntilReleased，GL 线程醒来时引用计数已经是最新的；重复 release 不会多减
+            if (outstanding.compareAndSet(true, false)) {
+                texture.release();
+            }
+            super.release();
+        }
+    }
 
     private static class RenderThread extends GlThread implements CustomFrameAvailableListner {
         private static final long NANOS_PER_MICRO = 1000; // Nanoseconds in one microsecond.
-        private final List<TextureFrameConsumer> consumers;
-        private List<AppTextureFrame> outputFrames = null;
-        private int outputFrameIndex = -1;
+        //写时复制，GL 线程遍历时不加锁，增删消费者不会等正在渲染的帧
+        private final CopyOnWriteArrayList<FrameDeliveryQueue> consumers = new CopyOnWriteArrayList<>();
+        private final int numBuffers;
+        private int consumerIndex;
+        //每帧只上传一次，所有消费者共享同一个纹理
+        private final TexturePool texturePool;
         private long nextFrameTimestampOffset = 0;
         private long timestampOffsetNanos = 0;
         private long previousTimestamp = 0;
-        private Bitmap bitmap;
         private boolean previousTimestampValid = false;
 
-        protected int destinationWidth = 0;
-        protected int destinationHeight = 0;
+        //最新一帧的 mailbox：新帧直接覆盖旧帧，Looper 中最多只有一个待执行的 renderNext
+        private final AtomicReference<PendingFrame> mailbox = new AtomicReference<>();
+        //复用 PendingFrame，稳定后不再分配
+        private final AtomicReference<PendingFrame> spareFrame = new AtomicReference<>();
+        private final AtomicBoolean renderScheduled = new AtomicBoolean(false);
+        private final AtomicLong coalescedFrames = new AtomicLong();
+        private final Runnable renderRunnable = this::renderNext;
+        private volatile BitmapRecycler recycler;
+
+        private int previousSequence;
+        private boolean previousSequenceValid = false;
+        private volatile long skippedFrames = 0;
+
+        private static final int TRACE_RENDER = Trace.name("gl.render");
+        private static final int TRACE_UPLOAD = Trace.name("gl.texture_upload");
+        private static final int TRACE_RELEASE_WAIT = Trace.name("gl.release_wait");
+        private static final int TRACE_COALESCED = Trace.name("gl.coalesced_frames");
+
+        private final StageMetrics uploadStage = PipelineMetrics.getInstance().stage("gl.texture_upload");
+        private final StageMetrics releaseWaitStage = PipelineMetrics.getInstance().stage("gl.release_wait");
+
         public RenderThread(@Nullable Object parentContext, int numBuffers) {
             super(parentContext);
-            outputFrames = new ArrayList<>();
-            outputFrames.addAll(Collections.nCopies(numBuffers, null));
-            consumers = new ArrayList<>();
+            this.numBuffers = numBuffers;
+            texturePool = new TexturePool(GlTextureApi.GLES, this::awaitRelease, numBuffers);
         }
+
         public void setConsumer(TextureFrameConsumer consumer) {
-            synchronized (consumers) {
-                consumers.clear();
-                consumers.add(consumer);
+            List<FrameDeliveryQueue> previous = new ArrayList<>(consumers);
+            if (consumer != null) {
+                addConsumer(consumer, DropPolicy.LATEST_WINS, 1);
             }
+            consumers.removeAll(previous);
+            for (FrameDeliveryQueue queue : previous) {
+                queue.stop();
+            }
+            updatePoolSize();
         }
 
-        public void addConsumer(TextureFrameConsumer consumer) {
-            synchronized (consumers) {
-                consumers.add(consumer);
-            }
+        public synchronized void addConsumer(TextureFrameConsumer consumer, int policy, int capacity) {
+            FrameDeliveryQueue queue = new FrameDeliveryQueue(consumer, policy, capacity,
+                    THREAD_NAME + "-consumer-" + consumerIndex++);
+            queue.start();
+            consumers.add(queue);
+            updatePoolSize();
         }
 
         public void removeConsumer(TextureFrameConsumer consumer) {
-            synchronized (consumers) {
-                consumers.remove(consumer);
+            for (FrameDeliveryQueue queue : consumers) {
+                if (queue.getConsumer() == consumer && consumers.remove(queue)) {
+                    queue.stop();
+                }
             }
+            updatePoolSize();
+        }
+
+        //每个消费者的队列里的帧各占一个纹理
+        private void updatePoolSize() {
+            int queued = 0;
+            for (FrameDeliveryQueue queue : consumers) {
+                queued += queue.getCapacity();
+            }
+            texturePool.setMaxTextures(numBuffers + queued);
+        }
+
+        public long getConsumerDroppedFrames() {
+            long dropped = 0;
+            for (FrameDeliveryQueue queue : consumers) {
+                dropped += queue.getDroppedFrames();
+            }
+            return dropped;
         }
 
         @Override
@@ -134,9 +277,11 @@ public class BitmapConverter implements TextureFrameProducer, CustomFrameAvailab
 
         @Override
         public void releaseGl() {
-            for (int i = 0; i < outputFrames.size(); ++i) {
-                teardownDestination(i);
+            for (FrameDeliveryQueue queue : consumers) {
+                queue.stop();
             }
+            consumers.clear();
+            texturePool.clear();
             //renderer.release();
             super.releaseGl(); // This releases the EGL context, so must do it after any GL calls.
         }
@@ -145,114 +290,168 @@ public class BitmapConverter implements TextureFrameProducer, CustomFrameAvailab
             timestampOffsetNanos = offsetInNanos;
         }
 
-        private void teardownDestination(int index) {
-            if (outputFrames.get(index) != null) {
-                waitUntilReleased(outputFrames.get(index));
-                GLES20.glDeleteTextures(1, new int[] {outputFrames.get(index).getTextureName()}, 0);
-                outputFrames.set(index, null);
+        @Override
+        public void onFrame(Bitmap bitmap, long timestampUs, int sequence) {
+            PendingFrame frame = spareFrame.getAndSet(null);
+            if (frame == null) {
+                frame = new PendingFrame();
+            }
+            frame.bitmap = bitmap;
+            frame.timestampUs = timestampUs;
+            frame.sequence = sequence;
+
+            PendingFrame stale = mailbox.getAndSet(frame);
+            if (stale != null) {
+                //只有上传前被覆盖的帧算作上传阶段的丢帧
+                uploadStage.addDrops(1);
+                Trace.counter(TRACE_COALESCED, coalescedFrames.incrementAndGet());
+                recycle(stale);
+            }
+
+            if (renderScheduled.compareAndSet(false, true)) {
+                handler.post(renderRunnable);
             }
         }
 
-        private void setupDestination(int index, int destinationTextureId) {
-            teardownDestination(index);
-            outputFrames.set(
-                    index, new AppTextureFrame(destinationTextureId, destinationWidth, destinationHeight));
+        public void setBitmapRecycler(BitmapRecycler recycler) {
+            this.recycler = recycler;
+        }
 
+        public long getCoalescedFrames() {
+            return coalescedFrames.get();
         }
 
-        @Override
-        public void onFrame(Bitmap bitmap) {
-            Log.d(TAG,"New Frame");
-            this.bitmap = bitmap;
+        public long getSkippedFrames() {
+            return skippedFrames;
+        }
 
-            handler.post(() -> renderNext());
+        //Bitmap 交给 recycler，PendingFrame 留作下一帧使用
+        private void recycle(PendingFrame frame) {
+            Bitmap bitmap = frame.bitmap;
+            frame.bitmap = null;
+            spareFrame.set(frame);
+
+            BitmapRecycler recycler = this.recycler;
+            if (recycler != null && bitmap != null) {
+                recycler.recycle(bitmap);
+            }
         }
 
         protected void renderNext() {
-            if (bitmap == null) {
+            //先清除标记再取帧，清除之后到达的帧会重新 post，不会留在 mailbox 中没人处理
+            renderScheduled.set(false);
+            PendingFrame frame = mailbox.getAndSet(null);
+            if (frame == null) {
                 return;
             }
+
+            Bitmap bitmap = frame.bitmap;
+            long timestampUs = frame.timestampUs;
+            int sequence = frame.sequence;
+
+            //序号间隔还包括驱动丢帧和变化检测跳过的帧，它们在各自的阶段中统计，不计入上传阶段
+            if (previousSequenceValid && sequence - previousSequence > 1) {
+                skippedFrames += sequence - previousSequence - 1;
+            }
+            previousSequence = sequence;
+            previousSequenceValid = true;
+
+            Trace.begin(TRACE_RENDER);
             try {
-                synchronized (consumers) {
-                    boolean frameUpdated = false;
-                    for (TextureFrameConsumer consumer : consumers) {
-                        AppTextureFrame outputFrame = nextOutputFrame(bitmap);
-                        updateOutputFrame(outputFrame);
-                        frameUpdated = true;
-                        Log.d(TAG,"Frame updated ");
-                        if (consumer != null) {
-                            if (Log.isLoggable(TAG, Log.VERBOSE)) {
-                                Log.v(
-                                        TAG,
-                                        String.format(
-                                                "Locking tex: %d width: %d height: %d",
-                                                outputFrame.getTextureName(),
-                                                outputFrame.getWidth(),
-                                                outputFrame.getHeight()));
-                            }
-                            outputFrame.setInUse();
-                            Log.d(TAG,"Frame sending to consumer");
-                            consumer.onNewFrame(outputFrame);
-                        }
-                    }
-                    if (!frameUpdated) {  // Need to update the frame even if there are no consumers.
-                        AppTextureFrame outputFrame = nextOutputFrame(bitmap);
-                        updateOutputFrame(outputFrame);
-                    }
+                long textureTimestamp = nextTimestamp(timestampUs);
+                //没有消费者时不上传，时间戳照常推进
+                if (!consumers.isEmpty()) {
+                    fanOut(bitmap, textureTimestamp);
                 }
             } finally {
-                //bitmap.recycle();
+                //纹理已经拷贝了 Bitmap 的内容
+                recycle(frame);
+                Trace.end(TRACE_RENDER);
             }
         }
 
-
     /**
      * NOTE: must be invoked on GL thread
      */
-    private AppTextureFrame nextOutputFrame(Bitmap bitmap) {
-        int textureName = ShaderUtil.createRgbaTexture(bitmap);
-        outputFrameIndex = (outputFrameIndex + 1) % outputFrames.size();
-        destinationHeight = bitmap.getHeight();
-        destinationWidth = bitmap.getWidth();
-        setupDestination(outputFrameIndex, textureName);
-        AppTextureFrame outputFrame = outputFrames.get(outputFrameIndex);
-        waitUntilReleased(outputFrame);
-        return outputFrame;
+    private void fanOut(Bitmap bitmap, long textureTimestamp) {
+        TexturePool.PooledTexture texture = texturePool.acquire(bitmap.getWidth(), bitmap.getHeight());
+        try {
+            Trace.begin(TRACE_UPLOAD);
+            long start = System.nanoTime();
+            GlTextureApi.GLES.uploadBitmap(texture.name, bitmap);
+            uploadStage.recordSince(start);
+            Trace.end(TRACE_UPLOAD);
+
+            //只放进各个消费者的队列，不在 GL 线程中等待消费者
+            for (FrameDeliveryQueue queue : consumers) {
+                SharedTextureFrame outputFrame = sharedFrame(texture, queue);
+                outputFrame.setTimestamp(textureTimestamp);
+                outputFrame.handOut();
+                queue.offer(outputFrame);
+            }
+        } finally {
+            //消费者都 release 之后纹理回到池中
+            texture.release();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private SharedTextureFrame sharedFrame(TexturePool.PooledTexture texture, FrameDeliveryQueue queue) {
+        List<SharedTextureFrame> frames = (List<SharedTextureFrame>) texture.tag;
+        if (frames == null) {
+            frames = new ArrayList<>();
+            texture.tag = frames;
+        }
+
+        SharedTextureFrame result = null;
+        for (int i = frames.size() - 1; i >= 0; i--) {
+            SharedTextureFrame frame = frames.get(i);
+            if (frame.owner == queue) {
+                result = frame;
+            } else if (!frame.isOutstanding() && !consumers.contains(frame.owner)) {
+                //已经移除的消费者
+                frames.remove(i);
+            }
+        }
+        if (result == null) {
+            result = new SharedTextureFrame(texture, queue);
+            frames.add(result);
+        }
+        return result;
     }
-    private long timestamp=1l;
-    private void updateOutputFrame(AppTextureFrame outputFrame) {
-        // Populate frame timestamp with surface texture timestamp after render() as renderer
-        // ensures that surface texture has the up-to-date timestamp. (Also adjust
+
+    //纹理池复用纹理之前调用：还在队列里的帧由对应的消费者丢掉，已经投递的等它 release，包括只提交了 GPU 同步的
+    @SuppressWarnings("unchecked")
+    private void awaitRelease(TexturePool.PooledTexture texture) {
+        List<SharedTextureFrame> frames = (List<SharedTextureFrame>) texture.tag;
+        if (frames != null) {
+            for (SharedTextureFrame frame : frames) {
+                frame.owner.revoke(frame);
+                waitUntilReleased(frame);
+            }
+        }
+    }
+
+    private long nextTimestamp(long timestampUs) {
+        // Populate frame timestamp with the V4L2 capture timestamp of the bitmap. (Also adjust
         // |nextFrameTimestampOffset| to ensure that timestamps increase monotonically.)
-        timestamp = timestamp+1;
-        long textureTimestamp =
-                (timestamp + timestampOffsetNanos) / NANOS_PER_MICRO;
+        long textureTimestamp = timestampUs + timestampOffsetNanos / NANOS_PER_MICRO;
         if (previousTimestampValid
                 && textureTimestamp + nextFrameTimestampOffset <= previousTimestamp) {
             nextFrameTimestampOffset = previousTimestamp + 1 - textureTimestamp;
         }
-        outputFrame.setTimestamp(textureTimestamp + nextFrameTimestampOffset);
-        previousTimestamp = outputFrame.getTimestamp();
+        previousTimestamp = textureTimestamp + nextFrameTimestampOffset;
         previousTimestampValid = true;
+        return previousTimestamp;
     }
 
     private void waitUntilReleased(AppTextureFrame frame) {
+        //等待时间由 trace 和 gl.release_wait 统计，不再每帧格式化日志
+        Trace.begin(TRACE_RELEASE_WAIT);
         try {
-       //     if (Log.isLoggable(TAG, Log.VERBOSE)) {
-                Log.v(
-                        TAG,
-                        String.format(
-                                "Waiting for tex: %d width: %d height: %d",
-                                frame.getTextureName(), frame.getWidth(), frame.getHeight()));
-    //        }
+            long start = System.nanoTime();
             frame.waitUntilReleased();
-    //        if (Log.isLoggable(TAG, Log.VERBOSE)) {
-                Log.v(
-                        TAG,
-                        String.format(
-                                "Finished waiting for tex: %d width: %d height: %d",
-                                frame.getTextureName(), frame.getWidth(), frame.getHeight()));
-    //        }
+            releaseWaitStage.recordSince(start);
         } catch (InterruptedException ie) {
             // Someone interrupted our thread. This is not supposed to happen: we own
             // the thread, and we are not going to interrupt it. If it should somehow
@@ -261,6 +460,8 @@ public class BitmapConverter implements TextureFrameProducer, CustomFrameAvailab
             Thread.currentThread().interrupt();
             Log.e(TAG, "thread was unexpectedly interrupted: " + ie.getMessage());
             throw new RuntimeException(ie);
+        } finally {
+            Trace.end(TRACE_RELEASE_WAIT);
         }
     }
 }
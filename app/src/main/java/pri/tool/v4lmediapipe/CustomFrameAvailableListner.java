@@ -5,5 +5,9 @@ import android.graphics.Bitmap;
 
 public interface CustomFrameAvailableListner {
 
-    public void onFrame(Bitmap bitmap);
+    /**
+     * @param timestampUs 采集时间，CLOCK_MONOTONIC 微秒，直接作为 MediaPipe packet 的时间戳
+     * @param sequence 驱动的帧序号，用来统计丢帧
+     */
+    public void onFrame(Bitmap bitmap, long timestampUs, int sequence);
 }
@@ -0,0 +1,169 @@
+package pri.tool.v4lmediapipe;
+
+import com.google.mediapipe.components.TextureFrameConsumer;
+import com.google.mediapipe.framework.AppTextureFrame;
+import com.google.mediapipe.framework.TextureFrame;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pri.tool.v4l2camera.DropPolicy;
+import pri.tool.v4l2camera.PipelineMetrics;
+import pri.tool.v4l2camera.StageMetrics;
+
+/**
+ * 一个消费者的有界投递队列和投递线程。
+ *
+ * GL 线程只把帧放进队列，不等消费者；消费者的 onNewFrame 在自己的线程中执行，
+ * 慢的消费者只会在自己的队列里按 {@link DropPolicy} 丢帧，不影响 GL 线程和其他消费者。
+ * 被丢弃和停止时还在队列中的帧都会 release。
+ */
+final class FrameDeliveryQueue {
+
+    //放进队列通知投递线程退出，不中断正在执行的 onNewFrame
+    private static final TextureFrame STOP = new AppTextureFrame(0, 0, 0);
+
+    private final TextureFrameConsumer consumer;
+    private final ArrayBlockingQueue<TextureFrame> queue;
+    private final Thread thread;
+    private volatile boolean running;
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final StageMetrics deliverStage = PipelineMetrics.getInstance().stage("gl.deliver");
+
+    /**
+     * @param policy {@link DropPolicy#LATEST_WINS} 或 {@link DropPolicy#DROP_OLDEST}，BLOCK 会让 GL 线程等待，不支持
+     * @param capacity 截断到 [1, {@link DropPolicy#MAX_QUEUE_CAPACITY}]，LATEST_WINS 时固定为 1
+     */
+    FrameDeliveryQueue(TextureFrameConsumer consumer, int policy, int capacity, String name) {
+        if (policy != DropPolicy.LATEST_WINS && policy != DropPolicy.DROP_OLDEST) {
+            throw new IllegalArgumentException("Unsupported drop policy " + policy);
+        }
+        this.consumer = consumer;
+        if (policy == DropPolicy.LATEST_WINS) {
+            capacity = 1;
+        }
+        queue = new ArrayBlockingQueue<>(Math.min(Math.max(capacity, 1), DropPolicy.MAX_QUEUE_CAPACITY));
+        thread = new Thread(this::deliverLoop, name);
+    }
+
+    TextureFrameConsumer getConsumer() {
+        return consumer;
+    }
+
+    int getCapacity() {
+        return queue.remainingCapacity() + queue.size();
+    }
+
+    /**
+     * 队列满时丢掉的帧数。
+     */
+    long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * 不等待投递线程退出，可以在 UI 线程中调用。正在执行的 onNewFrame 返回后线程退出。
+     */
+    void stop() {
+        running = false;
+        drain();
+        putStop();
+    }
+
+    //STOP 不能丢，投递线程可能正阻塞在 take 中
+    private void putStop() {
+        while (!queue.offer(STOP)) {
+            release(queue.poll());
+        }
+    }
+
+    //测试中等待投递线程退出
+    boolean awaitStopped(long timeoutMs) throws InterruptedException {
+        thread.join(timeoutMs);
+        return !thread.isAlive();
+    }
+
+    /**
+     * 放入一帧，从不阻塞。队列满时按策略丢掉最旧的帧。
+     */
+    void offer(TextureFrame frame) {
+        if (!running) {
+            frame.release();
+            return;
+        }
+
+        while (!queue.offer(frame)) {
+            TextureFrame dropped = queue.poll();
+            if (dropped == STOP) {
+                //并发的 stop 已经放入 STOP，放回去，这一帧不再投递
+                putStop();
+                frame.release();
+                return;
+            }
+            if (dropped != null) {
+                drop(dropped);
+            }
+        }
+
+        //stop 和 offer 并发时，放进去的帧可能没人取，取回来释放
+        if (!running && queue.remove(frame)) {
+            frame.release();
+        }
+    }
+
+    /**
+     * 从队列中取回一帧还没投递的帧并 release，已经投递或者不在队列中时返回 false。
+     * 纹理池需要复用纹理时调用，让慢的消费者丢帧，而不是让 GL 线程等它。
+     */
+    boolean revoke(TextureFrame frame) {
+        if (queue.remove(frame)) {
+            drop(frame);
+            return true;
+        }
+        return false;
+    }
+
+    private void drop(TextureFrame frame) {
+        droppedFrames.incrementAndGet();
+        deliverStage.addDrops(1);
+        frame.release();
+    }
+
+    private void drain() {
+        TextureFrame frame;
+        while ((frame = queue.poll()) != null) {
+            release(frame);
+        }
+    }
+
+    private static void release(TextureFrame frame) {
+        if (frame != null && frame != STOP) {
+            frame.release();
+        }
+    }
+
+    private void deliverLoop() {
+        while (running) {
+            TextureFrame frame;
+            try {
+                frame = queue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            if (frame == STOP || !running) {
+                release(frame);
+                break;
+            }
+            long start = System.nanoTime();
+            consumer.onNewFrame(frame);
+            deliverStage.recordSince(start);
+        }
+        drain();
+    }
+}
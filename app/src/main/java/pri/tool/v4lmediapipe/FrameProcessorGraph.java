@@ -0,0 +1,44 @@
+package pri.tool.v4lmediapipe;
+
+import android.content.Context;
+
+import com.google.mediapipe.components.FrameProcessor;
+import com.google.mediapipe.framework.PacketCallback;
+import com.google.mediapipe.framework.TextureFrame;
+
+/**
+ * 用 {@link FrameProcessor} 运行的 graph。
+ */
+public final class FrameProcessorGraph implements GraphProcessor {
+    private final FrameProcessor processor;
+
+    public FrameProcessorGraph(Context context, long nativeContext, GraphSpec spec) {
+        processor = new FrameProcessor(context,
+                nativeContext,
+                spec.getBinaryGraph(),
+                spec.getInputStream(),
+                spec.getOutputStream());
+    }
+
+    /**
+     * 用来设置视频输出的 Surface，或者直接送入 Bitmap。
+     */
+    public FrameProcessor getFrameProcessor() {
+        return processor;
+    }
+
+    @Override
+    public void onNewFrame(TextureFrame frame) {
+        processor.onNewFrame(frame);
+    }
+
+    @Override
+    public void addPacketCallback(String outputStream, PacketCallback callback) {
+        processor.addPacketCallback(outputStream, callback);
+    }
+
+    @Override
+    public void close() {
+        processor.close();
+    }
+}
@@ -0,0 +1,186 @@
+package pri.tool.v4lmediapipe;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 查表的手势分类，不依赖 Android 类。
+ *
+ * 一次遍历 21 个关键点（float[]，每个点依次为 x, y, z）得到五根手指是否伸直的掩码，
+ * 再在按掩码预先展开的规则表中查找手势。规则可以在运行时注册，表在注册时整体替换，
+ * {@link #classify(float[])} 只读一次 volatile 引用，不加锁也不分配内存，可以在 graph 回调线程中每帧调用。
+ */
+public final class GestureClassifier {
+
+    public static final int LANDMARK_COUNT = 21;
+
+    //手指掩码
+    public static final int THUMB = 1;
+    public static final int INDEX = 1 << 1;
+    public static final int MIDDLE = 1 << 2;
+    public static final int RING = 1 << 3;
+    public static final int PINKY = 1 << 4;
+    public static final int ALL_FINGERS = THUMB | INDEX | MIDDLE | RING | PINKY;
+
+    //内置手势编号，注册的新手势从 GESTURE_CUSTOM 开始
+    public static final int NO_HAND = -1;
+    public static final int UNKNOWN = 0;
+    public static final int FIVE = 1;
+    public static final int FOUR = 2;
+    public static final int THREE = 3;
+    public static final int TWO = 4;
+    public static final int ONE = 5;
+    public static final int YEAH = 6;
+    public static final int ROCK = 7;
+    public static final int SPIDERMAN = 8;
+    public static final int FIST = 9;
+    public static final int OK = 10;
+    public static final int GESTURE_CUSTOM = 11;
+
+    private static final String NO_HAND_NAME = "No hand";
+    private static final float OK_THUMB_INDEX_DISTANCE = 0.1f;
+
+    private static final class Rule {
+        final int gesture;
+        final int mask;
+        final int care;
+        //拇指尖与食指尖距离的平方上限，不限制时为负数
+        final float maxThumbIndexDistanceSq;
+
+        Rule(int gesture, int mask, int care, float maxThumbIndexDistance) {
+            this.gesture = gesture;
+            this.mask = mask;
+            this.care = care;
+            this.maxThumbIndexDistanceSq = maxThumbIndexDistance < 0 ? -1
+                    : maxThumbIndexDistance * maxThumbIndexDistance;
+        }
+    }
+
+    //每个掩码按注册顺序可能匹配的规则
+    private static final class Table {
+        final Rule[][] candidates = new Rule[ALL_FINGERS + 1][];
+        final String[] names;
+
+        Table(List<Rule> rules, String[] names) {
+            this.names = names;
+            List<Rule> matched = new ArrayList<>();
+            for (int mask = 0; mask <= ALL_FINGERS; mask++) {
+                matched.clear();
+                for (Rule rule : rules) {
+                    if ((mask & rule.care) == rule.mask) {
+                        matched.add(rule);
+                    }
+                }
+                candidates[mask] = matched.toArray(new Rule[0]);
+            }
+        }
+    }
+
+    private final List<Rule> rules = new ArrayList<>();
+    private String[] names = new String[GESTURE_CUSTOM];
+    private volatile Table table;
+
+    /**
+     * 创建包含内置手势的分类器，规则顺序与原来的判断顺序相同。
+     */
+    public GestureClassifier() {
+        //没有匹配的手势时沿用原来的返回值
+        names[UNKNOWN] = NO_HAND_NAME;
+        addRule(FIVE, "FIVE", ALL_FINGERS, ALL_FINGERS, -1);
+        addRule(FOUR, "FOUR", INDEX | MIDDLE | RING | PINKY, ALL_FINGERS, -1);
+        addRule(THREE, "TREE", THUMB | INDEX | MIDDLE, ALL_FINGERS, -1);
+        addRule(TWO, "TWO", THUMB | INDEX, ALL_FINGERS, -1);
+        addRule(ONE, "ONE", INDEX, ALL_FINGERS, -1);
+        addRule(YEAH, "YEAH", INDEX | MIDDLE, ALL_FINGERS, -1);
+        addRule(ROCK, "ROCK", INDEX | PINKY, ALL_FINGERS, -1);
+        addRule(SPIDERMAN, "SPIDERMAN", THUMB | INDEX | PINKY, ALL_FINGERS, -1);
+        addRule(FIST, "FIST", 0, ALL_FINGERS, -1);
+        //OK 不关心拇指是否伸直，只要求拇指尖靠近食指尖
+        addRule(OK, "OK", MIDDLE | RING | PINKY, ALL_FINGERS & ~THUMB, OK_THUMB_INDEX_DISTANCE);
+        table = new Table(rules, names.clone());
+    }
+
+    private void addRule(int gesture, String name, int mask, int care, float maxThumbIndexDistance) {
+        names[gesture] = name;
+        rules.add(new Rule(gesture, mask & care, care, maxThumbIndexDistance));
+    }
+
+    /**
+     * 注册一个新手势，优先级低于已有的规则。
+     *
+     * @param mask 要求伸直的手指
+     * @param care 参与比较的手指，不在 care 中的手指伸直与否都可以
+     * @param maxThumbIndexDistance 拇指尖与食指尖的最大距离（归一化坐标），不限制时传负数
+     * @return 新手势的编号
+     */
+    public synchronized int register(String name, int mask, int care, float maxThumbIndexDistance) {
+        int gesture = names.length;
+        String[] grown = new String[gesture + 1];
+        System.arraycopy(names, 0, grown, 0, names.length);
+        names = grown;
+
+        addRule(gesture, name, mask, care & ALL_FINGERS, maxThumbIndexDistance);
+        table = new Table(rules, names.clone());
+        return gesture;
+    }
+
+    /**
+     * 五根手指是否伸直的掩码：拇指看 3、4 号点是否在 2 号点左侧，其余手指看末端两个点是否高于第二个关节。
+     */
+    public static int fingerMask(float[] landmarks) {
+        int mask = 0;
+
+        float thumbBase = landmarks[2 * 3];
+        if (landmarks[3 * 3] < thumbBase && landmarks[4 * 3] < thumbBase) {
+            mask |= THUMB;
+        }
+
+        //食指、中指、无名指、小指的第二个关节分别为 6、10、14、18 号点，比较 y
+        for (int finger = 0; finger < 4; finger++) {
+            int joint = 6 + finger * 4;
+            float jointY = landmarks[joint * 3 + 1];
+            if (landmarks[(joint + 1) * 3 + 1] < jointY && landmarks[(joint + 2) * 3 + 1] < jointY) {
+                mask |= INDEX << finger;
+            }
+        }
+
+        return mask;
+    }
+
+    private static float thumbIndexDistanceSq(float[] landmarks) {
+        float dx = landmarks[4 * 3] - landmarks[8 * 3];
+        float dy = landmarks[4 * 3 + 1] - landmarks[8 * 3 + 1];
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * @param landmarks 至少 21 个点，为 null 时返回 {@link #NO_HAND}
+     * @return 手势编号，没有匹配的规则时返回 {@link #UNKNOWN}
+     */
+    public int classify(float[] landmarks) {
+        if (landmarks == null) {
+            return NO_HAND;
+        }
+
+        Rule[] candidates = table.candidates[fingerMask(landmarks)];
+        for (Rule rule : candidates) {
+            if (rule.maxThumbIndexDistanceSq < 0
+                    || thumbIndexDistanceSq(landmarks) < rule.maxThumbIndexDistanceSq) {
+                return rule.gesture;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * 手势名称，返回注册时的字符串常量，不分配内存。
+     */
+    public String getName(int gesture) {
+        if (gesture == NO_HAND) {
+            return NO_HAND_NAME;
+        }
+
+        String[] names = table.names;
+        return gesture >= 0 && gesture < names.length ? names[gesture] : names[UNKNOWN];
+    }
+}
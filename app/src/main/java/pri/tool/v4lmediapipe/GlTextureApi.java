@@ -0,0 +1,49 @@
+package pri.tool.v4lmediapipe;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+
+import com.google.mediapipe.glutil.ShaderUtil;
+
+/**
+ * {@link TexturePool} 用到的 GL 调用，单元测试中用假的实现代替。只能在 GL 线程中调用。
+ */
+interface GlTextureApi {
+
+    /**
+     * 分配 width x height 的 RGBA 纹理，内容未定义。
+     */
+    int createTexture(int width, int height);
+
+    /**
+     * 用 Bitmap 的内容覆盖整个纹理，尺寸必须与创建时相同。返回后其他共享 context 的线程可以使用这个纹理。
+     */
+    void uploadBitmap(int texture, Bitmap bitmap);
+
+    void deleteTexture(int texture);
+
+    GlTextureApi GLES = new GlTextureApi() {
+        private final int[] names = new int[1];
+
+        @Override
+        public int createTexture(int width, int height) {
+            return ShaderUtil.createRgbaTexture(width, height);
+        }
+
+        @Override
+        public void uploadBitmap(int texture, Bitmap bitmap) {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+            GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, bitmap);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+            //消费者在自己的线程和 context 中使用纹理，先把上传提交给 GPU
+            GLES20.glFlush();
+        }
+
+        @Override
+        public void deleteTexture(int texture) {
+            names[0] = texture;
+            GLES20.glDeleteTextures(1, names, 0);
+        }
+    };
+}
@@ -0,0 +1,22 @@
+package pri.tool.v4lmediapipe;
+
+import com.google.mediapipe.components.TextureFrameConsumer;
+import com.google.mediapipe.framework.PacketCallback;
+
+/**
+ * 一个 MediaPipe graph 的输入和输出。{@link GraphRegistry} 只通过这个接口送帧，单元测试中用假的 graph 代替。
+ *
+ * onNewFrame 接管传入的帧，由实现负责 release。
+ */
+public interface GraphProcessor extends TextureFrameConsumer {
+
+    /**
+     * 注册输出流的回调，必须在送入第一帧之前调用，每个流只注册一次。
+     */
+    void addPacketCallback(String outputStream, PacketCallback callback);
+
+    /**
+     * 停止 graph，之后不会再送帧。
+     */
+    void close();
+}
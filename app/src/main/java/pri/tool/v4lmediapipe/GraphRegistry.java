@@ -0,0 +1,220 @@
+package pri.tool.v4lmediapipe;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import com.google.mediapipe.components.TextureFrameConsumer;
+import com.google.mediapipe.framework.PacketCallback;
+import com.google.mediapipe.framework.TextureFrame;
+import com.google.mediapipe.glutil.EglManager;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import pri.tool.v4l2camera.DropPolicy;
+import pri.tool.v4l2camera.PipelineMetrics;
+import pri.tool.v4l2camera.StageMetrics;
+
+/**
+ * 在同一路采集上运行多个 MediaPipe graph。
+ *
+ * 每个 graph 作为一个消费者挂到 {@link BitmapConverter} 上，一帧只转换和上传一次，各个 graph 共享同一个纹理，
+ * 在各自的投递线程中由 {@link GraphScheduler} 决定是否送入。设备跑不满时低优先级的 graph 降低帧率。
+ * 每个 graph 的耗时和跳过的帧记在 "mediapipe.graph.名字" 中。
+ */
+public class GraphRegistry {
+
+    interface ProcessorFactory {
+        GraphProcessor create(GraphSpec spec);
+    }
+
+    private final class Entry implements TextureFrameConsumer {
+        final GraphSpec spec;
+        final GraphProcessor processor;
+        final GraphScheduler.Slot slot;
+        final StageMetrics stage;
+        private boolean closed;
+
+        Entry(GraphSpec spec, GraphProcessor processor) {
+            this.spec = spec;
+            this.processor = processor;
+            slot = scheduler.add(spec.getTargetFps(), spec.getPriority());
+            stage = PipelineMetrics.getInstance().stage("mediapipe.graph." + spec.getName());
+        }
+
+        @Override
+        public void onNewFrame(TextureFrame frame) {
+            //和 close 互斥，关闭后不再送帧
+            synchronized (this) {
+                if (!closed && scheduler.admit(slot, frame.getTimestamp(), System.nanoTime())) {
+                    processor.onNewFrame(frame);
+                    return;
+                }
+            }
+            stage.addDrops(1);
+            frame.release();
+        }
+
+        void onComplete(long timestampUs) {
+            long elapsedNanos = scheduler.onComplete(slot, timestampUs, System.nanoTime());
+            if (elapsedNanos >= 0) {
+                stage.record(elapsedNanos / 1000);
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+            scheduler.remove(slot);
+            processor.close();
+        }
+    }
+
+    private final ProcessorFactory factory;
+    private final GraphScheduler scheduler = new GraphScheduler();
+    private final CopyOnWriteArrayList<Entry> graphs = new CopyOnWriteArrayList<>();
+    @Nullable
+    private BitmapConverter converter;
+
+    /**
+     * graph 都在 eglManager 的 context 中运行。
+     */
+    public GraphRegistry(Context context, EglManager eglManager) {
+        this(spec -> new FrameProcessorGraph(context, eglManager.getNativeContext(), spec));
+    }
+
+    GraphRegistry(ProcessorFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * 加载并注册一个 graph，已经 attach 时立即开始送帧。
+     *
+     * @return graph 的处理器，{@link FrameProcessorGraph} 可以用来设置视频输出
+     */
+    public synchronized GraphProcessor register(GraphSpec spec) {
+        if (find(spec.getName()) != null) {
+            throw new IllegalArgumentException("Graph " + spec.getName() + " already registered");
+        }
+
+        Entry entry = new Entry(spec, factory.create(spec));
+        Map<String, List<PacketCallback>> callbacks = spec.getPacketCallbacks();
+        for (Map.Entry<String, List<PacketCallback>> stream : callbacks.entrySet()) {
+            entry.processor.addPacketCallback(stream.getKey(), dispatcher(entry, stream.getKey(), stream.getValue()));
+        }
+        String completionStream = spec.getCompletionStream();
+        if (completionStream != null && !callbacks.containsKey(completionStream)) {
+            entry.processor.addPacketCallback(completionStream, dispatcher(entry, completionStream, null));
+        }
+
+        graphs.add(entry);
+        if (converter != null) {
+            converter.addConsumer(entry, DropPolicy.LATEST_WINS, 1);
+        }
+        return entry.processor;
+    }
+
+    //每个流只注册一个回调，完成流先更新耗时再调用使用方的回调
+    private static PacketCallback dispatcher(Entry entry, String stream, @Nullable List<PacketCallback> callbacks) {
+        boolean completion = stream.equals(entry.spec.getCompletionStream());
+        return packet -> {
+            if (completion) {
+                entry.onComplete(packet.getTimestamp());
+            }
+            if (callbacks != null) {
+                for (PacketCallback callback : callbacks) {
+                    callback.process(packet);
+                }
+            }
+        };
+    }
+
+    /**
+     * 停止并移除一个 graph，正在送入的帧完成后返回。
+     */
+    public synchronized void unregister(String name) {
+        Entry entry = find(name);
+        if (entry == null) {
+            return;
+        }
+        graphs.remove(entry);
+        if (converter != null) {
+            converter.removeConsumer(entry);
+        }
+        entry.close();
+    }
+
+    /**
+     * 把所有 graph 挂到 converter 上，之后注册的 graph 也会挂上去。
+     */
+    public synchronized void attach(BitmapConverter converter) {
+        detach();
+        this.converter = converter;
+        for (Entry entry : graphs) {
+            converter.addConsumer(entry, DropPolicy.LATEST_WINS, 1);
+        }
+    }
+
+    public synchronized void detach() {
+        if (converter == null) {
+            return;
+        }
+        for (Entry entry : graphs) {
+            converter.removeConsumer(entry);
+        }
+        converter = null;
+    }
+
+    /**
+     * 停止所有 graph。
+     */
+    public synchronized void close() {
+        detach();
+        for (Entry entry : graphs) {
+            entry.close();
+        }
+        graphs.clear();
+    }
+
+    @Nullable
+    public GraphProcessor getProcessor(String name) {
+        Entry entry = find(name);
+        return entry == null ? null : entry.processor;
+    }
+
+    /**
+     * 当前分配给 graph 的帧率，0 表示每一帧都送入，没有这个 graph 时返回 -1。
+     */
+    public float getAssignedFps(String name) {
+        Entry entry = find(name);
+        return entry == null ? -1 : scheduler.getAssignedFps(entry.slot);
+    }
+
+    /**
+     * 参见 {@link GraphScheduler#setBudget(float)}。
+     */
+    public void setBudget(float budget) {
+        scheduler.setBudget(budget);
+    }
+
+    public void setMinFps(float minFps) {
+        scheduler.setMinFps(minFps);
+    }
+
+    //挂到 converter 上的消费者，测试中直接送帧
+    @Nullable
+    TextureFrameConsumer getConsumer(String name) {
+        return find(name);
+    }
+
+    @Nullable
+    private Entry find(String name) {
+        for (Entry entry : graphs) {
+            if (entry.spec.getName().equals(name)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+}
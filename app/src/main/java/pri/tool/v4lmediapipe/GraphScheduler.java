@@ -0,0 +1,187 @@
+package pri.tool.v4lmediapipe;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 决定每一帧送入哪些 graph。
+ *
+ * 每个 graph 按分配到的帧率取帧，多余的帧直接跳过。分配按 graph 的耗时计算：
+ * 所有 graph 的 目标帧率 x 耗时 之和超过预算时，按优先级从高到低满足，
+ * 剩下的预算不够的 graph 降低帧率，但不低于 {@link #setMinFps(float)}。
+ * 耗时是从送入到完成流输出的时间，没有测到耗时的 graph 按目标帧率运行。
+ *
+ * 所有方法可以在任意线程调用，时间都由调用方传入。
+ */
+final class GraphScheduler {
+
+    //在途的帧数，超过后最早的送入时间被覆盖
+    private static final int IN_FLIGHT = 8;
+    //耗时和输入帧间隔的平滑系数
+    private static final float SMOOTHING = 0.125f;
+    private static final long NONE = Long.MIN_VALUE;
+
+    static final class Slot {
+        final float targetFps;
+        final int priority;
+        //0 表示每一帧都送入
+        float assignedFps;
+        float costUs;
+        long nextDueUs = NONE;
+        long admittedFrames;
+        long skippedFrames;
+        private final long[] submitTimestamps = new long[IN_FLIGHT];
+        private final long[] submitNanos = new long[IN_FLIGHT];
+        private int submitIndex;
+
+        Slot(float targetFps, int priority) {
+            this.targetFps = targetFps;
+            this.priority = priority;
+            this.assignedFps = targetFps;
+        }
+    }
+
+    //按优先级从高到低，相同优先级按注册顺序
+    private final List<Slot> slots = new ArrayList<>();
+    private float budget = 1f;
+    private float minFps = 1f;
+    private long lastInputUs = NONE;
+    private float inputIntervalUs;
+
+    synchronized Slot add(float targetFps, int priority) {
+        Slot slot = new Slot(Math.max(targetFps, 0), priority);
+        int index = 0;
+        while (index < slots.size() && slots.get(index).priority >= priority) {
+            index++;
+        }
+        slots.add(index, slot);
+        assignRates();
+        return slot;
+    }
+
+    synchronized void remove(Slot slot) {
+        if (slots.remove(slot)) {
+            assignRates();
+        }
+    }
+
+    /**
+     * @param budget 所有 graph 的 帧率 x 耗时 之和的上限，1 表示 graph 的耗时加起来正好占满时间
+     */
+    synchronized void setBudget(float budget) {
+        this.budget = Math.max(budget, 0);
+        assignRates();
+    }
+
+    /**
+     * 降频时每个 graph 至少保留的帧率，避免低优先级的 graph 完全没有输出。
+     */
+    synchronized void setMinFps(float minFps) {
+        this.minFps = Math.max(minFps, 0);
+        assignRates();
+    }
+
+    /**
+     * 一帧到达某个 graph 时调用，返回 true 表示送入。同一帧的各个 graph 使用相同的时间戳。
+     */
+    synchronized boolean admit(Slot slot, long timestampUs, long nowNanos) {
+        if (!slots.contains(slot)) {
+            return false;
+        }
+        observeInput(timestampUs);
+
+        if (slot.assignedFps > 0) {
+            long intervalUs = (long) (1000000 / slot.assignedFps);
+            //允许少量的采集抖动
+            if (slot.nextDueUs != NONE && timestampUs < slot.nextDueUs - intervalUs / 8) {
+                slot.skippedFrames++;
+                return false;
+            }
+            //落后超过一个间隔时从这一帧重新计时，不把积攒的额度一次放出
+            if (slot.nextDueUs == NONE || timestampUs - slot.nextDueUs >= intervalUs) {
+                slot.nextDueUs = timestampUs + intervalUs;
+            } else {
+                slot.nextDueUs += intervalUs;
+            }
+        }
+
+        slot.submitTimestamps[slot.submitIndex] = timestampUs;
+        slot.submitNanos[slot.submitIndex] = nowNanos;
+        slot.submitIndex = (slot.submitIndex + 1) % IN_FLIGHT;
+        slot.admittedFrames++;
+        return true;
+    }
+
+    /**
+     * graph 的完成流输出了 timestampUs 这一帧，更新耗时并重新分配帧率。
+     *
+     * @return 这一帧在 graph 中的耗时，纳秒；找不到送入记录时返回 -1
+     */
+    synchronized long onComplete(Slot slot, long timestampUs, long nowNanos) {
+        for (int i = 0; i < IN_FLIGHT; i++) {
+            if (slot.submitNanos[i] != 0 && slot.submitTimestamps[i] == timestampUs) {
+                long elapsedNanos = nowNanos - slot.submitNanos[i];
+                slot.submitNanos[i] = 0;
+                float costUs = elapsedNanos / 1000f;
+                slot.costUs = slot.costUs == 0 ? costUs : slot.costUs + (costUs - slot.costUs) * SMOOTHING;
+                assignRates();
+                return elapsedNanos;
+            }
+        }
+        return -1;
+    }
+
+    synchronized float getAssignedFps(Slot slot) {
+        return slot.assignedFps;
+    }
+
+    synchronized float getCostUs(Slot slot) {
+        return slot.costUs;
+    }
+
+    synchronized long getSkippedFrames(Slot slot) {
+        return slot.skippedFrames;
+    }
+
+    /**
+     * 根据时间戳估计的输入帧率，还没有两帧时返回 0。
+     */
+    synchronized float getInputFps() {
+        return inputIntervalUs > 0 ? 1000000 / inputIntervalUs : 0;
+    }
+
+    //同一帧会被每个 graph 各报一次，只按新的时间戳计算间隔
+    private void observeInput(long timestampUs) {
+        if (lastInputUs != NONE && timestampUs <= lastInputUs) {
+            return;
+        }
+        if (lastInputUs != NONE) {
+            float intervalUs = timestampUs - lastInputUs;
+            inputIntervalUs = inputIntervalUs == 0 ? intervalUs
+                    : inputIntervalUs + (intervalUs - inputIntervalUs) * SMOOTHING;
+        }
+        lastInputUs = timestampUs;
+    }
+
+    private void assignRates() {
+        float inputFps = getInputFps();
+        float remaining = budget;
+        for (Slot slot : slots) {
+            float target = slot.targetFps > 0 ? slot.targetFps : inputFps;
+            if (slot.costUs == 0 || target == 0) {
+                slot.assignedFps = slot.targetFps;
+                continue;
+            }
+
+            float cost = slot.costUs / 1000000;
+            if (target * cost <= remaining) {
+                slot.assignedFps = slot.targetFps;
+                remaining -= target * cost;
+            } else {
+                float fps = Math.min(target, Math.max(remaining / cost, minFps));
+                slot.assignedFps = fps;
+                remaining = Math.max(remaining - fps * cost, 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package pri.tool.v4lmediapipe;
+
+import androidx.annotation.Nullable;
+
+import com.google.mediapipe.framework.PacketCallback;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 注册到 {@link GraphRegistry} 的一个 graph：资源文件、流名、输出回调和调度参数。
+ */
+public final class GraphSpec {
+    private final String name;
+    private final String binaryGraph;
+    private final String inputStream;
+    @Nullable
+    private final String outputStream;
+    private float targetFps;
+    private int priority;
+    @Nullable
+    private String completionStream;
+    //按流分组，每个流只向 graph 注册一个回调
+    private final Map<String, List<PacketCallback>> packetCallbacks = new LinkedHashMap<>();
+
+    /**
+     * @param name 在注册表中唯一
+     * @param binaryGraph assets 中的 .binarypb 文件名
+     * @param outputStream 视频输出流，没有视频输出时为 null
+     */
+    public GraphSpec(String name, String binaryGraph, String inputStream, @Nullable String outputStream) {
+        this.name = name;
+        this.binaryGraph = binaryGraph;
+        this.inputStream = inputStream;
+        this.outputStream = outputStream;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getBinaryGraph() {
+        return binaryGraph;
+    }
+
+    public String getInputStream() {
+        return inputStream;
+    }
+
+    @Nullable
+    public String getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * 期望的帧率，0 表示每一帧都送入。设备跑不满时由 {@link GraphScheduler} 按优先级降低。
+     */
+    public void setTargetFps(float targetFps) {
+        this.targetFps = Math.max(targetFps, 0);
+    }
+
+    public float getTargetFps() {
+        return targetFps;
+    }
+
+    /**
+     * 数值越大越优先保证帧率，默认 0。
+     */
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * 每一帧都有输出的流，用来测量 graph 的耗时。不设置时按目标帧率送帧，不参与降频。
+     */
+    public void setCompletionStream(@Nullable String completionStream) {
+        this.completionStream = completionStream;
+    }
+
+    @Nullable
+    public String getCompletionStream() {
+        return completionStream;
+    }
+
+    public void addPacketCallback(String outputStream, PacketCallback callback) {
+        List<PacketCallback> callbacks = packetCallbacks.get(outputStream);
+        if (callbacks == null) {
+            callbacks = new ArrayList<>();
+            packetCallbacks.put(outputStream, callbacks);
+        }
+        callbacks.add(callback);
+    }
+
+    Map<String, List<PacketCallback>> getPacketCallbacks() {
+        return Collections.unmodifiableMap(packetCallbacks);
+    }
+}
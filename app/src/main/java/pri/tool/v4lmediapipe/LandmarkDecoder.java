@@ -0,0 +1,146 @@
+package pri.tool.v4lmediapipe;
+
+/**
+ * 直接按 protobuf 编码读取 NormalizedLandmarkList 的 x/y/z，不创建 LandmarkProto 对象。
+ *
+ * 只用到 landmark.proto 中的字段编号：列表的 landmark 是字段 1 的子消息，x/y/z 是子消息中字段 1/2/3 的 float，
+ * 其他字段按类型跳过。解码过程没有内存分配，实例保存读取位置，不能在多个线程中同时使用。
+ */
+public final class LandmarkDecoder {
+
+    // sync with landmark.proto
+    private static final int FIELD_LANDMARK = 1;
+    private static final int FIELD_X = 1;
+    private static final int FIELD_Z = 3;
+
+    private static final int WIRETYPE_VARINT = 0;
+    private static final int WIRETYPE_FIXED64 = 1;
+    private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+    private static final int WIRETYPE_FIXED32 = 5;
+
+    private byte[] data;
+    private int pos;
+    private boolean malformed;
+
+    public int decode(byte[] data, float[] points) {
+        return decode(data, 0, data.length, points);
+    }
+
+    /**
+     * 把 data[offset, offset + length) 中的 NormalizedLandmarkList 解到 points，每个点依次为 x, y, z，没有的字段为 0。
+     *
+     * @return landmark 的数量，超出 points 的部分只计数不写入；编码错误时返回 -1
+     */
+    public int decode(byte[] data, int offset, int length, float[] points) {
+        this.data = data;
+        pos = offset;
+        malformed = false;
+        int end = offset + length;
+        int count = 0;
+        try {
+            while (pos < end) {
+                int tag = readVarint32(end);
+                if (malformed || tag == 0) {
+                    return -1;
+                }
+                if (tag >>> 3 == FIELD_LANDMARK && (tag & 7) == WIRETYPE_LENGTH_DELIMITED) {
+                    int size = readVarint32(end);
+                    if (malformed || size < 0 || size > end - pos) {
+                        return -1;
+                    }
+                    int landmarkEnd = pos + size;
+                    if (count * 3 + 2 < points.length) {
+                        readLandmark(landmarkEnd, points, count * 3);
+                    }
+                    pos = landmarkEnd;
+                    count++;
+                } else {
+                    skipField(tag, end);
+                }
+                if (malformed) {
+                    return -1;
+                }
+            }
+            return pos == end ? count : -1;
+        } finally {
+            this.data = null;
+        }
+    }
+
+    private void readLandmark(int end, float[] points, int index) {
+        points[index] = 0;
+        points[index + 1] = 0;
+        points[index + 2] = 0;
+        while (pos < end && !malformed) {
+            int tag = readVarint32(end);
+            int field = tag >>> 3;
+            if (field >= FIELD_X && field <= FIELD_Z && (tag & 7) == WIRETYPE_FIXED32 && end - pos >= 4) {
+                points[index + field - FIELD_X] = Float.intBitsToFloat(readFixed32());
+            } else {
+                skipField(tag, end);
+            }
+        }
+        if (pos != end) {
+            malformed = true;
+        }
+    }
+
+    private void skipField(int tag, int end) {
+        int skip;
+        switch (tag & 7) {
+            case WIRETYPE_VARINT:
+                readVarint64(end);
+                return;
+            case WIRETYPE_FIXED64:
+                skip = 8;
+                break;
+            case WIRETYPE_LENGTH_DELIMITED:
+                skip = readVarint32(end);
+                break;
+            case WIRETYPE_FIXED32:
+                skip = 4;
+                break;
+            default:
+                //landmark.proto 中没有 group
+                malformed = true;
+                return;
+        }
+        if (skip < 0 || skip > end - pos) {
+            malformed = true;
+            pos = end;
+            return;
+        }
+        pos += skip;
+    }
+
+    private int readFixed32() {
+        int value = (data[pos] & 0xff)
+                | (data[pos + 1] & 0xff) << 8
+                | (data[pos + 2] & 0xff) << 16
+                | (data[pos + 3] & 0xff) << 24;
+        pos += 4;
+        return value;
+    }
+
+    //超过 32 位的部分丢弃，和 protobuf 读取 int32 相同
+    private int readVarint32(int end) {
+        return (int) readVarint64(end);
+    }
+
+    private long readVarint64(int end) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos >= end) {
+                malformed = true;
+                return 0;
+            }
+            byte b = data[pos++];
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        malformed = true;
+        return 0;
+    }
+}
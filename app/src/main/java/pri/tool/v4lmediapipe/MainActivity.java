@@ -4,11 +4,7 @@ import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.ImageFormat;
-import android.graphics.Rect;
 import android.graphics.SurfaceTexture;
-import android.graphics.YuvImage;
 import android.os.Bundle;
 import android.util.Log;
 import android.util.Size;
@@ -19,13 +15,22 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
 
+import pri.tool.v4l2camera.FrameRecorder;
 import pri.tool.v4l2camera.IDataCallback;
+import pri.tool.v4l2camera.IFrameSource;
 import pri.tool.v4l2camera.IStateCallback;
+import pri.tool.v4l2camera.ImageUtils;
+import pri.tool.v4l2camera.PipelineMetrics;
+import pri.tool.v4l2camera.ReplayCamera;
+import pri.tool.v4l2camera.StageMetrics;
+import pri.tool.v4l2camera.Trace;
 import pri.tool.v4l2camera.V4L2Camera;
 
 public class MainActivity extends AppCompatActivity {
@@ -33,13 +38,35 @@ public class MainActivity extends AppCompatActivity {
 
     private static final int MAGIC_TEXTURE_ID = 10;
 
+    //流水线各阶段统计输出到 logcat 的周期
+    private static final long METRICS_DUMP_PERIOD_MS = 10000;
+
+    //adb shell setprop log.tag.V4L2Trace DEBUG 打开逐帧 trace，onPause 时导出到应用的外部文件目录
+    private static final String TRACE_TAG = "V4L2Trace";
+    private static final String TRACE_FILE = "v4l2-trace.json";
+    private static final int TRACE_CONVERT = Trace.name("app.bitmap_convert");
+
+    //adb shell setprop log.tag.V4L2Record DEBUG 录制回调的帧，分段写到应用外部文件目录的 recordings 下，可以改名为 replay.v4lf 回放
+    private static final String RECORD_TAG = "V4L2Record";
+    private static final String RECORD_DIR = "recordings";
+    private static final String RECORD_PREFIX = "capture";
+
+    //应用文件目录下有这个文件时回放其中录制的帧，不打开摄像头
+    private static final String REPLAY_FILE = "replay.v4lf";
+
+    IFrameSource frameSource;
     V4L2Camera adCamera;
+    FrameRecorder frameRecorder;
     CameraStateCallback cameraStateCallback;
     CameraDataCallback cameraDataCallback;
 
     private int previewWidth = 640;
     private int previewHeight = 480;
 
+    //送进 graph 的图像尺寸，手部模型的输入在 256x256 左右，整帧在 native 层缩小后再转换和上传
+    private static final int PROCESS_WIDTH = 320;
+    private static final int PROCESS_HEIGHT = 240;
+
     ImageView imageView;
 
     SurfaceTexture surfaceTexture;
@@ -77,6 +104,8 @@ public class MainActivity extends AppCompatActivity {
     public void onResume() {
         Log.d("thread", "onResume: " + android.os.Process.myTid());
         super.onResume();
+        PipelineMetrics.getInstance().startDump(METRICS_DUMP_PERIOD_MS);
+        Trace.setEnabled(Log.isLoggable(TRACE_TAG, Log.DEBUG));
         mediapipeHelper.startBitmapConverter();
         setCustomFrameAvailableListner(mediapipeHelper.getBitmapConverter());
         initCamera();
@@ -87,14 +116,68 @@ public class MainActivity extends AppCompatActivity {
     public void onPause() {
         super.onPause();
         mediapipeHelper.stopBitmapConverter();
+        PipelineMetrics.getInstance().stopDump();
+        if (Trace.isEnabled()) {
+            exportTrace();
+        }
+        if (frameRecorder != null) {
+            if (adCamera != null) {
+                adCamera.setRecorder(null);
+            }
+            frameRecorder.stop();
+            Log.i(TAG, "recorded " + frameRecorder.getRecordedFrames() + " frames, dropped "
+                    + frameRecorder.getDroppedFrames());
+            frameRecorder = null;
+        }
+    }
+
+    private void startRecording() {
+        File dir = getExternalFilesDir(null);
+        FrameRecorder recorder = new FrameRecorder(new File(dir != null ? dir : getFilesDir(), RECORD_DIR),
+                RECORD_PREFIX);
+        try {
+            recorder.start();
+        } catch (IOException e) {
+            Log.e(TAG, "start recording fail: " + e.getMessage());
+            return;
+        }
+        frameRecorder = recorder;
+        adCamera.setRecorder(recorder);
+    }
+
+    private void exportTrace() {
+        File dir = getExternalFilesDir(null);
+        File file = new File(dir != null ? dir : getFilesDir(), TRACE_FILE);
+        new Thread(() -> {
+            try (Writer writer = new BufferedWriter(new FileWriter(file))) {
+                Trace.exportChromeJson(writer);
+                Log.i(TAG, "trace exported to " + file);
+            } catch (IOException e) {
+                Log.e(TAG, "export trace fail: " + e.getMessage());
+            }
+        }, "TraceExport").start();
     }
 
     public void initCamera() {
 
         cameraStateCallback = new CameraStateCallback();
-        adCamera = new V4L2Camera();
-        adCamera.init(cameraStateCallback, this);
-        adCamera.open();
+
+        File replayFile = new File(getFilesDir(), REPLAY_FILE);
+        if (replayFile.exists()) {
+            Log.i(TAG, "replay frames from " + replayFile);
+            ReplayCamera replayCamera = new ReplayCamera(replayFile);
+            replayCamera.init(cameraStateCallback);
+            replayCamera.setLoop(true);
+            frameSource = replayCamera;
+        } else {
+            adCamera = new V4L2Camera();
+            adCamera.init(cameraStateCallback, this);
+            frameSource = adCamera;
+            if (Log.isLoggable(RECORD_TAG, Log.DEBUG)) {
+                startRecording();
+            }
+        }
+        frameSource.open();
     }
 
     class CameraStateCallback implements IStateCallback {
@@ -103,19 +186,35 @@ public class MainActivity extends AppCompatActivity {
         public void onOpened() {
             Log.d(TAG, "onOpened");
 
-            Size chooseSize = adCamera.chooseOptimalSize(previewWidth, previewHeight);
-            if (chooseSize != null) {
-                previewWidth = chooseSize.getWidth();
-                previewHeight = chooseSize.getHeight();
+            //回放时帧的格式和尺寸都来自录制文件
+            if (adCamera != null) {
+                Size chooseSize = adCamera.chooseOptimalSize(previewWidth, previewHeight);
+                if (chooseSize != null) {
+                    previewWidth = chooseSize.getWidth();
+                    previewHeight = chooseSize.getHeight();
 
-            }
+                }
 
 //            surfaceTexture = new SurfaceTexture(MAGIC_TEXTURE_ID);
 //            surface = new Surface(surfaceTexture);
 //            adCamera.setSurface(surface);
 
+                //YUYV 到 RGBA 的转换放到 native 层多线程完成
+                adCamera.setOutputFormat(ImageUtils.RGBA);
+
+                adCamera.setRegionOfInterest(0, 0, previewWidth, previewHeight, PROCESS_WIDTH, PROCESS_HEIGHT);
+
+                //画面静止时在采集线程中直接丢帧，省掉转换、纹理上传和手势 graph，省下的帧数在 metrics 的 motion_gate 中输出
+                adCamera.setMotionGate(V4L2Camera.DEFAULT_GATE_LUMA_THRESHOLD,
+                        V4L2Camera.DEFAULT_GATE_CHANGED_PERMILLE, V4L2Camera.DEFAULT_GATE_KEEP_ALIVE_MS);
+            }
+
             cameraDataCallback = new CameraDataCallback();
-            adCamera.startPreview(cameraDataCallback);
+            BitmapConverter bitmapConverter = mediapipeHelper.getBitmapConverter();
+            if (bitmapConverter != null) {
+                bitmapConverter.setBitmapRecycler(cameraDataCallback);
+            }
+            frameSource.startPreview(cameraDataCallback);
 
    //         mediapipeHelper.setSurfaceTexture(chooseSize, false, surfaceTexture);
 
@@ -124,56 +223,85 @@ public class MainActivity extends AppCompatActivity {
 
         @Override
         public void onError(int error) {
-
+            Log.e(TAG, "camera error " + error);
         }
     }
 
-    class CameraDataCallback implements IDataCallback {
+    class CameraDataCallback implements IDataCallback, BitmapConverter.BitmapRecycler {
+        //正在填充、在 BitmapConverter mailbox 中等待、正在上传的各一张，下游用完后由 recycle 放回
+        private static final int NUM_BITMAPS = 3;
+        private final ArrayBlockingQueue<Bitmap> freeBitmaps = new ArrayBlockingQueue<>(NUM_BITMAPS);
+        private int bitmapWidth;
+        private int bitmapHeight;
+        private int[] argb;
+        private boolean convertErrorLogged;
+        private final StageMetrics convertStage = PipelineMetrics.getInstance().stage("app.bitmap_convert");
 
         @Override
-        public void onDataCallback(byte[] data, int dataType, int width, int height) {
-            Log.e(TAG, "onDataCallbakck  dataType:" + dataType + ", width:" + width + ", height:" + height + ", data.lenght:" + data.length);
+        public void onDataCallback(byte[] data, int dataType, int width, int height, long timestampUs, int sequence) {
             //处理camera preview 数据
+            if (customFrameAvailableListner == null) {
+                return;
+            }
 
-                    try{
-                        YuvImage image = new YuvImage(data, ImageFormat.YUY2, width, height, null);
-                        if(image!=null){
-                            ByteArrayOutputStream stream = new ByteArrayOutputStream();
-                            image.compressToJpeg(new Rect(0, 0, width, height), 80, stream);
-
-                            Bitmap bmp = BitmapFactory.decodeByteArray(stream.toByteArray(), 0, stream.size());
-
-                       //     mediapipeHelper.onFrame(bmp);
-
-                            if(bmp==null || customFrameAvailableListner == null)
-                                return;
-                            Log.d(TAG,"Writing frame");
-                            customFrameAvailableListner.onFrame(bmp);
-
-
-                            stream.close();
-                        } else {
-                            Log.e(TAG, "image is null");
-                        }
-                    }catch(Exception ex){
-                        Log.e("Sys","Error:"+ex.getMessage());
-                    }
-
+            if (argb == null || bitmapWidth != width || bitmapHeight != height) {
+                bitmapWidth = width;
+                bitmapHeight = height;
+                argb = new int[width * height];
+                freeBitmaps.clear();
+                for (int i = 0; i < NUM_BITMAPS; i++) {
+                    freeBitmaps.offer(Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888));
+                }
+            }
 
+            //尺寸变化前发出去的 Bitmap 回收后直接丢弃
+            Bitmap bmp = freeBitmaps.poll();
+            while (bmp != null && (bmp.getWidth() != width || bmp.getHeight() != height)) {
+                bmp = freeBitmaps.poll();
+            }
+            if (bmp == null) {
+                //下游没有设置 recycler 时才会取空
+                bmp = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            }
 
+            Trace.begin(TRACE_CONVERT);
+            long start = System.nanoTime();
+            try {
+                ImageUtils.convertToBitmap(data, dataType, width, height,
+                        ImageUtils.COLOR_SPACE_BT601, argb, bmp);
+            } catch (IllegalArgumentException ex) {
+                //同样的错误每帧都会出现，只记录第一次，之后的计入 app.bitmap_convert 的丢帧
+                if (!convertErrorLogged) {
+                    convertErrorLogged = true;
+                    Log.e(TAG, "convert frame fail: " + ex.getMessage());
+                }
+                convertStage.addDrops(1);
+                freeBitmaps.offer(bmp);
+                return;
+            } finally {
+                Trace.end(TRACE_CONVERT);
+            }
+            convertStage.recordSince(start);
 
-               //     imageView.setImageBitmap(bitmap);
-               //     Log.e(TAG, "send mediapipe before");
-               //     mediapipeHelper.onFrame(bitmap);
-               //     Log.e(TAG, "send mediapipe after");
+            customFrameAvailableListner.onFrame(bmp, timestampUs, sequence);
+        }
 
+        @Override
+        public void recycle(Bitmap bitmap) {
+            freeBitmaps.offer(bitmap);
         }
     }
 
     MediapipeHelper.OnHandGestureListener onHandGestureListener = new MediapipeHelper.OnHandGestureListener() {
+        private String lastGesture;
+
         @Override
         public void OnHandGestureRecognization(@Nullable String handGesture) {
-            Log.e(TAG, "OnHandGesture :" + handGesture);
+            //手势名是常量字符串，只在变化时输出
+            if (handGesture != lastGesture) {
+                lastGesture = handGesture;
+                Log.i(TAG, "OnHandGesture :" + handGesture);
+            }
         }
     };
 
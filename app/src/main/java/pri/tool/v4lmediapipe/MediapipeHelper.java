@@ -11,17 +11,20 @@ import androidx.annotation.Nullable;
 
 import com.google.mediapipe.components.ExternalTextureConverter;
 import com.google.mediapipe.components.FrameProcessor;
-import com.google.mediapipe.formats.proto.LandmarkProto;
 import com.google.mediapipe.framework.AndroidAssetUtil;
 import com.google.mediapipe.framework.PacketGetter;
 import com.google.mediapipe.glutil.EglManager;
-import com.google.protobuf.InvalidProtocolBufferException;
+
+import pri.tool.v4l2camera.PipelineMetrics;
+import pri.tool.v4l2camera.StageMetrics;
+import pri.tool.v4l2camera.Trace;
 
 
 public class MediapipeHelper {
     private static final String TAG = "MediapipeHelper";
 
     // 资源文件和流输出名
+    private static final String HAND_TRACKING_GRAPH = "hand_tracking";
     private static final String BINARY_GRAPH_NAME = "hand_tracking_mobile_gpu.binarypb";
     private static final String INPUT_VIDEO_STREAM_NAME = "input_video";
     private static final String OUTPUT_VIDEO_STREAM_NAME = "output_video";
@@ -58,6 +61,8 @@ public class MediapipeHelper {
 
     // Creates and manages an {@link EGLContext}.
     private EglManager eglManager;
+    // 同一路采集上运行的所有 graph，手部跟踪是其中一个
+    private GraphRegistry graphRegistry;
     // Sends camera-preview frames into a MediaPipe graph for processing, and displays the processed
     // frames onto a {@link Surface}.
     private FrameProcessor processor;
@@ -69,20 +74,37 @@ public class MediapipeHelper {
 
     private boolean handPresence;
 
+    //手势分类和复用的关键点数组，只在 graph 回调线程中使用
+    private final GestureClassifier gestureClassifier = new GestureClassifier();
+    private final float[] landmarkPoints = new float[GestureClassifier.LANDMARK_COUNT * 3];
+    private final LandmarkDecoder landmarkDecoder = new LandmarkDecoder();
+
+    //最近一次关键点输出相对采集时间的延迟，packet 时间戳与 System.nanoTime() 同为 CLOCK_MONOTONIC
+    private volatile long landmarkLatencyUs = -1;
+
+    private final StageMetrics endToEndStage = PipelineMetrics.getInstance().stage("pipeline.capture_to_output");
+    private final StageMetrics gestureStage = PipelineMetrics.getInstance().stage("gesture.recognize");
+
+    private static final int TRACE_LANDMARKS = Trace.name("mediapipe.landmarks");
+    private static final int TRACE_END_TO_END = Trace.name("mediapipe.end_to_end_us");
+
     public void startMediapipe(Context context) {
         eglManager = new EglManager(null);
-        // 通过加载获取一个帧处理器
-        processor = new FrameProcessor(context,
-                eglManager.getNativeContext(),
+        graphRegistry = new GraphRegistry(context, eglManager);
+        GraphSpec handTracking = new GraphSpec(HAND_TRACKING_GRAPH,
                 BINARY_GRAPH_NAME,
                 INPUT_VIDEO_STREAM_NAME,
                 OUTPUT_VIDEO_STREAM_NAME);
-        processor.getVideoSurfaceOutput().setFlipY(FLIP_FRAMES_VERTICALLY);
+        //hand_presence 每帧都有输出，用它统计 graph 耗时
+        handTracking.setCompletionStream(OUTPUT_HAND_PRESENCE_STREAM_NAME);
 
         // 获取是否检测到手模型输出
-        processor.addPacketCallback(
+        handTracking.addPacketCallback(
                 OUTPUT_HAND_PRESENCE_STREAM_NAME,
                 (packet) -> {
+                    long endToEndUs = System.nanoTime() / 1000 - packet.getTimestamp();
+                    endToEndStage.record(endToEndUs);
+                    Trace.counter(TRACE_END_TO_END, endToEndUs);
                     handPresence = PacketGetter.getBool(packet);
                     if (!handPresence) {
             //            Log.d(TAG, "[TS:" + packet.getTimestamp() + "] Hand presence is false, no hands detected.");
@@ -90,13 +112,20 @@ public class MediapipeHelper {
                 });
 
         // 获取手的关键点模型输出
-        processor.addPacketCallback(
+        handTracking.addPacketCallback(
                 OUTPUT_LANDMARKS_STREAM_NAME,
                 (packet) -> {
+                    landmarkLatencyUs = System.nanoTime() / 1000 - packet.getTimestamp();
+                    Trace.begin(TRACE_LANDMARKS);
                     byte[] landmarksRaw = PacketGetter.getProtoBytes(packet);
                     try {
-                        LandmarkProto.NormalizedLandmarkList landmarks = LandmarkProto.NormalizedLandmarkList.parseFrom(landmarksRaw);
-//                        if (landmarks == null || !handPresence) {
+                        //直接解到复用的数组，不创建 LandmarkProto 对象
+                        int landmarkCount = landmarkDecoder.decode(landmarksRaw, landmarkPoints);
+                        if (landmarkCount < 0) {
+                            Log.e(TAG, "Couldn't decode hand landmarks, " + landmarksRaw.length + " bytes");
+                            return;
+                        }
+//                        if (!handPresence) {
 //                            Log.d(TAG, "[TS:" + packet.getTimestamp() + "] No hand landmarks.");
 //                            return;
 //                        }
@@ -104,17 +133,33 @@ public class MediapipeHelper {
 //                        Log.d(TAG,
 //                                "[TS:" + packet.getTimestamp()
 //                                        + "] #Landmarks for hand: "
-//                                        + landmarks.getLandmarkCount());
-//                        Log.d(TAG, getLandmarksDebugString(landmarks));
-//                        Log.d(TAG, recognizeHandGesture(landmarks));
-                        String handGesture = recognizeHandGesture(landmarks);
+//                                        + landmarkCount);
+//                        Log.d(TAG, getLandmarksDebugString(landmarkPoints, Math.min(landmarkCount, GestureClassifier.LANDMARK_COUNT)));
+                        if (landmarkCount < GestureClassifier.LANDMARK_COUNT) {
+                            return;
+                        }
+
+                        long start = System.nanoTime();
+                        int gesture = recognizeHandGesture(landmarkPoints);
+                        gestureStage.recordSince(start);
                         if (handGestureListener != null) {
-                            handGestureListener.OnHandGestureRecognization(handGesture);
+                            handGestureListener.OnHandGestureRecognization(gestureClassifier.getName(gesture));
                         }
-                    } catch (InvalidProtocolBufferException e) {
-                        Log.e(TAG, "Couldn't Exception received - " + e);
+                    } finally {
+                        Trace.end(TRACE_LANDMARKS);
                     }
                 });
+
+        // 通过加载获取一个帧处理器
+        processor = ((FrameProcessorGraph) graphRegistry.register(handTracking)).getFrameProcessor();
+        processor.getVideoSurfaceOutput().setFlipY(FLIP_FRAMES_VERTICALLY);
+    }
+
+    /**
+     * 用来注册更多的 graph，和手部跟踪共享每一帧。
+     */
+    public GraphRegistry getGraphRegistry() {
+        return graphRegistry;
     }
 
     public void setSurfaceTexture(Size size, boolean isRotate, SurfaceTexture surfaceTexture) {
@@ -126,12 +171,10 @@ public class MediapipeHelper {
 
 
     // 解析关键点
-    private static String getLandmarksDebugString(LandmarkProto.NormalizedLandmarkList landmarks) {
-        int landmarkIndex = 0;
+    private static String getLandmarksDebugString(float[] points, int count) {
         StringBuilder landmarksString = new StringBuilder();
-        for (LandmarkProto.NormalizedLandmark landmark : landmarks.getLandmarkList()) {
-            landmarksString.append("\t\tLandmark[").append(landmarkIndex).append("]: (").append(landmark.getX()).append(", ").append(landmark.getY()).append(", ").append(landmark.getZ()).append(")\n");
-            ++landmarkIndex;
+        for (int landmarkIndex = 0; landmarkIndex < count; landmarkIndex++) {
+            landmarksString.append("\t\tLandmark[").append(landmarkIndex).append("]: (").append(points[landmarkIndex * 3]).append(", ").append(points[landmarkIndex * 3 + 1]).append(", ").append(points[landmarkIndex * 3 + 2]).append(")\n");
         }
         return landmarksString.toString();
     }
@@ -140,9 +183,18 @@ public class MediapipeHelper {
         processor.getVideoSurfaceOutput().setSurface(surface);
     }
 
-    public void onFrame(Bitmap bitmap) {
-        long timeStamp = System.currentTimeMillis();
-        processor.onNewFrame(bitmap, timeStamp);
+    /**
+     * @param timestampUs 采集时间，CLOCK_MONOTONIC 微秒
+     */
+    public void onFrame(Bitmap bitmap, long timestampUs) {
+        processor.onNewFrame(bitmap, timestampUs);
+    }
+
+    /**
+     * 从采集到手部关键点输出的延迟，还没有输出时返回 -1。
+     */
+    public long getLandmarkLatencyUs() {
+        return landmarkLatencyUs;
     }
 
     public void startConverter() {
@@ -154,10 +206,11 @@ public class MediapipeHelper {
 
     public void startBitmapConverter() {
         bitmapConverter = new BitmapConverter(eglManager.getContext());
-        bitmapConverter.setConsumer(processor);
+        graphRegistry.attach(bitmapConverter);
     }
 
     public void stopBitmapConverter() {
+        graphRegistry.detach();
         bitmapConverter.close();
     }
 
@@ -170,102 +223,23 @@ public class MediapipeHelper {
     }
 
 
-    public String  recognizeHandGesture(LandmarkProto.NormalizedLandmarkList landmarks) {
-        String handGesture = "No hand";
-
+    /**
+     * @param landmarks 21 个关键点，每个点依次为 x, y, z
+     * @return 手势编号，取值见 {@link GestureClassifier}
+     */
+    public int recognizeHandGesture(float[] landmarks) {
         if (landmarks == null || !handPresence) {
-            return handGesture;
+            return GestureClassifier.NO_HAND;
         }
 
-        // finger states
-        Boolean thumbIsOpen = false;
-        Boolean firstFingerIsOpen = false;
-        Boolean secondFingerIsOpen = false;
-        Boolean thirdFingerIsOpen = false;
-        Boolean fourthFingerIsOpen = false;
-
-        float pseudoFixKeyPoint =  landmarks.getLandmark(2).getX();
-        if (landmarks.getLandmark(3).getX() < pseudoFixKeyPoint && landmarks.getLandmark(4).getX() < pseudoFixKeyPoint)
-        {
-            thumbIsOpen = true;
-        }
-
-        pseudoFixKeyPoint = landmarks.getLandmark(6).getY();
-        if (landmarks.getLandmark(7).getY() < pseudoFixKeyPoint && landmarks.getLandmark(8).getY() < pseudoFixKeyPoint)
-        {
-            firstFingerIsOpen = true;
-        }
-
-        pseudoFixKeyPoint = landmarks.getLandmark(10).getY();
-        if (landmarks.getLandmark(11).getY() < pseudoFixKeyPoint && landmarks.getLandmark(12).getY() < pseudoFixKeyPoint)
-        {
-            secondFingerIsOpen = true;
-        }
-
-        pseudoFixKeyPoint = landmarks.getLandmark(14).getY();
-        if (landmarks.getLandmark(15).getY() < pseudoFixKeyPoint && landmarks.getLandmark(16).getY() < pseudoFixKeyPoint)
-        {
-            thirdFingerIsOpen = true;
-        }
-
-        pseudoFixKeyPoint = landmarks.getLandmark(18).getY();
-        if (landmarks.getLandmark(19).getY() < pseudoFixKeyPoint && landmarks.getLandmark(20).getY() < pseudoFixKeyPoint)
-        {
-            fourthFingerIsOpen = true;
-        }
-
-        Log.e(TAG, "is finger open[" + thumbIsOpen + "," + firstFingerIsOpen + "," + secondFingerIsOpen + "," + thirdFingerIsOpen + "," + fourthFingerIsOpen);
-
-
-// Hand gesture recognition
-        if (thumbIsOpen && firstFingerIsOpen && secondFingerIsOpen && thirdFingerIsOpen && fourthFingerIsOpen) {
-            handGesture = "FIVE";
-        }
-        else if (!thumbIsOpen && firstFingerIsOpen && secondFingerIsOpen && thirdFingerIsOpen && fourthFingerIsOpen) {
-            handGesture = "FOUR";
-        }
-        else if (thumbIsOpen && firstFingerIsOpen && secondFingerIsOpen && !thirdFingerIsOpen && !fourthFingerIsOpen) {
-            handGesture = "TREE";
-        }
-        else if (thumbIsOpen && firstFingerIsOpen && !secondFingerIsOpen && !thirdFingerIsOpen && !fourthFingerIsOpen) {
-            handGesture = "TWO";
-        }
-        else if (!thumbIsOpen && firstFingerIsOpen && !secondFingerIsOpen && !thirdFingerIsOpen && !fourthFingerIsOpen) {
-            handGesture = "ONE";
-        }
-        else if (!thumbIsOpen && firstFingerIsOpen && secondFingerIsOpen && !thirdFingerIsOpen && !fourthFingerIsOpen) {
-            handGesture = "YEAH";
-        }
-        else if (!thumbIsOpen && firstFingerIsOpen && !secondFingerIsOpen && !thirdFingerIsOpen && fourthFingerIsOpen) {
-            handGesture = "ROCK";
-        }
-        else if (thumbIsOpen && firstFingerIsOpen && !secondFingerIsOpen && !thirdFingerIsOpen && fourthFingerIsOpen) {
-            handGesture = "SPIDERMAN";
-        }
-        else if (!thumbIsOpen && !firstFingerIsOpen && !secondFingerIsOpen && !thirdFingerIsOpen && !fourthFingerIsOpen) {
-            handGesture = "FIST";
-        }
-        else if (!firstFingerIsOpen && secondFingerIsOpen && thirdFingerIsOpen && fourthFingerIsOpen && isThumbNearFirstFinger(landmarks.getLandmark(4), landmarks.getLandmark(8))) {
-            handGesture = "OK";
-        }
-        else {
-     //       Log.e(TAG, "no hand gesture");
-        }
-
-
-        return handGesture;
-    }
-
-    private double getEuclideanDistanceAB(float a_x, float a_y, float b_x, float b_y)
-    {
-        double dist = Math.pow(a_x - b_x, 2) + Math.pow(a_y - b_y, 2);
-        return Math.sqrt(dist);
+        return gestureClassifier.classify(landmarks);
     }
 
-    private Boolean isThumbNearFirstFinger(LandmarkProto.NormalizedLandmark point1, LandmarkProto.NormalizedLandmark point2)
-    {
-        double distance = getEuclideanDistanceAB(point1.getX(), point1.getY(), point2.getX(), point2.getY());
-        return distance < 0.1;
+    /**
+     * 用来在运行时注册新的手势。
+     */
+    public GestureClassifier getGestureClassifier() {
+        return gestureClassifier;
     }
 
     public void setHandGestureListener(OnHandGestureListener listener) {
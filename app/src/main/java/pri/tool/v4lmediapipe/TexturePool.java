@@ -0,0 +1,149 @@
+package pri.tool.v4lmediapipe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按尺寸复用的纹理池，一帧只上传一次，由引用计数决定纹理什么时候可以再次写入。
+ *
+ * acquire、clear 只能在 GL 线程中调用；{@link PooledTexture#release()} 可以在任意线程调用。
+ * 引用计数归零的纹理在复用前还要经过 {@link ReleaseWaiter}，由它等待使用方的 GPU 同步。
+ * 纹理数量达到上限又没有空闲的纹理时，阻塞等待最早发出去的那个纹理，和原来 waitUntilReleased 的背压一样。
+ */
+final class TexturePool {
+
+    /**
+     * 在复用一个纹理之前等待所有使用方真正用完它，返回时纹理可以被覆盖。
+     */
+    interface ReleaseWaiter {
+        void awaitRelease(PooledTexture texture);
+    }
+
+    static final class PooledTexture {
+        final int name;
+        final int width;
+        final int height;
+        private final AtomicInteger refCount = new AtomicInteger();
+        //BitmapConverter 在这里保存每个消费者复用的 TextureFrame
+        Object tag;
+
+        PooledTexture(int name, int width, int height) {
+            this.name = name;
+            this.width = width;
+            this.height = height;
+        }
+
+        void retain() {
+            refCount.incrementAndGet();
+        }
+
+        /**
+         * 最后一个引用释放后纹理回到池中。
+         */
+        void release() {
+            if (refCount.decrementAndGet() < 0) {
+                refCount.incrementAndGet();
+                throw new IllegalStateException("texture " + name + " released too many times");
+            }
+        }
+
+        int getRefCount() {
+            return refCount.get();
+        }
+    }
+
+    private final GlTextureApi api;
+    private final ReleaseWaiter waiter;
+    private volatile int maxTextures;
+    //按最近一次 acquire 的先后排列，最早发出去的在前面
+    private final List<PooledTexture> textures = new ArrayList<>();
+    private long createdTextures;
+
+    TexturePool(GlTextureApi api, ReleaseWaiter waiter, int maxTextures) {
+        this.api = api;
+        this.waiter = waiter;
+        this.maxTextures = Math.max(maxTextures, 1);
+    }
+
+    /**
+     * 取一个 width x height 的纹理，返回时引用计数为 1，由调用方负责 release。
+     */
+    PooledTexture acquire(int width, int height) {
+        //尺寸变化后旧尺寸的空闲纹理不会再用到，上限调小后多出来的空闲纹理也删掉
+        int excess = textures.size() - maxTextures;
+        for (int i = textures.size() - 1; i >= 0; i--) {
+            PooledTexture texture = textures.get(i);
+            boolean resized = texture.width != width || texture.height != height;
+            if ((resized || excess > 0) && texture.getRefCount() == 0) {
+                excess--;
+                api.deleteTexture(texture.name);
+                textures.remove(i);
+            }
+        }
+
+        PooledTexture result = null;
+        for (PooledTexture texture : textures) {
+            if (texture.width == width && texture.height == height && texture.getRefCount() == 0) {
+                result = texture;
+                break;
+            }
+        }
+
+        if (result == null && textures.size() < maxTextures) {
+            result = new PooledTexture(api.createTexture(width, height), width, height);
+            createdTextures++;
+            textures.add(result);
+        }
+
+        if (result == null) {
+            //全部在使用中，等最早的那个
+            result = textures.get(0);
+            waiter.awaitRelease(result);
+            if (result.width != width || result.height != height) {
+                textures.remove(0);
+                api.deleteTexture(result.name);
+                result = new PooledTexture(api.createTexture(width, height), width, height);
+                createdTextures++;
+                textures.add(result);
+            }
+        } else {
+            waiter.awaitRelease(result);
+        }
+
+        //使用方可能只通过 GPU 同步释放而没有减引用，等待返回后以等待结果为准
+        result.refCount.set(1);
+        textures.remove(result);
+        textures.add(result);
+        return result;
+    }
+
+    /**
+     * 调整纹理数量上限，超出的纹理在空闲后按尺寸变化的规则删除。可以在任意线程调用。
+     */
+    void setMaxTextures(int maxTextures) {
+        this.maxTextures = Math.max(maxTextures, 1);
+    }
+
+    int getTextureCount() {
+        return textures.size();
+    }
+
+    /**
+     * 累计创建的纹理数，稳定运行时不再增长。
+     */
+    long getCreatedTextures() {
+        return createdTextures;
+    }
+
+    /**
+     * 删除所有纹理，调用前应当确认使用方都已经用完。
+     */
+    void clear() {
+        for (PooledTexture texture : textures) {
+            waiter.awaitRelease(texture);
+            api.deleteTexture(texture.name);
+        }
+        textures.clear();
+    }
+}
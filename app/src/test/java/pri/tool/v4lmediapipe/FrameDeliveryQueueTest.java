@@ -0,0 +1,199 @@
+package pri.tool.v4lmediapipe;
+
+import com.google.mediapipe.components.TextureFrameConsumer;
+import com.google.mediapipe.framework.AppTextureFrame;
+import com.google.mediapipe.framework.TextureFrame;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import pri.tool.v4l2camera.DropPolicy;
+
+import static org.junit.Assert.*;
+
+public class FrameDeliveryQueueTest {
+
+    //只记录 release 次数的帧
+    private static class CountingFrame extends AppTextureFrame {
+        final int id;
+        final AtomicInteger releases = new AtomicInteger();
+
+        CountingFrame(int id) {
+            super(id, 1, 1);
+            this.id = id;
+        }
+
+        @Override
+        public void release() {
+            releases.incrementAndGet();
+        }
+    }
+
+    //第一帧阻塞在 onNewFrame 里，直到测试放行
+    private static class StalledConsumer implements TextureFrameConsumer {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch resume = new CountDownLatch(1);
+        final List<Integer> received = new ArrayList<>();
+
+        @Override
+        public void onNewFrame(TextureFrame frame) {
+            entered.countDown();
+            try {
+                resume.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (received) {
+                received.add(((CountingFrame) frame).id);
+            }
+            frame.release();
+        }
+    }
+
+    @Test
+    public void latestWinsKeepsOnlyNewestWhileConsumerIsBusy() throws InterruptedException {
+        StalledConsumer consumer = new StalledConsumer();
+        FrameDeliveryQueue queue = new FrameDeliveryQueue(consumer, DropPolicy.LATEST_WINS, 4, "test");
+        assertEquals(1, queue.getCapacity());
+        queue.start();
+
+        queue.offer(new CountingFrame(0));
+        assertTrue(consumer.entered.await(5, TimeUnit.SECONDS));
+
+        CountingFrame[] frames = new CountingFrame[5];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new CountingFrame(i + 1);
+            //消费者卡住时 offer 也立即返回
+            queue.offer(frames[i]);
+        }
+        for (int i = 0; i < frames.length - 1; i++) {
+            assertEquals(1, frames[i].releases.get());
+        }
+        assertEquals(frames.length - 1, queue.getDroppedFrames());
+
+        consumer.resume.countDown();
+        waitForReceived(consumer, 2);
+        queue.stop();
+        synchronized (consumer.received) {
+            assertEquals(0, (int) consumer.received.get(0));
+            assertEquals(5, (int) consumer.received.get(1));
+        }
+    }
+
+    @Test
+    public void dropOldestKeepsCapacityFrames() throws InterruptedException {
+        StalledConsumer consumer = new StalledConsumer();
+        FrameDeliveryQueue queue = new FrameDeliveryQueue(consumer, DropPolicy.DROP_OLDEST, 3, "test");
+        queue.start();
+
+        queue.offer(new CountingFrame(0));
+        assertTrue(consumer.entered.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 5; i++) {
+            queue.offer(new CountingFrame(i));
+        }
+        assertEquals(2, queue.getDroppedFrames());
+
+        consumer.resume.countDown();
+        waitForReceived(consumer, 4);
+        queue.stop();
+        synchronized (consumer.received) {
+            assertEquals(4, consumer.received.size());
+            assertEquals(3, (int) consumer.received.get(1));
+            assertEquals(5, (int) consumer.received.get(3));
+        }
+    }
+
+    @Test
+    public void revokeReleasesQueuedFrameOnly() throws InterruptedException {
+        StalledConsumer consumer = new StalledConsumer();
+        FrameDeliveryQueue queue = new FrameDeliveryQueue(consumer, DropPolicy.DROP_OLDEST, 2, "test");
+        queue.start();
+
+        CountingFrame delivered = new CountingFrame(0);
+        queue.offer(delivered);
+        assertTrue(consumer.entered.await(5, TimeUnit.SECONDS));
+        CountingFrame queued = new CountingFrame(1);
+        queue.offer(queued);
+
+        //已经交给消费者的帧取不回来
+        assertFalse(queue.revoke(delivered));
+        assertTrue(queue.revoke(queued));
+        assertEquals(1, queued.releases.get());
+        assertEquals(0, delivered.releases.get());
+        assertEquals(1, queue.getDroppedFrames());
+
+        consumer.resume.countDown();
+        queue.stop();
+    }
+
+    @Test
+    public void stopReleasesQueuedAndLateFrames() throws InterruptedException {
+        StalledConsumer consumer = new StalledConsumer();
+        FrameDeliveryQueue queue = new FrameDeliveryQueue(consumer, DropPolicy.DROP_OLDEST, 4, "test");
+        queue.start();
+
+        queue.offer(new CountingFrame(0));
+        assertTrue(consumer.entered.await(5, TimeUnit.SECONDS));
+        CountingFrame queued = new CountingFrame(1);
+        queue.offer(queued);
+
+        //不等待正在执行的 onNewFrame
+        queue.stop();
+        assertEquals(1, queued.releases.get());
+        CountingFrame late = new CountingFrame(2);
+        queue.offer(late);
+        assertEquals(1, late.releases.get());
+
+        consumer.resume.countDown();
+        waitForReceived(consumer, 1);
+        synchronized (consumer.received) {
+            assertEquals(1, consumer.received.size());
+        }
+    }
+
+    @Test
+    public void stopIsNotDroppedByConcurrentOffer() throws InterruptedException {
+        for (int round = 0; round < 200; round++) {
+            //消费者很快，投递线程大部分时间阻塞在 take 中
+            FrameDeliveryQueue queue = new FrameDeliveryQueue(TextureFrame::release, DropPolicy.LATEST_WINS, 1, "test");
+            queue.start();
+            CountDownLatch offering = new CountDownLatch(1);
+            Thread producer = new Thread(() -> {
+                for (int i = 0; !Thread.currentThread().isInterrupted(); i++) {
+                    queue.offer(new CountingFrame(i));
+                    offering.countDown();
+                }
+            });
+            producer.start();
+            assertTrue(offering.await(5, TimeUnit.SECONDS));
+
+            queue.stop();
+            assertTrue("round " + round, queue.awaitStopped(1000));
+            producer.interrupt();
+            producer.join();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBlockPolicy() {
+        new FrameDeliveryQueue(new StalledConsumer(), DropPolicy.BLOCK, 2, "test");
+    }
+
+    private static void waitForReceived(StalledConsumer consumer, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (consumer.received) {
+                if (consumer.received.size() >= count) {
+                    return;
+                }
+            }
+            Thread.sleep(5);
+        }
+        fail("consumer received fewer than " + count + " frames");
+    }
+}
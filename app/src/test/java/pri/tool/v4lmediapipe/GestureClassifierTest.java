@@ -0,0 +1,68 @@
+package pri.tool.v4lmediapipe;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GestureClassifierTest {
+
+    //按掩码构造一只手：伸直的手指末端在关节上方（拇指在左侧），弯曲的在下方
+    private static float[] hand(int mask) {
+        float[] points = new float[GestureClassifier.LANDMARK_COUNT * 3];
+        for (int i = 0; i < GestureClassifier.LANDMARK_COUNT; i++) {
+            points[i * 3] = 0.5f;
+            points[i * 3 + 1] = 0.5f;
+        }
+
+        float thumbX = (mask & GestureClassifier.THUMB) != 0 ? 0.3f : 0.7f;
+        points[3 * 3] = thumbX;
+        points[4 * 3] = thumbX;
+        for (int finger = 0; finger < 4; finger++) {
+            int joint = 6 + finger * 4;
+            float tipY = (mask & (GestureClassifier.INDEX << finger)) != 0 ? 0.2f : 0.8f;
+            points[(joint + 1) * 3 + 1] = tipY;
+            points[(joint + 2) * 3 + 1] = tipY;
+        }
+        return points;
+    }
+
+    @Test
+    public void classifiesBuiltinGestures() {
+        GestureClassifier classifier = new GestureClassifier();
+        assertEquals(GestureClassifier.FIVE, classifier.classify(hand(GestureClassifier.ALL_FINGERS)));
+        assertEquals(GestureClassifier.FIST, classifier.classify(hand(0)));
+        assertEquals(GestureClassifier.YEAH,
+                classifier.classify(hand(GestureClassifier.INDEX | GestureClassifier.MIDDLE)));
+        assertEquals(GestureClassifier.SPIDERMAN, classifier.classify(
+                hand(GestureClassifier.THUMB | GestureClassifier.INDEX | GestureClassifier.PINKY)));
+        assertEquals("FIVE", classifier.getName(GestureClassifier.FIVE));
+        assertEquals("No hand", classifier.getName(GestureClassifier.UNKNOWN));
+        assertEquals(GestureClassifier.NO_HAND, classifier.classify(null));
+    }
+
+    @Test
+    public void okNeedsThumbNearIndex() {
+        GestureClassifier classifier = new GestureClassifier();
+        float[] points = hand(GestureClassifier.MIDDLE | GestureClassifier.RING | GestureClassifier.PINKY);
+        assertEquals(GestureClassifier.UNKNOWN, classifier.classify(points));
+
+        //拇指尖移到食指尖旁边
+        points[4 * 3] = points[8 * 3] + 0.01f;
+        points[4 * 3 + 1] = points[8 * 3 + 1];
+        assertEquals(GestureClassifier.OK, classifier.classify(points));
+    }
+
+    @Test
+    public void registeredGestureHasLowerPriority() {
+        GestureClassifier classifier = new GestureClassifier();
+        int pinky = classifier.register("PINKY", GestureClassifier.PINKY,
+                GestureClassifier.ALL_FINGERS & ~GestureClassifier.THUMB, -1);
+        assertEquals(GestureClassifier.GESTURE_CUSTOM, pinky);
+        assertEquals("PINKY", classifier.getName(pinky));
+
+        assertEquals(pinky, classifier.classify(hand(GestureClassifier.PINKY)));
+        assertEquals(pinky, classifier.classify(hand(GestureClassifier.THUMB | GestureClassifier.PINKY)));
+        //已有的规则仍然优先
+        assertEquals(GestureClassifier.FIST, classifier.classify(hand(0)));
+    }
+}
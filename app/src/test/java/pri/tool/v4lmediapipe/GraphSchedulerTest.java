@@ -0,0 +1,194 @@
+package pri.tool.v4lmediapipe;
+
+import com.google.mediapipe.components.TextureFrameConsumer;
+import com.google.mediapipe.framework.AppTextureFrame;
+import com.google.mediapipe.framework.PacketCallback;
+import com.google.mediapipe.framework.TextureFrame;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GraphSchedulerTest {
+
+    private static final long FRAME_US = 33333;
+    private static final long START_NANOS = 1000000000L;
+
+    //只记录收到的帧和注册的回调
+    private static class StubGraph implements GraphProcessor {
+        final List<Long> frames = new ArrayList<>();
+        final List<String> streams = new ArrayList<>();
+        boolean closed;
+
+        @Override
+        public void onNewFrame(TextureFrame frame) {
+            frames.add(frame.getTimestamp());
+            frame.release();
+        }
+
+        @Override
+        public void addPacketCallback(String outputStream, PacketCallback callback) {
+            streams.add(outputStream);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static class TimestampFrame extends AppTextureFrame {
+        final long timestamp;
+        int releases;
+
+        TimestampFrame(long timestamp) {
+            super(1, 1, 1);
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public void release() {
+            releases++;
+        }
+    }
+
+    //30fps 输入，每帧都在 costUs 后完成
+    private static int[] run(GraphScheduler scheduler, GraphScheduler.Slot[] slots, long costUs, int frameCount) {
+        int[] admitted = new int[slots.length];
+        for (int i = 0; i < frameCount; i++) {
+            long timestampUs = i * FRAME_US;
+            long nowNanos = START_NANOS + timestampUs * 1000;
+            for (int s = 0; s < slots.length; s++) {
+                if (scheduler.admit(slots[s], timestampUs, nowNanos)) {
+                    admitted[s]++;
+                    scheduler.onComplete(slots[s], timestampUs, nowNanos + costUs * 1000);
+                }
+            }
+        }
+        return admitted;
+    }
+
+    @Test
+    public void targetFpsSkipsExtraFrames() {
+        GraphScheduler scheduler = new GraphScheduler();
+        GraphScheduler.Slot full = scheduler.add(0, 0);
+        GraphScheduler.Slot half = scheduler.add(15, 0);
+        GraphScheduler.Slot twoThirds = scheduler.add(20, 0);
+
+        int[] admitted = run(scheduler, new GraphScheduler.Slot[]{full, half, twoThirds}, 0, 90);
+        assertEquals(90, admitted[0]);
+        assertEquals(45, admitted[1]);
+        assertEquals(60, admitted[2], 1);
+        assertEquals(45, scheduler.getSkippedFrames(half));
+        assertEquals(30, scheduler.getInputFps(), 0.1);
+    }
+
+    @Test
+    public void lowPriorityGraphSlowsDownWhenOverloaded() {
+        GraphScheduler scheduler = new GraphScheduler();
+        GraphScheduler.Slot low = scheduler.add(30, 0);
+        GraphScheduler.Slot high = scheduler.add(30, 10);
+
+        //每个 graph 20ms，两个都跑满需要 1.2 倍的时间
+        int[] admitted = run(scheduler, new GraphScheduler.Slot[]{low, high}, 20000, 300);
+        assertEquals(30, scheduler.getAssignedFps(high), 1e-3);
+        assertEquals(20, scheduler.getAssignedFps(low), 0.5);
+        assertEquals(300, admitted[1]);
+        assertTrue(admitted[0] < 230);
+    }
+
+    @Test
+    public void starvedGraphKeepsMinimumRate() {
+        GraphScheduler scheduler = new GraphScheduler();
+        GraphScheduler.Slot high = scheduler.add(0, 1);
+        GraphScheduler.Slot low = scheduler.add(0, 0);
+        scheduler.setMinFps(2);
+
+        //高优先级的 graph 已经占满预算
+        run(scheduler, new GraphScheduler.Slot[]{high, low}, 33000, 300);
+        assertEquals(0, scheduler.getAssignedFps(high), 1e-3);
+        assertEquals(2, scheduler.getAssignedFps(low), 1e-3);
+
+        scheduler.setBudget(3);
+        assertEquals(0, scheduler.getAssignedFps(low), 1e-3);
+    }
+
+    @Test
+    public void removedSlotAdmitsNothing() {
+        GraphScheduler scheduler = new GraphScheduler();
+        GraphScheduler.Slot slot = scheduler.add(0, 0);
+        assertTrue(scheduler.admit(slot, 0, START_NANOS));
+        scheduler.remove(slot);
+        assertFalse(scheduler.admit(slot, FRAME_US, START_NANOS));
+        assertEquals(-1, scheduler.onComplete(slot, FRAME_US, START_NANOS));
+    }
+
+    @Test
+    public void registrySharesFramesAndClosesGraphs() {
+        List<StubGraph> created = new ArrayList<>();
+        GraphRegistry registry = new GraphRegistry(spec -> {
+            StubGraph graph = new StubGraph();
+            created.add(graph);
+            return graph;
+        });
+
+        GraphSpec hands = new GraphSpec("hands", "hands.binarypb", "input_video", "output_video");
+        hands.setCompletionStream("presence");
+        hands.addPacketCallback("presence", packet -> { });
+        hands.addPacketCallback("landmarks", packet -> { });
+        GraphSpec faces = new GraphSpec("faces", "faces.binarypb", "input_video", null);
+        faces.setTargetFps(10);
+        faces.setCompletionStream("detections");
+        registry.register(hands);
+        registry.register(faces);
+
+        //完成流和使用方的回调合并，每个流只注册一次
+        assertEquals(2, created.get(0).streams.size());
+        assertEquals(1, created.get(1).streams.size());
+
+        for (int i = 0; i < 30; i++) {
+            registry.getConsumer("hands").onNewFrame(new TimestampFrame(i * FRAME_US));
+            registry.getConsumer("faces").onNewFrame(new TimestampFrame(i * FRAME_US));
+        }
+        assertEquals(30, created.get(0).frames.size());
+        assertEquals(10, created.get(1).frames.size());
+        assertEquals(10, registry.getAssignedFps("faces"), 1e-3);
+
+        registry.unregister("faces");
+        assertTrue(created.get(1).closed);
+        assertNull(registry.getProcessor("faces"));
+        assertEquals(-1, registry.getAssignedFps("faces"), 1e-3);
+
+        registry.close();
+        assertTrue(created.get(0).closed);
+    }
+
+    @Test
+    public void closedGraphReleasesLateFrames() {
+        StubGraph graph = new StubGraph();
+        GraphRegistry registry = new GraphRegistry(spec -> graph);
+        registry.register(new GraphSpec("hands", "hands.binarypb", "input_video", null));
+        TextureFrameConsumer consumer = registry.getConsumer("hands");
+        registry.close();
+
+        TimestampFrame late = new TimestampFrame(0);
+        consumer.onNewFrame(late);
+        assertEquals(1, late.releases);
+        assertTrue(graph.frames.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDuplicateName() {
+        GraphRegistry registry = new GraphRegistry(spec -> new StubGraph());
+        registry.register(new GraphSpec("hands", "a.binarypb", "input_video", null));
+        registry.register(new GraphSpec("hands", "b.binarypb", "input_video", null));
+    }
+}
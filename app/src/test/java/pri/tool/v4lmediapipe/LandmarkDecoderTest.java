@@ -0,0 +1,109 @@
+package pri.tool.v4lmediapipe;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class LandmarkDecoderTest {
+
+    private static void writeFloat(ByteArrayOutputStream out, int field, float value) {
+        out.write(field << 3 | 5);
+        int bits = Float.floatToIntBits(value);
+        out.write(bits);
+        out.write(bits >> 8);
+        out.write(bits >> 16);
+        out.write(bits >> 24);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    //按 NormalizedLandmarkList 编码，每个点带上 visibility 和 presence
+    private static byte[] encode(float[] points) {
+        ByteArrayOutputStream list = new ByteArrayOutputStream();
+        for (int i = 0; i < points.length / 3; i++) {
+            ByteArrayOutputStream landmark = new ByteArrayOutputStream();
+            writeFloat(landmark, 1, points[i * 3]);
+            writeFloat(landmark, 2, points[i * 3 + 1]);
+            writeFloat(landmark, 3, points[i * 3 + 2]);
+            writeFloat(landmark, 4, 0.9f);
+            writeFloat(landmark, 5, 0.8f);
+            list.write(0x0a);
+            writeVarint(list, landmark.size());
+            list.write(landmark.toByteArray(), 0, landmark.size());
+        }
+        return list.toByteArray();
+    }
+
+    private static float[] points(int count) {
+        float[] points = new float[count * 3];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = i * 0.01f - 0.2f;
+        }
+        return points;
+    }
+
+    @Test
+    public void decodesXyzAndSkipsOtherFields() {
+        float[] expected = points(GestureClassifier.LANDMARK_COUNT);
+        float[] decoded = new float[expected.length];
+
+        LandmarkDecoder decoder = new LandmarkDecoder();
+        assertEquals(GestureClassifier.LANDMARK_COUNT, decoder.decode(encode(expected), decoded));
+        assertArrayEquals(expected, decoded, 0);
+    }
+
+    @Test
+    public void missingFieldsAreZeroAndUnknownFieldsAreSkipped() {
+        ByteArrayOutputStream landmark = new ByteArrayOutputStream();
+        writeFloat(landmark, 2, 0.5f);
+        //未知的 varint、fixed64 和 length-delimited 字段
+        landmark.write(6 << 3);
+        writeVarint(landmark, 1L << 40);
+        landmark.write(7 << 3 | 1);
+        landmark.write(new byte[8], 0, 8);
+        landmark.write(8 << 3 | 2);
+        landmark.write(2);
+        landmark.write(new byte[2], 0, 2);
+
+        ByteArrayOutputStream list = new ByteArrayOutputStream();
+        list.write(0x0a);
+        list.write(landmark.size());
+        list.write(landmark.toByteArray(), 0, landmark.size());
+
+        float[] decoded = {1, 1, 1};
+        assertEquals(1, new LandmarkDecoder().decode(list.toByteArray(), decoded));
+        assertArrayEquals(new float[]{0, 0.5f, 0}, decoded, 0);
+    }
+
+    @Test
+    public void countsLandmarksBeyondArray() {
+        float[] expected = points(4);
+        float[] decoded = new float[6];
+        assertEquals(4, new LandmarkDecoder().decode(encode(expected), decoded));
+        assertArrayEquals(Arrays.copyOf(expected, 6), decoded, 0);
+    }
+
+    @Test
+    public void rejectsTruncatedData() {
+        byte[] data = encode(points(2));
+        LandmarkDecoder decoder = new LandmarkDecoder();
+        float[] decoded = new float[6];
+        for (int length = 1; length < data.length; length++) {
+            //在两个 landmark 之间截断仍然是完整的编码
+            int expected = length == data.length / 2 ? 1 : -1;
+            assertEquals(expected, decoder.decode(data, 0, length, decoded));
+        }
+        //出错后实例可以继续使用
+        assertEquals(2, decoder.decode(data, decoded));
+        assertEquals(0, decoder.decode(new byte[0], decoded));
+    }
+}
@@ -0,0 +1,140 @@
+package pri.tool.v4lmediapipe;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TexturePoolTest {
+
+    //只记录调用的 GL 实现
+    private static class FakeGl implements GlTextureApi {
+        int nextName = 1;
+        final List<Integer> live = new ArrayList<>();
+        int deleted;
+
+        @Override
+        public int createTexture(int width, int height) {
+            live.add(nextName);
+            return nextName++;
+        }
+
+        @Override
+        public void uploadBitmap(int texture, Bitmap bitmap) {
+        }
+
+        @Override
+        public void deleteTexture(int texture) {
+            assertTrue(live.remove(Integer.valueOf(texture)));
+            deleted++;
+        }
+    }
+
+    //等待时把引用计数还没归零的纹理释放掉，模拟消费者在 GPU 同步后用完
+    private static class FakeWaiter implements TexturePool.ReleaseWaiter {
+        final List<Integer> waited = new ArrayList<>();
+
+        @Override
+        public void awaitRelease(TexturePool.PooledTexture texture) {
+            waited.add(texture.name);
+            while (texture.getRefCount() > 0) {
+                texture.release();
+            }
+        }
+    }
+
+    @Test
+    public void reusesReleasedTextureOfSameSize() {
+        FakeGl gl = new FakeGl();
+        TexturePool pool = new TexturePool(gl, new FakeWaiter(), 2);
+
+        for (int i = 0; i < 100; i++) {
+            TexturePool.PooledTexture texture = pool.acquire(320, 240);
+            assertEquals(1, texture.getRefCount());
+            texture.release();
+        }
+        assertEquals(1, pool.getCreatedTextures());
+        assertEquals(1, pool.getTextureCount());
+    }
+
+    @Test
+    public void sharedTextureReturnsAfterLastConsumerReleases() {
+        FakeGl gl = new FakeGl();
+        TexturePool pool = new TexturePool(gl, new FakeWaiter(), 2);
+
+        TexturePool.PooledTexture shared = pool.acquire(320, 240);
+        //三个消费者，上传方释放自己的引用
+        shared.retain();
+        shared.retain();
+        shared.retain();
+        shared.release();
+
+        TexturePool.PooledTexture second = pool.acquire(320, 240);
+        assertNotSame(shared, second);
+        second.release();
+
+        shared.release();
+        shared.release();
+        assertEquals(1, shared.getRefCount());
+        shared.release();
+        assertEquals(0, shared.getRefCount());
+
+        //两个纹理都空闲，按最早发出的顺序复用
+        assertSame(shared, pool.acquire(320, 240));
+        assertEquals(2, pool.getCreatedTextures());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsExtraRelease() {
+        TexturePool pool = new TexturePool(new FakeGl(), new FakeWaiter(), 2);
+        TexturePool.PooledTexture texture = pool.acquire(320, 240);
+        texture.release();
+        texture.release();
+    }
+
+    @Test
+    public void waitsForOldestWhenAllTexturesInUse() {
+        FakeGl gl = new FakeGl();
+        FakeWaiter waiter = new FakeWaiter();
+        TexturePool pool = new TexturePool(gl, waiter, 2);
+
+        TexturePool.PooledTexture first = pool.acquire(320, 240);
+        TexturePool.PooledTexture second = pool.acquire(320, 240);
+        waiter.waited.clear();
+
+        TexturePool.PooledTexture third = pool.acquire(320, 240);
+        assertSame(first, third);
+        assertEquals(first.name, (int) waiter.waited.get(0));
+        assertEquals(1, third.getRefCount());
+        assertEquals(1, second.getRefCount());
+        assertEquals(2, pool.getCreatedTextures());
+    }
+
+    @Test
+    public void dropsOldSizeAfterResize() {
+        FakeGl gl = new FakeGl();
+        TexturePool pool = new TexturePool(gl, new FakeWaiter(), 2);
+
+        pool.acquire(640, 480).release();
+        TexturePool.PooledTexture held = pool.acquire(640, 480);
+        held.retain();
+        TexturePool.PooledTexture small = pool.acquire(320, 240);
+        assertEquals(320, small.width);
+        //空闲的旧尺寸纹理已经删除，仍在使用的保留
+        assertEquals(2, gl.live.size());
+        small.release();
+
+        held.release();
+        held.release();
+        pool.acquire(320, 240).release();
+        assertEquals(1, gl.live.size());
+
+        pool.clear();
+        assertEquals(0, gl.live.size());
+        assertEquals(0, pool.getTextureCount());
+    }
+}
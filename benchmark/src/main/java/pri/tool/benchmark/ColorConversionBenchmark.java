@@ -0,0 +1,80 @@
+package pri.tool.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import pri.tool.v4l2camera.ColorConverter;
+import pri.tool.v4l2camera.ImageUtils;
+
+/**
+ * 每秒转换的帧数，输出 buffer 复用，gc.alloc.rate.norm 应当为 0。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColorConversionBenchmark {
+
+    @Param({"YUYV", "NV21", "YV12"})
+    public String format;
+
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String resolution;
+
+    private int pixFormat;
+    private int width;
+    private int height;
+    private byte[] src;
+    private int[] argb;
+    private byte[] rgba;
+
+    @Setup
+    public void setup() {
+        switch (format) {
+            case "NV21":
+                pixFormat = ImageUtils.NV21;
+                break;
+            case "YV12":
+                pixFormat = ImageUtils.YV12;
+                break;
+            default:
+                pixFormat = ImageUtils.YUYV;
+                break;
+        }
+
+        String[] size = resolution.split("x");
+        width = Integer.parseInt(size[0]);
+        height = Integer.parseInt(size[1]);
+
+        src = new byte[ColorConverter.getFrameSize(pixFormat, width, height)];
+        new Random(42).nextBytes(src);
+        argb = new int[width * height];
+        rgba = new byte[width * height * 4];
+    }
+
+    @Benchmark
+    public int[] toArgb() {
+        ColorConverter.convertToArgb(src, pixFormat, width, height, ColorConverter.COLOR_SPACE_BT601, argb);
+        return argb;
+    }
+
+    @Benchmark
+    public byte[] toRgba() {
+        ColorConverter.convertToRgba(src, pixFormat, width, height, ColorConverter.COLOR_SPACE_BT601, rgba);
+        return rgba;
+    }
+}
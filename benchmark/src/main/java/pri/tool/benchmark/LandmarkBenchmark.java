@@ -0,0 +1,89 @@
+package pri.tool.benchmark;
+
+import com.google.mediapipe.formats.proto.LandmarkProto;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import pri.tool.v4lmediapipe.GestureClassifier;
+import pri.tool.v4lmediapipe.LandmarkDecoder;
+
+/**
+ * hand_landmarks 回调线程上每帧的工作：解码关键点和识别手势。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LandmarkBenchmark {
+
+    private byte[] packet;
+    private float[] points;
+    private final GestureClassifier classifier = new GestureClassifier();
+    private final LandmarkDecoder decoder = new LandmarkDecoder();
+    private final float[] decoded = new float[Landmarks.COUNT * 3];
+
+    @Setup
+    public void setup() throws InvalidProtocolBufferException {
+        points = Landmarks.openHand();
+        packet = Landmarks.encode(points);
+        if (classifier.classify(points) != GestureClassifier.FIVE) {
+            throw new IllegalStateException("unexpected gesture " + classifier.classify(points));
+        }
+
+        //两种解码的结果必须相同
+        LandmarkProto.NormalizedLandmarkList list = LandmarkProto.NormalizedLandmarkList.parseFrom(packet);
+        if (decoder.decode(packet, decoded) != list.getLandmarkCount()) {
+            throw new IllegalStateException("landmark count mismatch");
+        }
+        for (int i = 0; i < list.getLandmarkCount(); i++) {
+            LandmarkProto.NormalizedLandmark landmark = list.getLandmark(i);
+            if (decoded[i * 3] != landmark.getX() || decoded[i * 3 + 1] != landmark.getY()
+                    || decoded[i * 3 + 2] != landmark.getZ()) {
+                throw new IllegalStateException("landmark " + i + " mismatch");
+            }
+        }
+    }
+
+    /**
+     * MediapipeHelper 原来的做法：parseFrom 后逐个读取 x/y/z。
+     */
+    @Benchmark
+    public void parseFrom(Blackhole blackhole) throws InvalidProtocolBufferException {
+        LandmarkProto.NormalizedLandmarkList list = LandmarkProto.NormalizedLandmarkList.parseFrom(packet);
+        for (int i = 0; i < list.getLandmarkCount(); i++) {
+            LandmarkProto.NormalizedLandmark landmark = list.getLandmark(i);
+            blackhole.consume(landmark.getX());
+            blackhole.consume(landmark.getY());
+            blackhole.consume(landmark.getZ());
+        }
+    }
+
+    /**
+     * LandmarkDecoder 直接解到复用的数组，gc.alloc.rate.norm 应当为 0。
+     */
+    @Benchmark
+    public float[] decode() {
+        decoder.decode(packet, decoded);
+        return decoded;
+    }
+
+    @Benchmark
+    public int classifyGesture() {
+        return classifier.classify(points);
+    }
+}
@@ -0,0 +1,61 @@
+package pri.tool.benchmark;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * benchmark 用的手部关键点数据，按 NormalizedLandmarkList 的 protobuf 编码生成。
+ */
+final class Landmarks {
+
+    static final int COUNT = 21;
+
+    private Landmarks() {
+    }
+
+    /**
+     * 五指张开、指尖朝上的一只手，每个点依次为 x, y, z。
+     */
+    static float[] openHand() {
+        float[] points = new float[COUNT * 3];
+        set(points, 0, 0.50f, 0.90f);
+        //拇指向左伸出
+        set(points, 1, 0.42f, 0.84f);
+        set(points, 2, 0.36f, 0.78f);
+        set(points, 3, 0.31f, 0.72f);
+        set(points, 4, 0.27f, 0.67f);
+        //其余四指向上伸直，每根手指 4 个点，y 依次减小
+        for (int finger = 0; finger < 4; finger++) {
+            float x = 0.42f + finger * 0.06f;
+            for (int joint = 0; joint < 4; joint++) {
+                set(points, 5 + finger * 4 + joint, x, 0.62f - joint * 0.08f);
+            }
+        }
+        return points;
+    }
+
+    private static void set(float[] points, int index, float x, float y) {
+        points[index * 3] = x;
+        points[index * 3 + 1] = y;
+        points[index * 3 + 2] = -0.01f * index;
+    }
+
+    /**
+     * 按 NormalizedLandmarkList 编码：每个 landmark 是字段 1 的子消息，x/y/z 为字段 1/2/3 的 fixed32。
+     */
+    static byte[] encode(float[] points) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < points.length / 3; i++) {
+            out.write(0x0a);
+            out.write(15);
+            for (int axis = 0; axis < 3; axis++) {
+                out.write(((axis + 1) << 3) | 5);
+                int bits = Float.floatToIntBits(points[i * 3 + axis]);
+                out.write(bits);
+                out.write(bits >> 8);
+                out.write(bits >> 16);
+                out.write(bits >> 24);
+            }
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,98 @@
+package pri.tool.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import pri.tool.bean.Frame;
+import pri.tool.bean.FrameRate;
+import pri.tool.bean.Parameter;
+import pri.tool.v4l2camera.CaptureFormat;
+import pri.tool.v4l2camera.FormatNegotiator;
+import pri.tool.v4l2camera.ImageUtils;
+import pri.tool.v4l2camera.NegotiationTarget;
+import pri.tool.v4l2camera.SizeChooser;
+
+/**
+ * 在很长的能力列表上选择预览尺寸和协商采集格式，frameCount 为每种格式的分辨率数量。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SizeSelectionBenchmark {
+
+    @Param({"16", "256"})
+    public int frameCount;
+
+    private List<Parameter> parameters;
+    private int[] widths;
+    private int[] heights;
+    private NegotiationTarget target;
+
+    @Setup
+    public void setup() {
+        parameters = new ArrayList<>();
+        parameters.add(new Parameter(ImageUtils.YUYV, frames(frameCount, 5)));
+        parameters.add(new Parameter(ImageUtils.MJPEG, frames(frameCount, 30)));
+
+        widths = new int[frameCount];
+        heights = new int[frameCount];
+        target = new NegotiationTarget(1280, 720, 30, NegotiationTarget.USB2_BANDWIDTH, ImageUtils.RGBA);
+    }
+
+    private static ArrayList<Frame> frames(int count, int maxFps) {
+        ArrayList<Frame> frames = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ArrayList<FrameRate> rates = new ArrayList<>();
+            for (int fps = maxFps; fps >= 5; fps -= 5) {
+                rates.add(new FrameRate(1, fps));
+            }
+            //从 160x120 开始按 16:9 和 4:3 交替增大，最后一个覆盖 4K
+            int width = 160 + i * (3840 - 160) / Math.max(count - 1, 1);
+            int height = i % 2 == 0 ? width * 9 / 16 : width * 3 / 4;
+            frames.add(new Frame(width & ~1, height & ~1, rates));
+        }
+        return frames;
+    }
+
+    /**
+     * V4L2Camera.chooseOptimalSize 的路径：展开指定格式的分辨率后选择。
+     */
+    @Benchmark
+    public int chooseOptimalSize() {
+        int count = 0;
+        for (Parameter parameter : parameters) {
+            if (parameter.pixFormat != ImageUtils.YUYV) {
+                continue;
+            }
+            for (Frame range : parameter.frames) {
+                for (Frame frame : FormatNegotiator.discreteFrames(range)) {
+                    widths[count] = frame.width;
+                    heights[count] = frame.height;
+                    count++;
+                }
+            }
+        }
+        return SizeChooser.choose(widths, heights, count, 1280, 720, 320);
+    }
+
+    @Benchmark
+    public CaptureFormat negotiate() {
+        return FormatNegotiator.negotiate(parameters, target);
+    }
+}
@@ -0,0 +1,57 @@
+package pri.tool.benchmark;
+
+import java.util.List;
+
+import pri.tool.bean.LoadStepResult;
+import pri.tool.bean.StageSnapshot;
+import pri.tool.v4l2camera.ImageUtils;
+import pri.tool.v4l2camera.LoadHarness;
+
+/**
+ * 多路并发压测，不是 JMH benchmark，由 loadtest 任务运行：
+ * <pre>
+ * ./gradlew :benchmark:loadtest [-Pload.args="YUYV 640x480 30 32 5000"]
+ * </pre>
+ * 参数依次为格式、分辨率、每路帧率、最大路数、每一步的统计时长（毫秒）。
+ */
+public class StreamScaling {
+
+    private static int parseFormat(String format) {
+        switch (format) {
+            case "YV12":
+                return ImageUtils.YV12;
+            case "NV21":
+                return ImageUtils.NV21;
+            case "RGBA":
+                return ImageUtils.RGBA;
+            default:
+                return ImageUtils.YUYV;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String format = args.length > 0 ? args[0] : "YUYV";
+        String[] size = (args.length > 1 ? args[1] : "640x480").split("x");
+        int fps = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        int maxStreams = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+        long measureMs = args.length > 4 ? Long.parseLong(args[4]) : LoadHarness.DEFAULT_MEASURE_MS;
+
+        LoadHarness harness = new LoadHarness(parseFormat(format),
+                Integer.parseInt(size[0]), Integer.parseInt(size[1]), fps);
+        harness.setDuration(LoadHarness.DEFAULT_WARMUP_MS, measureMs);
+
+        System.out.println(format + " " + size[0] + "x" + size[1] + " @" + fps + "fps, "
+                + Runtime.getRuntime().availableProcessors() + " cpus");
+        List<LoadStepResult> results = harness.ramp(maxStreams);
+        for (LoadStepResult result : results) {
+            System.out.println(result);
+            for (StageSnapshot stream : result.perStream) {
+                System.out.println("    " + stream);
+            }
+        }
+
+        int saturation = LoadHarness.saturationPoint(results);
+        System.out.println(saturation > 0 ? "saturated at " + saturation + " streams"
+                : "not saturated up to " + maxStreams + " streams");
+    }
+}
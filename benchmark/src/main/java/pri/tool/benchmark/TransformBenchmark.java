@@ -0,0 +1,39 @@
+package pri.tool.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import pri.tool.v4l2camera.Transforms;
+
+/**
+ * ImageUtils.getTransformationMatrix 的矩阵计算，不含 android.graphics.Matrix 对象本身。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformBenchmark {
+
+    @Param({"0", "90", "270"})
+    public int rotation;
+
+    private final float[] values = new float[9];
+
+    @Benchmark
+    public float[] previewToScreen() {
+        Transforms.getTransformation(1280, 720, 1080, 1920, rotation, true, values);
+        return values;
+    }
+}
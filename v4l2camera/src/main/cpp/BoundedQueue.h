@@ -0,0 +1,113 @@
+//
+// Bounded lock-free queue used between the capture and delivery threads.
+//
+
+#ifndef V4L_ANDROID_BOUNDEDQUEUE_H
+#define V4L_ANDROID_BOUNDEDQUEUE_H
+
+#include <stddef.h>
+#include <stdint.h>
+#include <atomic>
+
+/**
+ * 固定容量的无锁队列（Vyukov 的 sequence 标记 ring），允许多个生产者和消费者。
+ * 采集线程在丢帧时也要从队列头取出旧帧，所以不能用单纯的 SPSC ring。
+ */
+template <typename T>
+class BoundedQueue {
+public:
+    BoundedQueue() {}
+
+    ~BoundedQueue() {
+        delete[] cells;
+    }
+
+    /**
+     * 重新分配容量，调用时不能有其他线程在使用队列。
+     */
+    void init(size_t capacity) {
+        delete[] cells;
+        size = capacity < 1 ? 1 : capacity;
+        cells = new Cell[size];
+        for (size_t i = 0; i < size; i++) {
+            cells[i].sequence.store(i, std::memory_order_relaxed);
+        }
+        enqueuePos.store(0, std::memory_order_relaxed);
+        dequeuePos.store(0, std::memory_order_relaxed);
+    }
+
+    size_t capacity() const {
+        return size;
+    }
+
+    bool push(const T &value) {
+        size_t pos = enqueuePos.load(std::memory_order_relaxed);
+        Cell *cell;
+
+        while (true) {
+            cell = &cells[pos % size];
+            size_t seq = cell->sequence.load(std::memory_order_acquire);
+            intptr_t diff = (intptr_t)seq - (intptr_t)pos;
+            if (diff == 0) {
+                if (enqueuePos.compare_exchange_weak(pos, pos + 1, std::memory_order_relaxed)) {
+                    break;
+                }
+            } else if (diff < 0) {
+                //满了
+                return false;
+            } else {
+                pos = enqueuePos.load(std::memory_order_relaxed);
+            }
+        }
+
+        cell->value = value;
+        cell->sequence.store(pos + 1, std::memory_order_release);
+        return true;
+    }
+
+    bool pop(T *value) {
+        size_t pos = dequeuePos.load(std::memory_order_relaxed);
+        Cell *cell;
+
+        while (true) {
+            cell = &cells[pos % size];
+            size_t seq = cell->sequence.load(std::memory_order_acquire);
+            intptr_t diff = (intptr_t)seq - (intptr_t)(pos + 1);
+            if (diff == 0) {
+                if (dequeuePos.compare_exchange_weak(pos, pos + 1, std::memory_order_relaxed)) {
+                    break;
+                }
+            } else if (diff < 0) {
+                //空了
+                return false;
+            } else {
+                pos = dequeuePos.load(std::memory_order_relaxed);
+            }
+        }
+
+        *value = cell->value;
+        cell->sequence.store(pos + size, std::memory_order_release);
+        return true;
+    }
+
+private:
+    BoundedQueue(const BoundedQueue &);
+    BoundedQueue &operator=(const BoundedQueue &);
+
+    struct Cell {
+        std::atomic<size_t> sequence;
+        T value;
+    };
+
+    Cell *cells = 0;
+    size_t size = 0;
+
+    //生产和消费的位置分开放在不同的 cache line，避免两个线程互相干扰
+    char pad0[64];
+    std::atomic<size_t> enqueuePos;
+    char pad1[64 - sizeof(std::atomic<size_t>)];
+    std::atomic<size_t> dequeuePos;
+    char pad2[64 - sizeof(std::atomic<size_t>)];
+};
+
+#endif //V4L_ANDROID_BOUNDEDQUEUE_H
@@ -0,0 +1,236 @@
+//
+// Striped multi-core colour conversion for V4L2Camera.
+//
+
+#include "ConvertPool.h"
+
+#include <unistd.h>
+#include <android/log.h>
+
+#if defined(__ARM_NEON) || defined(__ARM_NEON__)
+#include <arm_neon.h>
+#endif
+
+#define	LOG_TAG	"ConvertPool"
+#define ALOGE(...)  __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, __VA_ARGS__)
+
+static inline uint8_t clamp8(int v) {
+    return (uint8_t)(v < 0 ? 0 : (v > 255 ? 255 : v));
+}
+
+// BT.601 limited range，2^10 定点系数，循环体没有分支，编译器可以自动向量化
+static void yuyvToRgbaScalar(const uint8_t *__restrict src, uint8_t *__restrict dst, int pairs) {
+    for (int i = 0; i < pairs; i++) {
+        int y0 = src[0] - 16;
+        int u = src[1] - 128;
+        int y1 = src[2] - 16;
+        int v = src[3] - 128;
+        y0 = y0 < 0 ? 0 : y0;
+        y1 = y1 < 0 ? 0 : y1;
+
+        int rv = 1634 * v + 512;
+        int guv = 833 * v + 400 * u - 512;
+        int bu = 2066 * u + 512;
+        int l0 = 1192 * y0;
+        int l1 = 1192 * y1;
+
+        dst[0] = clamp8((l0 + rv) >> 10);
+        dst[1] = clamp8((l0 - guv) >> 10);
+        dst[2] = clamp8((l0 + bu) >> 10);
+        dst[3] = 0xff;
+        dst[4] = clamp8((l1 + rv) >> 10);
+        dst[5] = clamp8((l1 - guv) >> 10);
+        dst[6] = clamp8((l1 + bu) >> 10);
+        dst[7] = 0xff;
+
+        src += 4;
+        dst += 8;
+    }
+}
+
+#if defined(__ARM_NEON) || defined(__ARM_NEON__)
+// 一次处理 8 个 YUYV 宏像素（16 个像素），系数为 2^6 定点，饱和运算同时完成截断
+static int yuyvToRgbaNeon(const uint8_t *src, uint8_t *dst, int pairs) {
+    const uint8x8_t yOffset = vdup_n_u8(16);
+    const uint8x8_t yCoef = vdup_n_u8(149);
+    const int16x8_t uvOffset = vdupq_n_s16(128);
+    const uint8x8_t alpha = vdup_n_u8(0xff);
+
+    int i = 0;
+    for (; i + 8 <= pairs; i += 8) {
+        uint8x8x4_t yuyv = vld4_u8(src + i * 4);
+
+        int16x8_t u = vsubq_s16(vreinterpretq_s16_u16(vmovl_u8(yuyv.val[1])), uvOffset);
+        int16x8_t v = vsubq_s16(vreinterpretq_s16_u16(vmovl_u8(yuyv.val[3])), uvOffset);
+        int16x8_t rv = vmulq_n_s16(v, 102);
+        int16x8_t guv = vaddq_s16(vmulq_n_s16(u, 25), vmulq_n_s16(v, 52));
+        int16x8_t bu = vmulq_n_s16(u, 129);
+
+        // val[0] 为偶数像素，val[1] 为奇数像素
+        uint8x8x2_t r, g, b;
+        for (int k = 0; k < 2; k++) {
+            uint8x8_t y = vqsub_u8(k == 0 ? yuyv.val[0] : yuyv.val[2], yOffset);
+            int16x8_t luma = vreinterpretq_s16_u16(vshrq_n_u16(vmull_u8(y, yCoef), 1));
+            r.val[k] = vqrshrun_n_s16(vqaddq_s16(luma, rv), 6);
+            g.val[k] = vqrshrun_n_s16(vqsubq_s16(luma, guv), 6);
+            b.val[k] = vqrshrun_n_s16(vqaddq_s16(luma, bu), 6);
+        }
+        r = vzip_u8(r.val[0], r.val[1]);
+        g = vzip_u8(g.val[0], g.val[1]);
+        b = vzip_u8(b.val[0], b.val[1]);
+
+        uint8x8x4_t rgba;
+        rgba.val[3] = alpha;
+        for (int k = 0; k < 2; k++) {
+            rgba.val[0] = r.val[k];
+            rgba.val[1] = g.val[k];
+            rgba.val[2] = b.val[k];
+            vst4_u8(dst + i * 8 + k * 32, rgba);
+        }
+    }
+
+    return i;
+}
+#endif
+
+void yuyvToRgbaRows(const uint8_t *src, uint8_t *dst, int width, int rowStart, int rowEnd) {
+    int pairs = (width / 2) * (rowEnd - rowStart);
+    const uint8_t *s = src + rowStart * width * 2;
+    uint8_t *d = dst + rowStart * width * 4;
+    int converted = 0;
+
+#if defined(__ARM_NEON) || defined(__ARM_NEON__)
+    converted = yuyvToRgbaNeon(s, d, pairs);
+#endif
+
+    yuyvToRgbaScalar(s + converted * 4, d + converted * 8, pairs - converted);
+}
+
+static void *convert_worker_start(void *args) {
+    ConvertWorker *worker = static_cast<ConvertWorker *>(args);
+    worker->pool->workerLoop(worker);
+    return 0;
+}
+
+ConvertPool::ConvertPool()
+    : requestedThreads(1)
+{
+    long cores = sysconf(_SC_NPROCESSORS_ONLN);
+    requestedThreads = cores < 1 ? 1 : (cores > 4 ? 4 : (int)cores);
+}
+
+ConvertPool::~ConvertPool()
+{
+    stopWorkers();
+}
+
+void ConvertPool::setThreadCount(int count)
+{
+    requestedThreads = count < 1 ? 1 : (count > MAX_CONVERT_THREADS ? MAX_CONVERT_THREADS : count);
+}
+
+int ConvertPool::getThreadCount()
+{
+    return requestedThreads;
+}
+
+void ConvertPool::stopWorkers()
+{
+    {
+        std::lock_guard<std::mutex> guard(lock);
+        quit = true;
+    }
+    wake.notify_all();
+
+    for (pthread_t thread : threads) {
+        pthread_join(thread, 0);
+    }
+    threads.clear();
+    workers.clear();
+    threadCount = 1;
+}
+
+void ConvertPool::resize(int count)
+{
+    stopWorkers();
+
+    appliedThreads = count;
+    quit = false;
+    workers.resize(count);
+    for (int i = 1; i < count; i++) {
+        workers[i].pool = this;
+        workers[i].id = i;
+        workers[i].generation = generation;
+
+        pthread_t thread;
+        if (pthread_create(&thread, 0, convert_worker_start, &workers[i]) != 0) {
+            ALOGE("create convert worker %d fail, convert with %d threads", i, i);
+            break;
+        }
+        threads.push_back(thread);
+    }
+    threadCount = threads.size() + 1;
+}
+
+void ConvertPool::workerLoop(ConvertWorker *worker)
+{
+    // 创建时记录的 generation，线程启动晚于下一帧时也不会错过任务
+    unsigned int seen = worker->generation;
+
+    while (true) {
+        {
+            std::unique_lock<std::mutex> guard(lock);
+            wake.wait(guard, [&] { return quit || generation != seen; });
+            if (quit) {
+                return;
+            }
+            seen = generation;
+        }
+
+        runStripe(worker->id);
+
+        {
+            std::lock_guard<std::mutex> guard(lock);
+            if (--pending == 0) {
+                done.notify_one();
+            }
+        }
+    }
+}
+
+void ConvertPool::runStripe(int stripe)
+{
+    int rowStart = height * stripe / threadCount;
+    int rowEnd = height * (stripe + 1) / threadCount;
+    yuyvToRgbaRows(src, dst, width, rowStart, rowEnd);
+}
+
+void ConvertPool::yuyvToRgba(const uint8_t *src, uint8_t *dst, int width, int height)
+{
+    int count = requestedThreads;
+    if (count != appliedThreads) {
+        resize(count);
+    }
+
+    if (threadCount == 1 || height < threadCount * 2) {
+        yuyvToRgbaRows(src, dst, width, 0, height);
+        return;
+    }
+
+    {
+        std::lock_guard<std::mutex> guard(lock);
+        this->src = src;
+        this->dst = dst;
+        this->width = width;
+        this->height = height;
+        pending = threadCount - 1;
+        generation++;
+    }
+    wake.notify_all();
+
+    // 调用线程自己负责第一条
+    runStripe(0);
+
+    std::unique_lock<std::mutex> guard(lock);
+    done.wait(guard, [&] { return pending == 0; });
+}
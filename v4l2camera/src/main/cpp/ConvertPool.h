@@ -0,0 +1,72 @@
+//
+// Striped multi-core colour conversion for V4L2Camera.
+//
+
+#ifndef V4L_ANDROID_CONVERTPOOL_H
+#define V4L_ANDROID_CONVERTPOOL_H
+
+#include <pthread.h>
+#include <stdint.h>
+#include <atomic>
+#include <condition_variable>
+#include <mutex>
+#include <vector>
+
+#define MAX_CONVERT_THREADS 8
+
+class ConvertPool;
+
+typedef struct {
+    ConvertPool *pool;
+    int id;
+    unsigned int generation;
+} ConvertWorker;
+
+/**
+ * 把一帧按行切成若干条带，调用线程和常驻的 worker 线程各转换一条，全部完成后返回。
+ * 线程数可以随时通过 setThreadCount 修改，在下一帧转换开始前生效。
+ */
+class ConvertPool {
+public:
+    ConvertPool();
+    ~ConvertPool();
+
+    void setThreadCount(int count);
+    int getThreadCount();
+
+    void yuyvToRgba(const uint8_t *src, uint8_t *dst, int width, int height);
+
+    void workerLoop(ConvertWorker *worker);
+
+private:
+    void resize(int count);
+    void stopWorkers();
+    void runStripe(int stripe);
+
+    std::atomic<int> requestedThreads;
+    //最近一次 resize 请求的线程数，创建线程失败时 threadCount 会小于它，不再每帧重试
+    int appliedThreads = 1;
+    int threadCount = 1;
+
+    std::vector<pthread_t> threads;
+    std::vector<ConvertWorker> workers;
+
+    std::mutex lock;
+    std::condition_variable wake;
+    std::condition_variable done;
+    unsigned int generation = 0;
+    int pending = 0;
+    bool quit = false;
+
+    const uint8_t *src = 0;
+    uint8_t *dst = 0;
+    int width = 0;
+    int height = 0;
+};
+
+/**
+ * 转换 [rowStart, rowEnd) 行的 YUYV 数据到 RGBA，单线程版本。
+ */
+void yuyvToRgbaRows(const uint8_t *src, uint8_t *dst, int width, int rowStart, int rowEnd);
+
+#endif //V4L_ANDROID_CONVERTPOOL_H
@@ -0,0 +1,211 @@
+//
+// Frame hand-off between the capture thread and the delivery thread.
+//
+
+#include "FrameQueue.h"
+
+#include <string.h>
+#include <thread>
+
+FrameQueue::FrameQueue()
+    : consumerWaiting(false), producerWaiting(false), closed(false)
+{
+    for (int i = 0; i < DROP_POLICY_COUNT; i++) {
+        drops[i] = 0;
+    }
+}
+
+FrameQueue::~FrameQueue()
+{
+    freeSlots();
+}
+
+void FrameQueue::freeSlots()
+{
+    for (unsigned int i = 0; i < slotCount; i++) {
+        delete[] slots[i].data;
+    }
+    delete[] slots;
+    slots = 0;
+    slotCount = 0;
+}
+
+/**
+ * 每次开始预览时调用，此时采集线程和回调线程都还没有启动。
+ */
+int FrameQueue::init(int policy, unsigned int capacity, size_t bufferSize)
+{
+    if (policy < 0 || policy >= DROP_POLICY_COUNT) {
+        return -1;
+    }
+    if (capacity < 1) {
+        capacity = 1;
+    }
+    if (capacity > MAX_QUEUE_CAPACITY) {
+        capacity = MAX_QUEUE_CAPACITY;
+    }
+    //只保留最新一帧时队列里最多一帧
+    if (policy == DROP_LATEST_WINS) {
+        capacity = 1;
+    }
+
+    //帧大小变化时才重新分配
+    bool reuse = slots != 0 && slotCount == capacity + 2 && slots[0].capacity >= bufferSize;
+    if (!reuse) {
+        freeSlots();
+        slotCount = capacity + 2;
+        slots = new FrameSlot[slotCount];
+        memset(slots, 0, sizeof(FrameSlot) * slotCount);
+        for (unsigned int i = 0; i < slotCount; i++) {
+            slots[i].data = bufferSize > 0 ? new unsigned char[bufferSize] : 0;
+            slots[i].capacity = bufferSize;
+        }
+    }
+
+    this->policy = policy;
+    ready.init(capacity);
+    freeList.init(slotCount);
+    for (unsigned int i = 0; i < slotCount; i++) {
+        slots[i].index = -1;
+        freeList.push(&slots[i]);
+    }
+
+    consumerWaiting = false;
+    producerWaiting = false;
+    closed = false;
+    return 0;
+}
+
+/**
+ * 唤醒等待中的采集线程和回调线程，之后 take 返回 0，DROP_BLOCK 的 publish 不再等待。
+ */
+void FrameQueue::close()
+{
+    {
+        std::lock_guard<std::mutex> guard(lock);
+        closed = true;
+    }
+    readyCond.notify_all();
+    spaceCond.notify_all();
+}
+
+FrameSlot *FrameQueue::acquire()
+{
+    FrameSlot *slot = 0;
+    freeList.pop(&slot);
+    return slot;
+}
+
+/**
+ * 腾出位置后再 push。回调线程正在 pop 的那个 cell 要等它写完 sequence 才能复用，只会短暂失败。
+ */
+void FrameQueue::pushAfterDrop(FrameSlot *slot)
+{
+    while (!ready.push(slot)) {
+        std::this_thread::yield();
+    }
+}
+
+/**
+ * 把采集好的帧放进队列，返回被挤掉的帧（已经计数），调用方负责处理后 recycle，没有丢帧时返回 0。
+ */
+FrameSlot *FrameQueue::publish(FrameSlot *slot)
+{
+    FrameSlot *dropped = 0;
+
+    switch (policy) {
+        case DROP_LATEST_WINS:
+            //回调线程还没取走的旧帧直接作废
+            if (ready.pop(&dropped)) {
+                drops[DROP_LATEST_WINS]++;
+            }
+            pushAfterDrop(slot);
+            break;
+        case DROP_OLDEST:
+            if (!ready.push(slot)) {
+                if (ready.pop(&dropped)) {
+                    drops[DROP_OLDEST]++;
+                }
+                pushAfterDrop(slot);
+            }
+            break;
+        case DROP_BLOCK:
+            if (!ready.push(slot)) {
+                drops[DROP_BLOCK]++;
+
+                std::unique_lock<std::mutex> guard(lock);
+                producerWaiting = true;
+                while (!closed && !ready.push(slot)) {
+                    spaceCond.wait(guard);
+                }
+                producerWaiting = false;
+                if (closed) {
+                    //停止时这一帧还没进入队列，交回给调用方
+                    return slot;
+                }
+            }
+            break;
+    }
+
+    //先 push 再检查 consumerWaiting，和 take 中的顺序相反，保证不会漏掉唤醒
+    if (consumerWaiting) {
+        std::lock_guard<std::mutex> guard(lock);
+        readyCond.notify_one();
+    }
+
+    return dropped;
+}
+
+/**
+ * 取出下一帧，队列为空时等待，close 之后返回 0。
+ */
+FrameSlot *FrameQueue::take()
+{
+    FrameSlot *slot = 0;
+
+    while (!closed) {
+        if (ready.pop(&slot)) {
+            if (producerWaiting) {
+                std::lock_guard<std::mutex> guard(lock);
+                spaceCond.notify_one();
+            }
+            return slot;
+        }
+
+        std::unique_lock<std::mutex> guard(lock);
+        consumerWaiting = true;
+        while (!closed && !ready.pop(&slot)) {
+            readyCond.wait(guard);
+        }
+        consumerWaiting = false;
+        if (slot != 0) {
+            if (producerWaiting) {
+                spaceCond.notify_one();
+            }
+            return slot;
+        }
+    }
+
+    return 0;
+}
+
+void FrameQueue::recycle(FrameSlot *slot)
+{
+    slot->index = -1;
+    freeList.push(slot);
+}
+
+FrameSlot *FrameQueue::drain()
+{
+    FrameSlot *slot = 0;
+    ready.pop(&slot);
+    return slot;
+}
+
+unsigned int FrameQueue::getDropCount(int policy)
+{
+    if (policy < 0 || policy >= DROP_POLICY_COUNT) {
+        return 0;
+    }
+    return drops[policy];
+}
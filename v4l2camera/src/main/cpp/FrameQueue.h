@@ -0,0 +1,87 @@
+//
+// Frame hand-off between the capture thread and the delivery thread.
+//
+
+#ifndef V4L_ANDROID_FRAMEQUEUE_H
+#define V4L_ANDROID_FRAMEQUEUE_H
+
+#include <stddef.h>
+#include <stdint.h>
+#include <atomic>
+#include <condition_variable>
+#include <mutex>
+#include "BoundedQueue.h"
+
+//sync with pri.tool.v4l2camera.DropPolicy
+#define DROP_LATEST_WINS 0
+#define DROP_OLDEST 1
+#define DROP_BLOCK 2
+#define DROP_POLICY_COUNT 3
+
+#define DEFAULT_QUEUE_CAPACITY 2
+#define MAX_QUEUE_CAPACITY 16
+
+typedef struct {
+    unsigned char *data;   //拷贝模式下的帧数据，零拷贝模式为 0
+    size_t capacity;
+    int index;             //零拷贝模式下的 V4L2 buffer index，拷贝模式为 -1
+    int size;
+    int format;
+    int width;             //设置了 ROI 时为缩小后的尺寸
+    int height;
+    int64_t timestampUs;   //CLOCK_MONOTONIC 采集时间
+    unsigned int sequence; //驱动的帧序号
+} FrameSlot;
+
+/**
+ * 采集线程和回调线程之间的有界帧队列。
+ *
+ * 共有 capacity + 2 个 slot：最多 capacity 个在队列中，采集线程和回调线程各持有一个，
+ * 所以 acquire 不会失败。队列满时的行为由 policy 决定：
+ * DROP_LATEST_WINS 只保留最新一帧，DROP_OLDEST 丢弃队头的旧帧，DROP_BLOCK 让采集线程等待。
+ */
+class FrameQueue {
+public:
+    FrameQueue();
+    ~FrameQueue();
+
+    int init(int policy, unsigned int capacity, size_t bufferSize);
+    void close();
+
+    //采集线程
+    FrameSlot *acquire();
+    FrameSlot *publish(FrameSlot *slot);
+
+    //回调线程
+    FrameSlot *take();
+    void recycle(FrameSlot *slot);
+
+    //停止后取出剩余的帧
+    FrameSlot *drain();
+
+    unsigned int getDropCount(int policy);
+
+private:
+    void freeSlots();
+    void pushAfterDrop(FrameSlot *slot);
+
+    BoundedQueue<FrameSlot *> ready;
+    BoundedQueue<FrameSlot *> freeList;
+
+    FrameSlot *slots = 0;
+    unsigned int slotCount = 0;
+    int policy = DROP_LATEST_WINS;
+
+    //只有在队列空（回调线程）或者满（DROP_BLOCK 的采集线程）时才会用到锁
+    std::mutex lock;
+    std::condition_variable readyCond;
+    std::condition_variable spaceCond;
+    std::atomic<bool> consumerWaiting;
+    std::atomic<bool> producerWaiting;
+    std::atomic<bool> closed;
+
+    //DROP_BLOCK 统计的是采集线程被阻塞的帧数
+    std::atomic<unsigned int> drops[DROP_POLICY_COUNT];
+};
+
+#endif //V4L_ANDROID_FRAMEQUEUE_H
@@ -0,0 +1,103 @@
+//
+// Region-of-interest crop and box-filter downscale of YUYV frames.
+//
+
+#include "FrameScaler.h"
+
+#include <string.h>
+
+bool clampRoi(FrameRoi *roi, int frameWidth, int frameHeight)
+{
+    if (roi->width <= 0 || roi->height <= 0) {
+        return false;
+    }
+
+    if (roi->left < 0) {
+        roi->width += roi->left;
+        roi->left = 0;
+    }
+    if (roi->top < 0) {
+        roi->height += roi->top;
+        roi->top = 0;
+    }
+    roi->left &= ~1;
+    if (roi->left + roi->width > frameWidth) {
+        roi->width = frameWidth - roi->left;
+    }
+    if (roi->top + roi->height > frameHeight) {
+        roi->height = frameHeight - roi->top;
+    }
+    roi->width &= ~1;
+
+    //只缩小不放大
+    if (roi->outputWidth <= 0 || roi->outputWidth > roi->width) {
+        roi->outputWidth = roi->width;
+    }
+    if (roi->outputHeight <= 0 || roi->outputHeight > roi->height) {
+        roi->outputHeight = roi->height;
+    }
+    roi->outputWidth &= ~1;
+
+    return roi->width >= 2 && roi->height >= 1 && roi->outputWidth >= 2 && roi->outputHeight >= 1;
+}
+
+static void cropYuyv(const uint8_t *src, int srcWidth, const FrameRoi *roi, uint8_t *dst)
+{
+    size_t srcStride = (size_t)srcWidth * 2;
+    size_t rowBytes = (size_t)roi->width * 2;
+    const uint8_t *line = src + roi->top * srcStride + roi->left * 2;
+
+    for (int y = 0; y < roi->height; y++) {
+        memcpy(dst, line, rowBytes);
+        dst += rowBytes;
+        line += srcStride;
+    }
+}
+
+void cropScaleYuyv(const uint8_t *src, int srcWidth, const FrameRoi *roi, uint8_t *dst)
+{
+    if (roi->outputWidth == roi->width && roi->outputHeight == roi->height) {
+        cropYuyv(src, srcWidth, roi, dst);
+        return;
+    }
+
+    size_t srcStride = (size_t)srcWidth * 2;
+    int outWidth = roi->outputWidth;
+    int outHeight = roi->outputHeight;
+
+    for (int oy = 0; oy < outHeight; oy++) {
+        int y0 = roi->top + oy * roi->height / outHeight;
+        int y1 = roi->top + (oy + 1) * roi->height / outHeight;
+        int rows = y1 - y0;
+        uint8_t *out = dst + (size_t)oy * outWidth * 2;
+
+        //每次输出一对像素：两个 Y 各自平均自己覆盖的源像素，U/V 平均两者覆盖的所有源像素对
+        for (int ox = 0; ox < outWidth; ox += 2) {
+            int x0 = roi->left + ox * roi->width / outWidth;
+            int x1 = roi->left + (ox + 1) * roi->width / outWidth;
+            int x2 = roi->left + (ox + 2) * roi->width / outWidth;
+            int c0 = x0 & ~1;
+            unsigned int ySum0 = 0, ySum1 = 0, uSum = 0, vSum = 0;
+
+            const uint8_t *line = src + y0 * srcStride;
+            for (int sy = 0; sy < rows; sy++, line += srcStride) {
+                for (int sx = x0; sx < x1; sx++) {
+                    ySum0 += line[sx * 2];
+                }
+                for (int sx = x1; sx < x2; sx++) {
+                    ySum1 += line[sx * 2];
+                }
+                for (int sx = c0; sx < x2; sx += 2) {
+                    uSum += line[sx * 2 + 1];
+                    vSum += line[sx * 2 + 3];
+                }
+            }
+
+            unsigned int pairs = (unsigned int)((x2 - c0 + 1) / 2 * rows);
+            out[ox * 2] = (uint8_t)(ySum0 / (unsigned int)((x1 - x0) * rows));
+            out[ox * 2 + 1] = (uint8_t)(uSum / pairs);
+            out[ox * 2 + 2] = (uint8_t)(ySum1 / (unsigned int)((x2 - x1) * rows));
+            out[ox * 2 + 3] = (uint8_t)(vSum / pairs);
+        }
+    }
+}
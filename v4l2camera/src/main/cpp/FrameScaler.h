@@ -0,0 +1,31 @@
+//
+// Region-of-interest crop and box-filter downscale of YUYV frames.
+//
+
+#ifndef V4L_ANDROID_FRAMESCALER_H
+#define V4L_ANDROID_FRAMESCALER_H
+
+#include <stdint.h>
+
+//width <= 0 表示不裁剪，输出尺寸不大于 ROI，水平方向的坐标和尺寸都是偶数（YUYV 两个像素共用一组 UV）
+typedef struct {
+    int left;
+    int top;
+    int width;
+    int height;
+    int outputWidth;
+    int outputHeight;
+} FrameRoi;
+
+/**
+ * 把 ROI 调整到帧内并对齐，调整后无效时返回 false。
+ */
+bool clampRoi(FrameRoi *roi, int frameWidth, int frameHeight);
+
+/**
+ * 从 YUYV 帧中裁剪出 ROI 并用 box filter 缩小到输出尺寸，输出也是 YUYV，大小为 outputWidth * outputHeight * 2。
+ * 输出尺寸与 ROI 相同时只做逐行拷贝。roi 必须先经过 clampRoi。
+ */
+void cropScaleYuyv(const uint8_t *src, int srcWidth, const FrameRoi *roi, uint8_t *dst);
+
+#endif //V4L_ANDROID_FRAMESCALER_H
@@ -22,7 +22,9 @@ JavaCallHelper::JavaCallHelper(JavaVM *javaVM_, JNIEnv *env_, jobject instance_)
     jclass clazz = env->GetObjectClass(instance);
 //    cd 进入 class所在的目录 执行： javap -s 全限定名,查看输出的 descriptor
 //    xx\app\build\intermediates\classes\debug>javap -s com.netease.jnitest.Helper
-    jDataCallback = env->GetMethodID(clazz, "postDataFromNative", "([BIII)V");
+    jDataCallback = env->GetMethodID(clazz, "postDataFromNative", "([BIIIJI)V");
+    jFrameCallback = env->GetMethodID(clazz, "postFrameFromNative", "(IIIIIJI)V");
+    jEventCallback = env->GetMethodID(clazz, "postEventFromNative", "(I)V");
 
     ALOGE("leave: %s", __FUNCTION__);
 
@@ -34,8 +36,29 @@ JavaCallHelper::~JavaCallHelper() {
     instance = 0;
 }
 
+JavaVM *JavaCallHelper::attachCurrentThread() {
+    JNIEnv *env = NULL;
+
+    if (javaVM->GetEnv((void**)&env, JNI_VERSION_1_4) == JNI_OK) {
+        return 0;
+    }
+    if (javaVM->AttachCurrentThread(&env, NULL) != JNI_OK) {
+        ALOGE("AttachCurrentThread fail");
+        return 0;
+    }
 
-void JavaCallHelper::onDataCallback(unsigned char* buf, int len, int width, int height, int pixFormat) {
+    return javaVM;
+}
+
+void JavaCallHelper::setMetrics(LatencyHistogram *copyTime, LatencyHistogram *callbackTime,
+                                std::atomic<unsigned int> *copyDrops) {
+    this->copyTime = copyTime;
+    this->callbackTime = callbackTime;
+    this->copyDrops = copyDrops;
+}
+
+void JavaCallHelper::onDataCallback(unsigned char* buf, int len, int width, int height, int pixFormat,
+                                    int64_t timestampUs, unsigned int sequence) {
     JNIEnv *env = NULL;
 
     int status = javaVM->GetEnv((void**)&env, JNI_VERSION_1_4);
@@ -44,30 +67,36 @@ void JavaCallHelper::onDataCallback(unsigned char* buf, int len, int width, int
         ALOGE("AttachCurrentThread");
     }
 
+    int64_t startUs = metricsNowUs();
     jbyteArray array = env->NewByteArray(len);
-    jbyte* pByte;
     if (array == NULL) {
-        ALOGE("onDataCallback NewByteArray fail");
+        //回调线程是常驻的，不清除 OutOfMemoryError 下一次 JNI 调用就会带着异常执行
+        ALOGE("onDataCallback NewByteArray fail, frame dropped");
+        env->ExceptionClear();
+        if (copyDrops != 0) {
+            copyDrops->fetch_add(1);
+        }
+        if (status < 0) {
+            javaVM->DetachCurrentThread();
+        }
         return;
     }
 
-    pByte = new jbyte[len];
-    if (pByte == NULL) {
-        ALOGE("onDataCallback creat jbyte memory fail");
-        return;
-    }
-    for (int i = 0; i < len; i++) {
-        *(pByte + i) = *(buf + i);
-    }
+    //直接从 native buffer 拷贝进 Java 数组，不需要中间的 jbyte 临时内存
+    env->SetByteArrayRegion(array, 0, len, reinterpret_cast<const jbyte *>(buf));
 
-    env->SetByteArrayRegion(array, 0, len, pByte);
+    int64_t copiedUs = metricsNowUs();
+    if (copyTime != 0) {
+        copyTime->record(copiedUs - startUs);
+    }
 
-    ALOGE("CallVoidMethod");
-    env->CallVoidMethod(instance, jDataCallback, array, width, height, pixFormat);
+    env->CallVoidMethod(instance, jDataCallback, array, width, height, pixFormat,
+                        (jlong)timestampUs, (jint)sequence);
+    if (callbackTime != 0) {
+        callbackTime->recordSince(copiedUs);
+    }
 
     env->DeleteLocalRef(array);
-    delete  pByte;
-    pByte = NULL;
 
     if (env->ExceptionCheck()) {
         ALOGW("An exception occurred while notifying an event.");
@@ -79,3 +108,51 @@ void JavaCallHelper::onDataCallback(unsigned char* buf, int len, int width, int
         ALOGE("DetachCurrentThread");
     }
 }
+
+void JavaCallHelper::onFrameCallback(int index, int len, int width, int height, int pixFormat,
+                                     int64_t timestampUs, unsigned int sequence) {
+    JNIEnv *env = NULL;
+
+    int status = javaVM->GetEnv((void**)&env, JNI_VERSION_1_4);
+    if (status < 0) {
+        javaVM->AttachCurrentThread(&env, NULL);
+        ALOGE("AttachCurrentThread");
+    }
+
+    int64_t startUs = metricsNowUs();
+    env->CallVoidMethod(instance, jFrameCallback, index, len, width, height, pixFormat,
+                        (jlong)timestampUs, (jint)sequence);
+    if (callbackTime != 0) {
+        callbackTime->recordSince(startUs);
+    }
+
+    if (env->ExceptionCheck()) {
+        ALOGW("An exception occurred while notifying a frame.");
+        env->ExceptionClear();
+    }
+
+    if (status < 0) {
+        javaVM->DetachCurrentThread();
+        ALOGE("DetachCurrentThread");
+    }
+}
+
+void JavaCallHelper::onEventCallback(int event) {
+    JNIEnv *env = NULL;
+
+    int status = javaVM->GetEnv((void**)&env, JNI_VERSION_1_4);
+    if (status < 0) {
+        javaVM->AttachCurrentThread(&env, NULL);
+    }
+
+    env->CallVoidMethod(instance, jEventCallback, event);
+
+    if (env->ExceptionCheck()) {
+        ALOGW("An exception occurred while notifying an event.");
+        env->ExceptionClear();
+    }
+
+    if (status < 0) {
+        javaVM->DetachCurrentThread();
+    }
+}
@@ -6,6 +6,8 @@
 #define NE_PLAYER_1_JAVACALLHELPER_H
 
 #include <jni.h>
+#include <stdint.h>
+#include "StageMetrics.h"
 
 class JavaCallHelper {
 public:
@@ -13,7 +15,22 @@ public:
 
     ~JavaCallHelper();
 
-    void onDataCallback(unsigned char* buf, int len, int width, int height, int pixFormat);
+    /**
+     * 把当前线程 attach 到 JVM，之后的回调不再逐次 attach/detach。
+     * 返回需要在线程退出前 DetachCurrentThread 的 JavaVM，已经 attach 过时返回 0。
+     */
+    JavaVM *attachCurrentThread();
+
+    //拷贝进 Java 数组和 Java 回调本身的耗时分别记录到这两个直方图，分配 Java 数组失败的帧计入 copyDrops，都可以为 0
+    void setMetrics(LatencyHistogram *copyTime, LatencyHistogram *callbackTime, std::atomic<unsigned int> *copyDrops);
+
+    void onDataCallback(unsigned char* buf, int len, int width, int height, int pixFormat,
+                        int64_t timestampUs, unsigned int sequence);
+
+    void onFrameCallback(int index, int len, int width, int height, int pixFormat,
+                         int64_t timestampUs, unsigned int sequence);
+
+    void onEventCallback(int event);
 
 
 private:
@@ -21,6 +38,11 @@ private:
     JNIEnv *env;
     jobject instance;
     jmethodID jDataCallback;
+    jmethodID jFrameCallback;
+    jmethodID jEventCallback;
+    LatencyHistogram *copyTime = 0;
+    LatencyHistogram *callbackTime = 0;
+    std::atomic<unsigned int> *copyDrops = 0;
 };
 
 
@@ -0,0 +1,105 @@
+//
+// Change detection on YUYV luma, run in the capture thread before conversion.
+//
+
+#include "MotionGate.h"
+
+#include <string.h>
+
+MotionGate::MotionGate()
+    : lumaThreshold(0), changedPermille(0), keepAliveUs(0), resetPending(true), gatedFrames(0)
+{
+    memset(reference, 0, sizeof(reference));
+    memset(current, 0, sizeof(current));
+}
+
+void MotionGate::configure(int luma, int permille, int keepAliveMs)
+{
+    changedPermille = permille < 0 ? 0 : (permille > 1000 ? 1000 : permille);
+    keepAliveUs = keepAliveMs > 0 ? (int64_t)keepAliveMs * 1000 : 0;
+    lumaThreshold = luma > 0 ? luma : 0;
+    resetPending = true;
+}
+
+bool MotionGate::isEnabled()
+{
+    return lumaThreshold > 0;
+}
+
+void MotionGate::reset()
+{
+    resetPending = true;
+}
+
+unsigned int MotionGate::getGatedFrames()
+{
+    return gatedFrames;
+}
+
+void MotionGate::signature(const uint8_t *yuyv, int width, int height, uint8_t *out)
+{
+    int stride = width * 2;
+
+    //格子内均匀取点，只读 Y（偶数字节），一帧总共 32*24*16 次读内存
+    for (int row = 0; row < MOTION_GRID_ROWS; row++) {
+        int y0 = row * height / MOTION_GRID_ROWS;
+        int cellHeight = (row + 1) * height / MOTION_GRID_ROWS - y0;
+
+        for (int col = 0; col < MOTION_GRID_COLS; col++) {
+            int x0 = col * width / MOTION_GRID_COLS;
+            int cellWidth = (col + 1) * width / MOTION_GRID_COLS - x0;
+            int sum = 0;
+
+            for (int sy = 0; sy < MOTION_SAMPLES; sy++) {
+                const uint8_t *line = yuyv + (size_t)(y0 + sy * cellHeight / MOTION_SAMPLES) * stride;
+                for (int sx = 0; sx < MOTION_SAMPLES; sx++) {
+                    sum += line[(x0 + sx * cellWidth / MOTION_SAMPLES) * 2];
+                }
+            }
+            out[row * MOTION_GRID_COLS + col] = (uint8_t)(sum / (MOTION_SAMPLES * MOTION_SAMPLES));
+        }
+    }
+}
+
+bool MotionGate::accept(const uint8_t *yuyv, int width, int height, int64_t timestampUs)
+{
+    int threshold = lumaThreshold;
+    if (threshold <= 0 || width < MOTION_GRID_COLS || height < MOTION_GRID_ROWS) {
+        return true;
+    }
+
+    if (resetPending.exchange(false) || width != referenceWidth || height != referenceHeight) {
+        referenceValid = false;
+    }
+
+    signature(yuyv, width, height, current);
+
+    bool forward = !referenceValid;
+    int64_t keepAlive = keepAliveUs;
+    if (!forward && keepAlive > 0 && timestampUs - lastForwardUs >= keepAlive) {
+        forward = true;
+    }
+    if (!forward) {
+        int changed = 0;
+        int required = MOTION_GRID_CELLS * changedPermille / 1000;
+        for (int i = 0; i < MOTION_GRID_CELLS; i++) {
+            int diff = current[i] - reference[i];
+            if (diff > threshold || diff < -threshold) {
+                changed++;
+            }
+        }
+        forward = changed > required;
+    }
+
+    if (!forward) {
+        gatedFrames++;
+        return false;
+    }
+
+    memcpy(reference, current, sizeof(reference));
+    referenceValid = true;
+    referenceWidth = width;
+    referenceHeight = height;
+    lastForwardUs = timestampUs;
+    return true;
+}
@@ -0,0 +1,60 @@
+//
+// Change detection on YUYV luma, run in the capture thread before conversion.
+//
+
+#ifndef V4L_ANDROID_MOTIONGATE_H
+#define V4L_ANDROID_MOTIONGATE_H
+
+#include <stdint.h>
+#include <atomic>
+
+//缩略图的格子数，每格在 Y 分量上取 MOTION_SAMPLES x MOTION_SAMPLES 个点求平均
+#define MOTION_GRID_COLS 32
+#define MOTION_GRID_ROWS 24
+#define MOTION_GRID_CELLS (MOTION_GRID_COLS * MOTION_GRID_ROWS)
+#define MOTION_SAMPLES 4
+
+/**
+ * 用 Y 分量的 32x24 缩略图判断画面是否变化，只和上一次放行的帧比较，缓慢的光照变化累计到阈值后也会放行。
+ * 配置可以在任意线程修改，accept 只在采集线程中调用。
+ */
+class MotionGate {
+public:
+    MotionGate();
+
+    /**
+     * @param lumaThreshold 格子平均亮度变化超过这个值才算变化，<= 0 时关闭
+     * @param changedPermille 变化的格子占比（千分比）超过这个值才放行
+     * @param keepAliveMs 距上一次放行超过这个时间时总是放行，<= 0 时不强制
+     */
+    void configure(int lumaThreshold, int changedPermille, int keepAliveMs);
+    bool isEnabled();
+
+    //重新开始预览或者尺寸变化后，下一帧总是放行
+    void reset();
+
+    /**
+     * @return true 放行，false 丢弃并计数
+     */
+    bool accept(const uint8_t *yuyv, int width, int height, int64_t timestampUs);
+
+    unsigned int getGatedFrames();
+
+private:
+    void signature(const uint8_t *yuyv, int width, int height, uint8_t *out);
+
+    std::atomic<int> lumaThreshold;
+    std::atomic<int> changedPermille;
+    std::atomic<int64_t> keepAliveUs;
+    std::atomic<bool> resetPending;
+    std::atomic<unsigned int> gatedFrames;
+
+    uint8_t reference[MOTION_GRID_CELLS];
+    uint8_t current[MOTION_GRID_CELLS];
+    bool referenceValid = false;
+    int referenceWidth = 0;
+    int referenceHeight = 0;
+    int64_t lastForwardUs = 0;
+};
+
+#endif //V4L_ANDROID_MOTIONGATE_H
@@ -0,0 +1,80 @@
+//
+// Per-stage latency histograms for the capture pipeline.
+//
+
+#ifndef V4L_ANDROID_STAGEMETRICS_H
+#define V4L_ANDROID_STAGEMETRICS_H
+
+#include <stdint.h>
+#include <time.h>
+#include <atomic>
+
+//sync with pri.tool.v4l2camera.V4L2Camera
+#define STAGE_DRIVER 0       //内核时间戳到出队，即 buffer 在驱动 ring 中等待的时间
+#define STAGE_DEQUEUE 1      //采集线程 poll + VIDIOC_DQBUF 的等待时间
+#define STAGE_CONVERT 2      //YUYV 到 RGBA 的转换
+#define STAGE_JNI_COPY 3     //拷贝进 Java byte[]
+#define STAGE_CALLBACK 4     //Java 回调的执行时间
+#define STAGE_GATE 5         //变化检测，被丢弃的帧数作为这一阶段的丢帧
+#define STAGE_CROP 6         //ROI 裁剪和缩小
+#define NATIVE_STAGE_COUNT 7
+
+//sync with pri.tool.v4l2camera.LatencyHistogram
+#define HISTOGRAM_SUB_BUCKET_BITS 3
+#define HISTOGRAM_SUB_BUCKETS (1 << HISTOGRAM_SUB_BUCKET_BITS)
+#define HISTOGRAM_MAX_EXPONENT 29
+#define HISTOGRAM_BUCKET_COUNT ((HISTOGRAM_MAX_EXPONENT - 1) * HISTOGRAM_SUB_BUCKETS)
+
+static inline int64_t metricsNowUs()
+{
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (int64_t)ts.tv_sec * 1000000 + ts.tv_nsec / 1000;
+}
+
+/**
+ * 微秒为单位的对数直方图，每个 2 的幂区间再分 8 格，相对误差不超过 12.5%。
+ * record 只有一次原子加，可以在采集线程中一直开着。
+ */
+class LatencyHistogram {
+public:
+    LatencyHistogram() {
+        for (int i = 0; i < HISTOGRAM_BUCKET_COUNT; i++) {
+            buckets[i].store(0, std::memory_order_relaxed);
+        }
+    }
+
+    static int bucketIndex(int64_t us) {
+        if (us < HISTOGRAM_SUB_BUCKETS) {
+            return us < 0 ? 0 : (int)us;
+        }
+
+        int exponent = 63 - __builtin_clzll((unsigned long long)us);
+        if (exponent > HISTOGRAM_MAX_EXPONENT) {
+            return HISTOGRAM_BUCKET_COUNT - 1;
+        }
+        int sub = (int)(us >> (exponent - HISTOGRAM_SUB_BUCKET_BITS)) & (HISTOGRAM_SUB_BUCKETS - 1);
+        return (exponent - HISTOGRAM_SUB_BUCKET_BITS + 1) * HISTOGRAM_SUB_BUCKETS + sub;
+    }
+
+    void record(int64_t us) {
+        buckets[bucketIndex(us)].fetch_add(1, std::memory_order_relaxed);
+    }
+
+    void recordSince(int64_t startUs) {
+        record(metricsNowUs() - startUs);
+    }
+
+    //reset 时读取和清零是逐格进行的，期间新记录的样本会落在下一次快照里
+    void snapshot(int64_t *out, bool reset) {
+        for (int i = 0; i < HISTOGRAM_BUCKET_COUNT; i++) {
+            out[i] = reset ? buckets[i].exchange(0, std::memory_order_relaxed)
+                           : buckets[i].load(std::memory_order_relaxed);
+        }
+    }
+
+private:
+    std::atomic<uint64_t> buckets[HISTOGRAM_BUCKET_COUNT];
+};
+
+#endif //V4L_ANDROID_STAGEMETRICS_H
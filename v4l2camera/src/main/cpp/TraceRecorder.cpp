@@ -0,0 +1,143 @@
+//
+// Per-thread ring buffers of fixed-size trace events, exported through pri.tool.v4l2camera.Trace.
+//
+
+#include "TraceRecorder.h"
+
+#include <time.h>
+#include <unistd.h>
+#include <sys/syscall.h>
+#include <mutex>
+#include <vector>
+
+std::atomic<bool> gTraceEnabled(false);
+
+typedef struct {
+    int64_t timestampNs;
+    int64_t meta;
+    int64_t value;
+} TraceEvent;
+
+/**
+ * 单写多读：只有拥有它的线程写入，head 是已经写入的事件总数。
+ * 线程退出时只释放所有权，事件一直保留，直到 ring 数量达到上限后被新线程复用。
+ */
+typedef struct {
+    std::atomic<bool> owned;
+    std::atomic<uint64_t> head;
+    int tid;
+    TraceEvent events[TRACE_RING_EVENTS];
+} TraceRing;
+
+static std::mutex gRingsLock;
+static std::vector<TraceRing *> gRings;
+
+static TraceRing *acquireRing()
+{
+    std::lock_guard<std::mutex> lock(gRingsLock);
+    if (gRings.size() >= TRACE_MAX_RINGS) {
+        for (TraceRing *ring : gRings) {
+            bool expected = false;
+            if (ring->owned.compare_exchange_strong(expected, true)) {
+                ring->head = 0;
+                ring->tid = (int)syscall(__NR_gettid);
+                return ring;
+            }
+        }
+        //所有 ring 都被存活的线程占用，这个线程不记录
+        return 0;
+    }
+
+    TraceRing *ring = new TraceRing();
+    ring->owned = true;
+    ring->head = 0;
+    ring->tid = (int)syscall(__NR_gettid);
+    gRings.push_back(ring);
+    return ring;
+}
+
+//线程退出时析构，把 ring 还回去
+class TraceRingOwner {
+public:
+    ~TraceRingOwner() {
+        if (ring != 0) {
+            ring->owned = false;
+        }
+    }
+
+    TraceRing *ring = 0;
+    bool exhausted = false;
+};
+
+static thread_local TraceRingOwner tRingOwner;
+
+void traceSetEnabled(bool enabled)
+{
+    gTraceEnabled = enabled;
+}
+
+void traceRecord(int phase, int name, int64_t value)
+{
+    TraceRing *ring = tRingOwner.ring;
+    if (ring == 0) {
+        if (tRingOwner.exhausted) {
+            return;
+        }
+        ring = acquireRing();
+        tRingOwner.ring = ring;
+        tRingOwner.exhausted = ring == 0;
+        if (ring == 0) {
+            return;
+        }
+    }
+
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+
+    uint64_t head = ring->head.load(std::memory_order_relaxed);
+    TraceEvent *event = &ring->events[head % TRACE_RING_EVENTS];
+    event->timestampNs = (int64_t)ts.tv_sec * 1000000000 + ts.tv_nsec;
+    event->meta = ((int64_t)phase << 56) | ((int64_t)name << 32) | (uint32_t)ring->tid;
+    event->value = value;
+    ring->head.store(head + 1, std::memory_order_release);
+}
+
+int traceSnapshot(int64_t *out, int maxEvents)
+{
+    std::lock_guard<std::mutex> lock(gRingsLock);
+    int count = 0;
+
+    for (TraceRing *ring : gRings) {
+        uint64_t end = ring->head.load(std::memory_order_acquire);
+        uint64_t start = end > TRACE_RING_EVENTS ? end - TRACE_RING_EVENTS : 0;
+        int copied = 0;
+
+        for (uint64_t i = start; i < end && count + copied < maxEvents; i++) {
+            const TraceEvent *event = &ring->events[i % TRACE_RING_EVENTS];
+            int64_t *dst = out + (size_t)(count + copied) * TRACE_EVENT_WORDS;
+            dst[0] = event->timestampNs;
+            dst[1] = event->meta;
+            dst[2] = event->value;
+            copied++;
+        }
+
+        //拷贝期间写入的事件可能覆盖了开头的几个，把已经被覆盖的丢掉。
+        //写入线程可能正在写第 after 个事件，它和第 after - TRACE_RING_EVENTS 个在同一格，也要丢掉
+        uint64_t after = ring->head.load(std::memory_order_acquire);
+        uint64_t overwritten = after + 1 > TRACE_RING_EVENTS + start ? after + 1 - TRACE_RING_EVENTS - start : 0;
+        if (overwritten >= (uint64_t)copied) {
+            continue;
+        }
+        if (overwritten > 0) {
+            int64_t *base = out + (size_t)count * TRACE_EVENT_WORDS;
+            for (int i = (int)overwritten; i < copied; i++) {
+                for (int w = 0; w < TRACE_EVENT_WORDS; w++) {
+                    base[(i - overwritten) * TRACE_EVENT_WORDS + w] = base[i * TRACE_EVENT_WORDS + w];
+                }
+            }
+        }
+        count += copied - (int)overwritten;
+    }
+
+    return count;
+}
@@ -0,0 +1,82 @@
+//
+// Per-thread ring buffers of fixed-size trace events, exported through pri.tool.v4l2camera.Trace.
+//
+
+#ifndef V4L_ANDROID_TRACERECORDER_H
+#define V4L_ANDROID_TRACERECORDER_H
+
+#include <stdint.h>
+#include <atomic>
+
+//sync with pri.tool.v4l2camera.Trace
+#define TRACE_PHASE_BEGIN 0
+#define TRACE_PHASE_END 1
+#define TRACE_PHASE_INSTANT 2
+#define TRACE_PHASE_COUNTER 3
+
+//每个线程的 ring 能保存的事件数，写满后覆盖最旧的
+#define TRACE_RING_EVENTS 4096
+//ring 总数的上限，达到上限后新线程复用已退出线程的 ring
+#define TRACE_MAX_RINGS 32
+
+//导出时每个事件占 3 个 int64：时间(ns)、meta、value，meta = phase << 56 | name << 32 | tid
+#define TRACE_EVENT_WORDS 3
+
+//native 事件名，sync with pri.tool.v4l2camera.Trace.NATIVE_NAMES
+#define TRACE_CAPTURE_FRAME 0    //采集线程处理一帧：出队到交给回调队列
+#define TRACE_GATE 1             //变化检测
+#define TRACE_CROP 2             //ROI 裁剪缩小
+#define TRACE_CONVERT 3          //YUYV 到 RGBA
+#define TRACE_DELIVER 4          //回调线程处理一帧：JNI 拷贝和 Java 回调
+#define TRACE_GATED_FRAMES 5     //counter，变化检测累计丢弃的帧数
+#define TRACE_DROPPED_FRAMES 6   //counter，驱动累计丢弃的帧数
+#define TRACE_QUEUE_DEPTH 7      //counter，驱动中可写的 buffer 数
+#define TRACE_NATIVE_NAME_COUNT 8
+
+extern std::atomic<bool> gTraceEnabled;
+
+static inline bool traceEnabled()
+{
+    return gTraceEnabled.load(std::memory_order_relaxed);
+}
+
+void traceSetEnabled(bool enabled);
+
+/**
+ * 写入当前线程的 ring，第一次调用时为线程分配（或者复用已退出线程的）ring，之后不再分配内存也不加锁。
+ */
+void traceRecord(int phase, int name, int64_t value);
+
+/**
+ * 按线程依次拷贝所有 ring 中的事件，返回拷贝的事件数。读取时正在被覆盖的事件会被丢弃。
+ */
+int traceSnapshot(int64_t *out, int maxEvents);
+
+//关闭时只有一次 relaxed load
+#define TRACE_BEGIN(name) do { if (traceEnabled()) traceRecord(TRACE_PHASE_BEGIN, name, 0); } while (0)
+#define TRACE_END(name) do { if (traceEnabled()) traceRecord(TRACE_PHASE_END, name, 0); } while (0)
+#define TRACE_COUNTER(name, value) do { if (traceEnabled()) traceRecord(TRACE_PHASE_COUNTER, name, value); } while (0)
+
+/**
+ * 作用域内的 begin/end，构造时关闭的话析构也不记录，中途开关不会产生不配对的事件。
+ */
+class TraceScope {
+public:
+    explicit TraceScope(int name) : name(name), active(traceEnabled()) {
+        if (active) {
+            traceRecord(TRACE_PHASE_BEGIN, name, 0);
+        }
+    }
+
+    ~TraceScope() {
+        if (active) {
+            traceRecord(TRACE_PHASE_END, name, 0);
+        }
+    }
+
+private:
+    int name;
+    bool active;
+};
+
+#endif //V4L_ANDROID_TRACERECORDER_H
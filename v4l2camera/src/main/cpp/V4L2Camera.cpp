@@ -26,6 +26,9 @@
 #include <fcntl.h>
 #include <unistd.h>
 #include <errno.h>
+#include <poll.h>
+#include <time.h>
+#include <sys/eventfd.h>
 #include <sys/ioctl.h>
 #include <sys/mman.h>
 
@@ -51,36 +54,9 @@
 #define MIN(a, b) ({__typeof__(a) _a = (a); __typeof__(b) _b = (b); _a < _b ? _a : _b; })
 #endif
 
-// This value is 2 ^ 18 - 1, and is used to clamp the RGB values before their ranges
-// are normalized to eight bits.
-static const int kMaxChannelValue = 262143;
-
-static inline uint32_t YUV2RGB(int nY, int nU, int nV) {
-    nY -= 16;
-    nU -= 128;
-    nV -= 128;
-    if (nY < 0) nY = 0;
-
-    // This is the floating point equivalent. We do the conversion in integer
-    // because some Android devices do not have floating point in hardware.
-    // nR = (int)(1.164 * nY + 2.018 * nU);
-    // nG = (int)(1.164 * nY - 0.813 * nV - 0.391 * nU);
-    // nB = (int)(1.164 * nY + 1.596 * nV);
-
-    int nR = 1192 * nY + 1634 * nV;
-    int nG = 1192 * nY - 833 * nV - 400 * nU;
-    int nB = 1192 * nY + 2066 * nU;
-
-    nR = MIN(kMaxChannelValue, MAX(0, nR));
-    nG = MIN(kMaxChannelValue, MAX(0, nG));
-    nB = MIN(kMaxChannelValue, MAX(0, nB));
-
-    nR = (nR >> 10) & 0xff;
-    nG = (nG >> 10) & 0xff;
-    nB = (nB >> 10) & 0xff;
-
-    return 0xff000000 | (nR << 16) | (nG << 8) | nB;
-}
+//Uninit 时仍被 Java 持有的 buffer 不解除映射，留到 Java 归还时再 munmap，camera 删除后仍然有效
+static std::mutex retiredLock;
+static std::list<MappedBuffer> retiredBuffers;
 
 void *render_task_start(void *args) {
     ALOGE("enter: %s", __PRETTY_FUNCTION__);
@@ -89,14 +65,29 @@ void *render_task_start(void *args) {
     return 0;//一定一定一定要返回0！！！
 }
 
+void *deliver_task_start(void *args) {
+    V4L2Camera *element = static_cast<V4L2Camera *>(args);
+    element ->_deliver();
+    return 0;
+}
+
 
 V4L2Camera::V4L2Camera()
-	: start(0)
+	: fd(-1), start(false), waitingRelease(false), frameTimeoutMs(DEFAULT_FRAME_TIMEOUT_MS),
+	  stallTimeoutMs(DEFAULT_STALL_TIMEOUT_MS), queueDepth(0), droppedFrames(0), frameMode(false),
+	  outputFormat(YUYV), copyDrops(0)
 {
+    for (int i = 0; i < MAX_BUFFER_COUNT; i++) {
+        leased[i] = false;
+    }
+    memset(&roi, 0, sizeof(FrameRoi));
 }
 
 V4L2Camera::~V4L2Camera()
 {
+    StopStreaming();
+    Uninit();
+
     std::lock_guard<std::mutex> lock(windowLock);
     if (window != 0) {
         ANativeWindow_release(window);
@@ -106,6 +97,31 @@ V4L2Camera::~V4L2Camera()
     setListener(0);
 }
 
+int V4L2Camera::QueryDevice(const char *device, struct v4l2_capability *cap)
+{
+    int fd = open(device, O_RDWR | O_NONBLOCK, 0);
+    if (fd < 0) {
+        return -1;
+    }
+
+    memset(cap, 0, sizeof(struct v4l2_capability));
+    int ret = ioctl(fd, VIDIOC_QUERYCAP, cap);
+    close(fd);
+
+    return ret < 0 ? -1 : 0;
+}
+
+int V4L2Camera::QueryCapability(struct v4l2_capability *cap)
+{
+    memset(cap, 0, sizeof(struct v4l2_capability));
+    if (ioctl(fd, VIDIOC_QUERYCAP, cap) < 0) {
+        ALOGE("Unable to query capability: %s", strerror(errno));
+        return -1;
+    }
+
+    return 0;
+}
+
 int V4L2Camera::Open(const char *filename,
                       unsigned int w,
                       unsigned int h,
@@ -114,7 +130,8 @@ int V4L2Camera::Open(const char *filename,
     int ret;
     struct v4l2_format format;
 
-    fd = open(filename, O_RDWR , 0);
+    //非阻塞打开，由 _start 中的 poll 负责等待帧
+    fd = open(filename, O_RDWR | O_NONBLOCK, 0);
     if (fd < 0) {
         ALOGE("Error opening device: %s", filename);
         return -1;
@@ -135,6 +152,8 @@ int V4L2Camera::Open(const char *filename,
     ret = ioctl(fd, VIDIOC_S_FMT, &format);
     if (ret < 0) {
         ALOGE("Unable to set format: %s", strerror(errno));
+        close(fd);
+        fd = -1;
         return -1;
     }
 
@@ -144,6 +163,7 @@ int V4L2Camera::Open(const char *filename,
 void V4L2Camera::Close()
 {
     close(fd);
+    fd = -1;
 }
 
 int V4L2Camera::Init()
@@ -151,13 +171,18 @@ int V4L2Camera::Init()
     ALOGD("V4L2Camera::Init()");
     int ret;
     struct v4l2_requestbuffers rb;
+    struct v4l2_buffer buf;
 
     start = false;
 
-    /* V4L2: request buffers, only 1 frame */
+    //重新开始预览时先释放上一次的buffer，否则 VIDIOC_REQBUFS 会返回 EBUSY
+    Uninit();
+
+    /* V4L2: request buffers, the driver may adjust the count */
+    memset(&rb, 0, sizeof(struct v4l2_requestbuffers));
     rb.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
     rb.memory = V4L2_MEMORY_MMAP;
-    rb.count = 1;
+    rb.count = bufferCount;
 
     ret = ioctl(fd, VIDIOC_REQBUFS, &rb);
     if (ret < 0) {
@@ -165,37 +190,139 @@ int V4L2Camera::Init()
         return -1;
     }
 
-    /* V4L2: map buffer  */
-    memset(&buf, 0, sizeof(struct v4l2_buffer));
+    if (rb.count < MIN_BUFFER_COUNT) {
+        ALOGW("Driver granted only %d buffers, frames will be dropped while copying", rb.count);
+    }
+    if (rb.count == 0) {
+        return -1;
+    }
 
-    buf.index = 0;
-    buf.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
-    buf.memory = V4L2_MEMORY_MMAP;
+    if (rb.count > MAX_BUFFER_COUNT) {
+        //多出来的 buffer 不会被映射和入队，重新申请，让驱动持有的数量与映射的一致
+        ALOGW("Driver granted %d buffers, requesting %d again", rb.count, MAX_BUFFER_COUNT);
+        rb.count = MAX_BUFFER_COUNT;
+        ret = ioctl(fd, VIDIOC_REQBUFS, &rb);
+        if (ret < 0 || rb.count == 0 || rb.count > MAX_BUFFER_COUNT) {
+            ALOGE("Unable request %d buffers: %s", MAX_BUFFER_COUNT, ret < 0 ? strerror(errno) : "count adjusted");
+            rb.count = 0;
+            ioctl(fd, VIDIOC_REQBUFS, &rb);
+            return -1;
+        }
+    }
 
-    ret = ioctl(fd, VIDIOC_QUERYBUF, &buf);
-    if (ret < 0) {
-        ALOGE("Unable query buffer: %s", strerror(errno));
-        return -1;
+    buffers = new MappedBuffer[rb.count];
+    memset(buffers, 0, sizeof(MappedBuffer) * rb.count);
+    maxBufferLength = 0;
+
+    /* V4L2: map every buffer of the ring */
+    for (mappedCount = 0; mappedCount < rb.count; mappedCount++) {
+        memset(&buf, 0, sizeof(struct v4l2_buffer));
+
+        buf.index = mappedCount;
+        buf.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
+        buf.memory = V4L2_MEMORY_MMAP;
+
+        ret = ioctl(fd, VIDIOC_QUERYBUF, &buf);
+        if (ret < 0) {
+            ALOGE("Unable query buffer %d: %s", mappedCount, strerror(errno));
+            Uninit();
+            return -1;
+        }
+
+        void *mem = mmap(0, buf.length, PROT_READ | PROT_WRITE,
+                         MAP_SHARED, fd, buf.m.offset);
+        if (mem == MAP_FAILED) {
+            ALOGE("Unable map buffer %d: %s", mappedCount, strerror(errno));
+            Uninit();
+            return -1;
+        }
+
+        buffers[mappedCount].start = (unsigned char *)mem;
+        buffers[mappedCount].length = buf.length;
+        maxBufferLength = MAX(maxBufferLength, (size_t)buf.length);
     }
 
-    /* Only map one */
-    mem = (unsigned char *)mmap(0, buf.length, PROT_READ | PROT_WRITE, 
-				MAP_SHARED, fd, buf.m.offset);
-    if (mem == MAP_FAILED) {
-        ALOGE("Unable map buffer: %s", strerror(errno));
-        return -1;
+    /* V4L2: queue all buffers so the driver always has somewhere to write */
+    for (unsigned int i = 0; i < mappedCount; i++) {
+        memset(&buf, 0, sizeof(struct v4l2_buffer));
+
+        buf.index = i;
+        buf.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
+        buf.memory = V4L2_MEMORY_MMAP;
+
+        ret = ioctl(fd, VIDIOC_QBUF, &buf);
+        if (ret < 0) {
+            ALOGE("Unable queue buffer %d: %s", i, strerror(errno));
+            Uninit();
+            return -1;
+        }
+        queueDepth++;
+        leased[i] = false;
     }
 
-    /* V4L2: queue buffer */
-    ret = ioctl(fd, VIDIOC_QBUF, &buf);
+    droppedFrames = 0;
+    sequenceValid = false;
 
+    ALOGD("V4L2Camera::Init() mapped %d buffers", mappedCount);
     return 0;
 }
 
 void V4L2Camera::Uninit()
 {
-    munmap(mem, buf.length);
-    return ;
+    if (buffers == 0) {
+        return;
+    }
+
+    {
+        //和 releaseLeasedFrame 互斥，Java 要么在这之前归还，要么在 retiredBuffers 中找到 buffer
+        std::lock_guard<std::mutex> lock(retiredLock);
+        for (unsigned int i = 0; i < mappedCount; i++) {
+            if (leased[i].exchange(false)) {
+                ALOGW("Buffer %d still leased, unmap when released", i);
+                retiredBuffers.push_back(buffers[i]);
+            } else {
+                munmap(buffers[i].start, buffers[i].length);
+            }
+        }
+    }
+    delete[] buffers;
+    buffers = 0;
+    mappedCount = 0;
+    queueDepth = 0;
+
+    /* V4L2: release the driver side of the ring */
+    struct v4l2_requestbuffers rb;
+    memset(&rb, 0, sizeof(struct v4l2_requestbuffers));
+    rb.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
+    rb.memory = V4L2_MEMORY_MMAP;
+    rb.count = 0;
+    ioctl(fd, VIDIOC_REQBUFS, &rb);
+}
+
+int V4L2Camera::setBufferCount(int count)
+{
+    if (start) {
+        ALOGE("setBufferCount must be called before StartStreaming");
+        return ERROR_STATE_ILLEGAL;
+    }
+
+    bufferCount = MIN(MAX(count, MIN_BUFFER_COUNT), MAX_BUFFER_COUNT);
+    return 0;
+}
+
+int V4L2Camera::getBufferCount()
+{
+    return mappedCount;
+}
+
+unsigned int V4L2Camera::getDroppedFrames()
+{
+    return droppedFrames;
+}
+
+int V4L2Camera::getQueueDepth()
+{
+    return queueDepth;
 }
 
 void V4L2Camera::StartStreaming()
@@ -205,19 +332,46 @@ void V4L2Camera::StartStreaming()
 
     if (start) return;
 
+    wakeFd = eventfd(0, EFD_NONBLOCK | EFD_CLOEXEC);
+    if (wakeFd < 0) {
+        ALOGE("Unable create eventfd: %s", strerror(errno));
+        return;
+    }
+
+    //零拷贝模式只传递 buffer index，不需要拷贝用的内存
+    size_t frameSize = frameMode ? 0 : MAX(maxBufferLength, (size_t)width * height * 4);
+    frameQueue.init(dropPolicy, queueCapacity, frameSize);
+    motionGate.reset();
+
     type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
 
     ret = ioctl(fd, VIDIOC_STREAMON, &type);
     if (ret < 0) {
-        ALOGE("Unable query buffer: %s", strerror(errno));
+        ALOGE("Unable stream on: %s", strerror(errno));
+        close(wakeFd);
+        wakeFd = -1;
         return;
     }
 
- //   if (window != 0) {
-        pthread_create(&pid_start, 0, render_task_start, this);
- //   }
-
+    //先置位再创建线程，否则采集线程可能看到 start 为 false 直接退出
     start = true;
+    if (pthread_create(&pid_deliver, 0, deliver_task_start, this) != 0) {
+        ALOGE("Unable create deliver thread");
+        start = false;
+        ioctl(fd, VIDIOC_STREAMOFF, &type);
+        close(wakeFd);
+        wakeFd = -1;
+        return;
+    }
+    if (pthread_create(&pid_start, 0, render_task_start, this) != 0) {
+        ALOGE("Unable create capture thread");
+        start = false;
+        frameQueue.close();
+        pthread_join(pid_deliver, 0);
+        ioctl(fd, VIDIOC_STREAMOFF, &type);
+        close(wakeFd);
+        wakeFd = -1;
+    }
 }
 
 void V4L2Camera::StopStreaming()
@@ -227,46 +381,374 @@ void V4L2Camera::StopStreaming()
 
     if (!start) return;
 
+    start = false;
+
+    //关闭队列唤醒回调线程和 DROP_BLOCK 时等待的采集线程，再通过 eventfd 唤醒阻塞在 poll 的采集线程，
+    //两个线程都退出后才能 STREAMOFF 和释放 mmap buffer
+    frameQueue.close();
+    Wakeup();
+    pthread_join(pid_start, 0);
+    pthread_join(pid_deliver, 0);
+
+    //还没回调的帧直接丢弃
+    FrameSlot *slot;
+    while ((slot = frameQueue.drain()) != 0) {
+        dropFrame(slot);
+    }
+
     type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
 
     ret = ioctl(fd, VIDIOC_STREAMOFF, &type);
     if (ret < 0) {
-        ALOGE("Unable query buffer: %s", strerror(errno));
+        ALOGE("Unable stream off: %s", strerror(errno));
+    }
+
+    close(wakeFd);
+    wakeFd = -1;
+}
+
+void V4L2Camera::Wakeup()
+{
+    uint64_t value = 1;
+    if (wakeFd >= 0) {
+        write(wakeFd, &value, sizeof(value));
+    }
+}
+
+int V4L2Camera::setDeliveryPolicy(int policy, int capacity)
+{
+    if (start) {
+        ALOGE("setDeliveryPolicy must be called before StartStreaming");
+        return ERROR_STATE_ILLEGAL;
+    }
+    if (policy < 0 || policy >= DROP_POLICY_COUNT) {
+        return ERROR_CAPABILITY_UNSUPPORT;
+    }
+
+    dropPolicy = policy;
+    queueCapacity = MIN(MAX(capacity, 1), MAX_QUEUE_CAPACITY);
+    return 0;
+}
+
+void V4L2Camera::setMotionGate(int lumaThreshold, int changedPermille, int keepAliveMs)
+{
+    motionGate.configure(lumaThreshold, changedPermille, keepAliveMs);
+}
+
+unsigned int V4L2Camera::getGatedFrames()
+{
+    return motionGate.getGatedFrames();
+}
+
+unsigned int V4L2Camera::getCopyDrops()
+{
+    return copyDrops;
+}
+
+int V4L2Camera::setRegionOfInterest(int left, int top, int w, int h, int outputWidth, int outputHeight)
+{
+    if (w > 0 && (h <= 0 || outputWidth < 0 || outputHeight < 0)) {
+        return ERROR_CAPABILITY_UNSUPPORT;
+    }
+
+    //超出帧的部分在每帧开始时按当时的预览尺寸裁掉
+    std::lock_guard<std::mutex> lock(roiLock);
+    roi.left = left;
+    roi.top = top;
+    roi.width = w > 0 ? w : 0;
+    roi.height = w > 0 ? h : 0;
+    roi.outputWidth = outputWidth;
+    roi.outputHeight = outputHeight;
+    return 0;
+}
+
+bool V4L2Camera::gateFrame(const unsigned char *yuyv, FrameInfo *info)
+{
+    if (pixelformat != V4L2_PIX_FMT_YUYV || !motionGate.isEnabled()) {
+        return true;
+    }
+
+    TraceScope trace(TRACE_GATE);
+    int64_t gateStartUs = metricsNowUs();
+    bool accept = motionGate.accept(yuyv, width, height, info->timestampUs);
+    stageMetrics[STAGE_GATE].recordSince(gateStartUs);
+    if (!accept) {
+        TRACE_COUNTER(TRACE_GATED_FRAMES, motionGate.getGatedFrames());
+    }
+    return accept;
+}
+
+int V4L2Camera::getStageHistogram(int stage, int64_t *buckets, bool reset)
+{
+    if (stage < 0 || stage >= NATIVE_STAGE_COUNT) {
+        return ERROR_CAPABILITY_UNSUPPORT;
+    }
+
+    stageMetrics[stage].snapshot(buckets, reset);
+    return 0;
+}
+
+unsigned int V4L2Camera::getDeliveryDropCount(int policy)
+{
+    return frameQueue.getDropCount(policy);
+}
+
+void V4L2Camera::dropFrame(FrameSlot *slot)
+{
+    if (slot == 0) {
         return;
     }
 
-    start = false;
+    //零拷贝模式下被丢弃的 buffer 要还给驱动
+    if (slot->index >= 0) {
+        releaseFrame(slot->index);
+    }
+    frameQueue.recycle(slot);
+}
+
+void V4L2Camera::setCaptureTimeout(int frameTimeout, int stallTimeout)
+{
+    frameTimeoutMs = MAX(frameTimeout, 1);
+    stallTimeoutMs = MAX(stallTimeout, frameTimeoutMs.load());
+}
+
+static int64_t monotonicMs()
+{
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (int64_t)ts.tv_sec * 1000 + ts.tv_nsec / 1000000;
+}
+
+
+/**
+ * 等待设备可读或者被唤醒。
+ * 返回 1 表示有帧可以出队，0 表示超时，-EINTR 表示被唤醒，-ENODEV 表示设备出错或已拔出。
+ */
+int V4L2Camera::WaitFrame(int timeoutMs)
+{
+    struct pollfd fds[2];
+
+    //所有 buffer 都被 Java 持有时驱动会对 poll 立即返回 POLLERR，这时只等 releaseFrame 唤醒
+    bool waitDevice = true;
+    waitingRelease = true;
+    if (queueDepth == 0) {
+        waitDevice = false;
+        timeoutMs = -1;
+    } else {
+        waitingRelease = false;
+    }
+
+    fds[0].fd = waitDevice ? fd : -1;
+    fds[0].events = POLLIN;
+    fds[0].revents = 0;
+    fds[1].fd = wakeFd;
+    fds[1].events = POLLIN;
+    fds[1].revents = 0;
+
+    int ret = poll(fds, 2, timeoutMs);
+    waitingRelease = false;
+
+    if (ret < 0) {
+        return errno == EINTR ? -EINTR : -ENODEV;
+    }
+    if (ret == 0) {
+        return 0;
+    }
+
+    if (fds[1].revents & POLLIN) {
+        uint64_t value;
+        read(wakeFd, &value, sizeof(value));
+    }
+    if (fds[0].revents & (POLLERR | POLLHUP | POLLNVAL)) {
+        return -ENODEV;
+    }
+
+    return (fds[0].revents & POLLIN) ? 1 : -EINTR;
+}
+
+int V4L2Camera::DequeueFrame(struct v4l2_buffer *buf, FrameInfo *info)
+{
+    int ret;
+
+    memset(buf, 0, sizeof(struct v4l2_buffer));
+    buf->type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
+    buf->memory = V4L2_MEMORY_MMAP;
+
+    /* V4L2: dequeue buffer */
+    ret = ioctl(fd, VIDIOC_DQBUF, buf);
+    if (ret < 0) {
+        if (errno == EAGAIN) {
+            return -EAGAIN;
+        }
+        ALOGE("Unable dequeue buffer: %s", strerror(errno));
+        return -errno;
+    }
+    queueDepth--;
+
+    //驱动的 sequence 不连续说明在 ring 满的时候丢了帧
+    if (sequenceValid && buf->sequence > lastSequence + 1) {
+        droppedFrames += buf->sequence - lastSequence - 1;
+    }
+    lastSequence = buf->sequence;
+    sequenceValid = true;
+
+    if (buf->flags & V4L2_BUF_FLAG_ERROR) {
+        //出错的帧直接还给驱动，等下一帧
+        droppedFrames++;
+        QueueFrame(buf->index);
+        return -EAGAIN;
+    }
+
+    //UVC 等驱动给出的是第一个数据包到达时的 CLOCK_MONOTONIC 时间，其他时钟改用出队时间
+    info->bytesused = buf->bytesused;
+    info->sequence = buf->sequence;
+    info->dequeueUs = metricsNowUs();
+    if ((buf->flags & V4L2_BUF_FLAG_TIMESTAMP_MASK) == V4L2_BUF_FLAG_TIMESTAMP_MONOTONIC) {
+        info->timestampUs = (int64_t)buf->timestamp.tv_sec * 1000000 + buf->timestamp.tv_usec;
+    } else {
+        info->timestampUs = info->dequeueUs;
+    }
+
+    return 0;
 }
 
-int V4L2Camera::GrabRawFrame(void *raw_base)
+int V4L2Camera::QueueFrame(unsigned int index)
 {
     int ret;
+    struct v4l2_buffer buf;
 
+    memset(&buf, 0, sizeof(struct v4l2_buffer));
+    buf.index = index;
     buf.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
     buf.memory = V4L2_MEMORY_MMAP;
 
-    /* V4L2: dequeue buffer */
-    ret = ioctl(fd, VIDIOC_DQBUF, &buf);
+    /* V4l2: give the buffer back to the driver */
+    ret = ioctl(fd, VIDIOC_QBUF, &buf);
     if (ret < 0) {
-        ALOGE("Unable query buffer: %s", strerror(errno));
+        ALOGE("Unable queue buffer: %s", strerror(errno));
+        return -errno;
+    }
+    queueDepth++;
+
+    return 0;
+}
+
+int V4L2Camera::GrabRawFrame(void *raw_base, FrameInfo *info)
+{
+    int ret;
+    struct v4l2_buffer buf;
+
+    ret = DequeueFrame(&buf, info);
+    if (ret != 0) {
         return ret;
     }
-    ALOGD("copy size :%d", buf.bytesused);
 
     /* copy to userspace */
-    memcpy(raw_base, mem,  buf.bytesused);
+    memcpy(raw_base, buffers[buf.index].start, buf.bytesused);
 
-    /* V4l2: queue buffer again after that */
-    ret = ioctl(fd, VIDIOC_QBUF, &buf);
-    if (ret < 0) {
-        ALOGE("Unable query buffer: %s", strerror(errno));
+    /* V4l2: queue the same buffer again after that */
+    return QueueFrame(buf.index);
+}
+
+int V4L2Camera::GrabFrame(unsigned int *index, FrameInfo *info)
+{
+    int ret;
+    struct v4l2_buffer buf;
+
+    ret = DequeueFrame(&buf, info);
+    if (ret != 0) {
         return ret;
     }
 
+    //buffer 交给 Java 持有，直到 releaseFrame 才重新入队
+    leased[buf.index] = true;
+    *index = buf.index;
+
     return 0;
 }
 
-void V4L2Camera::Convert(void *r, void *p, unsigned int ppm)
+int V4L2Camera::GrabCroppedFrame(const FrameRoi *roi, void *dst, FrameInfo *info, bool *gated)
+{
+    int ret;
+    struct v4l2_buffer buf;
+
+    ret = DequeueFrame(&buf, info);
+    if (ret != 0) {
+        return ret;
+    }
+
+    //直接从 mmap 的 buffer 裁剪缩小，不拷贝整帧
+    *gated = !gateFrame(buffers[buf.index].start, info);
+    if (!*gated) {
+        TraceScope trace(TRACE_CROP);
+        int64_t cropStartUs = metricsNowUs();
+        cropScaleYuyv(buffers[buf.index].start, width, roi, (unsigned char *)dst);
+        stageMetrics[STAGE_CROP].recordSince(cropStartUs);
+    }
+
+    return QueueFrame(buf.index);
+}
+
+int V4L2Camera::releaseFrame(int index)
+{
+    int ret;
+
+    if (index < 0 || (unsigned int)index >= mappedCount) {
+        return ERROR_STATE_ILLEGAL;
+    }
+
+    //重复 release 或者 stop 之后的 release 直接忽略
+    if (!leased[index].exchange(false)) {
+        return 0;
+    }
+
+    if (!start) {
+        return 0;
+    }
+
+    ret = QueueFrame(index);
+
+    //采集线程因为没有可用 buffer 在等待时唤醒它
+    if (ret == 0 && waitingRelease) {
+        Wakeup();
+    }
+
+    return ret;
+}
+
+//Java 归还一个租约。start 是租约的 buffer 地址，已经不属于当前的 ring 时直接解除映射
+int V4L2Camera::releaseLeasedFrame(V4L2Camera *camera, int index, void *start)
+{
+    std::lock_guard<std::mutex> lock(retiredLock);
+    if (start != 0) {
+        for (std::list<MappedBuffer>::iterator it = retiredBuffers.begin(); it != retiredBuffers.end(); ++it) {
+            if (it->start == start) {
+                munmap(it->start, it->length);
+                retiredBuffers.erase(it);
+                return 0;
+            }
+        }
+    }
+
+    return camera != 0 ? camera->releaseFrame(index) : ERROR_STATE_ILLEGAL;
+}
+
+void V4L2Camera::setFrameMode(bool enable)
+{
+    frameMode = enable;
+}
+
+unsigned char *V4L2Camera::getBufferAddress(int index, size_t *length)
+{
+    if (index < 0 || (unsigned int)index >= mappedCount) {
+        return 0;
+    }
+
+    *length = buffers[index].length;
+    return buffers[index].start;
+}
+
+void V4L2Camera::Convert(void *r, void *p, unsigned int ppm, unsigned int w, unsigned int h)
 {
     unsigned char *raw = (unsigned char *)r;
     unsigned char *preview = (unsigned char *)p;
@@ -277,48 +759,33 @@ void V4L2Camera::Convert(void *r, void *p, unsigned int ppm)
 //        memcpy(preview, raw, width*height*ppm);
 //    }
 
-    /* TODO: Convert YUYV to ARGB. */
+    //android　ARGB_8888 像素数据在内存中其实是以R G B A R G B A …的顺序排布的
     if (pixelformat == V4L2_PIX_FMT_YUYV) {
-        int size = width * height * 2;
-        int in;
-        int out;
-
-        unsigned char y1;
-        unsigned char u;
-        unsigned char y2;
-        unsigned char v;
-
-        uint32_t argb;
-        for(in = 0, out = 0; in < size; in += 4, out += 8) {
-            y1 = raw[in];
-            u = raw[in + 1];
-            y2 = raw[in + 2];
-            v = raw[in + 3];
-
-            //android　ARGB_8888 像素数据在内存中其实是以R G B A R G B A …的顺序排布的
-            argb = YUV2RGB(y1,u,v);
-            preview[out] = (argb >> 16) & 0xff;;
-            preview[out + 1] = (argb >> 8) & 0xff;
-            preview[out + 2] = argb & 0xff;
-            preview[out + 3] = 0xff;
-
-            argb = YUV2RGB(y2,u,v);
-            preview[out + 4] = (argb >> 16) & 0xff;
-            preview[out + 5] = (argb >> 8) & 0xff;
-            preview[out + 6] = argb & 0xff;
-            preview[out + 7] = 0xff;
-        }
+        TraceScope trace(TRACE_CONVERT);
+        convertPool.yuyvToRgba(raw, preview, w, h);
     }
 
-
     return;
 }
 
+int V4L2Camera::setOutputFormat(int format)
+{
+    if (format != YUYV && format != RGBA) {
+        return ERROR_CAPABILITY_UNSUPPORT;
+    }
+
+    outputFormat = format;
+    return 0;
+}
+
+void V4L2Camera::setConvertThreadCount(int count)
+{
+    convertPool.setThreadCount(count);
+}
 
 std::list<Parameter> V4L2Camera::getParameters() {
     struct v4l2_fmtdesc fmtd;	//存的是摄像头支持的传输格式
     struct v4l2_frmsizeenum  frmsize;	//存的是摄像头对应的图片格式所支持的分辨率
-    struct v4l2_frmivalenum  framival;	//存的是对应的图片格式，分辨率所支持的帧率
     Parameter parameter;
     Frame frame;
 
@@ -326,53 +793,91 @@ std::list<Parameter> V4L2Camera::getParameters() {
 
     for (int i = 0; ; i++)
     {
+        memset(&fmtd, 0, sizeof(struct v4l2_fmtdesc));
         fmtd.index = i;
         fmtd.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
         if (ioctl(fd, VIDIOC_ENUM_FMT, &fmtd) < 0)
             break;
-        ALOGD("fmt %d: %s\n", i, fmtd.description);
         parameter.pixFormat = fmtd.pixelformat;
         parameter.frames.clear();
         // 查询这种图像数据格式下支持的分辨率
         for (int j = 0; ; j++)
         {
+            memset(&frmsize, 0, sizeof(struct v4l2_frmsizeenum));
             frmsize.index = j;
             frmsize.pixel_format = fmtd.pixelformat;
             if (ioctl(fd, VIDIOC_ENUM_FRAMESIZES, &frmsize) < 0)
                 break;
-            ALOGD("w = %d, h = %d \n", frmsize.discrete.width, frmsize.discrete.height);
 
-            frame.width = frmsize.discrete.width;
-            frame.height = frmsize.discrete.height;
-            frame.frameRate.clear();
-
-            //查询在这种图像数据格式下这种分辨率支持的帧率
-            for (int k = 0; ; k++)
-            {
-                framival.index = k;
-                framival.pixel_format = fmtd.pixelformat;
-                framival.width = frmsize.discrete.width;
-                framival.height = frmsize.discrete.height;
-                if (ioctl(fd, VIDIOC_ENUM_FRAMEINTERVALS, &framival) < 0)
-                    break;
-                //下面是帧率的获取
-                FrameRate frameRate;
-                frameRate.numerator = framival.discrete.numerator;
-                frameRate.denominator = framival.discrete.denominator;
-                frame.frameRate.push_back(frameRate);
-                ALOGD("frame interval: %d, %d\n", framival.discrete.numerator, framival.discrete.denominator);
+            frame.type = frmsize.type;
+            if (frmsize.type == V4L2_FRMSIZE_TYPE_DISCRETE) {
+                frame.width = frame.maxWidth = frmsize.discrete.width;
+                frame.height = frame.maxHeight = frmsize.discrete.height;
+                frame.stepWidth = frame.stepHeight = 0;
+            } else {
+                //STEPWISE 和 CONTINUOUS 只有 index 0 一项，CONTINUOUS 的 step 为 1
+                frame.width = frmsize.stepwise.min_width;
+                frame.height = frmsize.stepwise.min_height;
+                frame.maxWidth = frmsize.stepwise.max_width;
+                frame.maxHeight = frmsize.stepwise.max_height;
+                frame.stepWidth = frmsize.stepwise.step_width;
+                frame.stepHeight = frmsize.stepwise.step_height;
             }
 
+            //查询在这种图像数据格式下这种分辨率支持的帧率
+            getFrameRates(fmtd.pixelformat, frame.maxWidth, frame.maxHeight, &frame.frameRate);
             parameter.frames.push_back(frame);
+
+            if (frmsize.type != V4L2_FRMSIZE_TYPE_DISCRETE)
+                break;
         }
 
         parameters.push_back(parameter);
     }
 
+    ALOGD("enumerated %zu formats", parameters.size());
     return parameters;
 
 }
 
+void V4L2Camera::getFrameRates(unsigned int pixelformat, unsigned int width, unsigned int height,
+                               std::list<FrameRate> *frameRates) {
+    struct v4l2_frmivalenum  framival;	//存的是对应的图片格式，分辨率所支持的帧率
+
+    frameRates->clear();
+    for (int k = 0; ; k++)
+    {
+        memset(&framival, 0, sizeof(struct v4l2_frmivalenum));
+        framival.index = k;
+        framival.pixel_format = pixelformat;
+        framival.width = width;
+        framival.height = height;
+        if (ioctl(fd, VIDIOC_ENUM_FRAMEINTERVALS, &framival) < 0)
+            break;
+
+        FrameRate frameRate;
+        frameRate.type = framival.type;
+        if (framival.type == V4L2_FRMIVAL_TYPE_DISCRETE) {
+            frameRate.numerator = frameRate.maxNumerator = framival.discrete.numerator;
+            frameRate.denominator = frameRate.maxDenominator = framival.discrete.denominator;
+            frameRate.stepNumerator = 0;
+            frameRate.stepDenominator = 1;
+        } else {
+            //min 为最短的帧间隔，即最高帧率
+            frameRate.numerator = framival.stepwise.min.numerator;
+            frameRate.denominator = framival.stepwise.min.denominator;
+            frameRate.maxNumerator = framival.stepwise.max.numerator;
+            frameRate.maxDenominator = framival.stepwise.max.denominator;
+            frameRate.stepNumerator = framival.stepwise.step.numerator;
+            frameRate.stepDenominator = framival.stepwise.step.denominator;
+        }
+        frameRates->push_back(frameRate);
+
+        if (framival.type != V4L2_FRMIVAL_TYPE_DISCRETE)
+            break;
+    }
+}
+
 int V4L2Camera::setPreviewSize(int width, int height, int pixformat) {
     int ret;
     struct v4l2_format format;
@@ -380,14 +885,11 @@ int V4L2Camera::setPreviewSize(int width, int height, int pixformat) {
     ALOGD("setPreviewSize %d, %d, %d", width, height, pixformat);
 
 
-    this->width = width;
-    this->height = height;
-    this->pixelformat = pixformat;
-
+    memset(&format, 0, sizeof(struct v4l2_format));
     format.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
     format.fmt.pix.width = width;
     format.fmt.pix.height = height;
-    format.fmt.pix.pixelformat = pixelformat;
+    format.fmt.pix.pixelformat = pixformat;
 
     // MUST set
     format.fmt.pix.field = V4L2_FIELD_ANY;
@@ -398,6 +900,50 @@ int V4L2Camera::setPreviewSize(int width, int height, int pixformat) {
         return -1;
     }
 
+    //驱动不支持时会换成别的格式，不能当作成功
+    if (format.fmt.pix.pixelformat != (unsigned int)pixformat) {
+        ALOGE("Driver replaced pixel format %08x with %08x", pixformat, format.fmt.pix.pixelformat);
+        return ERROR_CAPABILITY_UNSUPPORT;
+    }
+
+    //尺寸以驱动实际选择的为准
+    this->width = format.fmt.pix.width;
+    this->height = format.fmt.pix.height;
+    this->pixelformat = pixformat;
+
+    return 0;
+}
+
+int V4L2Camera::setFrameInterval(int numerator, int denominator) {
+    struct v4l2_streamparm parm;
+
+    if (start) {
+        ALOGE("setFrameInterval must be called before StartStreaming");
+        return ERROR_STATE_ILLEGAL;
+    }
+
+    memset(&parm, 0, sizeof(struct v4l2_streamparm));
+    parm.type = V4L2_BUF_TYPE_VIDEO_CAPTURE;
+    if (ioctl(fd, VIDIOC_G_PARM, &parm) < 0) {
+        ALOGE("Unable to get stream parameters: %s", strerror(errno));
+        return -1;
+    }
+
+    if (!(parm.parm.capture.capability & V4L2_CAP_TIMEPERFRAME)) {
+        ALOGW("Driver does not support setting the frame interval");
+        return ERROR_CAPABILITY_UNSUPPORT;
+    }
+
+    parm.parm.capture.timeperframe.numerator = numerator;
+    parm.parm.capture.timeperframe.denominator = denominator;
+    if (ioctl(fd, VIDIOC_S_PARM, &parm) < 0) {
+        ALOGE("Unable to set frame interval: %s", strerror(errno));
+        return -1;
+    }
+
+    //驱动会取最接近的帧间隔
+    ALOGD("frame interval %d/%d, requested %d/%d", parm.parm.capture.timeperframe.numerator,
+          parm.parm.capture.timeperframe.denominator, numerator, denominator);
     return 0;
 }
 
@@ -411,45 +957,185 @@ void V4L2Camera::setSurface(ANativeWindow *window) {
 }
 
 void V4L2Camera::_start() {
-    unsigned char *raw = new unsigned char[buf.length];
-    ALOGE("_start raw buf.length %d", buf.length);
-    unsigned char *preview = new unsigned char[width * height * 4]; //ARGB的大小
+    unsigned char *raw = new unsigned char[maxBufferLength];
+    //ROI 缩小后的 YUYV，转换成 RGBA 之前使用，不会比整帧大
+    unsigned char *cropped = new unsigned char[maxBufferLength];
+    FrameRoi frameRoi;
+    int64_t lastFrame = monotonicMs();
+    int64_t waitStartUs = metricsNowUs();
+    bool timeoutReported = false;
+    bool stallReported = false;
     int ret;
 
     while (start) {
-        ALOGE("loop start");
-        ret = GrabRawFrame(raw);
-        if (ret != 0) {
-            usleep(1);
+        ret = WaitFrame(frameTimeoutMs);
+        if (!start) {
+            break;
+        }
+
+        if (ret == 0) {
+            //第一次超时报告 ERROR_FRAME_TIMEOUT，持续没有帧超过 stallTimeoutMs 报告 ERROR_DEVICE_STALLED，出帧后重新计算
+            if (!timeoutReported) {
+                timeoutReported = true;
+                ALOGW("no frame in %d ms", frameTimeoutMs.load());
+                sendEventToJava(ERROR_FRAME_TIMEOUT);
+            }
+            if (!stallReported && monotonicMs() - lastFrame >= stallTimeoutMs) {
+                stallReported = true;
+                ALOGE("device stalled");
+                sendEventToJava(ERROR_DEVICE_STALLED);
+            }
+            continue;
+        }
+        if (ret == -EINTR) {
+            //被 releaseFrame 唤醒，等待 Java 归还 buffer 的时间不算作设备超时
+            lastFrame = monotonicMs();
             continue;
         }
 
-        ALOGE("loop middle");
+        if (ret > 0) {
+            TraceScope frameTrace(TRACE_CAPTURE_FRAME);
+            //slot 数量比队列容量多 2，这里总能取到
+            FrameSlot *slot = frameQueue.acquire();
+            FrameInfo info;
+            bool gated = false;
+            bool cropping = false;
+
+            slot->width = width;
+            slot->height = height;
+            if (!frameMode && pixelformat == V4L2_PIX_FMT_YUYV) {
+                {
+                    std::lock_guard<std::mutex> lock(roiLock);
+                    frameRoi = roi;
+                }
+                cropping = clampRoi(&frameRoi, width, height);
+            }
+
+            if (frameMode) {
+                unsigned int index;
+
+                ret = GrabFrame(&index, &info);
+                if (ret == 0 && !gateFrame(buffers[index].start, &info)) {
+                    releaseFrame(index);
+                    gated = true;
+                } else if (ret == 0) {
+                    slot->index = index;
+                    slot->size = info.bytesused;
+                    getRawFormat(&slot->format);
+                }
+            } else if (cropping) {
+                bool rgba = outputFormat == RGBA;
+                ret = GrabCroppedFrame(&frameRoi, rgba ? cropped : slot->data, &info, &gated);
+                if (ret == 0 && !gated) {
+                    slot->width = frameRoi.outputWidth;
+                    slot->height = frameRoi.outputHeight;
+                    if (rgba) {
+                        int64_t convertStartUs = metricsNowUs();
+                        Convert(cropped, slot->data, 4, slot->width, slot->height);
+                        stageMetrics[STAGE_CONVERT].recordSince(convertStartUs);
+                        renderVideo(slot->data, slot->width, slot->height);
+                        slot->size = slot->width * slot->height * 4;
+                        slot->format = RGBA;
+                    } else {
+                        slot->size = slot->width * slot->height * 2;
+                        slot->format = YUYV;
+                    }
+                }
+            } else if (outputFormat == RGBA && pixelformat == V4L2_PIX_FMT_YUYV) {
+                ret = GrabRawFrame(raw, &info);
+                if (ret == 0 && !gateFrame(raw, &info)) {
+                    gated = true;
+                } else if (ret == 0) {
+                    int64_t convertStartUs = metricsNowUs();
+                    Convert(raw, slot->data, 4, width, height);
+                    stageMetrics[STAGE_CONVERT].recordSince(convertStartUs);
+                    renderVideo(slot->data, width, height);
+                    slot->size = width * height * 4;
+                    slot->format = RGBA;
+                }
+            } else {
+                //MJPEG 不解码，压缩数据直接交给使用方
+                ret = GrabRawFrame(slot->data, &info);
+                if (ret == 0 && !gateFrame(slot->data, &info)) {
+                    gated = true;
+                } else if (ret == 0) {
+                    int size = getRawFormat(&slot->format);
+                    slot->size = size > 0 ? size : info.bytesused;
+                }
+            }
 
-        sendDataToJava(raw);
+            if (ret == 0) {
+                stageMetrics[STAGE_DRIVER].record(info.dequeueUs - info.timestampUs);
+                stageMetrics[STAGE_DEQUEUE].record(info.dequeueUs - waitStartUs);
+                waitStartUs = metricsNowUs();
+                lastFrame = monotonicMs();
+                timeoutReported = false;
+                stallReported = false;
+
+                //画面没有变化，设备是正常出帧的，只是不交给回调线程
+                if (gated) {
+                    frameQueue.recycle(slot);
+                    continue;
+                }
+
+                slot->timestampUs = info.timestampUs;
+                slot->sequence = info.sequence;
+                dropFrame(frameQueue.publish(slot));
+                TRACE_COUNTER(TRACE_QUEUE_DEPTH, queueDepth.load());
+                TRACE_COUNTER(TRACE_DROPPED_FRAMES, droppedFrames.load());
+                continue;
+            }
 
-        ALOGE("loop end");
+            frameQueue.recycle(slot);
+            if (ret == -EAGAIN) {
+                continue;
+            }
+        }
 
+        //设备拔出或者驱动出错，不再重试
+        ALOGE("capture stopped: %s", strerror(-ret));
+        sendEventToJava(ERROR_DEVICE_LOST);
+        break;
+    }
 
- //       Convert(raw, preview, 0);
+    delete[] raw;
+    delete[] cropped;
+}
 
+void V4L2Camera::_deliver() {
+    JavaVM *attachedVM = 0;
+    FrameSlot *slot;
 
-//
-//        renderVideo(preview);
+    //整个回调线程只 attach 一次 JVM
+    {
+        std::lock_guard<std::mutex> lock(listenerLock);
+        if (listener != 0) {
+            attachedVM = listener->attachCurrentThread();
+        }
     }
 
-    delete[] raw;
-    delete[] preview;
+    while ((slot = frameQueue.take()) != 0) {
+        TraceScope trace(TRACE_DELIVER);
+        if (slot->index >= 0) {
+            sendFrameToJava(slot);
+        } else {
+            sendDataToJava(slot);
+        }
+        frameQueue.recycle(slot);
+    }
+
+    if (attachedVM != 0) {
+        attachedVM->DetachCurrentThread();
+    }
 }
 
-void V4L2Camera::renderVideo(unsigned char *preview) {
+void V4L2Camera::renderVideo(unsigned char *preview, unsigned int w, unsigned int h) {
     std::lock_guard<std::mutex> lock(windowLock);
     if (window == 0) {
         return;
     }
-    ALOGE("RenderVideoElement width:%d, height:%d", width,height);
-    ANativeWindow_setBuffersGeometry(window, width,
-                                     height,
+    ANativeWindow_setBuffersGeometry(window, w,
+                                     h,
                                      WINDOW_FORMAT_RGBA_8888);
     ANativeWindow_Buffer window_buffer;
     if (ANativeWindow_lock(window, &window_buffer, 0)) {
@@ -459,7 +1145,7 @@ void V4L2Camera::renderVideo(unsigned char *preview) {
     }
     //把buffer中的数据进行赋值（修改）
     uint8_t *dst_data = static_cast<uint8_t *>(window_buffer.bits);
-    memcpy(dst_data, preview, width*height*4);
+    memcpy(dst_data, preview, w*h*4);
 
     ANativeWindow_unlockAndPost(window);
 
@@ -471,32 +1157,55 @@ void V4L2Camera::setListener(JavaCallHelper *listener) {
         delete this->listener;
     }
     this->listener = listener;
+    if (listener != 0) {
+        listener->setMetrics(&stageMetrics[STAGE_JNI_COPY], &stageMetrics[STAGE_CALLBACK], &copyDrops);
+    }
 }
 
-void V4L2Camera::sendDataToJava(unsigned char *raw) {
-    std::lock_guard<std::mutex> lock(listenerLock);
+int V4L2Camera::getRawFormat(int *format) {
     int size = 0;
-    int format = -1;
+    *format = -1;
 
-    if (pixelformat == V4L2_PIX_FMT_YUYV) {
-        format = YUYV;
-    }
     switch (pixelformat) {
         case V4L2_PIX_FMT_YUYV:
             size = width * height * 2;
-            format = YUYV;
+            *format = YUYV;
+            break;
+        case V4L2_PIX_FMT_MJPEG:
+            //每帧大小不同，由 bytesused 决定
+            size = 0;
+            *format = MJPEG;
             break;
     }
 
+    return size;
+}
 
+void V4L2Camera::sendDataToJava(FrameSlot *slot) {
+    std::lock_guard<std::mutex> lock(listenerLock);
 
-    ALOGD("pixel'yuyv'    :%d\n",('Y'|'U'<<8|'Y'<<16|'V'<<24));
-
-    ALOGD("pixFormat %d, size : %d  ", pixelformat, size);
-    if (listener != 0 && size != 0) {
-        listener->onDataCallback(raw, size, width, height, format);
+    if (listener != 0 && slot->size != 0) {
+        listener->onDataCallback(slot->data, slot->size, slot->width, slot->height, slot->format,
+                                 slot->timestampUs, slot->sequence);
     }
 }
 
+void V4L2Camera::sendFrameToJava(FrameSlot *slot) {
+    std::lock_guard<std::mutex> lock(listenerLock);
+
+    if (listener == 0) {
+        releaseFrame(slot->index);
+        return;
+    }
+
+    listener->onFrameCallback(slot->index, slot->size, slot->width, slot->height, slot->format,
+                              slot->timestampUs, slot->sequence);
+}
 
+void V4L2Camera::sendEventToJava(int event) {
+    std::lock_guard<std::mutex> lock(listenerLock);
 
+    if (listener != 0) {
+        listener->onEventCallback(event);
+    }
+}
@@ -22,23 +22,43 @@
 #include <linux/videodev2.h>
 #include <list>
 #include <mutex>
+#include <atomic>
 #include <android/native_window.h>
 #include "JavaCallHelper.h"
+#include "ConvertPool.h"
+#include "FrameQueue.h"
+#include "MotionGate.h"
+#include "FrameScaler.h"
+#include "TraceRecorder.h"
 
 //sync with com.iview.common.module.ImageUtils
 #define YV12 0
 #define NV21 1
 #define YUYV 2
+#define RGBA 3
+#define MJPEG 4
 
 
+//type 取值与 V4L2_FRMSIZE_TYPE_* / V4L2_FRMIVAL_TYPE_* 相同，DISCRETE 时只有 numerator/denominator 有效
 typedef struct {
+    int type;
     int numerator;
     int denominator;
+    int maxNumerator;
+    int maxDenominator;
+    int stepNumerator;
+    int stepDenominator;
 }FrameRate;
 
+//STEPWISE/CONTINUOUS 时 width/height 为最小尺寸，帧率按最大尺寸查询
 typedef struct {
+	int type;
 	int width;
 	int height;
+	int maxWidth;
+	int maxHeight;
+	int stepWidth;
+	int stepHeight;
 	std::list<FrameRate> frameRate;
 } Frame;
 
@@ -54,7 +74,31 @@ typedef struct {
 #define ERROR_CAPABILITY_UNSUPPORT  -4
 #define ERROR_OPEN_FAIL  -5
 #define ERROR_PREVIEW_FAIL  -6
+#define ERROR_FRAME_TIMEOUT  -7
+#define ERROR_DEVICE_STALLED  -8
+#define ERROR_DEVICE_LOST  -9
 
+//采集等待超时，sync with pri.tool.v4l2camera.V4L2Camera
+#define DEFAULT_FRAME_TIMEOUT_MS 1000
+#define DEFAULT_STALL_TIMEOUT_MS 5000
+
+//capture ring defaults, sync with pri.tool.v4l2camera.V4L2Camera
+#define DEFAULT_BUFFER_COUNT 4
+#define MIN_BUFFER_COUNT 2
+#define MAX_BUFFER_COUNT 32
+
+typedef struct {
+    unsigned char *start;
+    size_t length;
+} MappedBuffer;
+
+//出队一帧得到的信息，timestampUs 与 Java 的 System.nanoTime() / 1000 同一时钟
+typedef struct {
+    unsigned int bytesused;
+    int64_t timestampUs;
+    int64_t dequeueUs;
+    unsigned int sequence;
+} FrameInfo;
 
 
 class V4L2Camera {
@@ -63,6 +107,9 @@ public:
     V4L2Camera();
     ~V4L2Camera();
 
+    static int QueryDevice(const char *device, struct v4l2_capability *cap);
+    int QueryCapability(struct v4l2_capability *cap);
+
     int Open(const char *device,
 	     unsigned int width,
 	     unsigned int height,
@@ -76,25 +123,90 @@ public:
 
 	std::list<Parameter> getParameters();
 	int setPreviewSize(int width, int height, int pixformat);
-
-    int GrabRawFrame(void *raw_base);
+    int setFrameInterval(int numerator, int denominator);
+
+    int setBufferCount(int count);
+    int getBufferCount();
+    unsigned int getDroppedFrames();
+    int getQueueDepth();
+
+    int GrabRawFrame(void *raw_base, FrameInfo *info);
+    int GrabFrame(unsigned int *index, FrameInfo *info);
+    int GrabCroppedFrame(const FrameRoi *roi, void *dst, FrameInfo *info, bool *gated);
+    int releaseFrame(int index);
+    static int releaseLeasedFrame(V4L2Camera *camera, int index, void *start);
+    void setFrameMode(bool enable);
+    unsigned char *getBufferAddress(int index, size_t *length);
     void Convert(void *raw_base,
 		 void *preview_base,
-		 unsigned int ppnum);
+		 unsigned int ppnum,
+		 unsigned int w,
+		 unsigned int h);
+    int setOutputFormat(int format);
+    void setConvertThreadCount(int count);
+    void setCaptureTimeout(int frameTimeoutMs, int stallTimeoutMs);
+    int setDeliveryPolicy(int policy, int capacity);
+    unsigned int getDeliveryDropCount(int policy);
+    int getStageHistogram(int stage, int64_t *buckets, bool reset);
+    void setMotionGate(int lumaThreshold, int changedPermille, int keepAliveMs);
+    unsigned int getGatedFrames();
+    unsigned int getCopyDrops();
+    int setRegionOfInterest(int left, int top, int width, int height, int outputWidth, int outputHeight);
 
     void setSurface(ANativeWindow *window);
 
     void _start();
-    void renderVideo(unsigned char *preview);
+    void _deliver();
+    void renderVideo(unsigned char *preview, unsigned int w, unsigned int h);
 
     void setListener(JavaCallHelper * listener);
-    void sendDataToJava(unsigned char *raw);
+    void sendDataToJava(FrameSlot *slot);
+    void sendFrameToJava(FrameSlot *slot);
+    void sendEventToJava(int event);
 
 private:
+    int getRawFormat(int *size);
+    void getFrameRates(unsigned int pixelformat, unsigned int width, unsigned int height, std::list<FrameRate> *frameRates);
+    int WaitFrame(int timeoutMs);
+    void Wakeup();
+    void dropFrame(FrameSlot *slot);
+    bool gateFrame(const unsigned char *yuyv, FrameInfo *info);
+    int DequeueFrame(struct v4l2_buffer *buf, FrameInfo *info);
+    int QueueFrame(unsigned int index);
+
     int fd;
-    int start;
-    unsigned char *mem;
-    struct v4l2_buffer buf;
+    std::atomic<bool> start;
+
+    //StopStreaming 和 releaseFrame 通过 eventfd 唤醒阻塞在 poll 中的采集线程
+    int wakeFd = -1;
+    std::atomic<bool> waitingRelease;
+    std::atomic<int> frameTimeoutMs;
+    std::atomic<int> stallTimeoutMs;
+
+    //mmap capture ring, every buffer is queued to the driver except the one being copied
+    MappedBuffer *buffers = 0;
+    unsigned int bufferCount = DEFAULT_BUFFER_COUNT;
+    unsigned int mappedCount = 0;
+    size_t maxBufferLength = 0;
+    std::atomic<int> queueDepth;
+    std::atomic<unsigned int> droppedFrames;
+    unsigned int lastSequence = 0;
+    bool sequenceValid = false;
+
+    //true 时 buffer 直接以 DirectByteBuffer 交给 Java，由 Java release 后重新入队
+    std::atomic<bool> frameMode;
+    std::atomic<bool> leased[MAX_BUFFER_COUNT];
+
+    //YUYV 时直接回调原始数据，RGBA 时先经过 convertPool 多线程转换，MJPEG 始终回调压缩数据
+    std::atomic<int> outputFormat;
+    ConvertPool convertPool;
+
+    //YUYV 采集时在转换之前丢弃没有变化的帧，MJPEG 不经过
+    MotionGate motionGate;
+
+    //YUYV 的拷贝模式下，在转换和回调之前裁剪缩小，每帧开始时读取，预览中可以随时修改
+    FrameRoi roi;
+    std::mutex roiLock;
 
     unsigned int width;
     unsigned int height;
@@ -107,8 +219,19 @@ private:
 
     pthread_t pid_start;
 
+    //采集线程只负责出队和转换，Java 回调在 pid_deliver 中执行，两者之间通过 frameQueue 交接
+    pthread_t pid_deliver;
+    FrameQueue frameQueue;
+    int dropPolicy = DROP_LATEST_WINS;
+    int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
     JavaCallHelper* listener = 0;
 	std::mutex listenerLock;
+
+    //各阶段耗时，整个对象生命周期内累计，由 Java 定期读取
+    LatencyHistogram stageMetrics[NATIVE_STAGE_COUNT];
+    //分配 Java 数组失败而丢弃的帧，计入 STAGE_JNI_COPY
+    std::atomic<unsigned int> copyDrops;
 };
 
 
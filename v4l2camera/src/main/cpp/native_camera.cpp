@@ -15,49 +15,62 @@
 #define ALOGW(...)  __android_log_print(ANDROID_LOG_WARN, LOG_TAG, __VA_ARGS__)
 #define ALOGD(...)  __android_log_print(ANDROID_LOG_INFO, LOG_TAG, __VA_ARGS__)
 
-#define VIDEO_FILE "/dev/video0"
-
 #define IMAGEWIDTH      640
 #define IMAGEHEIGHT     480
 #define PIX_FORMATE     V4L2_PIX_FMT_YUYV
 
-V4L2Camera* v4l2Camera = 0;
+#define MAX_VIDEO_DEVICES 64
+
 JavaVM *javaVM = 0;
 
+//每个 Java V4L2Camera 对象对应一个 native V4L2Camera，指针保存在 mNativeContext 中
+static jfieldID nativeContextField = 0;
+
+static V4L2Camera *getCamera(JNIEnv *env, jobject thiz) {
+    return reinterpret_cast<V4L2Camera *>(env->GetLongField(thiz, nativeContextField));
+}
+
 static void com_iview_camera_native_init(JNIEnv *env,jobject thiz) {
 
-    v4l2Camera = new V4L2Camera();
+    V4L2Camera *v4l2Camera = new V4L2Camera();
     //由v4l2负责释放
     JavaCallHelper* javaCallHelper = new JavaCallHelper(javaVM, env, thiz);
     v4l2Camera->setListener(javaCallHelper);
+    env->SetLongField(thiz, nativeContextField, reinterpret_cast<jlong>(v4l2Camera));
 }
 
-static void com_iview_camera_native_release(JNIEnv *env) {;
+static void com_iview_camera_native_release(JNIEnv *env, jobject thiz) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
 
     if (v4l2Camera != 0) {
+        env->SetLongField(thiz, nativeContextField, 0);
         v4l2Camera->setListener(0);
         delete v4l2Camera;
-        v4l2Camera = 0;
     }
 }
 
-static jint com_iview_camera_native_open(JNIEnv *env, jobject thiz) {
+static jint com_iview_camera_native_open(JNIEnv *env, jobject thiz, jstring path) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
 
     int ret = ERROR_OPEN_FAIL;
-    if (v4l2Camera != 0) {
-        ret = v4l2Camera->Open(VIDEO_FILE, IMAGEWIDTH, IMAGEHEIGHT, PIX_FORMATE);
+    if (v4l2Camera != 0 && path != 0) {
+        const char *device = env->GetStringUTFChars(path, 0);
+        ret = v4l2Camera->Open(device, IMAGEWIDTH, IMAGEHEIGHT, PIX_FORMATE);
+        env->ReleaseStringUTFChars(path, device);
     }
 
     return ret;
 }
 
 static void com_iview_camera_native_close(JNIEnv *env, jobject thiz) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
     if (v4l2Camera != 0) {
         v4l2Camera->Close();
     }
 }
 
 static jobject com_iview_camera_native_getParameters(JNIEnv *env, jobject thiz) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
 
     if (v4l2Camera == 0) {
         return 0;
@@ -79,11 +92,11 @@ static jobject com_iview_camera_native_getParameters(JNIEnv *env, jobject thiz)
 
     jclass frame_cls = env->FindClass("pri/tool/bean/Frame");//获得类引用
     //获得该类型的构造函数  函数名为 <init> 返回类型必须为 void 即 V
-    jmethodID frame_costruct = env->GetMethodID(frame_cls , "<init>", "(IILjava/util/ArrayList;)V");
+    jmethodID frame_costruct = env->GetMethodID(frame_cls , "<init>", "(IIIIIIILjava/util/ArrayList;)V");
 
     jclass frameRate_cls = env->FindClass("pri/tool/bean/FrameRate");//获得类引用
     //获得该类型的构造函数  函数名为 <init> 返回类型必须为 void 即 V
-    jmethodID frameRate_costruct = env->GetMethodID(frameRate_cls , "<init>", "(II)V");
+    jmethodID frameRate_costruct = env->GetMethodID(frameRate_cls , "<init>", "(IIIIIII)V");
 
     for (Parameter parameter : parameters) {
 
@@ -92,12 +105,20 @@ static jobject com_iview_camera_native_getParameters(JNIEnv *env, jobject thiz)
 
             jobject listFrameRate_obj = env->NewObject(list_class , list_costruct); //创建一个Arraylist集合对象
             for (FrameRate frameRate : frame.frameRate) {
-                jobject frameRate_obj = env->NewObject(frameRate_cls, frameRate_costruct, frameRate.numerator, frameRate.denominator);
+                jobject frameRate_obj = env->NewObject(frameRate_cls, frameRate_costruct, frameRate.type,
+                                                       frameRate.numerator, frameRate.denominator,
+                                                       frameRate.maxNumerator, frameRate.maxDenominator,
+                                                       frameRate.stepNumerator, frameRate.stepDenominator);
                 env->CallBooleanMethod(listFrameRate_obj , list_add , frameRate_obj);
+                env->DeleteLocalRef(frameRate_obj);
             }
 
-            jobject frame_obj = env->NewObject(frame_cls, frame_costruct, frame.width, frame.height, listFrameRate_obj);
+            jobject frame_obj = env->NewObject(frame_cls, frame_costruct, frame.type, frame.width, frame.height,
+                                               frame.maxWidth, frame.maxHeight, frame.stepWidth, frame.stepHeight,
+                                               listFrameRate_obj);
             env->CallBooleanMethod(listFrame_obj , list_add , frame_obj);
+            env->DeleteLocalRef(frame_obj);
+            env->DeleteLocalRef(listFrameRate_obj);
         }
 
         //TODO:完善类型映射
@@ -106,26 +127,54 @@ static jobject com_iview_camera_native_getParameters(JNIEnv *env, jobject thiz)
             case V4L2_PIX_FMT_YUYV:
                 format = YUYV;
                 break;
+            case V4L2_PIX_FMT_MJPEG:
+                format = MJPEG;
+                break;
             default:
                 format = parameter.pixFormat;
                 break;
         }
         jobject parameter_obj = env->NewObject(parameter_cls, parameter_costruct, format, listFrame_obj);
         env->CallBooleanMethod(list_obj, list_add, parameter_obj);
+        env->DeleteLocalRef(parameter_obj);
+        env->DeleteLocalRef(listFrame_obj);
     }
 
     return list_obj;
 }
 
 static jint com_iview_camera_native_setPreviewSize(JNIEnv *env, jobject thiz, jint width, jint height, jint pixformat) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
     if (v4l2Camera == 0) {
         return ERROR_CAPABILITY_UNSUPPORT;
     }
 
-    return v4l2Camera->setPreviewSize(width, height, V4L2_PIX_FMT_YUYV);
+    unsigned int v4l2Format;
+    switch (pixformat) {
+        case YUYV:
+            v4l2Format = V4L2_PIX_FMT_YUYV;
+            break;
+        case MJPEG:
+            v4l2Format = V4L2_PIX_FMT_MJPEG;
+            break;
+        default:
+            return ERROR_CAPABILITY_UNSUPPORT;
+    }
+
+    return v4l2Camera->setPreviewSize(width, height, v4l2Format);
+}
+
+static jint com_iview_camera_native_setFrameInterval(JNIEnv *env, jobject thiz, jint numerator, jint denominator) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
+    if (v4l2Camera == 0) {
+        return ERROR_CAPABILITY_UNSUPPORT;
+    }
+
+    return v4l2Camera->setFrameInterval(numerator, denominator);
 }
 
 static int com_iview_camera_native_setSurface(JNIEnv *env, jobject thiz, jobject surface) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
     if (v4l2Camera == 0) {
         return ERROR_CAPABILITY_UNSUPPORT;
     }
@@ -138,6 +187,7 @@ static int com_iview_camera_native_setSurface(JNIEnv *env, jobject thiz, jobject
 }
 
 static int com_iview_camera_native_startPreview(JNIEnv *env, jobject thiz) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
     if (v4l2Camera == 0) {
         return ERROR_CAPABILITY_UNSUPPORT;
     }
@@ -145,6 +195,7 @@ static int com_iview_camera_native_startPreview(JNIEnv *env, jobject thiz) {
     ret = v4l2Camera->Init();
     if (ret != 0 ) {
         ALOGE("startPreview init fail");
+        return ERROR_PREVIEW_FAIL;
     }
     v4l2Camera->StartStreaming();
 
@@ -152,6 +203,7 @@ static int com_iview_camera_native_startPreview(JNIEnv *env, jobject thiz) {
 }
 
 static int com_iview_camera_native_stopPreview(JNIEnv *env, jobject thiz) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
     if (v4l2Camera == 0) {
         return ERROR_CAPABILITY_UNSUPPORT;
     }
@@ -161,17 +213,288 @@ static int com_iview_camera_native_stopPreview(JNIEnv *env, jobject thiz) {
     return 0;
 }
 
+static jint com_iview_camera_native_setBufferCount(JNIEnv *env, jobject thiz, jint count) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
+    if (v4l2Camera == 0) {
+        return ERROR_CAPABILITY_UNSUPPORT;
+    }
+
+    return v4l2Camera->setBufferCount(count);
+}
+
+static jint com_iview_camera_native_getBufferCount(JNIEnv *env, jobject thiz) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
+    if (v4l2Camera == 0) {
+        return 0;
+    }
+
+    return v4l2Camera->getBufferCount();
+}
+
+static jint com_iview_camera_native_getDroppedFrames(JNIEnv *env, jobject thiz) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
+    if (v4l2Camera == 0) {
+        return 0;
+    }
+
+    return v4l2Camera->getDroppedFrames();
+}
+
+static jint com_iview_camera_native_getQueueDepth(JNIEnv *env, jobject thiz) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
+    if (v4l2Camera == 0) {
+        return 0;
+    }
+
+    return v4l2Camera->getQueueDepth();
+}
+
+static void com_iview_camera_native_setFrameMode(JNIEnv *env, jobject thiz, jboolean enable) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
+    if (v4l2Camera == 0) {
+        return;
+    }
+
+    v4l2Camera->setFrameMode(enable);
+}
+
+static jobject com_iview_camera_native_getFrameBuffer(JNIEnv *env, jobject thiz, jint index) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
+    if (v4l2Camera == 0) {
+        return 0;
+    }
+
+    size_t length = 0;
+    unsigned char *address = v4l2Camera->getBufferAddress(index, &length);
+    if (address == 0) {
+        return 0;
+    }
+
+    //直接包装 mmap 的 V4L2 buffer，不做拷贝
+    return env->NewDirectByteBuffer(address, length);
+}
+
+//buffer 为租约包装的 DirectByteBuffer，还没有包装时为 null
+static jint com_iview_camera_native_releaseFrame(JNIEnv *env, jobject thiz, jint index, jobject buffer) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
+    void *address = buffer != 0 ? env->GetDirectBufferAddress(buffer) : 0;
+
+    return V4L2Camera::releaseLeasedFrame(v4l2Camera, index, address);
+}
+
+static jint com_iview_camera_native_setOutputFormat(JNIEnv *env, jobject thiz, jint format) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
+    if (v4l2Camera == 0) {
+        return ERROR_CAPABILITY_UNSUPPORT;
+    }
+
+    return v4l2Camera->setOutputFormat(format);
+}
+
+static void com_iview_camera_native_setConvertThreadCount(JNIEnv *env, jobject thiz, jint count) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
+    if (v4l2Camera == 0) {
+        return;
+    }
+
+    v4l2Camera->setConvertThreadCount(count);
+}
+
+static void com_iview_camera_native_setCaptureTimeout(JNIEnv *env, jobject thiz, jint frameTimeoutMs, jint stallTimeoutMs) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
+    if (v4l2Camera == 0) {
+        return;
+    }
+
+    v4l2Camera->setCaptureTimeout(frameTimeoutMs, stallTimeoutMs);
+}
+
+static jint com_iview_camera_native_setDropPolicy(JNIEnv *env, jobject thiz, jint policy, jint capacity) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
+    if (v4l2Camera == 0) {
+        return ERROR_CAPABILITY_UNSUPPORT;
+    }
+
+    return v4l2Camera->setDeliveryPolicy(policy, capacity);
+}
+
+static jint com_iview_camera_native_getDropCount(JNIEnv *env, jobject thiz, jint policy) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
+    if (v4l2Camera == 0) {
+        return 0;
+    }
+
+    return v4l2Camera->getDeliveryDropCount(policy);
+}
+
+static void com_iview_camera_native_setMotionGate(JNIEnv *env, jobject thiz, jint lumaThreshold, jint changedPermille, jint keepAliveMs) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
+    if (v4l2Camera == 0) {
+        return;
+    }
+
+    v4l2Camera->setMotionGate(lumaThreshold, changedPermille, keepAliveMs);
+}
+
+static jint com_iview_camera_native_getGatedFrames(JNIEnv *env, jobject thiz) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
+    if (v4l2Camera == 0) {
+        return 0;
+    }
+
+    return v4l2Camera->getGatedFrames();
+}
+
+static jint com_iview_camera_native_getCopyDrops(JNIEnv *env, jobject thiz) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
+    if (v4l2Camera == 0) {
+        return 0;
+    }
+
+    return v4l2Camera->getCopyDrops();
+}
+
+static jint com_iview_camera_native_setRegionOfInterest(JNIEnv *env, jobject thiz, jint left, jint top, jint width, jint height, jint outputWidth, jint outputHeight) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
+    if (v4l2Camera == 0) {
+        return ERROR_STATE_ILLEGAL;
+    }
+
+    return v4l2Camera->setRegionOfInterest(left, top, width, height, outputWidth, outputHeight);
+}
+
+static jint com_iview_camera_native_getStageHistogram(JNIEnv *env, jobject thiz, jint stage, jlongArray buckets, jboolean reset) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
+    if (v4l2Camera == 0 || buckets == 0 || env->GetArrayLength(buckets) < HISTOGRAM_BUCKET_COUNT) {
+        return ERROR_STATE_ILLEGAL;
+    }
+
+    int64_t counts[HISTOGRAM_BUCKET_COUNT];
+    int ret = v4l2Camera->getStageHistogram(stage, counts, reset);
+    if (ret == 0) {
+        env->SetLongArrayRegion(buckets, 0, HISTOGRAM_BUCKET_COUNT, reinterpret_cast<const jlong *>(counts));
+    }
+
+    return ret;
+}
+
+static jobject newDeviceInfo(JNIEnv *env, const char *path, struct v4l2_capability *cap, unsigned int caps) {
+    jclass device_cls = env->FindClass("pri/tool/bean/DeviceInfo");
+    jmethodID device_costruct = env->GetMethodID(device_cls, "<init>",
+            "(Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;II)V");
+
+    jstring path_str = env->NewStringUTF(path);
+    jstring driver_str = env->NewStringUTF((const char *)cap->driver);
+    jstring card_str = env->NewStringUTF((const char *)cap->card);
+    jstring bus_str = env->NewStringUTF((const char *)cap->bus_info);
+    jobject device_obj = env->NewObject(device_cls, device_costruct, path_str, driver_str, card_str, bus_str,
+                                        (jint)cap->version, (jint)caps);
+
+    env->DeleteLocalRef(path_str);
+    env->DeleteLocalRef(driver_str);
+    env->DeleteLocalRef(card_str);
+    env->DeleteLocalRef(bus_str);
+    env->DeleteLocalRef(device_cls);
+    return device_obj;
+}
+
+static jobject com_iview_camera_native_queryCapability(JNIEnv *env, jobject thiz, jstring path) {
+    V4L2Camera *v4l2Camera = getCamera(env, thiz);
+    struct v4l2_capability cap;
+
+    if (v4l2Camera == 0 || path == 0 || v4l2Camera->QueryCapability(&cap) != 0) {
+        return 0;
+    }
+
+    unsigned int caps = (cap.capabilities & V4L2_CAP_DEVICE_CAPS) ? cap.device_caps : cap.capabilities;
+    const char *device = env->GetStringUTFChars(path, 0);
+    jobject device_obj = newDeviceInfo(env, device, &cap, caps);
+    env->ReleaseStringUTFChars(path, device);
+
+    return device_obj;
+}
+
+static void com_iview_camera_native_setTraceEnabled(JNIEnv *env, jclass clazz, jboolean enabled) {
+    traceSetEnabled(enabled);
+}
+
+static jint com_iview_camera_native_readTrace(JNIEnv *env, jclass clazz, jlongArray events) {
+    if (events == 0) {
+        return 0;
+    }
+
+    int maxEvents = env->GetArrayLength(events) / TRACE_EVENT_WORDS;
+    jlong *out = env->GetLongArrayElements(events, 0);
+    if (out == 0) {
+        return 0;
+    }
+
+    int count = traceSnapshot(reinterpret_cast<int64_t *>(out), maxEvents);
+    env->ReleaseLongArrayElements(events, out, 0);
+    return count;
+}
+
+static jobject com_iview_camera_native_enumerateDevices(JNIEnv *env, jclass clazz) {
+    jclass list_class = env->FindClass("java/util/ArrayList");
+    jmethodID list_costruct = env->GetMethodID(list_class , "<init>","()V");
+    jmethodID list_add = env->GetMethodID(list_class, "add", "(Ljava/lang/Object;)Z");
+    jobject list_obj = env->NewObject(list_class , list_costruct);
+
+    for (int i = 0; i < MAX_VIDEO_DEVICES; i++) {
+        char path[32];
+        struct v4l2_capability cap;
+
+        snprintf(path, sizeof(path), "/dev/video%d", i);
+        if (V4L2Camera::QueryDevice(path, &cap) != 0) {
+            continue;
+        }
+
+        unsigned int caps = (cap.capabilities & V4L2_CAP_DEVICE_CAPS) ? cap.device_caps : cap.capabilities;
+        if (!(caps & V4L2_CAP_VIDEO_CAPTURE)) {
+            //UVC 摄像头会额外生成一个只输出 metadata 的节点
+            continue;
+        }
+
+        jobject device_obj = newDeviceInfo(env, path, &cap, caps);
+        env->CallBooleanMethod(list_obj, list_add, device_obj);
+        env->DeleteLocalRef(device_obj);
+    }
+
+    return list_obj;
+}
 
 static JNINativeMethod gMethods[] = {
 {"native_init",         "()V",                              (void *)com_iview_camera_native_init},
 {"native_release",         "()V",                              (void *)com_iview_camera_native_release},
-{"native_open",         "()I",                              (void *)com_iview_camera_native_open},
+{"native_open",         "(Ljava/lang/String;)I",                              (void *)com_iview_camera_native_open},
 {"native_close",         "()V",                              (void *)com_iview_camera_native_close},
 {"native_getParameters",         "()Ljava/util/ArrayList;",                              (void *)com_iview_camera_native_getParameters},
 {"native_setPreviewSize",         "(III)I",                              (void *)com_iview_camera_native_setPreviewSize},
+{"native_setFrameInterval",         "(II)I",                              (void *)com_iview_camera_native_setFrameInterval},
 {"native_setSurface",         "(Ljava/lang/Object;)I",                              (void *)com_iview_camera_native_setSurface},
 {"native_startPreview",         "()I",                              (void *)com_iview_camera_native_startPreview},
 {"native_stopPreview",         "()I",                              (void *)com_iview_camera_native_stopPreview},
+{"native_setBufferCount",         "(I)I",                              (void *)com_iview_camera_native_setBufferCount},
+{"native_getBufferCount",         "()I",                              (void *)com_iview_camera_native_getBufferCount},
+{"native_getDroppedFrames",         "()I",                              (void *)com_iview_camera_native_getDroppedFrames},
+{"native_getQueueDepth",         "()I",                              (void *)com_iview_camera_native_getQueueDepth},
+{"native_setFrameMode",         "(Z)V",                              (void *)com_iview_camera_native_setFrameMode},
+{"native_getFrameBuffer",         "(I)Ljava/nio/ByteBuffer;",                              (void *)com_iview_camera_native_getFrameBuffer},
+{"native_releaseFrame",         "(ILjava/nio/ByteBuffer;)I",                              (void *)com_iview_camera_native_releaseFrame},
+{"native_setOutputFormat",         "(I)I",                              (void *)com_iview_camera_native_setOutputFormat},
+{"native_setConvertThreadCount",         "(I)V",                              (void *)com_iview_camera_native_setConvertThreadCount},
+{"native_setCaptureTimeout",         "(II)V",                              (void *)com_iview_camera_native_setCaptureTimeout},
+{"native_setDropPolicy",         "(II)I",                              (void *)com_iview_camera_native_setDropPolicy},
+{"native_getDropCount",         "(I)I",                              (void *)com_iview_camera_native_getDropCount},
+{"native_setMotionGate",         "(III)V",                              (void *)com_iview_camera_native_setMotionGate},
+{"native_getGatedFrames",         "()I",                              (void *)com_iview_camera_native_getGatedFrames},
+{"native_getCopyDrops",         "()I",                              (void *)com_iview_camera_native_getCopyDrops},
+{"native_setRegionOfInterest",         "(IIIIII)I",                              (void *)com_iview_camera_native_setRegionOfInterest},
+{"native_getStageHistogram",         "(I[JZ)I",                              (void *)com_iview_camera_native_getStageHistogram},
+{"native_queryCapability",         "(Ljava/lang/String;)Lpri/tool/bean/DeviceInfo;",                              (void *)com_iview_camera_native_queryCapability},
+{"native_enumerateDevices",         "()Ljava/util/ArrayList;",                              (void *)com_iview_camera_native_enumerateDevices},
+{"native_setTraceEnabled",         "(Z)V",                              (void *)com_iview_camera_native_setTraceEnabled},
+{"native_readTrace",         "([J)I",                              (void *)com_iview_camera_native_readTrace},
 };
 
 //Ljava/lang/Object;
@@ -187,6 +510,10 @@ static int registerNativeMethods(JNIEnv* env, const char* className, JNINativeMe
     if(env->RegisterNatives(clazz, gMethods, methodsNum) < 0){
         return JNI_FALSE;
     }
+    nativeContextField = env->GetFieldID(clazz, "mNativeContext", "J");
+    if (nativeContextField == NULL) {
+        return JNI_FALSE;
+    }
     return JNI_TRUE;
 }
 
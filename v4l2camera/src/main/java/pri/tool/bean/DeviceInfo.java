@@ -0,0 +1,24 @@
+package pri.tool.bean;
+
+public class DeviceInfo {
+    public String path;
+    public String driver;
+    public String card;
+    public String busInfo;
+    public int version;
+    public int capabilities;
+
+    public DeviceInfo(String path, String driver, String card, String busInfo, int version, int capabilities) {
+        this.path = path;
+        this.driver = driver;
+        this.card = card;
+        this.busInfo = busInfo;
+        this.version = version;
+        this.capabilities = capabilities;
+    }
+
+    @Override
+    public String toString() {
+        return path + " [" + card + ", " + driver + ", " + busInfo + "]";
+    }
+}
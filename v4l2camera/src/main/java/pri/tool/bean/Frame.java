@@ -3,13 +3,33 @@ package pri.tool.bean;
 import java.util.ArrayList;
 
 public class Frame {
-    public int width;
-    public int height;
+    //与 V4L2_FRMSIZE_TYPE_* 相同
+    public final static int TYPE_DISCRETE = 1;
+    public final static int TYPE_CONTINUOUS = 2;
+    public final static int TYPE_STEPWISE = 3;
+
+    public int type;
+    public int width;   //STEPWISE/CONTINUOUS 时为最小宽度
+    public int height;  //STEPWISE/CONTINUOUS 时为最小高度
+    public int maxWidth;
+    public int maxHeight;
+    public int stepWidth;
+    public int stepHeight;
     public ArrayList<FrameRate> frameRate;
 
-    Frame(int width, int height, ArrayList<FrameRate> frameRate) {
+    public Frame(int width, int height, ArrayList<FrameRate> frameRate) {
+        this(TYPE_DISCRETE, width, height, width, height, 0, 0, frameRate);
+    }
+
+    public Frame(int type, int width, int height, int maxWidth, int maxHeight, int stepWidth, int stepHeight,
+                 ArrayList<FrameRate> frameRate) {
+        this.type = type;
         this.width = width;
         this.height = height;
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+        this.stepWidth = stepWidth;
+        this.stepHeight = stepHeight;
         this.frameRate = frameRate;
     }
 }
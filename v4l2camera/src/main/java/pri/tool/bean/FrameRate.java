@@ -1,11 +1,34 @@
 package pri.tool.bean;
 
+/**
+ * 帧间隔 numerator/denominator 秒。
+ */
 public class FrameRate {
-    public int numerator;
+    //与 V4L2_FRMIVAL_TYPE_* 相同
+    public final static int TYPE_DISCRETE = 1;
+    public final static int TYPE_CONTINUOUS = 2;
+    public final static int TYPE_STEPWISE = 3;
+
+    public int type;
+    public int numerator;    //STEPWISE/CONTINUOUS 时为最短帧间隔，即最高帧率
     public int denominator;
+    public int maxNumerator;
+    public int maxDenominator;
+    public int stepNumerator;
+    public int stepDenominator;
+
+    public FrameRate(int numerator, int denominator) {
+        this(TYPE_DISCRETE, numerator, denominator, numerator, denominator, 0, 1);
+    }
 
-    FrameRate(int numerator, int denominator) {
+    public FrameRate(int type, int numerator, int denominator, int maxNumerator, int maxDenominator,
+                     int stepNumerator, int stepDenominator) {
+        this.type = type;
         this.numerator = numerator;
         this.denominator = denominator;
+        this.maxNumerator = maxNumerator;
+        this.maxDenominator = maxDenominator;
+        this.stepNumerator = stepNumerator;
+        this.stepDenominator = stepDenominator;
     }
 }
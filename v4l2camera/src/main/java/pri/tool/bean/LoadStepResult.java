@@ -0,0 +1,39 @@
+package pri.tool.bean;
+
+import java.util.Locale;
+
+/**
+ * 压测中同时运行 streams 路时的结果，延迟单位为微秒，从出帧到消费完成。
+ */
+public class LoadStepResult {
+    public int streams;
+    public double offeredFps;  //所有路按设定帧率应当产生的帧率
+    public double deliveredFps;  //所有路实际消费完成的帧率
+    public long droppedFrames;  //来源跳过和消费方合并丢掉的帧
+    public long p50Us;  //所有路合并的延迟
+    public long p99Us;
+    public long worstStreamP99Us;  //p99 最差的一路
+    public boolean saturated;
+    public StageSnapshot[] perStream;
+
+    public LoadStepResult(int streams, double offeredFps, double deliveredFps, long droppedFrames,
+                          long p50Us, long p99Us, long worstStreamP99Us, boolean saturated,
+                          StageSnapshot[] perStream) {
+        this.streams = streams;
+        this.offeredFps = offeredFps;
+        this.deliveredFps = deliveredFps;
+        this.droppedFrames = droppedFrames;
+        this.p50Us = p50Us;
+        this.p99Us = p99Us;
+        this.worstStreamP99Us = worstStreamP99Us;
+        this.saturated = saturated;
+        this.perStream = perStream;
+    }
+
+    @Override
+    public String toString() {
+        return "streams=" + streams + ", offered=" + String.format(Locale.US, "%.1f", offeredFps) + "fps, delivered="
+                + String.format(Locale.US, "%.1f", deliveredFps) + "fps, drops=" + droppedFrames + ", p50=" + p50Us
+                + "us, p99=" + p99Us + "us, worst p99=" + worstStreamP99Us + "us" + (saturated ? ", saturated" : "");
+    }
+}
@@ -6,7 +6,7 @@ public class Parameter {
     public int pixFormat;
     public ArrayList<Frame> frames;
 
-    Parameter(int pixFormat, ArrayList<Frame> frames) {
+    public Parameter(int pixFormat, ArrayList<Frame> frames) {
         this.pixFormat = pixFormat;
         this.frames = frames;
     }
@@ -0,0 +1,28 @@
+package pri.tool.bean;
+
+/**
+ * 一个流水线阶段在一段时间内的统计，时间单位为微秒，百分位的相对误差不超过 12.5%。
+ */
+public class StageSnapshot {
+    public String name;
+    public long count;
+    public long drops;
+    public long p50Us;
+    public long p99Us;
+    public long maxUs;
+
+    public StageSnapshot(String name, long count, long drops, long p50Us, long p99Us, long maxUs) {
+        this.name = name;
+        this.count = count;
+        this.drops = drops;
+        this.p50Us = p50Us;
+        this.p99Us = p99Us;
+        this.maxUs = maxUs;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": count=" + count + ", drops=" + drops + ", p50=" + p50Us + "us, p99=" + p99Us
+                + "us, max=" + maxUs + "us";
+    }
+}
@@ -0,0 +1,189 @@
+package pri.tool.v4l2camera;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import pri.tool.bean.DeviceInfo;
+import pri.tool.bean.Frame;
+import pri.tool.bean.FrameRate;
+import pri.tool.bean.Parameter;
+
+/**
+ * 设备能力（格式、分辨率、帧率）的磁盘缓存，避免每次打开都逐项 ioctl 枚举，不依赖 Android 类。
+ *
+ * 以 VIDIOC_QUERYCAP 得到的 driver、card、bus_info、version 和 capabilities 作为设备标识，
+ * 文件中保存完整的标识，读取时任何一项不一致、文件版本不同或者内容损坏都视为失效并删除。
+ * 文件名只取 bus_info 和设备节点，驱动或固件升级后仍然对应同一个文件，重新枚举后的 store 会覆盖它。
+ */
+public class CapabilityCache {
+
+    private final static int MAGIC = 0x56344c43;  //"V4LC"
+    private final static int FORMAT_VERSION = 1;
+
+    private final File directory;
+
+    public CapabilityCache(File directory) {
+        this.directory = directory;
+    }
+
+    //同一个 USB 设备可能有多个节点，bus_info 相同，所以加上节点名
+    File getFile(DeviceInfo device) {
+        String node = device.path == null ? "" : new File(device.path).getName();
+        String name = device.busInfo == null || device.busInfo.isEmpty() ? node : device.busInfo + "_" + node;
+        return new File(directory, name.replaceAll("[^A-Za-z0-9._-]", "_") + ".caps");
+    }
+
+    /**
+     * 读取缓存，没有缓存或者已经失效时返回 null。
+     */
+    public ArrayList<Parameter> load(DeviceInfo device) {
+        File file = getFile(device);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        ArrayList<Parameter> parameters = null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            parameters = read(in, device);
+        } catch (IOException e) {
+            parameters = null;
+        }
+
+        if (parameters == null) {
+            file.delete();
+        }
+        return parameters;
+    }
+
+    /**
+     * 写入缓存，先写临时文件再改名，进程中途退出不会留下不完整的文件。
+     */
+    public boolean store(DeviceInfo device, List<Parameter> parameters) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return false;
+        }
+
+        File file = getFile(device);
+        File temp = new File(directory, file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            write(out, device, parameters);
+        } catch (IOException e) {
+            temp.delete();
+            return false;
+        }
+
+        return temp.renameTo(file);
+    }
+
+    public void invalidate(DeviceInfo device) {
+        getFile(device).delete();
+    }
+
+    static void write(DataOutput out, DeviceInfo device, List<Parameter> parameters) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeShort(FORMAT_VERSION);
+        out.writeUTF(device.driver);
+        out.writeUTF(device.card);
+        out.writeUTF(device.busInfo);
+        out.writeInt(device.version);
+        out.writeInt(device.capabilities);
+
+        out.writeShort(parameters.size());
+        for (Parameter parameter : parameters) {
+            out.writeInt(parameter.pixFormat);
+            out.writeShort(parameter.frames.size());
+            for (Frame frame : parameter.frames) {
+                out.writeByte(frame.type);
+                out.writeShort(frame.width);
+                out.writeShort(frame.height);
+                if (frame.type != Frame.TYPE_DISCRETE) {
+                    out.writeShort(frame.maxWidth);
+                    out.writeShort(frame.maxHeight);
+                    out.writeShort(frame.stepWidth);
+                    out.writeShort(frame.stepHeight);
+                }
+
+                out.writeShort(frame.frameRate.size());
+                for (FrameRate frameRate : frame.frameRate) {
+                    out.writeByte(frameRate.type);
+                    out.writeInt(frameRate.numerator);
+                    out.writeInt(frameRate.denominator);
+                    if (frameRate.type != FrameRate.TYPE_DISCRETE) {
+                        out.writeInt(frameRate.maxNumerator);
+                        out.writeInt(frameRate.maxDenominator);
+                        out.writeInt(frameRate.stepNumerator);
+                        out.writeInt(frameRate.stepDenominator);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取缓存内容，文件版本或设备标识不一致时返回 null。
+     */
+    static ArrayList<Parameter> read(DataInput in, DeviceInfo device) throws IOException {
+        if (in.readInt() != MAGIC || in.readShort() != FORMAT_VERSION) {
+            return null;
+        }
+        if (!in.readUTF().equals(device.driver)
+                || !in.readUTF().equals(device.card)
+                || !in.readUTF().equals(device.busInfo)
+                || in.readInt() != device.version
+                || in.readInt() != device.capabilities) {
+            return null;
+        }
+
+        int parameterCount = in.readUnsignedShort();
+        ArrayList<Parameter> parameters = new ArrayList<>(parameterCount);
+        for (int i = 0; i < parameterCount; i++) {
+            int pixFormat = in.readInt();
+            int frameCount = in.readUnsignedShort();
+            ArrayList<Frame> frames = new ArrayList<>(frameCount);
+            for (int j = 0; j < frameCount; j++) {
+                int type = in.readUnsignedByte();
+                int width = in.readUnsignedShort();
+                int height = in.readUnsignedShort();
+                int maxWidth = width;
+                int maxHeight = height;
+                int stepWidth = 0;
+                int stepHeight = 0;
+                if (type != Frame.TYPE_DISCRETE) {
+                    maxWidth = in.readUnsignedShort();
+                    maxHeight = in.readUnsignedShort();
+                    stepWidth = in.readUnsignedShort();
+                    stepHeight = in.readUnsignedShort();
+                }
+
+                int rateCount = in.readUnsignedShort();
+                ArrayList<FrameRate> frameRates = new ArrayList<>(rateCount);
+                for (int k = 0; k < rateCount; k++) {
+                    int rateType = in.readUnsignedByte();
+                    int numerator = in.readInt();
+                    int denominator = in.readInt();
+                    if (rateType == FrameRate.TYPE_DISCRETE) {
+                        frameRates.add(new FrameRate(numerator, denominator));
+                    } else {
+                        frameRates.add(new FrameRate(rateType, numerator, denominator,
+                                in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+                    }
+                }
+
+                frames.add(new Frame(type, width, height, maxWidth, maxHeight, stepWidth, stepHeight, frameRates));
+            }
+            parameters.add(new Parameter(pixFormat, frames));
+        }
+
+        return parameters;
+    }
+}
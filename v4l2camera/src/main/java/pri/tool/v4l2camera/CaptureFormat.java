@@ -0,0 +1,32 @@
+package pri.tool.v4l2camera;
+
+/**
+ * 协商得到的采集格式、尺寸和帧间隔。
+ */
+public final class CaptureFormat {
+    public final int pixFormat;
+    public final int width;
+    public final int height;
+    public final int intervalNumerator;    //帧间隔 numerator/denominator 秒，与 VIDIOC_S_PARM 的 timeperframe 相同
+    public final int intervalDenominator;
+    public final double cost;
+
+    CaptureFormat(int pixFormat, int width, int height, int intervalNumerator, int intervalDenominator, double cost) {
+        this.pixFormat = pixFormat;
+        this.width = width;
+        this.height = height;
+        this.intervalNumerator = intervalNumerator;
+        this.intervalDenominator = intervalDenominator;
+        this.cost = cost;
+    }
+
+    public double getFps() {
+        return intervalNumerator <= 0 ? 0 : (double) intervalDenominator / intervalNumerator;
+    }
+
+    @Override
+    public String toString() {
+        return "format " + pixFormat + " " + width + "x" + height + "@" + String.format("%.2f", getFps())
+                + " cost " + String.format("%.3f", cost);
+    }
+}
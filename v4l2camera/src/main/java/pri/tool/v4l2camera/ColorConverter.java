@@ -0,0 +1,197 @@
+package pri.tool.v4l2camera;
+
+/**
+ * YUV 到 RGB 的定点转换，不依赖 Android 类，调用方负责提供复用的输出 buffer。
+ *
+ * 系数按 limited range（Y 16..235，UV 16..240）换算成 2^14 定点数，并预先展开成查表，
+ * 每个像素只需要查表、相加、移位和截断。
+ */
+public final class ColorConverter {
+
+    public final static int COLOR_SPACE_BT601 = 0;
+    public final static int COLOR_SPACE_BT709 = 1;
+
+    private final static int SHIFT = 14;
+    private final static int ROUND = 1 << (SHIFT - 1);
+
+    private final static Tables BT601 = new Tables(1.596, 0.391, 0.813, 2.018);
+    private final static Tables BT709 = new Tables(1.793, 0.213, 0.533, 2.112);
+
+    private ColorConverter() {
+    }
+
+    private static final class Tables {
+        final int[] y = new int[256];
+        final int[] rv = new int[256];
+        final int[] gu = new int[256];
+        final int[] gv = new int[256];
+        final int[] bu = new int[256];
+
+        Tables(double rvCoef, double guCoef, double gvCoef, double buCoef) {
+            for (int i = 0; i < 256; i++) {
+                y[i] = (int) Math.round(1.164 * (1 << SHIFT) * Math.max(i - 16, 0)) + ROUND;
+                rv[i] = (int) Math.round(rvCoef * (1 << SHIFT) * (i - 128));
+                gu[i] = (int) Math.round(guCoef * (1 << SHIFT) * (i - 128));
+                gv[i] = (int) Math.round(gvCoef * (1 << SHIFT) * (i - 128));
+                bu[i] = (int) Math.round(buCoef * (1 << SHIFT) * (i - 128));
+            }
+        }
+    }
+
+    private static Tables tables(int colorSpace) {
+        return colorSpace == COLOR_SPACE_BT709 ? BT709 : BT601;
+    }
+
+    /**
+     * 一帧数据的字节数，格式取值见 {@link ImageUtils}，不支持的格式返回 -1。
+     */
+    public static int getFrameSize(int format, int width, int height) {
+        switch (format) {
+            case ImageUtils.YV12:
+            case ImageUtils.NV21:
+                return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+            case ImageUtils.YUYV:
+                return width * height * 2;
+            case ImageUtils.RGBA:
+                return width * height * 4;
+            default:
+                return -1;
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    private static int toArgb(Tables t, int y, int u, int v) {
+        int luma = t.y[y];
+        int r = clamp((luma + t.rv[v]) >> SHIFT);
+        int g = clamp((luma - t.gu[u] - t.gv[v]) >> SHIFT);
+        int b = clamp((luma + t.bu[u]) >> SHIFT);
+        return 0xff000000 | (r << 16) | (g << 8) | b;
+    }
+
+    private static void checkSize(int srcLength, int format, int width, int height, int dstLength, int dstNeeded) {
+        int frameSize = getFrameSize(format, width, height);
+        if (frameSize < 0 || format == ImageUtils.RGBA) {
+            throw new IllegalArgumentException("Unsupported format " + format);
+        }
+        if (srcLength < frameSize) {
+            throw new IllegalArgumentException("Source holds " + srcLength + " bytes, need " + frameSize);
+        }
+        if (dstLength < dstNeeded) {
+            throw new IllegalArgumentException("Destination holds " + dstLength + " elements, need " + dstNeeded);
+        }
+    }
+
+    /**
+     * 转换成 ARGB_8888 像素（0xAARRGGBB），可以直接用于 {@code Bitmap.setPixels}。
+     *
+     * @param src 源数据
+     * @param format 源数据格式，{@link ImageUtils#YV12}、{@link ImageUtils#NV21} 或 {@link ImageUtils#YUYV}
+     * @param width 图像宽
+     * @param height 图像高
+     * @param colorSpace {@link #COLOR_SPACE_BT601} 或 {@link #COLOR_SPACE_BT709}
+     * @param argb 输出，长度至少为 width * height
+     */
+    public static void convertToArgb(byte[] src, int format, int width, int height, int colorSpace, int[] argb) {
+        checkSize(src.length, format, width, height, argb.length, width * height);
+        Tables t = tables(colorSpace);
+
+        switch (format) {
+            case ImageUtils.YUYV:
+                for (int in = 0, out = 0, end = width * height * 2; in < end; in += 4, out += 2) {
+                    int u = src[in + 1] & 0xff;
+                    int v = src[in + 3] & 0xff;
+                    argb[out] = toArgb(t, src[in] & 0xff, u, v);
+                    argb[out + 1] = toArgb(t, src[in + 2] & 0xff, u, v);
+                }
+                break;
+            case ImageUtils.NV21: {
+                int chromaBase = width * height;
+                int chromaStride = ((width + 1) / 2) * 2;
+                for (int row = 0; row < height; row++) {
+                    int yIndex = row * width;
+                    int uvIndex = chromaBase + (row >> 1) * chromaStride;
+                    for (int col = 0; col < width; col++) {
+                        int c = uvIndex + (col & ~1);
+                        argb[yIndex + col] = toArgb(t, src[yIndex + col] & 0xff, src[c + 1] & 0xff, src[c] & 0xff);
+                    }
+                }
+                break;
+            }
+            case ImageUtils.YV12: {
+                int chromaWidth = (width + 1) / 2;
+                int vBase = width * height;
+                int uBase = vBase + chromaWidth * ((height + 1) / 2);
+                for (int row = 0; row < height; row++) {
+                    int yIndex = row * width;
+                    int chromaRow = (row >> 1) * chromaWidth;
+                    for (int col = 0; col < width; col++) {
+                        int c = chromaRow + (col >> 1);
+                        argb[yIndex + col] = toArgb(t, src[yIndex + col] & 0xff, src[uBase + c] & 0xff, src[vBase + c] & 0xff);
+                    }
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * 转换成 R G B A 字节序的像素，可以直接用于 GL_RGBA 纹理上传。
+     *
+     * @param rgba 输出，长度至少为 width * height * 4
+     * @see #convertToArgb(byte[], int, int, int, int, int[])
+     */
+    public static void convertToRgba(byte[] src, int format, int width, int height, int colorSpace, byte[] rgba) {
+        checkSize(src.length, format, width, height, rgba.length, width * height * 4);
+        Tables t = tables(colorSpace);
+
+        switch (format) {
+            case ImageUtils.YUYV:
+                for (int in = 0, out = 0, end = width * height * 2; in < end; in += 4, out += 8) {
+                    int u = src[in + 1] & 0xff;
+                    int v = src[in + 3] & 0xff;
+                    putRgba(rgba, out, toArgb(t, src[in] & 0xff, u, v));
+                    putRgba(rgba, out + 4, toArgb(t, src[in + 2] & 0xff, u, v));
+                }
+                break;
+            case ImageUtils.NV21: {
+                int chromaBase = width * height;
+                int chromaStride = ((width + 1) / 2) * 2;
+                for (int row = 0; row < height; row++) {
+                    int yIndex = row * width;
+                    int uvIndex = chromaBase + (row >> 1) * chromaStride;
+                    for (int col = 0; col < width; col++) {
+                        int c = uvIndex + (col & ~1);
+                        putRgba(rgba, (yIndex + col) * 4,
+                                toArgb(t, src[yIndex + col] & 0xff, src[c + 1] & 0xff, src[c] & 0xff));
+                    }
+                }
+                break;
+            }
+            case ImageUtils.YV12: {
+                int chromaWidth = (width + 1) / 2;
+                int vBase = width * height;
+                int uBase = vBase + chromaWidth * ((height + 1) / 2);
+                for (int row = 0; row < height; row++) {
+                    int yIndex = row * width;
+                    int chromaRow = (row >> 1) * chromaWidth;
+                    for (int col = 0; col < width; col++) {
+                        int c = chromaRow + (col >> 1);
+                        putRgba(rgba, (yIndex + col) * 4,
+                                toArgb(t, src[yIndex + col] & 0xff, src[uBase + c] & 0xff, src[vBase + c] & 0xff));
+                    }
+                }
+                break;
+            }
+        }
+    }
+
+    private static void putRgba(byte[] rgba, int offset, int argb) {
+        rgba[offset] = (byte) (argb >> 16);
+        rgba[offset + 1] = (byte) (argb >> 8);
+        rgba[offset + 2] = (byte) argb;
+        rgba[offset + 3] = (byte) 0xff;
+    }
+}
@@ -0,0 +1,24 @@
+package pri.tool.v4l2camera;
+
+/**
+ * 回调跟不上采集速度时的丢帧策略，与 native 层 FrameQueue.h 保持一致。
+ *
+ * 采集线程和回调线程之间有一个有界队列，回调（例如 JPEG 压缩）再慢也不会直接卡住 VIDIOC_DQBUF。
+ */
+public final class DropPolicy {
+
+    /** 只保留最新的一帧，回调线程还没取走的旧帧被替换，适合预览。 */
+    public final static int LATEST_WINS = 0;
+
+    /** 队列满时丢弃最旧的一帧，回调能拿到最近 capacity 帧。 */
+    public final static int DROP_OLDEST = 1;
+
+    /** 队列满时采集线程等待，不在队列中丢帧，但驱动的 buffer 用完后会在驱动中丢帧。 */
+    public final static int BLOCK = 2;
+
+    public final static int DEFAULT_QUEUE_CAPACITY = 2;
+    public final static int MAX_QUEUE_CAPACITY = 16;
+
+    private DropPolicy() {
+    }
+}
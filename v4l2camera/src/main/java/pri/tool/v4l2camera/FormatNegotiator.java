@@ -0,0 +1,174 @@
+package pri.tool.v4l2camera;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import pri.tool.bean.Frame;
+import pri.tool.bean.FrameRate;
+import pri.tool.bean.Parameter;
+
+/**
+ * 对 native_getParameters 枚举出的每个 (pixFormat, Frame, FrameRate) 组合计算代价，选择代价最小的一个。不依赖 Android 类。
+ *
+ * 帧率低于 minFps 或者带宽超过 maxBandwidth 的组合直接排除，剩下的代价由两部分相加：
+ * <ul>
+ * <li>分辨率：不小于目标尺寸时为多出的像素比例，小于目标尺寸时按缺少的面积乘以 {@link #SHORTFALL_WEIGHT}；</li>
+ * <li>转换：每像素转换代价 × 每秒像素数 / 目标每秒像素数 × {@link #CONVERSION_WEIGHT}，
+ *     帧率超过需要时多出的帧只体现为转换代价。</li>
+ * </ul>
+ * 代价相同时选帧率更高的。
+ */
+public final class FormatNegotiator {
+
+    //MJPEG 的平均压缩后字节数每像素，按质量 85 左右估算
+    final static double MJPEG_BYTES_PER_PIXEL = 0.3;
+
+    final static double SHORTFALL_WEIGHT = 10.0;
+    final static double CONVERSION_WEIGHT = 0.1;
+
+    //STEPWISE/CONTINUOUS 的尺寸范围内参与比较的常见分辨率
+    private final static int[][] COMMON_SIZES = {
+            {160, 120}, {176, 144}, {320, 240}, {352, 288}, {640, 360}, {640, 480}, {800, 600},
+            {1024, 768}, {1280, 720}, {1280, 960}, {1920, 1080}, {2560, 1440}, {3840, 2160},
+    };
+
+    private FormatNegotiator() {
+    }
+
+    private static boolean inRange(int value, int min, int max, int step) {
+        return value >= min && value <= max && (step <= 0 || (value - min) % step == 0);
+    }
+
+    /**
+     * 把 STEPWISE/CONTINUOUS 的尺寸范围展开成最小、最大尺寸以及范围内的常见分辨率，DISCRETE 原样返回。
+     */
+    public static List<Frame> discreteFrames(Frame frame) {
+        List<Frame> frames = new ArrayList<>();
+        if (frame.type == Frame.TYPE_DISCRETE || frame.type == 0) {
+            frames.add(frame);
+            return frames;
+        }
+
+        frames.add(new Frame(frame.width, frame.height, frame.frameRate));
+        for (int[] size : COMMON_SIZES) {
+            if (inRange(size[0], frame.width, frame.maxWidth, frame.stepWidth)
+                    && inRange(size[1], frame.height, frame.maxHeight, frame.stepHeight)
+                    && (size[0] != frame.width || size[1] != frame.height)
+                    && (size[0] != frame.maxWidth || size[1] != frame.maxHeight)) {
+                frames.add(new Frame(size[0], size[1], frame.frameRate));
+            }
+        }
+        if (frame.maxWidth != frame.width || frame.maxHeight != frame.height) {
+            frames.add(new Frame(frame.maxWidth, frame.maxHeight, frame.frameRate));
+        }
+        return frames;
+    }
+
+    /**
+     * 每像素转换代价的相对值，以 native NEON 的 YUYV 到 RGBA 转换为 1，不支持的转换返回负数。
+     */
+    static double conversionCost(int source, int output) {
+        if (source == output) {
+            return 0;
+        }
+
+        switch (source) {
+            case ImageUtils.YUYV:
+                return output == ImageUtils.RGBA ? 1 : -1;
+            case ImageUtils.MJPEG:
+                //BitmapFactory 解码到 ARGB_8888
+                return output == ImageUtils.RGBA ? 6 : -1;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * 一帧传输的字节数，不支持的格式返回负数。
+     */
+    static double bytesPerFrame(int format, int width, int height) {
+        switch (format) {
+            case ImageUtils.YUYV:
+                return width * height * 2.0;
+            case ImageUtils.MJPEG:
+                return width * height * MJPEG_BYTES_PER_PIXEL;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * 计算一个组合的代价，不满足约束时返回负数。
+     */
+    static double cost(int format, int width, int height, FrameRate frameRate, NegotiationTarget target) {
+        if (frameRate.numerator <= 0 || frameRate.denominator <= 0 || width <= 0 || height <= 0) {
+            return -1;
+        }
+
+        double fps = (double) frameRate.denominator / frameRate.numerator;
+        if (fps + 0.01 < target.minFps) {
+            return -1;
+        }
+
+        double frameBytes = bytesPerFrame(format, width, height);
+        double perPixel = conversionCost(format, target.outputFormat);
+        if (frameBytes < 0 || perPixel < 0) {
+            return -1;
+        }
+        if (target.maxBandwidth > 0 && frameBytes * fps > target.maxBandwidth) {
+            return -1;
+        }
+
+        double targetPixels = Math.max((double) target.width * target.height, 1);
+        double pixels = (double) width * height;
+
+        double resolutionCost;
+        if (width >= target.width && height >= target.height) {
+            resolutionCost = (pixels - targetPixels) / targetPixels;
+        } else {
+            double covered = Math.min((double) width / Math.max(target.width, 1), 1)
+                    * Math.min((double) height / Math.max(target.height, 1), 1);
+            resolutionCost = SHORTFALL_WEIGHT * (1 - covered);
+        }
+
+        double targetRate = targetPixels * Math.max(target.minFps, 1);
+        double conversion = CONVERSION_WEIGHT * perPixel * pixels * fps / targetRate;
+
+        return resolutionCost + conversion;
+    }
+
+    /**
+     * 选择代价最小的组合，没有满足约束的组合时返回 null。
+     */
+    public static CaptureFormat negotiate(List<Parameter> parameters, NegotiationTarget target) {
+        CaptureFormat best = null;
+
+        for (Parameter parameter : parameters) {
+            for (Frame range : parameter.frames) {
+                for (Frame frame : discreteFrames(range)) {
+                    best = pick(best, parameter.pixFormat, frame, target);
+                }
+            }
+        }
+
+        return best;
+    }
+
+    private static CaptureFormat pick(CaptureFormat best, int pixFormat, Frame frame, NegotiationTarget target) {
+        for (FrameRate frameRate : frame.frameRate) {
+            double cost = cost(pixFormat, frame.width, frame.height, frameRate, target);
+            if (cost < 0) {
+                continue;
+            }
+
+            CaptureFormat candidate = new CaptureFormat(pixFormat, frame.width, frame.height,
+                    frameRate.numerator, frameRate.denominator, cost);
+            if (best == null || cost < best.cost - 1e-9
+                    || (Math.abs(cost - best.cost) <= 1e-9 && candidate.getFps() > best.getFps())) {
+                best = candidate;
+            }
+        }
+
+        return best;
+    }
+}
@@ -0,0 +1,218 @@
+package pri.tool.v4l2camera;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 录制帧的容器文件，只读打开时整个文件 mmap，不依赖 Android 类。
+ *
+ * 格式（大端）：文件头为 MAGIC(int)、FORMAT_VERSION(short)、保留(short)，之后每帧一条记录：
+ * format(int)、width(int)、height(int)、timestampUs(long)、sequence(int)、length(int)、length 字节的数据。
+ * format 取 {@link ImageUtils} 中的值，timestampUs 和 sequence 与 {@link IDataCallback} 中的含义相同。
+ * 录制中途退出时最后一条可能不完整，预分配过的文件末尾还可能全是 0，打开时都会忽略。
+ * 宽、高或者 length 为 0 的记录视为文件结尾。单个文件不超过 2GB。
+ *
+ * {@link FrameRecorder} 在文件旁边写一个同名加 ".idx" 的索引：INDEX_MAGIC(int)、FORMAT_VERSION(short)、保留(short)、
+ * 帧数(int)，之后每帧 timestampUs(long)、sequence(int)、format(int)、offset(int)。
+ * 索引存在并且与文件一致时直接使用，不用扫描整个文件，否则按记录逐条扫描。
+ */
+public final class FrameFile {
+
+    final static int MAGIC = 0x56344c46;  //"V4LF"
+    final static int FORMAT_VERSION = 1;
+    final static int HEADER_SIZE = 8;
+    final static int RECORD_HEADER_SIZE = 28;
+
+    final static int INDEX_MAGIC = 0x56344c49;  //"V4LI"
+    final static int INDEX_HEADER_SIZE = 12;
+    final static int INDEX_ENTRY_SIZE = 20;
+
+    private final MappedByteBuffer buffer;
+    //读取数据用的副本，只在回放线程中使用
+    private final ByteBuffer reader;
+    private final int[] offsets;
+    private final int frameCount;
+    private final int maxLength;
+
+    private FrameFile(MappedByteBuffer buffer, int[] offsets, int frameCount, int maxLength) {
+        this.buffer = buffer;
+        this.reader = buffer.duplicate();
+        this.offsets = offsets;
+        this.frameCount = frameCount;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * 打开并建立索引，文件头不正确时抛出 IOException。
+     */
+    public static FrameFile open(File file) throws IOException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long size = raf.length();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("frame file too large: " + size);
+            }
+            //映射建立后关闭文件不影响访问
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getShort(4) != FORMAT_VERSION) {
+            throw new IOException("not a frame file: " + file);
+        }
+
+        int[] offsets = readIndex(indexFile(file), buffer);
+        if (offsets == null) {
+            offsets = scan(buffer);
+        }
+
+        int count = offsets.length;
+        int maxLength = 0;
+        for (int offset : offsets) {
+            maxLength = Math.max(maxLength, buffer.getInt(offset + RECORD_HEADER_SIZE - 4));
+        }
+
+        return new FrameFile(buffer, offsets, count, maxLength);
+    }
+
+    /**
+     * 帧文件对应的索引文件。
+     */
+    public static File indexFile(File file) {
+        return new File(file.getPath() + ".idx");
+    }
+
+    private static int[] scan(ByteBuffer buffer) {
+        int[] offsets = new int[64];
+        int count = 0;
+        int offset = HEADER_SIZE;
+        int limit = buffer.limit();
+        while (limit - offset >= RECORD_HEADER_SIZE) {
+            int length = buffer.getInt(offset + RECORD_HEADER_SIZE - 4);
+            //没有截断的分段后面是 0，不能当成空帧
+            if (buffer.getInt(offset + 4) <= 0 || buffer.getInt(offset + 8) <= 0
+                    || length <= 0 || length > limit - offset - RECORD_HEADER_SIZE) {
+                break;
+            }
+
+            if (count == offsets.length) {
+                int[] grown = new int[count * 2];
+                System.arraycopy(offsets, 0, grown, 0, count);
+                offsets = grown;
+            }
+            offsets[count++] = offset;
+            offset += RECORD_HEADER_SIZE + length;
+        }
+
+        int[] result = new int[count];
+        System.arraycopy(offsets, 0, result, 0, count);
+        return result;
+    }
+
+    //索引不存在或者与文件内容不一致时返回 null
+    private static int[] readIndex(File index, ByteBuffer buffer) {
+        if (!index.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)))) {
+            if (in.readInt() != INDEX_MAGIC || in.readShort() != FORMAT_VERSION) {
+                return null;
+            }
+            in.readShort();
+            int count = in.readInt();
+            if (count < 0 || (long) count * INDEX_ENTRY_SIZE + INDEX_HEADER_SIZE != index.length()) {
+                return null;
+            }
+
+            int[] offsets = new int[count];
+            int limit = buffer.limit();
+            int expected = HEADER_SIZE;
+            for (int i = 0; i < count; i++) {
+                long timestampUs = in.readLong();
+                in.readInt();
+                in.readInt();
+                int offset = in.readInt();
+                //记录必须首尾相接，并且时间戳与文件一致
+                if (offset != expected || limit - offset < RECORD_HEADER_SIZE
+                        || buffer.getLong(offset + 12) != timestampUs) {
+                    return null;
+                }
+                int length = buffer.getInt(offset + RECORD_HEADER_SIZE - 4);
+                if (length < 0 || length > limit - offset - RECORD_HEADER_SIZE) {
+                    return null;
+                }
+                offsets[i] = offset;
+                expected = offset + RECORD_HEADER_SIZE + length;
+            }
+            return offsets;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * 时间戳不小于 timestampUs 的第一帧，都小于时返回帧数。时间戳按录制顺序递增。
+     */
+    public int indexOf(long timestampUs) {
+        int low = 0;
+        int high = frameCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getTimestampUs(mid) < timestampUs) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public int getMaxFrameLength() {
+        return maxLength;
+    }
+
+    public int getFormat(int index) {
+        return buffer.getInt(offsets[index]);
+    }
+
+    public int getWidth(int index) {
+        return buffer.getInt(offsets[index] + 4);
+    }
+
+    public int getHeight(int index) {
+        return buffer.getInt(offsets[index] + 8);
+    }
+
+    public long getTimestampUs(int index) {
+        return buffer.getLong(offsets[index] + 12);
+    }
+
+    public int getSequence(int index) {
+        return buffer.getInt(offsets[index] + 20);
+    }
+
+    public int getLength(int index) {
+        return buffer.getInt(offsets[index] + 24);
+    }
+
+    /**
+     * 把一帧的数据拷贝到 dst 开头，返回长度。不是线程安全的。
+     */
+    public int read(int index, byte[] dst) {
+        int length = getLength(index);
+        reader.position(offsets[index] + RECORD_HEADER_SIZE);
+        reader.get(dst, 0, length);
+        return length;
+    }
+}
@@ -0,0 +1,112 @@
+package pri.tool.v4l2camera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 一帧 mmap buffer 的租约。
+ *
+ * 每个 buffer index 对应一个复用的 FrameLease，因此不能在 release 之后继续持有或访问 data。
+ * release 可以在任意线程调用，重复调用会被忽略。
+ * stopPreview 会等待所有租约释放，超时后租约失效：data 抛出 IllegalStateException，
+ * 但 buffer 的映射一直保留到 release，已经取得的 data 在 release 之前仍然可以访问。
+ */
+public final class FrameLease {
+    private final V4L2Camera camera;
+    private final int index;
+    final ByteBuffer buffer;
+    //创建时的预览代数，stopPreview 之后不再等于 camera 的当前代数
+    final int generation;
+
+    private int length;
+    private int width;
+    private int height;
+    private int format;
+    private long timestampUs;
+    private int sequence;
+    private boolean released = true;
+
+    FrameLease(V4L2Camera camera, int index, ByteBuffer buffer, int generation) {
+        this.camera = camera;
+        this.index = index;
+        this.buffer = buffer;
+        this.generation = generation;
+    }
+
+    synchronized void acquire(int length, int width, int height, int format, long timestampUs, int sequence) {
+        this.length = length;
+        this.width = width;
+        this.height = height;
+        this.format = format;
+        this.timestampUs = timestampUs;
+        this.sequence = sequence;
+        buffer.clear();
+        buffer.limit(length);
+        released = false;
+    }
+
+    /**
+     * 帧数据，position 为 0，limit 为实际数据长度。
+     *
+     * @throws IllegalStateException 预览已经停止，租约已经失效
+     */
+    public ByteBuffer data() {
+        if (!camera.isLeaseValid(this)) {
+            throw new IllegalStateException("Frame buffer " + index + " unmapped after stopPreview");
+        }
+        return buffer;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * 数据格式，取值见 {@link ImageUtils}。
+     */
+    public int getFormat() {
+        return format;
+    }
+
+    /**
+     * 采集时间，CLOCK_MONOTONIC 微秒，与 System.nanoTime() / 1000 可以直接比较。
+     */
+    public long getTimestampUs() {
+        return timestampUs;
+    }
+
+    /**
+     * 驱动的帧序号，不连续说明中间有帧被丢弃。
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
+    public synchronized boolean isReleased() {
+        return released;
+    }
+
+    /**
+     * 把 buffer 还给驱动重新入队，租约已经失效时解除 buffer 的映射。
+     */
+    public void release() {
+        synchronized (this) {
+            if (released) {
+                return;
+            }
+            released = true;
+        }
+        camera.releaseFrame(this);
+    }
+}
@@ -0,0 +1,447 @@
+package pri.tool.v4l2camera;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 把采集到的帧录制成 {@link FrameFile} 格式的分段文件，可以直接交给 {@link ReplayCamera} 回放，不依赖 Android 类。
+ *
+ * {@link #offer} 在采集回调线程中只做一次拷贝，把帧放进固定数量的槽位，由独立的 I/O 线程通过 FileChannel 追加写入分段文件。
+ * 不映射分段文件，分段再大也不占用进程的地址空间。
+ * 槽位用完（磁盘跟不上）时直接丢帧并计数，从不阻塞采集。分段达到 {@link #setSegmentLimits} 的大小或时长后切换到下一段，
+ * 每段结束时写出索引，只保留最近 {@link #setMaxSegments} 段。
+ * 进程中途退出时最后一段没有索引，{@link FrameFile} 打开时会扫描记录并忽略不完整的结尾。
+ */
+public final class FrameRecorder {
+
+    public final static long DEFAULT_SEGMENT_BYTES = 256L << 20;
+    public final static long DEFAULT_SEGMENT_DURATION_MS = 60000;
+    public final static int DEFAULT_MAX_SEGMENTS = 8;
+    public final static int DEFAULT_QUEUE_FRAMES = 8;
+
+    public final static String SEGMENT_SUFFIX = ".v4lf";
+    private final static String THREAD_NAME = "FrameRecorder";
+
+    private static final class Slot {
+        byte[] data;
+        //包装 data，写文件时不用每帧创建
+        ByteBuffer buffer;
+        int length;
+        int format;
+        int width;
+        int height;
+        long timestampUs;
+        int sequence;
+    }
+
+    //放进 pendingSlots 通知 I/O 线程退出
+    private final static Slot STOP = new Slot();
+
+    private final File directory;
+    private final String prefix;
+    private long segmentBytes = DEFAULT_SEGMENT_BYTES;
+    private long segmentDurationUs = DEFAULT_SEGMENT_DURATION_MS * 1000;
+    private int maxSegments = DEFAULT_MAX_SEGMENTS;
+    private int queueFrames = DEFAULT_QUEUE_FRAMES;
+
+    private ArrayBlockingQueue<Slot> freeSlots;
+    private ArrayBlockingQueue<Slot> pendingSlots;
+    private Thread ioThread;
+    private volatile boolean recording;
+
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private volatile long recordedFrames;
+    private volatile long bytesWritten;
+    private volatile IOException lastError;
+    private final StageMetrics writeStage = PipelineMetrics.getInstance().stage("recorder.write");
+
+    //以下只在 I/O 线程中访问
+    private int nextSegment;
+    private File segmentFile;
+    private FileChannel segment;
+    //已经完整写入的长度，写入出错时截断到这里
+    private long segmentLength;
+    private final ByteBuffer recordHeader = ByteBuffer.allocate(FrameFile.RECORD_HEADER_SIZE);
+    private final ByteBuffer[] record = new ByteBuffer[2];
+    private long segmentStartUs;
+    private int indexCount;
+    private long[] indexTimestamps = new long[256];
+    private int[] indexEntries = new int[256 * 3];  //sequence、format、offset
+    private final List<File> segments = new ArrayList<>();
+
+    public FrameRecorder(File directory, String prefix) {
+        this.directory = directory;
+        this.prefix = prefix;
+    }
+
+    /**
+     * 单个分段的最大字节数和时长，start 之前调用。
+     */
+    public void setSegmentLimits(long maxBytes, long maxDurationMs) {
+        segmentBytes = Math.min(Math.max(maxBytes, FrameFile.HEADER_SIZE + FrameFile.RECORD_HEADER_SIZE),
+                Integer.MAX_VALUE);
+        segmentDurationUs = maxDurationMs * 1000;
+    }
+
+    /**
+     * 保留的分段数量，超过后删除最旧的一段，0 表示不限制。start 之前调用。
+     */
+    public void setMaxSegments(int count) {
+        maxSegments = Math.max(count, 0);
+    }
+
+    /**
+     * 等待写入的最大帧数，也就是能吸收的磁盘抖动。start 之前调用。
+     */
+    public void setQueueFrames(int count) {
+        queueFrames = Math.max(count, 1);
+    }
+
+    public synchronized void start() throws IOException {
+        if (ioThread != null) {
+            throw new IllegalStateException("recorder already started");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("can not create " + directory);
+        }
+
+        freeSlots = new ArrayBlockingQueue<>(queueFrames);
+        for (int i = 0; i < queueFrames; i++) {
+            freeSlots.offer(new Slot());
+        }
+        //多一个位置给 STOP
+        pendingSlots = new ArrayBlockingQueue<>(queueFrames + 1);
+        nextSegment = findNextSegment();
+        lastError = null;
+        recording = true;
+        ioThread = new Thread(this::writeLoop, THREAD_NAME);
+        ioThread.start();
+    }
+
+    /**
+     * 写完已经提交的帧，结束当前分段后返回。
+     */
+    public synchronized void stop() {
+        Thread thread = ioThread;
+        if (thread == null) {
+            return;
+        }
+
+        recording = false;
+        pendingSlots.offer(STOP);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ioThread = null;
+    }
+
+    public boolean isRecording() {
+        return recording;
+    }
+
+    /**
+     * 提交一帧，从不阻塞。没有空闲槽位或者没有在录制时返回 false，前者计入丢帧。
+     */
+    public boolean offer(byte[] data, int length, int format, int width, int height, long timestampUs, int sequence) {
+        Slot slot = acquire(length);
+        if (slot == null) {
+            return false;
+        }
+        System.arraycopy(data, 0, slot.data, 0, length);
+        return submit(slot, length, format, width, height, timestampUs, sequence);
+    }
+
+    /**
+     * 提交 data 中 position 到 limit 之间的数据，返回时 position 不变。
+     */
+    public boolean offer(ByteBuffer data, int format, int width, int height, long timestampUs, int sequence) {
+        int length = data.remaining();
+        Slot slot = acquire(length);
+        if (slot == null) {
+            return false;
+        }
+        int position = data.position();
+        data.get(slot.data, 0, length);
+        data.position(position);
+        return submit(slot, length, format, width, height, timestampUs, sequence);
+    }
+
+    private Slot acquire(int length) {
+        if (!recording) {
+            return null;
+        }
+        Slot slot = freeSlots.poll();
+        if (slot == null) {
+            droppedFrames.incrementAndGet();
+            writeStage.addDrops(1);
+            return null;
+        }
+        //MJPEG 的长度每帧不同，槽位只会变大
+        if (slot.data == null || slot.data.length < length) {
+            slot.data = new byte[length];
+            slot.buffer = ByteBuffer.wrap(slot.data);
+        }
+        return slot;
+    }
+
+    private boolean submit(Slot slot, int length, int format, int width, int height, long timestampUs, int sequence) {
+        slot.length = length;
+        slot.format = format;
+        slot.width = width;
+        slot.height = height;
+        slot.timestampUs = timestampUs;
+        slot.sequence = sequence;
+        pendingSlots.offer(slot);
+        return true;
+    }
+
+    public long getRecordedFrames() {
+        return recordedFrames;
+    }
+
+    /**
+     * 因为磁盘跟不上、单帧超过分段大小、数据为空或者写入出错而丢弃的帧数。
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * 写入出错后停止写文件，之后提交的帧都计入丢帧，直到下一次 start。
+     */
+    public IOException getLastError() {
+        return lastError;
+    }
+
+    /**
+     * 已经写完并且仍然保留的分段，按时间顺序。
+     */
+    public List<File> getSegments() {
+        synchronized (segments) {
+            return new ArrayList<>(segments);
+        }
+    }
+
+    private int findNextSegment() {
+        int next = 0;
+        String[] names = directory.list();
+        if (names == null) {
+            return next;
+        }
+        for (String name : names) {
+            if (name.startsWith(prefix + "-") && name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    int number = Integer.parseInt(name.substring(prefix.length() + 1,
+                            name.length() - SEGMENT_SUFFIX.length()));
+                    next = Math.max(next, number + 1);
+                } catch (NumberFormatException e) {
+                    //不是本类写的文件
+                }
+            }
+        }
+        return next;
+    }
+
+    private void writeLoop() {
+        while (true) {
+            Slot slot;
+            try {
+                slot = pendingSlots.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (slot == STOP) {
+                break;
+            }
+
+            if (lastError == null) {
+                long start = System.nanoTime();
+                try {
+                    if (write(slot)) {
+                        writeStage.recordSince(start);
+                        recordedFrames++;
+                    } else {
+                        droppedFrames.incrementAndGet();
+                        writeStage.addDrops(1);
+                    }
+                } catch (IOException e) {
+                    lastError = e;
+                    abortSegment();
+                }
+            } else {
+                droppedFrames.incrementAndGet();
+                writeStage.addDrops(1);
+            }
+            freeSlots.offer(slot);
+        }
+
+        try {
+            finishSegment();
+        } catch (IOException e) {
+            lastError = e;
+        }
+    }
+
+    private boolean write(Slot slot) throws IOException {
+        long recordSize = FrameFile.RECORD_HEADER_SIZE + (long) slot.length;
+        //FrameFile 把这样的记录当成预留的 0
+        if (slot.length <= 0 || slot.width <= 0 || slot.height <= 0
+                || FrameFile.HEADER_SIZE + recordSize > segmentBytes) {
+            return false;
+        }
+
+        if (segment != null && (recordSize > segmentBytes - segmentLength
+                || slot.timestampUs - segmentStartUs >= segmentDurationUs)) {
+            finishSegment();
+        }
+        if (segment == null) {
+            openSegment(slot.timestampUs);
+        }
+
+        int offset = (int) segmentLength;
+        recordHeader.clear();
+        recordHeader.putInt(slot.format);
+        recordHeader.putInt(slot.width);
+        recordHeader.putInt(slot.height);
+        recordHeader.putLong(slot.timestampUs);
+        recordHeader.putInt(slot.sequence);
+        recordHeader.putInt(slot.length);
+        recordHeader.flip();
+        slot.buffer.clear();
+        slot.buffer.limit(slot.length);
+        record[0] = recordHeader;
+        record[1] = slot.buffer;
+        writeFully(record, recordSize);
+        segmentLength += recordSize;
+        bytesWritten += recordSize;
+
+        if (indexCount == indexTimestamps.length) {
+            long[] timestamps = new long[indexCount * 2];
+            System.arraycopy(indexTimestamps, 0, timestamps, 0, indexCount);
+            indexTimestamps = timestamps;
+            int[] entries = new int[indexCount * 2 * 3];
+            System.arraycopy(indexEntries, 0, entries, 0, indexCount * 3);
+            indexEntries = entries;
+        }
+        indexTimestamps[indexCount] = slot.timestampUs;
+        indexEntries[indexCount * 3] = slot.sequence;
+        indexEntries[indexCount * 3 + 1] = slot.format;
+        indexEntries[indexCount * 3 + 2] = offset;
+        indexCount++;
+        return true;
+    }
+
+    private void openSegment(long timestampUs) throws IOException {
+        File file = new File(directory, String.format(Locale.US, "%s-%05d%s", prefix, nextSegment++, SEGMENT_SUFFIX));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        segment = raf.getChannel();
+        segmentFile = file;
+        segmentLength = 0;
+        FrameFile.indexFile(file).delete();
+
+        ByteBuffer header = ByteBuffer.allocate(FrameFile.HEADER_SIZE);
+        header.putInt(FrameFile.MAGIC);
+        header.putShort((short) FrameFile.FORMAT_VERSION);
+        header.putShort((short) 0);
+        header.flip();
+        record[0] = header;
+        record[1] = ByteBuffer.allocate(0);
+        writeFully(record, FrameFile.HEADER_SIZE);
+        segmentLength = FrameFile.HEADER_SIZE;
+        segmentStartUs = timestampUs;
+        indexCount = 0;
+    }
+
+    //FileChannel 可能只写入一部分
+    private void writeFully(ByteBuffer[] buffers, long length) throws IOException {
+        long written = 0;
+        while (written < length) {
+            written += segment.write(buffers);
+        }
+    }
+
+    private void finishSegment() throws IOException {
+        if (segment == null) {
+            return;
+        }
+
+        FileChannel channel = segment;
+        File file = segmentFile;
+        segment = null;
+        segmentFile = null;
+
+        try {
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+        writeIndex(FrameFile.indexFile(file));
+
+        synchronized (segments) {
+            segments.add(file);
+            while (maxSegments > 0 && segments.size() > maxSegments) {
+                File oldest = segments.remove(0);
+                oldest.delete();
+                FrameFile.indexFile(oldest).delete();
+            }
+        }
+    }
+
+    //写入出错后放弃当前分段，尽量截断掉写了一半的记录，不写索引
+    private void abortSegment() {
+        FileChannel channel = segment;
+        segment = null;
+        segmentFile = null;
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.truncate(segmentLength);
+        } catch (IOException e) {
+            //保留第一个错误，FrameFile 打开时会忽略不完整的结尾
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            //同上
+        }
+    }
+
+    private void writeIndex(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(FrameFile.INDEX_MAGIC);
+            out.writeShort(FrameFile.FORMAT_VERSION);
+            out.writeShort(0);
+            out.writeInt(indexCount);
+            for (int i = 0; i < indexCount; i++) {
+                out.writeLong(indexTimestamps[i]);
+                out.writeInt(indexEntries[i * 3]);
+                out.writeInt(indexEntries[i * 3 + 1]);
+                out.writeInt(indexEntries[i * 3 + 2]);
+            }
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package pri.tool.v4l2camera;
 
 public interface IDataCallback {
-    void onDataCallback(byte[] data, int dataType, int width, int height);
+    /**
+     * @param timestampUs 采集时间，CLOCK_MONOTONIC 微秒，与 System.nanoTime() / 1000 可以直接比较
+     * @param sequence 驱动的帧序号，不连续说明中间有帧被丢弃
+     */
+    void onDataCallback(byte[] data, int dataType, int width, int height, long timestampUs, int sequence);
 }
@@ -0,0 +1,12 @@
+package pri.tool.v4l2camera;
+
+/**
+ * 零拷贝的帧回调，数据直接指向 mmap 的 V4L2 buffer。
+ *
+ * 回调返回后 buffer 仍由调用方持有，处理完成后必须调用 {@link FrameLease#release()}，
+ * buffer 才会重新交给驱动。持有的 lease 数量达到 buffer 数量时驱动将无处写入而丢帧。
+ * stopPreview 最多等待 {@link V4L2Camera#LEASE_DRAIN_TIMEOUT_MS} 让 lease 归还，之后 lease 失效，buffer 的映射保留到 release。
+ */
+public interface IFrameCallback {
+    void onFrame(FrameLease frame);
+}
@@ -0,0 +1,18 @@
+package pri.tool.v4l2camera;
+
+/**
+ * 帧来源，{@link V4L2Camera} 和 {@link ReplayCamera} 共用的回调约定：
+ * open 成功后回调 {@link IStateCallback#onOpened()}，失败回调 {@link IStateCallback#onError(int)}；
+ * startPreview 之后在来源自己的线程中逐帧回调 {@link IDataCallback}。
+ */
+public interface IFrameSource {
+    void open();
+
+    void startPreview(IDataCallback callback);
+
+    void stopPreview();
+
+    void close();
+
+    void release();
+}
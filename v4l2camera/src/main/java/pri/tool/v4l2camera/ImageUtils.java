@@ -1,8 +1,11 @@
 package pri.tool.v4l2camera;
 
+import android.graphics.Bitmap;
 import android.graphics.Matrix;
 import android.util.Log;
 
+import java.nio.ByteBuffer;
+
 public class ImageUtils {
     private final static String TAG = "ImageUtils";
 
@@ -15,6 +18,72 @@ public class ImageUtils {
     //YUV422  arranged in "YUYV" format
     public final static int YUYV = 2;
 
+    //RGBA_8888 arranged in "RGBA RGBA" format, same memory layout as Bitmap.Config.ARGB_8888
+    public final static int RGBA = 3;
+
+    //Motion JPEG, one compressed frame per buffer, size varies from frame to frame
+    public final static int MJPEG = 4;
+
+    public final static int COLOR_SPACE_BT601 = ColorConverter.COLOR_SPACE_BT601;
+    public final static int COLOR_SPACE_BT709 = ColorConverter.COLOR_SPACE_BT709;
+
+    //convertToBitmap 是静态方法，每个线程一个解码器，复用解码器内部的 buffer
+    private final static ThreadLocal<MjpegDecoder> MJPEG_DECODER = new ThreadLocal<MjpegDecoder>() {
+        @Override
+        protected MjpegDecoder initialValue() {
+            return new MjpegDecoder();
+        }
+    };
+
+    /**
+     * 一帧数据的字节数，不支持的格式和 MJPEG 这种每帧大小不固定的格式返回 -1。
+     */
+    public static int getFrameSize(int format, int width, int height) {
+        return ColorConverter.getFrameSize(format, width, height);
+    }
+
+    /**
+     * 把 YV12/NV21/YUYV 数据直接转换成 ARGB 像素，写入调用方复用的数组。
+     *
+     * @param argb 输出，长度至少为 width * height
+     */
+    public static void convertToArgb(byte[] src, int format, int width, int height, int colorSpace, int[] argb) {
+        ColorConverter.convertToArgb(src, format, width, height, colorSpace, argb);
+    }
+
+    /**
+     * 把 YV12/NV21/YUYV 数据直接转换成 RGBA 字节，写入调用方复用的数组。
+     *
+     * @param rgba 输出，长度至少为 width * height * 4
+     */
+    public static void convertToRgba(byte[] src, int format, int width, int height, int colorSpace, byte[] rgba) {
+        ColorConverter.convertToRgba(src, format, width, height, colorSpace, rgba);
+    }
+
+    /**
+     * 把 YV12/NV21/YUYV 数据直接转换进调用方复用的 ARGB_8888 Bitmap，RGBA 数据直接拷贝，MJPEG 数据解码进 dst。
+     *
+     * @param argb 中间像素 buffer，长度至少为 width * height，RGBA 和 MJPEG 时不使用
+     * @param dst 可修改的 Bitmap，尺寸必须为 width x height
+     */
+    public static void convertToBitmap(byte[] src, int format, int width, int height, int colorSpace,
+                                       int[] argb, Bitmap dst) {
+        if (format == RGBA) {
+            dst.copyPixelsFromBuffer(ByteBuffer.wrap(src, 0, width * height * 4));
+            return;
+        }
+        if (format == MJPEG) {
+            Bitmap decoded = MJPEG_DECODER.get().decode(src, src.length, dst);
+            if (decoded != dst) {
+                throw new IllegalArgumentException("Unable to decode MJPEG frame into " + width + "x" + height);
+            }
+            return;
+        }
+
+        ColorConverter.convertToArgb(src, format, width, height, colorSpace, argb);
+        dst.setPixels(argb, 0, width, 0, 0, width, height);
+    }
+
 
     /**
      * Returns a transformation matrix from one reference frame into another.
@@ -37,48 +106,16 @@ public class ImageUtils {
             final int dstHeight,
             final int applyRotation,
             final boolean maintainAspectRatio) {
-        final Matrix matrix = new Matrix();
-
-        if (applyRotation != 0) {
-            if (applyRotation % 90 != 0) {
-                Log.w(TAG, "Rotation of " + applyRotation + " % 90 != 0");
-            }
-
-            // Translate so center of image is at origin.
-            matrix.postTranslate(-srcWidth / 2.0f, -srcHeight / 2.0f);
-
-            // Rotate around origin.
-            matrix.postRotate(applyRotation);
+        if (applyRotation % 90 != 0) {
+            Log.w(TAG, "Rotation of " + applyRotation + " % 90 != 0");
         }
 
-        // Account for the already applied rotation, if any, and then determine how
-        // much scaling is needed for each axis.
-        final boolean transpose = (Math.abs(applyRotation) + 90) % 180 == 0;
-
-        final int inWidth = transpose ? srcHeight : srcWidth;
-        final int inHeight = transpose ? srcWidth : srcHeight;
-
-        // Apply scaling if necessary.
-        if (inWidth != dstWidth || inHeight != dstHeight) {
-            final float scaleFactorX = dstWidth / (float) inWidth;
-            final float scaleFactorY = dstHeight / (float) inHeight;
-
-            if (maintainAspectRatio) {
-                // Scale by minimum factor so that dst is filled completely while
-                // maintaining the aspect ratio. Some image may fall off the edge.
-                final float scaleFactor = Math.max(scaleFactorX, scaleFactorY);
-                matrix.postScale(scaleFactor, scaleFactor);
-            } else {
-                // Scale exactly to fill dst from src.
-                matrix.postScale(scaleFactorX, scaleFactorY);
-            }
-        }
-
-        if (applyRotation != 0) {
-            // Translate back from origin centered reference to destination frame.
-            matrix.postTranslate(dstWidth / 2.0f, dstHeight / 2.0f);
-        }
+        final float[] values = new float[9];
+        Transforms.getTransformation(srcWidth, srcHeight, dstWidth, dstHeight, applyRotation,
+                maintainAspectRatio, values);
 
+        final Matrix matrix = new Matrix();
+        matrix.setValues(values);
         return matrix;
     }
 }
@@ -0,0 +1,112 @@
+package pri.tool.v4l2camera;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 微秒为单位的对数直方图，每个 2 的幂区间再分 8 格，相对误差不超过 12.5%。
+ * 桶的划分与 native 层 StageMetrics.h 相同，native 的计数可以直接合并进来。不依赖 Android 类。
+ *
+ * record 只有一次原子加，没有锁也不分配内存，可以在每帧的路径上一直开着。
+ */
+public final class LatencyHistogram {
+
+    //sync with StageMetrics.h
+    final static int SUB_BUCKET_BITS = 3;
+    final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    final static int MAX_EXPONENT = 29;
+    public final static int BUCKET_COUNT = (MAX_EXPONENT - 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    static int bucketIndex(long us) {
+        if (us < SUB_BUCKETS) {
+            return us < 0 ? 0 : (int) us;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(us);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int sub = (int) (us >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * 桶中最小的值。
+     */
+    static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * 桶中最大的值，百分位按它报告，宁可偏大。
+     */
+    static long bucketUpperBound(int index) {
+        return index + 1 < BUCKET_COUNT ? bucketLowerBound(index + 1) - 1 : Long.MAX_VALUE;
+    }
+
+    public void record(long us) {
+        buckets.incrementAndGet(bucketIndex(us));
+    }
+
+    /**
+     * 记录从 startNanos（{@link System#nanoTime()}）到现在的耗时。
+     */
+    public void recordSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    /**
+     * 读取各个桶的计数，reset 时同时清零，读取期间新记录的样本会落在下一次快照里。
+     */
+    public long[] snapshot(boolean reset) {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = reset ? buckets.getAndSet(i, 0) : buckets.get(i);
+        }
+        return counts;
+    }
+
+    public static long count(long[] counts) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * 第 percentile（0 ~ 100）百分位所在桶的上界，没有样本时返回 0。
+     */
+    public static long percentile(long[] counts, double percentile) {
+        long total = count(counts);
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return bucketUpperBound(i);
+            }
+        }
+        return bucketUpperBound(counts.length - 1);
+    }
+
+    public static long max(long[] counts) {
+        for (int i = counts.length - 1; i >= 0; i--) {
+            if (counts[i] != 0) {
+                return bucketUpperBound(i);
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,263 @@
+package pri.tool.v4l2camera;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import pri.tool.bean.LoadStepResult;
+import pri.tool.bean.StageSnapshot;
+
+/**
+ * 多路并发压测，用来确定一台设备能同时处理多少路流，不依赖 Android 类。
+ *
+ * 每一路是一个 {@link SyntheticCamera}，和 App 里一样在回调线程中转换成 ARGB，
+ * 再通过单槽 mailbox 交给自己的消费线程（对应 BitmapConverter 的渲染线程，来不及处理的帧被合并），
+ * 消费线程拷贝一次像素模拟纹理上传，记录从出帧到消费完成的延迟。
+ *
+ * {@link #ramp(int)} 按 1、2、4…… 增加路数，每一步先预热再统计，吞吐低于设定帧率的 {@link #SATURATION_THROUGHPUT}
+ * 或者任意一路的 p99 超过延迟预算时这一步记为饱和。
+ */
+public final class LoadHarness {
+
+    public final static long DEFAULT_WARMUP_MS = 1000;
+    public final static long DEFAULT_MEASURE_MS = 5000;
+    public final static double SATURATION_THROUGHPUT = 0.95;
+
+    //默认的延迟预算是 3 个帧间隔，不限帧率时是 100ms
+    private final static int BUDGET_FRAMES = 3;
+    private final static long UNPACED_BUDGET_US = 100000;
+
+    //每一路的 ARGB 帧：正在转换、在 mailbox 中等待、正在上传
+    private final static int FRAMES_PER_STREAM = 3;
+
+    private final int format;
+    private final int width;
+    private final int height;
+    private final int fps;
+    private int colorSpace = ColorConverter.COLOR_SPACE_BT601;
+    private long warmupMs = DEFAULT_WARMUP_MS;
+    private long measureMs = DEFAULT_MEASURE_MS;
+    private long latencyBudgetUs;
+
+    /**
+     * @param fps 每一路的帧率，不大于 0 时不限帧率，只按延迟预算判断饱和
+     * @throws IllegalArgumentException 格式或者尺寸 {@link SyntheticCamera} 不支持
+     */
+    public LoadHarness(int format, int width, int height, int fps) {
+        if (!SyntheticCamera.isSupported(format, width, height)) {
+            throw new IllegalArgumentException("Unsupported synthetic frame " + format + " " + width + "x" + height);
+        }
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.fps = fps;
+        this.latencyBudgetUs = fps > 0 ? BUDGET_FRAMES * 1000000L / fps : UNPACED_BUDGET_US;
+    }
+
+    public void setColorSpace(int colorSpace) {
+        this.colorSpace = colorSpace;
+    }
+
+    public void setDuration(long warmupMs, long measureMs) {
+        this.warmupMs = warmupMs;
+        this.measureMs = measureMs;
+    }
+
+    public void setLatencyBudget(long us) {
+        latencyBudgetUs = us;
+    }
+
+    /**
+     * 路数按 1、2、4…… 增加到 maxStreams，第一次饱和后再跑一步确认就停止。
+     */
+    public List<LoadStepResult> ramp(int maxStreams) throws InterruptedException {
+        List<LoadStepResult> results = new ArrayList<>();
+        int saturatedSteps = 0;
+        int streams = 1;
+        while (streams <= maxStreams && saturatedSteps < 2) {
+            LoadStepResult result = run(streams);
+            results.add(result);
+            if (result.saturated) {
+                saturatedSteps++;
+            }
+            if (streams == maxStreams) {
+                break;
+            }
+            streams = Math.min(streams * 2, maxStreams);
+        }
+        return results;
+    }
+
+    /**
+     * 第一个饱和的路数，都没有饱和时返回 -1。
+     */
+    public static int saturationPoint(List<LoadStepResult> results) {
+        for (LoadStepResult result : results) {
+            if (result.saturated) {
+                return result.streams;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 同时运行 streams 路，返回统计期间的结果。
+     */
+    public LoadStepResult run(int streams) throws InterruptedException {
+        List<Stream> running = new ArrayList<>(streams);
+        for (int i = 0; i < streams; i++) {
+            Stream stream = new Stream(i);
+            running.add(stream);
+            stream.start();
+        }
+
+        Thread.sleep(warmupMs);
+        for (Stream stream : running) {
+            stream.beginMeasure();
+        }
+        long start = System.nanoTime();
+        Thread.sleep(measureMs);
+        for (Stream stream : running) {
+            stream.endMeasure();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        for (Stream stream : running) {
+            stream.stop();
+        }
+
+        long[] total = new long[LatencyHistogram.BUCKET_COUNT];
+        StageSnapshot[] perStream = new StageSnapshot[streams];
+        long delivered = 0;
+        long dropped = 0;
+        long worstP99 = 0;
+        for (int i = 0; i < streams; i++) {
+            Stream stream = running.get(i);
+            long[] counts = stream.latencyCounts;
+            for (int b = 0; b < total.length; b++) {
+                total[b] += counts[b];
+            }
+            StageSnapshot snapshot = StageMetrics.newSnapshot("stream" + i, counts, stream.droppedFrames);
+            perStream[i] = snapshot;
+            delivered += snapshot.count;
+            dropped += snapshot.drops;
+            worstP99 = Math.max(worstP99, snapshot.p99Us);
+        }
+
+        double offeredFps = fps > 0 ? (double) fps * streams : 0;
+        double deliveredFps = delivered / seconds;
+        boolean saturated = worstP99 > latencyBudgetUs
+                || (offeredFps > 0 && deliveredFps < offeredFps * SATURATION_THROUGHPUT);
+        return new LoadStepResult(streams, offeredFps, deliveredFps, dropped,
+                LatencyHistogram.percentile(total, 50), LatencyHistogram.percentile(total, 99), worstP99,
+                saturated, perStream);
+    }
+
+    private static final class Frame {
+        final int[] argb;
+        long timestampUs;
+
+        Frame(int pixels) {
+            argb = new int[pixels];
+        }
+    }
+
+    private final class Stream implements IDataCallback {
+        private final SyntheticCamera camera;
+        private final Thread consumer;
+        private final ArrayBlockingQueue<Frame> freeFrames = new ArrayBlockingQueue<>(FRAMES_PER_STREAM);
+        private final AtomicReference<Frame> mailbox = new AtomicReference<>();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong coalescedFrames = new AtomicLong();
+        private final int[] uploaded;
+        private volatile boolean running;
+        private volatile boolean measuring;
+        private long skippedAtStart;
+
+        long[] latencyCounts;
+        long droppedFrames;
+
+        Stream(int index) {
+            camera = new SyntheticCamera(format, width, height, fps);
+            consumer = new Thread(this::consume, "LoadConsumer-" + index);
+            uploaded = new int[width * height];
+            for (int i = 0; i < FRAMES_PER_STREAM; i++) {
+                freeFrames.offer(new Frame(width * height));
+            }
+        }
+
+        void start() {
+            running = true;
+            consumer.start();
+            camera.startPreview(this);
+        }
+
+        void beginMeasure() {
+            latency.snapshot(true);
+            coalescedFrames.set(0);
+            skippedAtStart = camera.getSkippedFrames();
+            measuring = true;
+        }
+
+        void endMeasure() {
+            measuring = false;
+            latencyCounts = latency.snapshot(false);
+            droppedFrames = coalescedFrames.get() + camera.getSkippedFrames() - skippedAtStart;
+        }
+
+        void stop() throws InterruptedException {
+            camera.release();
+            running = false;
+            LockSupport.unpark(consumer);
+            consumer.join();
+        }
+
+        @Override
+        public void onDataCallback(byte[] data, int dataType, int width, int height, long timestampUs, int sequence) {
+            //三帧轮转，正常情况下不会取空
+            Frame frame = freeFrames.poll();
+            if (frame == null) {
+                coalescedFrames.incrementAndGet();
+                return;
+            }
+
+            if (dataType == ImageUtils.RGBA) {
+                for (int i = 0, p = 0; i < frame.argb.length; i++, p += 4) {
+                    frame.argb[i] = ((data[p + 3] & 0xff) << 24) | ((data[p] & 0xff) << 16)
+                            | ((data[p + 1] & 0xff) << 8) | (data[p + 2] & 0xff);
+                }
+            } else {
+                ColorConverter.convertToArgb(data, dataType, width, height, colorSpace, frame.argb);
+            }
+            frame.timestampUs = timestampUs;
+
+            Frame previous = mailbox.getAndSet(frame);
+            if (previous != null) {
+                freeFrames.offer(previous);
+                if (measuring) {
+                    coalescedFrames.incrementAndGet();
+                }
+            }
+            LockSupport.unpark(consumer);
+        }
+
+        private void consume() {
+            while (running) {
+                Frame frame = mailbox.getAndSet(null);
+                if (frame == null) {
+                    LockSupport.park(this);
+                    continue;
+                }
+
+                System.arraycopy(frame.argb, 0, uploaded, 0, uploaded.length);
+                if (measuring) {
+                    latency.record(System.nanoTime() / 1000 - frame.timestampUs);
+                }
+                freeFrames.offer(frame);
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package pri.tool.v4l2camera;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * MJPEG 帧解码，使用系统 BitmapFactory（native libjpeg-turbo）解码到 ARGB_8888，
+ * 内存布局与 {@link ImageUtils#RGBA} 相同。
+ *
+ * 解码结果尽量写入调用方复用的 Bitmap，缺少 DHT 的帧在内部 buffer 中补齐后再解码，
+ * 稳定运行时不再分配内存。非线程安全，每个解码线程使用一个实例。
+ */
+public class MjpegDecoder {
+
+    private final BitmapFactory.Options options = new BitmapFactory.Options();
+    private byte[] scratch;
+    private byte[] frameCopy;
+
+    public MjpegDecoder() {
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * 解码一帧。
+     *
+     * @param reuse 可修改的 ARGB_8888 Bitmap，尺寸与帧相同时解码结果直接写入，可以为 null
+     * @return 解码得到的 Bitmap，能复用时就是 reuse，数据损坏时返回 null
+     */
+    public Bitmap decode(byte[] data, int length, Bitmap reuse) {
+        byte[] jpeg = data;
+        if (!MjpegUtils.hasHuffmanTables(data, length)) {
+            int size = length + MjpegUtils.getHuffmanTableSize();
+            if (scratch == null || scratch.length < size) {
+                scratch = new byte[size];
+            }
+            length = MjpegUtils.insertHuffmanTables(data, length, scratch);
+            jpeg = scratch;
+        }
+
+        options.inBitmap = reuse;
+        try {
+            return BitmapFactory.decodeByteArray(jpeg, 0, length, options);
+        } catch (IllegalArgumentException e) {
+            //尺寸变化时 reuse 不能复用，重新分配
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(jpeg, 0, length, options);
+        } finally {
+            options.inBitmap = null;
+        }
+    }
+
+    /**
+     * 解码 {@link FrameLease#data()} 这类 DirectByteBuffer 中的一帧，BitmapFactory 只接受数组，先拷贝到内部 buffer。
+     */
+    public Bitmap decode(ByteBuffer data, int length, Bitmap reuse) {
+        if (frameCopy == null || frameCopy.length < length) {
+            frameCopy = new byte[length];
+        }
+
+        ByteBuffer src = data.duplicate();
+        src.clear();
+        src.get(frameCopy, 0, length);
+        return decode(frameCopy, length, reuse);
+    }
+}
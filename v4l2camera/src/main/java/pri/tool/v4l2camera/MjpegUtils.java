@@ -0,0 +1,160 @@
+package pri.tool.v4l2camera;
+
+/**
+ * MJPEG 帧的处理工具，不依赖 Android 类。
+ *
+ * UVC 摄像头输出的 MJPEG 帧通常省略了 Huffman 表（DHT），约定使用 JPEG 标准附录 K.3 的默认表，
+ * 这样的数据大多数解码器和图片查看器都不能直接打开，需要先补上 DHT。
+ */
+public final class MjpegUtils {
+
+    private final static int MARKER_SOI = 0xd8;
+    private final static int MARKER_EOI = 0xd9;
+    private final static int MARKER_SOS = 0xda;
+    private final static int MARKER_DHT = 0xc4;
+
+    private final static int[] DC_LUMINANCE_BITS = {0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0};
+    private final static int[] DC_CHROMINANCE_BITS = {0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0};
+    private final static int[] DC_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+
+    private final static int[] AC_LUMINANCE_BITS = {0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d};
+    private final static int[] AC_LUMINANCE_VALUES = {
+            0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+            0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+            0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+            0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+            0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+            0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+            0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+            0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+            0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+            0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+            0xf9, 0xfa};
+
+    private final static int[] AC_CHROMINANCE_BITS = {0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77};
+    private final static int[] AC_CHROMINANCE_VALUES = {
+            0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+            0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+            0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+            0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+            0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+            0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+            0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+            0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+            0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+            0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+            0xf9, 0xfa};
+
+    //完整的 DHT 段，包括 FFC4 marker 和长度
+    private final static byte[] DEFAULT_DHT = buildDht();
+
+    private MjpegUtils() {
+    }
+
+    private static byte[] buildDht() {
+        int[][] tables = {
+                {0x00}, DC_LUMINANCE_BITS, DC_VALUES,
+                {0x10}, AC_LUMINANCE_BITS, AC_LUMINANCE_VALUES,
+                {0x01}, DC_CHROMINANCE_BITS, DC_VALUES,
+                {0x11}, AC_CHROMINANCE_BITS, AC_CHROMINANCE_VALUES,
+        };
+
+        int length = 2;
+        for (int[] table : tables) {
+            length += table.length;
+        }
+
+        byte[] dht = new byte[length + 2];
+        dht[0] = (byte) 0xff;
+        dht[1] = (byte) MARKER_DHT;
+        dht[2] = (byte) (length >> 8);
+        dht[3] = (byte) length;
+        int pos = 4;
+        for (int[] table : tables) {
+            for (int value : table) {
+                dht[pos++] = (byte) value;
+            }
+        }
+        return dht;
+    }
+
+    /**
+     * 补上 DHT 后增加的字节数。
+     */
+    public static int getHuffmanTableSize() {
+        return DEFAULT_DHT.length;
+    }
+
+    /**
+     * 是否是以 SOI 开头的 JPEG 数据。
+     */
+    public static boolean isJpeg(byte[] data, int length) {
+        return length >= 4 && (data[0] & 0xff) == 0xff && (data[1] & 0xff) == MARKER_SOI;
+    }
+
+    /**
+     * 在 SOS 之前是否已经有 DHT 段。数据不完整时返回 true，交给解码器自己报错。
+     */
+    public static boolean hasHuffmanTables(byte[] data, int length) {
+        if (!isJpeg(data, length)) {
+            return true;
+        }
+
+        int pos = 2;
+        while (pos + 4 <= length) {
+            if ((data[pos] & 0xff) != 0xff) {
+                return true;
+            }
+            int marker = data[pos + 1] & 0xff;
+            if (marker == 0xff) {
+                //marker 之前允许有填充的 0xff
+                pos++;
+                continue;
+            }
+            if (marker == MARKER_DHT) {
+                return true;
+            }
+            if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                return false;
+            }
+            int segmentLength = ((data[pos + 2] & 0xff) << 8) | (data[pos + 3] & 0xff);
+            pos += 2 + segmentLength;
+        }
+
+        return true;
+    }
+
+    /**
+     * 在 SOI 之后插入默认 DHT，写入 dst。
+     *
+     * @param dst 长度至少为 length + {@link #getHuffmanTableSize()}
+     * @return 写入 dst 的字节数
+     */
+    public static int insertHuffmanTables(byte[] src, int length, byte[] dst) {
+        if (dst.length < length + DEFAULT_DHT.length) {
+            throw new IllegalArgumentException("Destination holds " + dst.length + " bytes, need "
+                    + (length + DEFAULT_DHT.length));
+        }
+
+        System.arraycopy(src, 0, dst, 0, 2);
+        System.arraycopy(DEFAULT_DHT, 0, dst, 2, DEFAULT_DHT.length);
+        System.arraycopy(src, 2, dst, 2 + DEFAULT_DHT.length, length - 2);
+        return length + DEFAULT_DHT.length;
+    }
+
+    /**
+     * 把一帧 MJPEG 变成可以直接保存的 JPEG 文件内容，不经过解码，适合拍照和存档。
+     * 已经带有 DHT 时只做拷贝。
+     */
+    public static byte[] toJpeg(byte[] frame, int length) {
+        if (hasHuffmanTables(frame, length)) {
+            byte[] jpeg = new byte[length];
+            System.arraycopy(frame, 0, jpeg, 0, length);
+            return jpeg;
+        }
+
+        byte[] jpeg = new byte[length + DEFAULT_DHT.length];
+        insertHuffmanTables(frame, length, jpeg);
+        return jpeg;
+    }
+}
@@ -0,0 +1,28 @@
+package pri.tool.v4l2camera;
+
+/**
+ * 采集参数协商的目标，见 {@link V4L2Camera#negotiate(NegotiationTarget)}。
+ */
+public class NegotiationTarget {
+
+    //USB 2.0 同步传输实际能用的带宽，字节每秒
+    public final static long USB2_BANDWIDTH = 24L * 1000 * 1000;
+
+    public int width;
+    public int height;
+    public float minFps;
+    public long maxBandwidth;  //字节每秒，0 表示不限制
+    public int outputFormat;   //使用方需要的数据格式，ImageUtils.RGBA/YUYV/MJPEG
+
+    public NegotiationTarget(int width, int height, float minFps) {
+        this(width, height, minFps, 0, ImageUtils.RGBA);
+    }
+
+    public NegotiationTarget(int width, int height, float minFps, long maxBandwidth, int outputFormat) {
+        this.width = width;
+        this.height = height;
+        this.minFps = minFps;
+        this.maxBandwidth = maxBandwidth;
+        this.outputFormat = outputFormat;
+    }
+}
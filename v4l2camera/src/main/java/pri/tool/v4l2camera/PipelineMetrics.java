@@ -0,0 +1,111 @@
+package pri.tool.v4l2camera;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import pri.tool.bean.StageSnapshot;
+
+/**
+ * 进程内的流水线指标注册表。
+ *
+ * Java 的阶段通过 {@link #stage(String)} 注册并直接记录；native 的阶段（采集、转换、JNI 拷贝等）
+ * 由 {@link V4L2Camera} 作为 {@link Source} 在快照时读取。开销只有每个样本一次原子加，
+ * 可以在线上设备长期开启，{@link #startDump(long)} 定期把上一周期的统计输出到 logcat。
+ */
+public final class PipelineMetrics {
+    private final static String TAG = "PipelineMetrics";
+
+    /**
+     * 快照时才读取数据的指标来源。
+     */
+    public interface Source {
+        void collect(List<StageSnapshot> out, boolean reset);
+    }
+
+    private final static PipelineMetrics sInstance = new PipelineMetrics();
+
+    private final Map<String, StageMetrics> stages = new LinkedHashMap<>();
+    private final List<Source> sources = new CopyOnWriteArrayList<>();
+    private Timer dumpTimer;
+
+    public static PipelineMetrics getInstance() {
+        return sInstance;
+    }
+
+    PipelineMetrics() {
+    }
+
+    /**
+     * 获取或者注册一个阶段，同名的阶段共享统计。调用方应当保存返回值，不要每帧查找。
+     */
+    public synchronized StageMetrics stage(String name) {
+        StageMetrics stage = stages.get(name);
+        if (stage == null) {
+            stage = new StageMetrics(name);
+            stages.put(name, stage);
+        }
+        return stage;
+    }
+
+    public void addSource(Source source) {
+        sources.add(source);
+    }
+
+    public void removeSource(Source source) {
+        sources.remove(source);
+    }
+
+    /**
+     * 所有阶段的统计，先列出 native 来源再列出 Java 阶段。
+     *
+     * @param reset 是否清零，定期输出开启时由它负责清零，其他调用方应当传 false
+     */
+    public List<StageSnapshot> snapshot(boolean reset) {
+        List<StageSnapshot> snapshots = new ArrayList<>();
+        for (Source source : sources) {
+            source.collect(snapshots, reset);
+        }
+
+        List<StageMetrics> registered;
+        synchronized (this) {
+            registered = new ArrayList<>(stages.values());
+        }
+        for (StageMetrics stage : registered) {
+            snapshots.add(stage.snapshot(reset));
+        }
+        return snapshots;
+    }
+
+    /**
+     * 每隔 periodMs 把这一周期的统计输出到 logcat 并清零。
+     */
+    public synchronized void startDump(long periodMs) {
+        stopDump();
+
+        dumpTimer = new Timer(TAG, true);
+        dumpTimer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                for (StageSnapshot snapshot : snapshot(true)) {
+                    if (snapshot.count != 0 || snapshot.drops != 0) {
+                        Log.i(TAG, snapshot.toString());
+                    }
+                }
+            }
+        }, periodMs, periodMs);
+    }
+
+    public synchronized void stopDump() {
+        if (dumpTimer != null) {
+            dumpTimer.cancel();
+            dumpTimer = null;
+        }
+    }
+}
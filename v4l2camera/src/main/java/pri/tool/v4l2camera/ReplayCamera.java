@@ -0,0 +1,223 @@
+package pri.tool.v4l2camera;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 回放 {@link FrameFile} 中录制的帧，回调约定与 {@link V4L2Camera} 相同，用来在没有摄像头时复现问题和测量吞吐。
+ *
+ * 帧的格式、尺寸、时间戳和序号都保持录制时的值。{@link #MODE_PACED} 按录制时的间隔回调，
+ * {@link #MODE_FAST} 上一次回调返回后立即回调下一帧，回调的耗时决定吞吐，用 {@link #getFramesPerSecond()} 读取。
+ * 循环回放时每一轮的时间戳和序号接着上一轮递增。回放到末尾且不循环时回调 {@link V4L2Camera#ERROR_END_OF_STREAM}，
+ * 此时回放已经结束，不需要 stopPreview 就可以再次 startPreview，包括在这个回调中。
+ *
+ * 为了不在每帧分配大数组，尺寸不变时 {@link IDataCallback} 收到的是同一个 byte[]，只在回调期间有效。
+ */
+public class ReplayCamera implements IFrameSource {
+
+    public final static int MODE_PACED = 0;
+    public final static int MODE_FAST = 1;
+
+    private final static String THREAD_NAME = "ReplayCamera";
+
+    private final File file;
+    private IStateCallback stateCallback;
+    private FrameFile frames;
+    private volatile int mode = MODE_PACED;
+    private volatile boolean loop;
+
+    //回放线程退出前在锁内清空
+    private volatile Thread playThread;
+    private volatile boolean playing;
+    private volatile long deliveredFrames;
+    private volatile long playStartNanos;
+    private volatile long playEndNanos;
+
+    private final StageMetrics deliverStage = PipelineMetrics.getInstance().stage("replay.deliver");
+
+    public ReplayCamera(File file) {
+        this.file = file;
+    }
+
+    public void init(IStateCallback callback) {
+        stateCallback = callback;
+    }
+
+    /**
+     * 回放模式，下一次 startPreview 生效。
+     */
+    public void setMode(int mode) {
+        this.mode = mode;
+    }
+
+    public void setLoop(boolean loop) {
+        this.loop = loop;
+    }
+
+    @Override
+    public void open() {
+        try {
+            frames = FrameFile.open(file);
+        } catch (IOException e) {
+            frames = null;
+        }
+
+        if (frames != null && frames.getFrameCount() > 0) {
+            if (stateCallback != null) {
+                stateCallback.onOpened();
+            }
+        } else {
+            frames = null;
+            if (stateCallback != null) {
+                stateCallback.onError(V4L2Camera.ERROR_OPEN_FAIL);
+            }
+        }
+    }
+
+    public FrameFile getFrameFile() {
+        return frames;
+    }
+
+    @Override
+    public synchronized void startPreview(IDataCallback callback) {
+        if (frames == null || playThread != null) {
+            if (stateCallback != null) {
+                stateCallback.onError(V4L2Camera.ERROR_PREVIEW_FAIL);
+            }
+            return;
+        }
+
+        final FrameFile source = frames;
+        final int playMode = mode;
+        deliveredFrames = 0;
+        playStartNanos = System.nanoTime();
+        playEndNanos = 0;
+        playing = true;
+        playThread = new Thread(() -> play(source, playMode, callback), THREAD_NAME);
+        playThread.start();
+    }
+
+    @Override
+    public synchronized void stopPreview() {
+        Thread thread = playThread;
+        if (thread == null) {
+            return;
+        }
+
+        playing = false;
+        LockSupport.unpark(thread);
+        if (thread == Thread.currentThread()) {
+            playThread = null;
+            return;
+        }
+        //wait 释放锁，回放线程退出时清空 playThread 并唤醒
+        while (playThread == thread) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        stopPreview();
+        frames = null;
+    }
+
+    @Override
+    public void release() {
+        close();
+        stateCallback = null;
+    }
+
+    /**
+     * 本次回放已经回调的帧数。
+     */
+    public long getDeliveredFrames() {
+        return deliveredFrames;
+    }
+
+    /**
+     * 本次回放的平均帧率，{@link #MODE_FAST} 时就是下游能承受的最大吞吐。
+     */
+    public double getFramesPerSecond() {
+        long end = playEndNanos != 0 ? playEndNanos : System.nanoTime();
+        long elapsed = end - playStartNanos;
+        return elapsed > 0 ? deliveredFrames * 1e9 / elapsed : 0;
+    }
+
+    //在回调中 stopPreview 后又 startPreview 时，旧的回放线程也要停下
+    private boolean isPlaying() {
+        return playing && playThread == Thread.currentThread();
+    }
+
+    private void play(FrameFile source, int playMode, IDataCallback callback) {
+        int count = source.getFrameCount();
+        long firstTimestampUs = source.getTimestampUs(0);
+        long lastTimestampUs = source.getTimestampUs(count - 1);
+        //下一轮接在最后一帧之后，间隔取平均帧间隔
+        long loopDurationUs = lastTimestampUs - firstTimestampUs
+                + (count > 1 ? (lastTimestampUs - firstTimestampUs) / (count - 1) : 1);
+        int loopSequences = source.getSequence(count - 1) - source.getSequence(0) + 1;
+
+        byte[] data = null;
+        long timestampOffsetUs = 0;
+        int sequenceOffset = 0;
+        long startNanos = System.nanoTime();
+        boolean finished = false;
+
+        while (isPlaying() && !finished) {
+            for (int i = 0; i < count && isPlaying(); i++) {
+                long timestampUs = source.getTimestampUs(i) + timestampOffsetUs;
+
+                if (playMode == MODE_PACED) {
+                    long due = startNanos + (timestampUs - firstTimestampUs) * 1000;
+                    long wait;
+                    while (isPlaying() && (wait = due - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    if (!isPlaying()) {
+                        break;
+                    }
+                }
+
+                int length = source.getLength(i);
+                if (data == null || data.length != length) {
+                    data = new byte[length];
+                }
+                source.read(i, data);
+
+                long start = System.nanoTime();
+                callback.onDataCallback(data, source.getFormat(i), source.getWidth(i), source.getHeight(i),
+                        timestampUs, source.getSequence(i) + sequenceOffset);
+                deliverStage.recordSince(start);
+                deliveredFrames++;
+            }
+
+            if (!loop) {
+                finished = true;
+            }
+            timestampOffsetUs += loopDurationUs;
+            sequenceOffset += loopSequences;
+        }
+
+        playEndNanos = System.nanoTime();
+        boolean endOfStream;
+        synchronized (this) {
+            endOfStream = finished && isPlaying();
+            if (playThread == Thread.currentThread()) {
+                playThread = null;
+                playing = false;
+            }
+            notifyAll();
+        }
+        IStateCallback state = stateCallback;
+        if (endOfStream && state != null) {
+            state.onError(V4L2Camera.ERROR_END_OF_STREAM);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package pri.tool.v4l2camera;
+
+/**
+ * {@link V4L2Camera#chooseOptimalSize(int, int)} 的选择逻辑，不依赖 Android 类，也不分配内存。
+ */
+public final class SizeChooser {
+
+    private SizeChooser() {
+    }
+
+    /**
+     * 有与目标完全相同的尺寸时选它，否则在宽高都不小于 max(min(width, height), minimumSize) 的尺寸中选面积最小的，
+     * 都不满足时选第一个。
+     *
+     * @return 选中尺寸的下标，count 为 0 时返回 -1
+     */
+    public static int choose(int[] widths, int[] heights, int count, int width, int height, int minimumSize) {
+        if (count <= 0) {
+            return -1;
+        }
+
+        final int minSize = Math.max(Math.min(width, height), minimumSize);
+        int chosen = -1;
+        long chosenArea = Long.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            if (widths[i] == width && heights[i] == height) {
+                return i;
+            }
+
+            if (widths[i] >= minSize && heights[i] >= minSize) {
+                long area = (long) widths[i] * heights[i];
+                if (area < chosenArea) {
+                    chosen = i;
+                    chosenArea = area;
+                }
+            }
+        }
+
+        return chosen >= 0 ? chosen : 0;
+    }
+}
@@ -0,0 +1,54 @@
+package pri.tool.v4l2camera;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import pri.tool.bean.StageSnapshot;
+
+/**
+ * 一个流水线阶段的耗时直方图和丢帧计数，通过 {@link PipelineMetrics#stage(String)} 获取。
+ *
+ * <pre>
+ * long start = System.nanoTime();
+ * ...
+ * stage.recordSince(start);
+ * </pre>
+ */
+public final class StageMetrics {
+    private final String name;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final AtomicLong drops = new AtomicLong();
+
+    StageMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void record(long us) {
+        histogram.record(us);
+    }
+
+    public void recordSince(long startNanos) {
+        histogram.recordSince(startNanos);
+    }
+
+    /**
+     * 这个阶段丢弃或者跳过的帧数。
+     */
+    public void addDrops(long count) {
+        drops.addAndGet(count);
+    }
+
+    public StageSnapshot snapshot(boolean reset) {
+        long[] counts = histogram.snapshot(reset);
+        return newSnapshot(name, counts, reset ? drops.getAndSet(0) : drops.get());
+    }
+
+    static StageSnapshot newSnapshot(String name, long[] counts, long drops) {
+        return new StageSnapshot(name, LatencyHistogram.count(counts), drops,
+                LatencyHistogram.percentile(counts, 50), LatencyHistogram.percentile(counts, 99),
+                LatencyHistogram.max(counts));
+    }
+}
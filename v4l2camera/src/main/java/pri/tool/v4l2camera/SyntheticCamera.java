@@ -0,0 +1,267 @@
+package pri.tool.v4l2camera;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 生成测试图案的帧来源，回调约定与 {@link V4L2Camera} 相同，用来做并发压测，不依赖 Android 类。
+ *
+ * 图案是竖直彩条叠加棋盘格，每帧向上滚动两行，所以每帧都不同，变化检测不会跳过。
+ * 支持 {@link ImageUtils} 中除 MJPEG 以外的格式，宽高必须是偶数。
+ * fps 大于 0 时按固定节奏出帧，回调太慢错过的帧像驱动一样直接跳过，序号留出空洞，计入 {@link #getSkippedFrames()}；
+ * fps 不大于 0 时上一次回调返回后立即出下一帧。
+ * 时间戳取出帧时的 {@link System#nanoTime()}，与 V4L2 的 CLOCK_MONOTONIC 时间戳同一时钟，可以直接算端到端延迟。
+ * 回调收到的 byte[] 每帧复用，只在回调期间有效。
+ */
+public class SyntheticCamera implements IFrameSource {
+
+    private final static String THREAD_NAME = "SyntheticCamera";
+
+    //每帧滚动的行数，保持偶数，4:2:0 的色度平面正好滚动一行
+    private final static int SCROLL_ROWS = 2;
+
+    //彩条颜色，0xRRGGBB
+    private final static int[] BARS = {
+            0xffffff, 0xffff00, 0x00ffff, 0x00ff00, 0xff00ff, 0xff0000, 0x0000ff, 0x000000};
+    private final static int CHECKER_SIZE = 16;
+
+    private final int format;
+    private final int width;
+    private final int height;
+    private final int fps;
+    private final byte[] pattern;
+
+    private IStateCallback stateCallback;
+    private Thread generateThread;
+    private volatile boolean running;
+    private volatile long generatedFrames;
+    private volatile long skippedFrames;
+
+    /**
+     * @throws IllegalArgumentException 格式不支持或者宽高不是正偶数
+     */
+    public SyntheticCamera(int format, int width, int height, int fps) {
+        if (!isSupported(format, width, height)) {
+            throw new IllegalArgumentException("Unsupported synthetic frame " + format + " " + width + "x" + height);
+        }
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.fps = fps;
+        this.pattern = new byte[ColorConverter.getFrameSize(format, width, height)];
+        drawPattern(pattern, format, width, height);
+    }
+
+    public static boolean isSupported(int format, int width, int height) {
+        return ColorConverter.getFrameSize(format, width, height) >= 0
+                && width > 0 && height > 0 && width % 2 == 0 && height % 2 == 0;
+    }
+
+    public void init(IStateCallback callback) {
+        stateCallback = callback;
+    }
+
+    public int getFormat() {
+        return format;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void open() {
+        if (stateCallback != null) {
+            stateCallback.onOpened();
+        }
+    }
+
+    /**
+     * @throws IllegalStateException 已经在出帧
+     */
+    @Override
+    public synchronized void startPreview(IDataCallback callback) {
+        if (generateThread != null) {
+            throw new IllegalStateException("synthetic camera already started");
+        }
+
+        generatedFrames = 0;
+        skippedFrames = 0;
+        running = true;
+        generateThread = new Thread(() -> generate(callback), THREAD_NAME);
+        generateThread.start();
+    }
+
+    @Override
+    public synchronized void stopPreview() {
+        Thread thread = generateThread;
+        if (thread == null) {
+            return;
+        }
+
+        running = false;
+        LockSupport.unpark(thread);
+        if (thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        generateThread = null;
+    }
+
+    @Override
+    public void close() {
+        stopPreview();
+    }
+
+    @Override
+    public void release() {
+        close();
+        stateCallback = null;
+    }
+
+    public long getGeneratedFrames() {
+        return generatedFrames;
+    }
+
+    /**
+     * 因为回调太慢而没有生成的帧数，相当于驱动丢帧。
+     */
+    public long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    private void generate(IDataCallback callback) {
+        byte[] frame = new byte[pattern.length];
+        long intervalNs = fps > 0 ? 1000000000L / fps : 0;
+        long startNs = System.nanoTime();
+        int sequence = 0;
+
+        while (running) {
+            if (intervalNs > 0) {
+                long due = startNs + sequence * intervalNs;
+                long now = System.nanoTime();
+                if (now - due >= intervalNs) {
+                    //错过的帧不再补发
+                    int missed = (int) ((now - due) / intervalNs);
+                    sequence += missed;
+                    skippedFrames += missed;
+                    due += missed * intervalNs;
+                }
+                long wait;
+                while (running && (wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                if (!running) {
+                    break;
+                }
+            }
+
+            scroll(pattern, frame, format, width, height, sequence);
+            callback.onDataCallback(frame, format, width, height, System.nanoTime() / 1000, sequence);
+            generatedFrames++;
+            sequence++;
+        }
+    }
+
+    /**
+     * 把图案向上滚动 frameNumber * SCROLL_ROWS 行写入 dst，每个平面最多两次数组拷贝。
+     */
+    static void scroll(byte[] src, byte[] dst, int format, int width, int height, int frameNumber) {
+        int rows = (int) ((long) frameNumber * SCROLL_ROWS % height);
+        switch (format) {
+            case ImageUtils.YUYV:
+                scrollPlane(src, dst, 0, width * 2, height, rows);
+                break;
+            case ImageUtils.RGBA:
+                scrollPlane(src, dst, 0, width * 4, height, rows);
+                break;
+            case ImageUtils.NV21:
+                scrollPlane(src, dst, 0, width, height, rows);
+                scrollPlane(src, dst, width * height, width, height / 2, rows / 2);
+                break;
+            case ImageUtils.YV12: {
+                int chromaSize = (width / 2) * (height / 2);
+                scrollPlane(src, dst, 0, width, height, rows);
+                scrollPlane(src, dst, width * height, width / 2, height / 2, rows / 2);
+                scrollPlane(src, dst, width * height + chromaSize, width / 2, height / 2, rows / 2);
+                break;
+            }
+        }
+    }
+
+    private static void scrollPlane(byte[] src, byte[] dst, int base, int stride, int rows, int shift) {
+        int head = shift * stride;
+        int size = rows * stride;
+        System.arraycopy(src, base + head, dst, base, size - head);
+        System.arraycopy(src, base, dst, base + size - head, head);
+    }
+
+    //BT.601 studio range
+    private static int luma(int rgb) {
+        int r = (rgb >> 16) & 0xff, g = (rgb >> 8) & 0xff, b = rgb & 0xff;
+        return ((66 * r + 129 * g + 25 * b + 128) >> 8) + 16;
+    }
+
+    private static int chromaU(int rgb) {
+        int r = (rgb >> 16) & 0xff, g = (rgb >> 8) & 0xff, b = rgb & 0xff;
+        return ((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128;
+    }
+
+    private static int chromaV(int rgb) {
+        int r = (rgb >> 16) & 0xff, g = (rgb >> 8) & 0xff, b = rgb & 0xff;
+        return ((112 * r - 94 * g - 18 * b + 128) >> 8) + 128;
+    }
+
+    private static int color(int x, int y, int width) {
+        int rgb = BARS[x * BARS.length / width];
+        //棋盘格的暗格亮度减半
+        if (((x / CHECKER_SIZE) + (y / CHECKER_SIZE)) % 2 != 0) {
+            rgb = (rgb >> 1) & 0x7f7f7f;
+        }
+        return rgb;
+    }
+
+    static void drawPattern(byte[] dst, int format, int width, int height) {
+        int chromaWidth = width / 2;
+        int chromaSize = chromaWidth * (height / 2);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb = color(x, y, width);
+                int pixel = y * width + x;
+                switch (format) {
+                    case ImageUtils.RGBA:
+                        dst[pixel * 4] = (byte) (rgb >> 16);
+                        dst[pixel * 4 + 1] = (byte) (rgb >> 8);
+                        dst[pixel * 4 + 2] = (byte) rgb;
+                        dst[pixel * 4 + 3] = (byte) 0xff;
+                        break;
+                    case ImageUtils.YUYV:
+                        dst[pixel * 2] = (byte) luma(rgb);
+                        //偶数像素带 U，奇数像素带 V，取像素对中左边的颜色
+                        dst[pixel * 2 + 1] = (byte) ((x & 1) == 0 ? chromaU(rgb) : chromaV(color(x - 1, y, width)));
+                        break;
+                    default:
+                        dst[pixel] = (byte) luma(rgb);
+                        if ((x & 1) == 0 && (y & 1) == 0) {
+                            int c = (y / 2) * chromaWidth + x / 2;
+                            if (format == ImageUtils.NV21) {
+                                dst[width * height + c * 2] = (byte) chromaV(rgb);
+                                dst[width * height + c * 2 + 1] = (byte) chromaU(rgb);
+                            } else {
+                                dst[width * height + c] = (byte) chromaV(rgb);
+                                dst[width * height + chromaSize + c] = (byte) chromaU(rgb);
+                            }
+                        }
+                        break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package pri.tool.v4l2camera;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 进程内的逐帧 trace，不依赖 Android 类。
+ *
+ * 每个线程第一次记录时分配一个固定大小的 ring，之后 begin/end/counter 只写三个 long，不分配内存也不加锁，
+ * 写满后覆盖最旧的事件。关闭时每次调用只有一次 volatile 读。native 层（采集、转换、回调线程）有自己的 ring，
+ * 由 {@link V4L2Camera} 注册为 {@link NativeSource}，开关和导出时一起处理。
+ *
+ * {@link #exportChromeJson(Writer)} 按需导出为 Chrome trace JSON，可以用 chrome://tracing 或 Perfetto UI 打开。
+ */
+public final class Trace {
+
+    //与 native 层 TraceRecorder.h 保持一致
+    public final static int PHASE_BEGIN = 0;
+    public final static int PHASE_END = 1;
+    public final static int PHASE_INSTANT = 2;
+    public final static int PHASE_COUNTER = 3;
+
+    final static int RING_EVENTS = 4096;
+    final static int MAX_RINGS = 32;
+    final static int EVENT_WORDS = 3;
+
+    //native 事件名，下标与 TraceRecorder.h 中的 TRACE_* 一致
+    final static String[] NATIVE_NAMES = {
+            "capture_frame", "motion_gate", "crop", "convert", "deliver",
+            "gated_frames", "dropped_frames", "queue_depth"};
+
+    //导出时用 pid 区分 Java 和 native 的线程
+    private final static int JAVA_PID = 1;
+    private final static int NATIVE_PID = 2;
+
+    /**
+     * native 层的 trace，开关和读取都在 native 层完成。
+     */
+    public interface NativeSource {
+        void setEnabled(boolean enabled);
+
+        /**
+         * 按 {@link #EVENT_WORDS} 个 long 一个事件写入 out，返回事件数。
+         */
+        int read(long[] out);
+    }
+
+    /**
+     * 单写多读：只有拥有它的线程写入，head 是已经写入的事件总数。
+     */
+    static final class Ring {
+        final long[] events = new long[RING_EVENTS * EVENT_WORDS];
+        volatile long head;
+        WeakReference<Thread> owner;
+        long tid;
+        String threadName;
+
+        void record(int phase, int name, long value) {
+            long h = head;
+            int offset = (int) (h % RING_EVENTS) * EVENT_WORDS;
+            events[offset] = System.nanoTime();
+            events[offset + 1] = ((long) phase << 56) | ((long) name << 32) | (tid & 0xffffffffL);
+            events[offset + 2] = value;
+            head = h + 1;
+        }
+    }
+
+    private static volatile boolean enabled;
+    private static NativeSource nativeSource;
+
+    private final static List<String> names = new ArrayList<>();
+    private final static List<Ring> rings = new ArrayList<>();
+    private final static ThreadLocal<Ring> threadRing = new ThreadLocal<>();
+    //ring 数量达到上限、又没有可以复用的 ring 时用来标记当前线程，不再重复查找
+    private final static Ring NO_RING = new Ring();
+
+    private Trace() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static synchronized void setEnabled(boolean enable) {
+        enabled = enable;
+        if (nativeSource != null) {
+            nativeSource.setEnabled(enable);
+        }
+    }
+
+    static synchronized void setNativeSource(NativeSource source) {
+        nativeSource = source;
+        if (source != null) {
+            source.setEnabled(enabled);
+        }
+    }
+
+    /**
+     * 注册事件名，同名返回同一个编号。调用方应当保存返回值，不要每帧注册。
+     */
+    public static synchronized int name(String name) {
+        int index = names.indexOf(name);
+        if (index < 0) {
+            names.add(name);
+            index = names.size() - 1;
+        }
+        return index;
+    }
+
+    public static void begin(int name) {
+        if (enabled) {
+            record(PHASE_BEGIN, name, 0);
+        }
+    }
+
+    public static void end(int name) {
+        if (enabled) {
+            record(PHASE_END, name, 0);
+        }
+    }
+
+    public static void instant(int name) {
+        if (enabled) {
+            record(PHASE_INSTANT, name, 0);
+        }
+    }
+
+    public static void counter(int name, long value) {
+        if (enabled) {
+            record(PHASE_COUNTER, name, value);
+        }
+    }
+
+    private static void record(int phase, int name, long value) {
+        Ring ring = threadRing.get();
+        if (ring == null) {
+            ring = acquireRing();
+            threadRing.set(ring);
+        }
+        if (ring != NO_RING) {
+            ring.record(phase, name, value);
+        }
+    }
+
+    //ring 数量达到上限后复用已经退出的线程的 ring
+    private static Ring acquireRing() {
+        Thread thread = Thread.currentThread();
+        Ring ring = null;
+
+        synchronized (rings) {
+            if (rings.size() < MAX_RINGS) {
+                ring = new Ring();
+                rings.add(ring);
+            } else {
+                for (Ring candidate : rings) {
+                    Thread owner = candidate.owner.get();
+                    if (owner == null || !owner.isAlive()) {
+                        ring = candidate;
+                        break;
+                    }
+                }
+                if (ring == null) {
+                    return NO_RING;
+                }
+            }
+
+            ring.head = 0;
+            ring.owner = new WeakReference<>(thread);
+            ring.tid = thread.getId();
+            ring.threadName = thread.getName();
+        }
+        return ring;
+    }
+
+    /**
+     * 清空 Java 层已经记录的事件，native 层不受影响。
+     */
+    static void clear() {
+        synchronized (rings) {
+            for (Ring ring : rings) {
+                ring.head = 0;
+            }
+        }
+    }
+
+    /**
+     * 导出 Java 和 native 层 ring 中现有的事件，不影响记录。
+     * 被覆盖而缺少 begin 的 end 会被丢掉，仍在进行中的 begin 在 Chrome 中显示到 trace 结束。
+     */
+    public static void exportChromeJson(Writer out) throws IOException {
+        List<String> javaNames;
+        synchronized (Trace.class) {
+            javaNames = new ArrayList<>(names);
+        }
+
+        out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+        JsonEvents json = new JsonEvents(out);
+        json.processName(JAVA_PID, "java");
+        json.processName(NATIVE_PID, "native");
+
+        List<Ring> snapshot;
+        synchronized (rings) {
+            snapshot = new ArrayList<>(rings);
+        }
+        long[] buffer = new long[RING_EVENTS * EVENT_WORDS];
+        for (Ring ring : snapshot) {
+            int count = copyRing(ring, buffer);
+            if (count > 0) {
+                json.threadName(JAVA_PID, ring.tid, ring.threadName);
+                json.events(JAVA_PID, buffer, count, javaNames);
+            }
+        }
+
+        NativeSource source;
+        synchronized (Trace.class) {
+            source = nativeSource;
+        }
+        if (source != null) {
+            long[] nativeEvents = new long[MAX_RINGS * RING_EVENTS * EVENT_WORDS];
+            json.events(NATIVE_PID, nativeEvents, source.read(nativeEvents), null);
+        }
+
+        out.write("\n]}\n");
+        out.flush();
+    }
+
+    //拷贝期间被覆盖的事件丢掉，返回有效的事件数，结果从 buffer 开头开始。
+    //写入线程可能正在写第 head 个事件，和第 head - RING_EVENTS 个在同一格，也不能导出
+    static int copyRing(Ring ring, long[] buffer) {
+        long end = ring.head;
+        long start = Math.max(0, end - RING_EVENTS);
+        int count = (int) (end - start);
+        for (int i = 0; i < count; i++) {
+            int offset = (int) ((start + i) % RING_EVENTS) * EVENT_WORDS;
+            System.arraycopy(ring.events, offset, buffer, i * EVENT_WORDS, EVENT_WORDS);
+        }
+
+        long overwritten = Math.max(0, ring.head + 1 - RING_EVENTS - start);
+        if (overwritten >= count) {
+            return 0;
+        }
+        if (overwritten > 0) {
+            System.arraycopy(buffer, (int) overwritten * EVENT_WORDS, buffer, 0,
+                    (int) (count - overwritten) * EVENT_WORDS);
+        }
+        return count - (int) overwritten;
+    }
+
+    private static final class JsonEvents {
+        private final Writer out;
+        private boolean first = true;
+        private final StringBuilder line = new StringBuilder(128);
+
+        JsonEvents(Writer out) {
+            this.out = out;
+        }
+
+        private void open() throws IOException {
+            if (!first) {
+                out.write(",\n");
+            }
+            first = false;
+            line.setLength(0);
+        }
+
+        void processName(int pid, String name) throws IOException {
+            open();
+            line.append("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":").append(pid)
+                    .append(",\"args\":{\"name\":");
+            appendString(line, name);
+            line.append("}}");
+            out.write(line.toString());
+        }
+
+        void threadName(int pid, long tid, String name) throws IOException {
+            open();
+            line.append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":").append(pid)
+                    .append(",\"tid\":").append(tid).append(",\"args\":{\"name\":");
+            appendString(line, name);
+            line.append("}}");
+            out.write(line.toString());
+        }
+
+        //nameTable 为 null 时按 native 事件名解析
+        void events(int pid, long[] events, int count, List<String> nameTable) throws IOException {
+            Map<Long, Integer> depth = new HashMap<>();
+
+            for (int i = 0; i < count; i++) {
+                long timestampNs = events[i * EVENT_WORDS];
+                long meta = events[i * EVENT_WORDS + 1];
+                long value = events[i * EVENT_WORDS + 2];
+                int phase = (int) (meta >>> 56);
+                int name = (int) ((meta >>> 32) & 0xffffff);
+                long tid = meta & 0xffffffffL;
+
+                Integer open = depth.get(tid);
+                int level = open == null ? 0 : open;
+                if (phase == PHASE_BEGIN) {
+                    depth.put(tid, level + 1);
+                } else if (phase == PHASE_END) {
+                    if (level == 0) {
+                        continue;
+                    }
+                    depth.put(tid, level - 1);
+                }
+
+                String eventName;
+                if (nameTable != null) {
+                    eventName = name < nameTable.size() ? nameTable.get(name) : "event_" + name;
+                } else {
+                    eventName = name < NATIVE_NAMES.length ? NATIVE_NAMES[name] : "native_" + name;
+                }
+
+                open();
+                line.append("{\"name\":");
+                appendString(line, eventName);
+                line.append(",\"ph\":\"").append(phaseCode(phase)).append("\",\"ts\":")
+                        .append(timestampNs / 1000).append('.');
+                long fraction = timestampNs % 1000;
+                if (fraction < 100) {
+                    line.append('0');
+                }
+                if (fraction < 10) {
+                    line.append('0');
+                }
+                line.append(fraction).append(",\"pid\":").append(pid).append(",\"tid\":").append(tid);
+                if (phase == PHASE_COUNTER) {
+                    line.append(",\"args\":{\"value\":").append(value).append('}');
+                } else if (phase == PHASE_INSTANT) {
+                    line.append(",\"s\":\"t\"");
+                }
+                line.append('}');
+                out.write(line.toString());
+            }
+        }
+
+        private static String phaseCode(int phase) {
+            switch (phase) {
+                case PHASE_BEGIN:
+                    return "B";
+                case PHASE_END:
+                    return "E";
+                case PHASE_COUNTER:
+                    return "C";
+                default:
+                    return "i";
+            }
+        }
+
+        private static void appendString(StringBuilder builder, String value) {
+            builder.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    builder.append('\\').append(c);
+                } else if (c < 0x20) {
+                    builder.append(' ');
+                } else {
+                    builder.append(c);
+                }
+            }
+            builder.append('"');
+        }
+    }
+}
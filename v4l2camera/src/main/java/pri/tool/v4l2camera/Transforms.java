@@ -0,0 +1,95 @@
+package pri.tool.v4l2camera;
+
+/**
+ * {@link ImageUtils#getTransformationMatrix} 的计算部分，结果按 android.graphics.Matrix#setValues 的顺序
+ * 写入 3x3 数组，不依赖 Android 类，也不分配内存。
+ */
+public final class Transforms {
+
+    private Transforms() {
+    }
+
+    /**
+     * @param values 长度至少为 9，依次为 scaleX, skewX, transX, skewY, scaleY, transY, persp0, persp1, persp2
+     */
+    public static void getTransformation(
+            final int srcWidth,
+            final int srcHeight,
+            final int dstWidth,
+            final int dstHeight,
+            final int applyRotation,
+            final boolean maintainAspectRatio,
+            final float[] values) {
+        setIdentity(values);
+
+        if (applyRotation != 0) {
+            // Translate so center of image is at origin, then rotate around origin.
+            postTranslate(values, -srcWidth / 2.0f, -srcHeight / 2.0f);
+            postRotate(values, applyRotation);
+        }
+
+        // Account for the already applied rotation, if any, and then determine how
+        // much scaling is needed for each axis.
+        final boolean transpose = (Math.abs(applyRotation) + 90) % 180 == 0;
+
+        final int inWidth = transpose ? srcHeight : srcWidth;
+        final int inHeight = transpose ? srcWidth : srcHeight;
+
+        if (inWidth != dstWidth || inHeight != dstHeight) {
+            final float scaleFactorX = dstWidth / (float) inWidth;
+            final float scaleFactorY = dstHeight / (float) inHeight;
+
+            if (maintainAspectRatio) {
+                final float scaleFactor = Math.max(scaleFactorX, scaleFactorY);
+                postScale(values, scaleFactor, scaleFactor);
+            } else {
+                postScale(values, scaleFactorX, scaleFactorY);
+            }
+        }
+
+        if (applyRotation != 0) {
+            // Translate back from origin centered reference to destination frame.
+            postTranslate(values, dstWidth / 2.0f, dstHeight / 2.0f);
+        }
+    }
+
+    static void setIdentity(float[] m) {
+        m[0] = 1; m[1] = 0; m[2] = 0;
+        m[3] = 0; m[4] = 1; m[5] = 0;
+        m[6] = 0; m[7] = 0; m[8] = 1;
+    }
+
+    static void postTranslate(float[] m, float dx, float dy) {
+        m[2] += dx;
+        m[5] += dy;
+    }
+
+    static void postScale(float[] m, float sx, float sy) {
+        m[0] *= sx; m[1] *= sx; m[2] *= sx;
+        m[3] *= sy; m[4] *= sy; m[5] *= sy;
+    }
+
+    static void postRotate(float[] m, float degrees) {
+        float sin;
+        float cos;
+        //90 度的整数倍直接取精确值，和 Matrix 一样不留下 1e-8 量级的误差
+        if (degrees % 90 == 0) {
+            int quarter = (((int) degrees / 90) % 4 + 4) % 4;
+            sin = quarter == 1 ? 1 : quarter == 3 ? -1 : 0;
+            cos = quarter == 0 ? 1 : quarter == 2 ? -1 : 0;
+        } else {
+            double radians = Math.toRadians(degrees);
+            sin = (float) Math.sin(radians);
+            cos = (float) Math.cos(radians);
+        }
+
+        float a = m[0], b = m[1], c = m[2];
+        float d = m[3], e = m[4], f = m[5];
+        m[0] = cos * a - sin * d;
+        m[1] = cos * b - sin * e;
+        m[2] = cos * c - sin * f;
+        m[3] = sin * a + cos * d;
+        m[4] = sin * b + cos * e;
+        m[5] = sin * c + cos * f;
+    }
+}
@@ -2,7 +2,6 @@ package pri.tool.v4l2camera;
 
 import android.content.Context;
 import android.os.Build;
-import android.text.TextUtils;
 import android.util.Log;
 import android.util.Size;
 import android.view.Surface;
@@ -11,19 +10,20 @@ import android.view.SurfaceHolder;
 import androidx.annotation.RequiresApi;
 
 
+import java.io.File;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
+import pri.tool.bean.DeviceInfo;
 import pri.tool.bean.Frame;
-import pri.tool.bean.FrameRate;
 import pri.tool.bean.Parameter;
+import pri.tool.bean.StageSnapshot;
 
 import static pri.tool.v4l2camera.ImageUtils.YUYV;
 
 
-public class V4L2Camera{
+public class V4L2Camera implements IFrameSource {
     private final static String TAG ="V4LCamera";
 
     public static final int MINIMUM_PREVIEW_SIZE = 320;
@@ -35,18 +35,100 @@ public class V4L2Camera{
     public final static int ERROR_CAPABILITY_UNSUPPORT = -4;
     public final static int ERROR_OPEN_FAIL = -5;
     public final static int ERROR_PREVIEW_FAIL = -6;
+    public final static int ERROR_FRAME_TIMEOUT = -7;  //超过 frameTimeout 没有收到帧，出帧后才会再次报告
+    public final static int ERROR_DEVICE_STALLED = -8;  //超过 stallTimeout 没有收到帧
+    public final static int ERROR_DEVICE_LOST = -9;  //设备拔出或驱动出错，采集已停止
+    public final static int ERROR_END_OF_STREAM = -10;  //ReplayCamera 回放到文件末尾
+
+    public final static String DEFAULT_DEVICE = "/dev/video0";
+
+    //采集 ring 的 buffer 数量，与 native 层 V4L2Camera.h 保持一致
+    public final static int DEFAULT_BUFFER_COUNT = 4;
+    public final static int MIN_BUFFER_COUNT = 2;
+    public final static int MAX_BUFFER_COUNT = 32;
+
+    //采集等待超时，与 native 层 V4L2Camera.h 保持一致
+    public final static int DEFAULT_FRAME_TIMEOUT_MS = 1000;
+    public final static int DEFAULT_STALL_TIMEOUT_MS = 5000;
+
+    //停止预览时等待零拷贝租约归还的时间，超时后租约失效，buffer 的映射保留到租约 release
+    public final static long LEASE_DRAIN_TIMEOUT_MS = 1000;
+
+    //native 阶段编号，与 native 层 StageMetrics.h 保持一致
+    final static int STAGE_DRIVER = 0;  //内核时间戳到出队
+    final static int STAGE_DEQUEUE = 1;  //poll + VIDIOC_DQBUF 等待
+    final static int STAGE_CONVERT = 2;  //YUYV 到 RGBA 转换
+    final static int STAGE_JNI_COPY = 3;  //拷贝进 Java byte[]
+    final static int STAGE_CALLBACK = 4;  //Java 回调执行时间
+    final static int STAGE_GATE = 5;  //变化检测
+    final static int STAGE_CROP = 6;  //ROI 裁剪和缩小
+    private final static String[] STAGE_NAMES = {"driver", "dequeue", "convert", "jni_copy", "callback", "motion_gate", "crop"};
+
+    //变化检测的默认参数，见 setMotionGate
+    public final static int DEFAULT_GATE_LUMA_THRESHOLD = 12;
+    public final static int DEFAULT_GATE_CHANGED_PERMILLE = 5;
+    public final static int DEFAULT_GATE_KEEP_ALIVE_MS = 1000;
 
     IStateCallback stateCallback; //状态回调，如打开camera成功失败状态，其他异常
     IDataCallback dataCallback;  //camera 数据回调
+    IFrameCallback frameCallback;  //camera 零拷贝数据回调
+    FrameLease[] frameLeases;  //按 buffer index 复用的租约
+    //以下由 leaseLock 保护：stop 时不再发出新的租约，等待已发出的归还后代数加一，旧的租约全部失效
+    private final Object leaseLock = new Object();
+    private boolean leasesRevoked = true;
+    private int outstandingLeases;
+    private int leaseGeneration;
+    volatile FrameRecorder recorder;  //录制回调给 Java 的帧
 
     Size mPreviewSize;
+    int previewFormat = YUYV;
+    String devicePath;
+
+    //设备能力缓存，init 时传入 Context 才启用
+    private final static String CAPABILITY_CACHE_DIR = "v4l2caps";
+    CapabilityCache capabilityCache;
+    ArrayList<Parameter> parameters;
+
+    //native 阶段的统计在快照时读取，驱动丢帧计入 driver，回调队列丢帧计入 callback，变化检测跳过的帧计入 motion_gate，
+    //分配 Java 数组失败的帧计入 jni_copy
+    private final PipelineMetrics.Source metricsSource = new PipelineMetrics.Source() {
+        @Override
+        public void collect(List<StageSnapshot> out, boolean reset) {
+            collectMetrics(out, reset);
+        }
+    };
+    private long reportedDriverDrops;
+    private long reportedDeliveryDrops;
+    private long reportedGatedFrames;
+    private long reportedCopyDrops;
+    //collectMetrics 读取直方图用，同步在 this 上，newSnapshot 只读取不保留
+    private final long[] histogramScratch = new long[LatencyHistogram.BUCKET_COUNT];
+
+    //native V4L2Camera 指针，由 native 层读写
+    private long mNativeContext;
 
     static {
         System.loadLibrary("v4l-android");
+
+        //native 层的 trace 是进程级的，与 Java 层一起开关和导出
+        Trace.setNativeSource(new Trace.NativeSource() {
+            @Override
+            public void setEnabled(boolean enabled) {
+                native_setTraceEnabled(enabled);
+            }
+
+            @Override
+            public int read(long[] out) {
+                return native_readTrace(out);
+            }
+        });
     }
 
     public void init(IStateCallback callback, Context context) {
         stateCallback = callback;
+        if (context != null) {
+            capabilityCache = new CapabilityCache(new File(context.getCacheDir(), CAPABILITY_CACHE_DIR));
+        }
         native_init();
     }
 
@@ -54,14 +136,35 @@ public class V4L2Camera{
      *  释放SDK资源
      */
     public void release() {
-        native_release();
+        PipelineMetrics.getInstance().removeSource(metricsSource);
+        revokeLeases();
+        //removeSource 不会打断已经开始的 collectMetrics，和它互斥后再删除 native 对象，
+        //失效的租约仍可能在其他线程 release，同样需要互斥
+        synchronized (this) {
+            synchronized (leaseLock) {
+                native_release();
+            }
+        }
         stateCallback = null;
     }
 
+    /**
+     * 打开默认设备 {@link #DEFAULT_DEVICE}。
+     */
     public void open() {
-        int ret = native_open();
+        open(DEFAULT_DEVICE);
+    }
+
+    /**
+     * 打开指定的设备节点，例如 /dev/video2。结果通过 {@link IStateCallback} 回调。
+     */
+    public void open(String devicePath) {
+        this.devicePath = devicePath;
+        parameters = null;
+        int ret = native_open(devicePath);
 
         if (ret == SUCCESS) {
+            PipelineMetrics.getInstance().addSource(metricsSource);
             stateCallback.onOpened();
         } else {
             stateCallback.onError(ERROR_OPEN_FAIL);
@@ -69,7 +172,22 @@ public class V4L2Camera{
     }
 
     public void close() {
-        native_close();
+        PipelineMetrics.getInstance().removeSource(metricsSource);
+        revokeLeases();
+        synchronized (this) {
+            native_close();
+        }
+    }
+
+    public String getDevicePath() {
+        return devicePath;
+    }
+
+    /**
+     * 枚举 /dev/video* 中支持视频采集的设备。
+     */
+    public static List<DeviceInfo> enumerateDevices() {
+        return native_enumerateDevices();
     }
 
     /**
@@ -100,33 +218,289 @@ public class V4L2Camera{
      * 开始预览。
      */
     public void startPreview(IDataCallback callback) {
+        revokeLeases();
         dataCallback = callback;
-        native_startPreview();
+        frameCallback = null;
+        native_setFrameMode(false);
+        int ret = native_startPreview();
+        if (ret != SUCCESS && stateCallback != null) {
+            stateCallback.onError(ERROR_PREVIEW_FAIL);
+        }
+
+    }
+
+    /**
+     * 开始零拷贝预览，每一帧以直接指向 mmap buffer 的 {@link FrameLease} 回调，
+     * 使用方处理完成后调用 {@link FrameLease#release()} 归还 buffer。
+     */
+    public void startPreview(IFrameCallback callback) {
+        //重新开始预览时 native 层会重新映射 buffer
+        revokeLeases();
+        frameCallback = callback;
+        dataCallback = null;
+        frameLeases = null;
+        native_setFrameMode(true);
+        int ret = native_startPreview();
+        if (ret != SUCCESS) {
+            if (stateCallback != null) {
+                stateCallback.onError(ERROR_PREVIEW_FAIL);
+            }
+            return;
+        }
 
+        synchronized (leaseLock) {
+            frameLeases = new FrameLease[native_getBufferCount()];
+            leasesRevoked = false;
+        }
     }
 
     /**
-     * 停止预览。
+     * 停止预览。零拷贝预览时先等待已经发出的 {@link FrameLease} 归还，最多 {@link #LEASE_DRAIN_TIMEOUT_MS}，
+     * 不要在持有租约的线程中调用。
      */
     public void stopPreview() {
+        revokeLeases();
         native_stopPreview();
         dataCallback = null;
+        frameCallback = null;
     }
 
-    public Size chooseOptimalSize(int desireWidth, int desireHeight) {
-
-        ArrayList<Parameter> parameters = native_getParameters();
-        for(Parameter parameter:parameters) {
-            Log.e(TAG, "support format: " + parameter.pixFormat);
-            for (Frame frame : parameter.frames) {
-                Log.e(TAG, "support frame: width:" + frame.width + ", height:" + frame.height);
-                for (FrameRate frameRate:frame.frameRate) {
-                    Log.e(TAG, "support framerate: numerator:" + frameRate.numerator + ", denominator:" + frameRate.denominator);
+    //停止之前不再发出租约，并等待已发出的归还。超时后租约失效，
+    //native 层重新映射或者删除时不会 munmap 仍被持有的 buffer，等 release 时再解除映射
+    private void revokeLeases() {
+        synchronized (leaseLock) {
+            if (leasesRevoked) {
+                return;
+            }
+            leasesRevoked = true;
+            long deadline = System.currentTimeMillis() + LEASE_DRAIN_TIMEOUT_MS;
+            long remaining = LEASE_DRAIN_TIMEOUT_MS;
+            while (outstandingLeases > 0 && remaining > 0) {
+                try {
+                    leaseLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
                 }
+                remaining = deadline - System.currentTimeMillis();
             }
+            if (outstandingLeases > 0) {
+                Log.w(TAG, outstandingLeases + " frame leases still held after stopPreview, unmapped when released");
+            }
+            outstandingLeases = 0;
+            leaseGeneration++;
+            frameLeases = null;
         }
+    }
 
-        List<Size> cameraSizes = getSupportedPreviewSizes(parameters, YUYV);
+    boolean isLeaseValid(FrameLease lease) {
+        synchronized (leaseLock) {
+            //等待归还期间 buffer 仍属于当前预览，只有代数变化后才失效
+            return lease.generation == leaseGeneration;
+        }
+    }
+
+    void releaseFrame(FrameLease lease) {
+        synchronized (leaseLock) {
+            //失效的租约已经不计数，同一个 index 可能已经属于新的预览，native 层按 buffer 地址找到保留的映射
+            if (lease.generation == leaseGeneration) {
+                outstandingLeases--;
+                leaseLock.notifyAll();
+            }
+            native_releaseFrame(lease.getIndex(), lease.buffer);
+        }
+    }
+
+    /**
+     * 设置 mmap 采集 ring 的 buffer 数量，必须在 startPreview 之前调用。
+     * 超出 [MIN_BUFFER_COUNT, MAX_BUFFER_COUNT] 的值会被截断，驱动也可能调整实际数量。
+     *
+     * @return SUCCESS，或者正在预览时返回 ERROR_STATE_ILLEGAL
+     */
+    public int setBufferCount(int count) {
+        return native_setBufferCount(count);
+    }
+
+    /**
+     * 驱动实际分配并映射的 buffer 数量，startPreview 之后有效。
+     */
+    public int getBufferCount() {
+        return native_getBufferCount();
+    }
+
+    /**
+     * 本次预览中驱动丢弃的帧数（根据 v4l2_buffer.sequence 的间隔以及出错的 buffer 统计）。
+     */
+    public int getDroppedFrameCount() {
+        return native_getDroppedFrames();
+    }
+
+    private synchronized void collectMetrics(List<StageSnapshot> out, boolean reset) {
+        //release 之后 native 对象已经删除
+        if (mNativeContext == 0) {
+            return;
+        }
+        //每次 startPreview 时 native 的丢帧计数从 0 开始
+        long driverDrops = native_getDroppedFrames();
+        long deliveryDrops = 0;
+        for (int policy = DropPolicy.LATEST_WINS; policy <= DropPolicy.BLOCK; policy++) {
+            deliveryDrops += native_getDropCount(policy);
+        }
+        if (driverDrops < reportedDriverDrops) {
+            reportedDriverDrops = 0;
+        }
+        if (deliveryDrops < reportedDeliveryDrops) {
+            reportedDeliveryDrops = 0;
+        }
+        long gatedFrames = native_getGatedFrames();
+        long copyDrops = native_getCopyDrops();
+
+        long[] counts = histogramScratch;
+        for (int stage = STAGE_DRIVER; stage <= STAGE_CROP; stage++) {
+            if (native_getStageHistogram(stage, counts, reset) != SUCCESS) {
+                continue;
+            }
+
+            long drops = 0;
+            if (stage == STAGE_DRIVER) {
+                drops = driverDrops - reportedDriverDrops;
+            } else if (stage == STAGE_CALLBACK) {
+                drops = deliveryDrops - reportedDeliveryDrops;
+            } else if (stage == STAGE_GATE) {
+                drops = gatedFrames - reportedGatedFrames;
+            } else if (stage == STAGE_JNI_COPY) {
+                drops = copyDrops - reportedCopyDrops;
+            }
+            out.add(StageMetrics.newSnapshot(devicePath + " " + STAGE_NAMES[stage], counts, drops));
+        }
+
+        if (reset) {
+            reportedDriverDrops = driverDrops;
+            reportedDeliveryDrops = deliveryDrops;
+            reportedGatedFrames = gatedFrames;
+            reportedCopyDrops = copyDrops;
+        }
+    }
+
+    /**
+     * 当前排队在驱动中、可供写入的 buffer 数量。长期接近 0 说明 ring 太小或消费太慢。
+     */
+    public int getQueueDepth() {
+        return native_getQueueDepth();
+    }
+
+    /**
+     * 设置 {@link IDataCallback} 收到的数据格式。
+     * {@link ImageUtils#YUYV} 为摄像头原始数据，{@link ImageUtils#RGBA} 时在 native 层多线程转换后再回调，
+     * 预览中也可以切换。零拷贝的 {@link IFrameCallback} 始终是原始数据。
+     * MJPEG 采集时总是回调压缩数据，需要图像的使用方用 {@link MjpegDecoder} 解码，
+     * 只需要 JPEG 的使用方（拍照、存档）用 {@link MjpegUtils#toJpeg} 直接保存，不经过解码。
+     *
+     * @return SUCCESS，或者不支持的格式返回 ERROR_CAPABILITY_UNSUPPORT
+     */
+    public int setOutputFormat(int format) {
+        return native_setOutputFormat(format);
+    }
+
+    /**
+     * 设置 native 颜色转换使用的线程数（包括采集线程自己），默认取 CPU 核数且不超过 4，下一帧生效。
+     */
+    public void setConvertThreadCount(int count) {
+        native_setConvertThreadCount(count);
+    }
+
+    /**
+     * 设置采集超时。超过 frameTimeoutMs 没有新帧时回调 {@link IStateCallback#onError} ERROR_FRAME_TIMEOUT，
+     * 超过 stallTimeoutMs 时回调 ERROR_DEVICE_STALLED，两者在收到下一帧之前都只报告一次。
+     * 设备拔出时回调 ERROR_DEVICE_LOST 并停止采集。
+     */
+    public void setCaptureTimeout(int frameTimeoutMs, int stallTimeoutMs) {
+        native_setCaptureTimeout(frameTimeoutMs, stallTimeoutMs);
+    }
+
+    /**
+     * 设置采集线程和回调线程之间的队列，必须在 startPreview 之前调用。
+     * 默认 {@link DropPolicy#LATEST_WINS}，LATEST_WINS 时 capacity 固定为 1。
+     *
+     * @param policy {@link DropPolicy} 中的取值
+     * @param capacity 队列中最多等待回调的帧数，截断到 [1, {@link DropPolicy#MAX_QUEUE_CAPACITY}]
+     * @return SUCCESS，正在预览时返回 ERROR_STATE_ILLEGAL，不支持的策略返回 ERROR_CAPABILITY_UNSUPPORT
+     */
+    public int setDropPolicy(int policy, int capacity) {
+        return native_setDropPolicy(policy, capacity);
+    }
+
+    /**
+     * 指定策略下因为回调太慢而在队列中丢弃的帧数，在 camera 的整个生命周期内累计，方便比较不同策略的代价。
+     * {@link DropPolicy#BLOCK} 不丢帧，返回的是采集线程被迫等待回调的次数。
+     * 驱动层的丢帧见 {@link #getDroppedFrameCount()}。
+     */
+    public int getDropCount(int policy) {
+        return native_getDropCount(policy);
+    }
+
+    /**
+     * 在采集线程中丢弃画面没有变化的帧，丢弃的帧不做颜色转换，也不回调，后面的 Bitmap 转换、纹理上传和 graph 都不会看到它。
+     * 每帧在 Y 分量上取 32x24 格的缩略图，和上一次放行的帧比较，平均亮度变化超过 lumaThreshold 的格子
+     * 超过 changedPermille 千分比时放行。只对 YUYV 采集生效，MJPEG 总是放行，可以在预览中修改。
+     *
+     * @param lumaThreshold 格子亮度变化阈值（0~255），<= 0 时关闭，默认关闭
+     * @param changedPermille 变化格子的千分比阈值，0 表示任意一格变化即放行
+     * @param keepAliveMs 距上一次放行超过这个时间时无论是否变化都放行一帧，让下游知道画面仍然有效，<= 0 时不强制
+     */
+    public void setMotionGate(int lumaThreshold, int changedPermille, int keepAliveMs) {
+        native_setMotionGate(lumaThreshold, changedPermille, keepAliveMs);
+    }
+
+    /**
+     * 变化检测丢弃的帧数，即省掉的转换、回调和推理次数，在 camera 的整个生命周期内累计。
+     */
+    public int getGatedFrameCount() {
+        return native_getGatedFrames();
+    }
+
+    /**
+     * 在采集线程中把每帧裁剪到 ROI，再用 box filter 缩小到输出尺寸，之后的 RGBA 转换、JNI 拷贝和回调都只处理缩小后的图像，
+     * {@link IDataCallback} 收到的 width/height 就是输出尺寸。预览中可以每帧修改，下一帧生效。
+     * 只对 YUYV 采集的拷贝模式生效，MJPEG 和零拷贝的 {@link IFrameCallback} 始终是整帧。
+     * 超出帧的部分会被裁掉，水平坐标和宽度向下对齐到偶数，输出尺寸大于 ROI 时不放大。
+     *
+     * @param outputWidth 输出宽度，<= 0 时与 ROI 相同
+     * @param outputHeight 输出高度，<= 0 时与 ROI 相同
+     * @return SUCCESS，参数无效时返回 ERROR_CAPABILITY_UNSUPPORT
+     */
+    public int setRegionOfInterest(int left, int top, int width, int height, int outputWidth, int outputHeight) {
+        if (width <= 0 || height <= 0) {
+            return ERROR_CAPABILITY_UNSUPPORT;
+        }
+        return native_setRegionOfInterest(left, top, width, height, Math.max(outputWidth, 0), Math.max(outputHeight, 0));
+    }
+
+    /**
+     * 取消 ROI，恢复回调整帧。
+     */
+    public void clearRegionOfInterest() {
+        native_setRegionOfInterest(0, 0, 0, 0, 0, 0);
+    }
+
+    public Size chooseOptimalSize(int desireWidth, int desireHeight) {
+        return chooseOptimalSize(desireWidth, desireHeight, YUYV);
+    }
+
+    /**
+     * 在指定格式支持的分辨率中选择最接近的一个并设置给设备。
+     * USB 2.0 下 YUYV 带宽只够 640x480@30fps，更高的分辨率和帧率需要 {@link ImageUtils#MJPEG}。
+     *
+     * @param format {@link ImageUtils#YUYV} 或 {@link ImageUtils#MJPEG}
+     * @return 选中的尺寸，设备不支持该格式时返回 null
+     */
+    public Size chooseOptimalSize(int desireWidth, int desireHeight, int format) {
+
+        List<Size> cameraSizes = getSupportedPreviewSizes(getParameters(), format);
+        if (cameraSizes.isEmpty()) {
+            Log.e(TAG, "format " + format + " is not supported");
+            return null;
+        }
         Size[] sizes = new Size[cameraSizes.size()];
         int i = 0;
         for (Size size : cameraSizes) {
@@ -134,11 +508,75 @@ public class V4L2Camera{
         }
         mPreviewSize = chooseOptimalSize(sizes, desireWidth, desireHeight);
 
-        native_setPreviewSize(mPreviewSize.getWidth(), mPreviewSize.getHeight(), YUYV);
+        if (setPreviewSize(mPreviewSize.getWidth(), mPreviewSize.getHeight(), format) != SUCCESS) {
+            return null;
+        }
 
         return mPreviewSize;
     }
 
+    /**
+     * 直接设置预览尺寸和格式，必须在 startPreview 之前调用。
+     *
+     * @param format {@link ImageUtils#YUYV} 或 {@link ImageUtils#MJPEG}
+     * @return SUCCESS，设备或者本库不支持该格式时返回 ERROR_CAPABILITY_UNSUPPORT
+     */
+    public int setPreviewSize(int width, int height, int format) {
+        int ret = native_setPreviewSize(width, height, format);
+        if (ret == SUCCESS) {
+            previewFormat = format;
+        }
+        return ret == SUCCESS ? SUCCESS : ERROR_CAPABILITY_UNSUPPORT;
+    }
+
+    /**
+     * 通过 VIDIOC_S_PARM 设置帧间隔 numerator/denominator 秒，例如 1/30，必须在 setPreviewSize 之后、startPreview 之前调用。
+     * 不设置时很多摄像头使用较低的默认帧率。
+     *
+     * @return SUCCESS，驱动不支持设置帧率时返回 ERROR_CAPABILITY_UNSUPPORT
+     */
+    public int setFrameInterval(int numerator, int denominator) {
+        return native_setFrameInterval(numerator, denominator);
+    }
+
+    /**
+     * 根据目标分辨率、最低帧率、总线带宽和使用方需要的格式协商采集参数，
+     * 打分规则见 {@link FormatNegotiator}，选中后设置格式、尺寸、帧间隔和 {@link #setOutputFormat} 。
+     *
+     * @return 选中并生效的参数，没有满足约束的组合或者设置失败时返回 null
+     */
+    public CaptureFormat negotiate(NegotiationTarget target) {
+        CaptureFormat format = FormatNegotiator.negotiate(getParameters(), target);
+        if (format == null) {
+            Log.e(TAG, "no capture format satisfies the target");
+            return null;
+        }
+
+        Log.i(TAG, "negotiated " + format);
+        if (setPreviewSize(format.width, format.height, format.pixFormat) != SUCCESS) {
+            return null;
+        }
+        mPreviewSize = new Size(format.width, format.height);
+
+        //驱动不支持设置帧率时仍然可以预览，只是使用默认帧率
+        if (native_setFrameInterval(format.intervalNumerator, format.intervalDenominator) != SUCCESS) {
+            Log.w(TAG, "unable to set frame interval " + format.intervalNumerator + "/" + format.intervalDenominator);
+        }
+
+        //只有 YUYV 在 native 层转换，其他格式原样回调
+        native_setOutputFormat(format.pixFormat == YUYV && target.outputFormat == ImageUtils.RGBA
+                ? ImageUtils.RGBA : YUYV);
+
+        return format;
+    }
+
+    /**
+     * 当前设置的采集格式，{@link ImageUtils#YUYV} 或 {@link ImageUtils#MJPEG}。
+     */
+    public int getPreviewFormat() {
+        return previewFormat;
+    }
+
     /**
      * Given {@code choices} of {@code Size}s supported by a camera, chooses the smallest one whose
      * width and height are at least as large as the minimum of both, or an exact match if possible.
@@ -149,69 +587,54 @@ public class V4L2Camera{
      * @return The optimal {@code Size}, or an arbitrary one if none were big enough
      */
     protected static Size chooseOptimalSize(final Size[] choices, final int width, final int height) {
-        final int minSize = Math.max(Math.min(width, height), MINIMUM_PREVIEW_SIZE);
-        final Size desiredSize = new Size(width, height);
-
-        // Collect the supported resolutions that are at least as big as the preview Surface
-        boolean exactSizeFound = false;
-        final List<Size> bigEnough = new ArrayList<Size>();
-        final List<Size> tooSmall = new ArrayList<Size>();
-        for (final Size option : choices) {
-            if (option.equals(desiredSize)) {
-                // Set the size but don't return yet so that remaining sizes will still be logged.
-                exactSizeFound = true;
-            }
-
-            if (option.getHeight() >= minSize && option.getWidth() >= minSize) {
-                bigEnough.add(option);
-            } else {
-                tooSmall.add(option);
-            }
+        int[] widths = new int[choices.length];
+        int[] heights = new int[choices.length];
+        for (int i = 0; i < choices.length; i++) {
+            widths[i] = choices[i].getWidth();
+            heights[i] = choices[i].getHeight();
         }
 
-        Log.i(TAG, "Desired size: " + desiredSize.toString() + ", min size: " + minSize + "x" + minSize);
-        Log.i(TAG, "Valid preview sizes: [" + TextUtils.join(", ", bigEnough) + "]");
-        Log.i(TAG, "Rejected preview sizes: [" + TextUtils.join(", ", tooSmall) + "]");
-
-        if (exactSizeFound) {
-            Log.i(TAG,"Exact size match found.");
-            return desiredSize;
+        int index = SizeChooser.choose(widths, heights, choices.length, width, height, MINIMUM_PREVIEW_SIZE);
+        if (index < 0) {
+            return null;
         }
 
-        // Pick the smallest of those, assuming we found any
-        if (bigEnough.size() > 0) {
-            final Size chosenSize = Collections.min(bigEnough, new CompareSizesByArea());
-            Log.i(TAG, "Chosen size: " + chosenSize.getWidth() + "x" + chosenSize.getHeight());
-            return chosenSize;
-        } else {
-            Log.e(TAG, "Couldn't find any suitable preview size");
-            return choices[0];
-        }
+        Log.i(TAG, "Desired size: " + width + "x" + height + ", chosen size: " + choices[index]);
+        return choices[index];
     }
 
     /**
-     * Compares two {@code Size}s based on their areas.
+     * 设备支持的格式、分辨率和帧率。同一次 open 内只枚举一次，
+     * 启用了 {@link CapabilityCache} 时同一设备在进程重启后也直接读取缓存，不再逐项 ioctl 枚举。
      */
-    static class CompareSizesByArea implements Comparator<Size> {
+    public ArrayList<Parameter> getParameters() {
+        if (parameters != null) {
+            return parameters;
+        }
 
-        @Override
-        public int compare(Size lhs, Size rhs) {
-            // We cast here to ensure the multiplications won't overflow
-            return Long.signum((long) lhs.getWidth() * lhs.getHeight() -
-                    (long) rhs.getWidth() * rhs.getHeight());
+        DeviceInfo device = capabilityCache != null ? native_queryCapability(devicePath) : null;
+        if (device != null) {
+            parameters = capabilityCache.load(device);
+        }
+        if (parameters == null) {
+            parameters = native_getParameters();
+            if (device != null && parameters != null) {
+                capabilityCache.store(device, parameters);
+            }
         }
-    }
 
+        return parameters;
+    }
 
     List<Size> getSupportedPreviewSizes(ArrayList<Parameter> parameters, int format) {
         List<Size> sizeList = new ArrayList<>();
 
         for(Parameter parameter:parameters) {
-            Log.e(TAG, "support format: " + parameter.pixFormat);
             if (parameter.pixFormat == format) {
-                for (Frame frame : parameter.frames) {
-                    Size size = new Size(frame.width, frame.height);
-                    sizeList.add(size);
+                for (Frame range : parameter.frames) {
+                    for (Frame frame : FormatNegotiator.discreteFrames(range)) {
+                        sizeList.add(new Size(frame.width, frame.height));
+                    }
                 }
             }
         }
@@ -219,22 +642,98 @@ public class V4L2Camera{
         return sizeList;
     }
 
-    //Jni 层回调的函数
-    private void postDataFromNative(byte[] data, int width, int height, int pixformat) {
-        //Log.e(TAG, "postDataFromNative");
+    /**
+     * 录制之后回调给使用方的每一帧，格式与回调的 dataType 相同（设置了 setOutputFormat 或者 ROI 时是处理后的数据）。
+     * 只在回调线程中多一次拷贝，写文件在 recorder 自己的线程，磁盘跟不上时丢弃录制的帧，不影响预览。传 null 停止录制。
+     * recorder 的 start 和 stop 由调用方负责。
+     */
+    public void setRecorder(FrameRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    //Jni 层回调的函数，在 native 的回调线程中执行
+    private void postDataFromNative(byte[] data, int width, int height, int pixformat, long timestampUs, int sequence) {
+        FrameRecorder frameRecorder = recorder;
+        if (frameRecorder != null) {
+            frameRecorder.offer(data, data.length, pixformat, width, height, timestampUs, sequence);
+        }
         if (dataCallback != null) {
-            dataCallback.onDataCallback(data, pixformat, width, height);
+            dataCallback.onDataCallback(data, pixformat, width, height, timestampUs, sequence);
+        }
+    }
+
+    //Jni 层回调的函数，index 对应的 buffer 已出队，需要通过 FrameLease 归还
+    private void postFrameFromNative(int index, int length, int width, int height, int pixformat,
+                                     long timestampUs, int sequence) {
+        IFrameCallback callback = frameCallback;
+        FrameLease lease;
+        //和 revokeLeases 互斥，停止之后不再发出租约
+        synchronized (leaseLock) {
+            FrameLease[] leases = frameLeases;
+            if (callback == null || leasesRevoked || leases == null || index >= leases.length) {
+                native_releaseFrame(index, null);
+                return;
+            }
+
+            lease = leases[index];
+            if (lease == null) {
+                ByteBuffer buffer = native_getFrameBuffer(index);
+                if (buffer == null) {
+                    native_releaseFrame(index, null);
+                    return;
+                }
+                lease = new FrameLease(this, index, buffer, leaseGeneration);
+                leases[index] = lease;
+            }
+
+            lease.acquire(length, width, height, pixformat, timestampUs, sequence);
+            outstandingLeases++;
+        }
+        FrameRecorder frameRecorder = recorder;
+        if (frameRecorder != null) {
+            frameRecorder.offer(lease.data(), pixformat, width, height, timestampUs, sequence);
+        }
+        callback.onFrame(lease);
+    }
+
+    //Jni 层回调的函数，在采集线程中报告超时和设备错误
+    private void postEventFromNative(int event) {
+        IStateCallback callback = stateCallback;
+        if (callback != null) {
+            callback.onError(event);
         }
     }
 
     private native final void native_init();
     private native final void native_release();
-    private native final int native_open();
+    private native final int native_open(String devicePath);
     private native final void native_close();
     private native final ArrayList<Parameter> native_getParameters();
+    private native final DeviceInfo native_queryCapability(String devicePath);
     private native final int native_setPreviewSize(int width, int height, int pixFormat);
+    private native final int native_setFrameInterval(int numerator, int denominator);
     private native final int native_setSurface(Object surface);
     private native final int native_startPreview();
     private native final int native_stopPreview();
+    private native final int native_setBufferCount(int count);
+    private native final int native_getBufferCount();
+    private native final int native_getDroppedFrames();
+    private native final int native_getQueueDepth();
+    private native final void native_setFrameMode(boolean enable);
+    private native final ByteBuffer native_getFrameBuffer(int index);
+    private native final int native_releaseFrame(int index, ByteBuffer buffer);
+    private native final int native_setOutputFormat(int format);
+    private native final void native_setConvertThreadCount(int count);
+    private native final void native_setCaptureTimeout(int frameTimeoutMs, int stallTimeoutMs);
+    private native final int native_setDropPolicy(int policy, int capacity);
+    private native final int native_getDropCount(int policy);
+    private native final void native_setMotionGate(int lumaThreshold, int changedPermille, int keepAliveMs);
+    private native final int native_getGatedFrames();
+    private native final int native_getCopyDrops();
+    private native final int native_setRegionOfInterest(int left, int top, int width, int height, int outputWidth, int outputHeight);
+    private native final int native_getStageHistogram(int stage, long[] buckets, boolean reset);
+    private static native final ArrayList<DeviceInfo> native_enumerateDevices();
+    private static native final void native_setTraceEnabled(boolean enabled);
+    private static native final int native_readTrace(long[] events);
 
 }
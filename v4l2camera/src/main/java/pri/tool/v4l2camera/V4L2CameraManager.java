@@ -0,0 +1,111 @@
+package pri.tool.v4l2camera;
+
+import android.content.Context;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import pri.tool.bean.DeviceInfo;
+
+/**
+ * 管理多个 V4L2 摄像头。
+ *
+ * 每个打开的 {@link V4L2Camera} 都有独立的 native 实例、采集线程、buffer 和回调，
+ * 互相之间不共享锁，可以并行采集。
+ */
+public class V4L2CameraManager {
+    private final static String TAG = "V4L2CameraManager";
+
+    private final Context context;
+    private final List<V4L2Camera> cameras = new ArrayList<>();
+
+    public V4L2CameraManager(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * 当前系统中支持视频采集的设备。
+     */
+    public List<DeviceInfo> getDevices() {
+        return V4L2Camera.enumerateDevices();
+    }
+
+    /**
+     * 按 bus_info 精确匹配或者按 card 名称包含匹配查找设备，找不到返回 null。
+     * bus_info 在 USB 拓扑不变时是稳定的，适合区分多个同型号摄像头。
+     */
+    public DeviceInfo findDevice(String busInfoOrCard) {
+        List<DeviceInfo> devices = getDevices();
+        for (DeviceInfo device : devices) {
+            if (TextUtils.equals(device.busInfo, busInfoOrCard)) {
+                return device;
+            }
+        }
+        for (DeviceInfo device : devices) {
+            if (device.card != null && device.card.contains(busInfoOrCard)) {
+                return device;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * 创建并打开指定设备节点的摄像头，打开结果通过 callback 回调。
+     */
+    public V4L2Camera openCamera(String devicePath, IStateCallback callback) {
+        V4L2Camera camera = new V4L2Camera();
+        camera.init(callback, context);
+        synchronized (cameras) {
+            cameras.add(camera);
+        }
+        camera.open(devicePath);
+        return camera;
+    }
+
+    public V4L2Camera openCamera(DeviceInfo device, IStateCallback callback) {
+        return openCamera(device.path, callback);
+    }
+
+    /**
+     * 打开匹配 bus_info 或 card 名称的摄像头，找不到设备返回 null。
+     */
+    public V4L2Camera openMatchingCamera(String busInfoOrCard, IStateCallback callback) {
+        DeviceInfo device = findDevice(busInfoOrCard);
+        if (device == null) {
+            Log.e(TAG, "no device matches " + busInfoOrCard);
+            return null;
+        }
+
+        return openCamera(device, callback);
+    }
+
+    public List<V4L2Camera> getCameras() {
+        synchronized (cameras) {
+            return new ArrayList<>(cameras);
+        }
+    }
+
+    /**
+     * 停止预览并释放摄像头。
+     */
+    public void closeCamera(V4L2Camera camera) {
+        synchronized (cameras) {
+            if (!cameras.remove(camera)) {
+                return;
+            }
+        }
+
+        camera.stopPreview();
+        camera.close();
+        camera.release();
+    }
+
+    public void closeAll() {
+        for (V4L2Camera camera : getCameras()) {
+            closeCamera(camera);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package pri.tool.v4l2camera;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import pri.tool.bean.DeviceInfo;
+import pri.tool.bean.Frame;
+import pri.tool.bean.FrameRate;
+import pri.tool.bean.Parameter;
+
+import static org.junit.Assert.*;
+
+public class CapabilityCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static DeviceInfo device(int version) {
+        return new DeviceInfo("/dev/video0", "uvcvideo", "USB Camera", "usb-xhci-hcd.0-1", version, 0x84200001);
+    }
+
+    private static List<Parameter> parameters() {
+        ArrayList<FrameRate> rates = new ArrayList<>(Arrays.asList(new FrameRate(1, 30), new FrameRate(1, 15)));
+        ArrayList<FrameRate> stepwise = new ArrayList<>(Arrays.asList(
+                new FrameRate(FrameRate.TYPE_STEPWISE, 1, 60, 1, 5, 1, 60)));
+
+        return Arrays.asList(
+                new Parameter(ImageUtils.YUYV, new ArrayList<>(Arrays.asList(
+                        new Frame(640, 480, rates), new Frame(1280, 720, rates)))),
+                new Parameter(ImageUtils.MJPEG, new ArrayList<>(Arrays.asList(
+                        new Frame(Frame.TYPE_STEPWISE, 160, 120, 1920, 1080, 16, 8, stepwise)))));
+    }
+
+    @Test
+    public void storedParametersAreLoaded() {
+        CapabilityCache cache = new CapabilityCache(folder.getRoot());
+        assertNull(cache.load(device(1)));
+        assertTrue(cache.store(device(1), parameters()));
+
+        ArrayList<Parameter> loaded = cache.load(device(1));
+        assertNotNull(loaded);
+        assertEquals(2, loaded.size());
+        assertEquals(ImageUtils.YUYV, loaded.get(0).pixFormat);
+        assertEquals(1280, loaded.get(0).frames.get(1).width);
+        assertEquals(15, loaded.get(0).frames.get(1).frameRate.get(1).denominator);
+
+        Frame range = loaded.get(1).frames.get(0);
+        assertEquals(Frame.TYPE_STEPWISE, range.type);
+        assertEquals(1920, range.maxWidth);
+        assertEquals(8, range.stepHeight);
+        FrameRate rate = range.frameRate.get(0);
+        assertEquals(FrameRate.TYPE_STEPWISE, rate.type);
+        assertEquals(5, rate.maxDenominator);
+    }
+
+    @Test
+    public void changedDeviceInvalidatesCache() {
+        CapabilityCache cache = new CapabilityCache(folder.getRoot());
+        assertTrue(cache.store(device(1), parameters()));
+
+        //固件升级后 version 变化，仍然读到同一个文件，标识不一致时删除
+        File file = cache.getFile(device(2));
+        assertEquals(cache.getFile(device(1)), file);
+        assertNull(cache.load(device(2)));
+        assertFalse(file.exists());
+
+        //重新枚举后覆盖原来的文件，旧的标识不再命中
+        assertTrue(cache.store(device(2), parameters()));
+        assertNotNull(cache.load(device(2)));
+        assertNull(cache.load(device(1)));
+        assertTrue(cache.store(device(2), parameters()));
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void devicesOnDifferentPortsUseDifferentFiles() {
+        CapabilityCache cache = new CapabilityCache(folder.getRoot());
+        DeviceInfo other = new DeviceInfo("/dev/video2", "uvcvideo", "USB Camera", "usb-xhci-hcd.0-2", 1, 0x84200001);
+        assertTrue(cache.store(device(1), parameters()));
+        assertTrue(cache.store(other, parameters().subList(0, 1)));
+
+        assertEquals(2, cache.load(device(1)).size());
+        assertEquals(1, cache.load(other).size());
+    }
+
+    @Test
+    public void corruptFileIsDiscarded() throws IOException {
+        CapabilityCache cache = new CapabilityCache(folder.getRoot());
+        File file = cache.getFile(device(1));
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[]{0x56, 0x34, 0x4c});
+        }
+
+        assertNull(cache.load(device(1)));
+        assertFalse(file.exists());
+    }
+}
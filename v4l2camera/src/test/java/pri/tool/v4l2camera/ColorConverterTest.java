@@ -0,0 +1,107 @@
+package pri.tool.v4l2camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ColorConverterTest {
+
+    private static final int WIDTH = 4;
+    private static final int HEIGHT = 2;
+
+    private static byte[] yuyv(int y, int u, int v) {
+        byte[] data = new byte[WIDTH * HEIGHT * 2];
+        for (int i = 0; i < data.length; i += 4) {
+            data[i] = (byte) y;
+            data[i + 1] = (byte) u;
+            data[i + 2] = (byte) y;
+            data[i + 3] = (byte) v;
+        }
+        return data;
+    }
+
+    private static byte[] planar(int format, int y, int u, int v) {
+        int lumaSize = WIDTH * HEIGHT;
+        int chromaSize = (WIDTH / 2) * (HEIGHT / 2);
+        byte[] data = new byte[ColorConverter.getFrameSize(format, WIDTH, HEIGHT)];
+        for (int i = 0; i < lumaSize; i++) {
+            data[i] = (byte) y;
+        }
+        for (int i = 0; i < chromaSize; i++) {
+            if (format == ImageUtils.NV21) {
+                data[lumaSize + i * 2] = (byte) v;
+                data[lumaSize + i * 2 + 1] = (byte) u;
+            } else {
+                data[lumaSize + i] = (byte) v;
+                data[lumaSize + chromaSize + i] = (byte) u;
+            }
+        }
+        return data;
+    }
+
+    @Test
+    public void blackAndWhiteAreClamped() {
+        int[] argb = new int[WIDTH * HEIGHT];
+
+        ColorConverter.convertToArgb(yuyv(16, 128, 128), ImageUtils.YUYV, WIDTH, HEIGHT,
+                ColorConverter.COLOR_SPACE_BT601, argb);
+        assertEquals(0xff000000, argb[0]);
+
+        ColorConverter.convertToArgb(yuyv(255, 128, 128), ImageUtils.YUYV, WIDTH, HEIGHT,
+                ColorConverter.COLOR_SPACE_BT601, argb);
+        assertEquals(0xffffffff, argb[WIDTH * HEIGHT - 1]);
+    }
+
+    @Test
+    public void allFormatsAgree() {
+        int[] expected = new int[WIDTH * HEIGHT];
+        int[] actual = new int[WIDTH * HEIGHT];
+
+        ColorConverter.convertToArgb(yuyv(120, 90, 200), ImageUtils.YUYV, WIDTH, HEIGHT,
+                ColorConverter.COLOR_SPACE_BT601, expected);
+
+        ColorConverter.convertToArgb(planar(ImageUtils.NV21, 120, 90, 200), ImageUtils.NV21, WIDTH, HEIGHT,
+                ColorConverter.COLOR_SPACE_BT601, actual);
+        assertArrayEquals(expected, actual);
+
+        ColorConverter.convertToArgb(planar(ImageUtils.YV12, 120, 90, 200), ImageUtils.YV12, WIDTH, HEIGHT,
+                ColorConverter.COLOR_SPACE_BT601, actual);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void rgbaMatchesArgb() {
+        int[] argb = new int[WIDTH * HEIGHT];
+        byte[] rgba = new byte[WIDTH * HEIGHT * 4];
+        byte[] src = yuyv(81, 90, 240);
+
+        ColorConverter.convertToArgb(src, ImageUtils.YUYV, WIDTH, HEIGHT, ColorConverter.COLOR_SPACE_BT709, argb);
+        ColorConverter.convertToRgba(src, ImageUtils.YUYV, WIDTH, HEIGHT, ColorConverter.COLOR_SPACE_BT709, rgba);
+
+        for (int i = 0; i < argb.length; i++) {
+            assertEquals((argb[i] >> 16) & 0xff, rgba[i * 4] & 0xff);
+            assertEquals((argb[i] >> 8) & 0xff, rgba[i * 4 + 1] & 0xff);
+            assertEquals(argb[i] & 0xff, rgba[i * 4 + 2] & 0xff);
+            assertEquals(0xff, rgba[i * 4 + 3] & 0xff);
+        }
+    }
+
+    @Test
+    public void colorSpacesDiffer() {
+        int[] bt601 = new int[WIDTH * HEIGHT];
+        int[] bt709 = new int[WIDTH * HEIGHT];
+        byte[] src = yuyv(81, 90, 240);
+
+        ColorConverter.convertToArgb(src, ImageUtils.YUYV, WIDTH, HEIGHT, ColorConverter.COLOR_SPACE_BT601, bt601);
+        ColorConverter.convertToArgb(src, ImageUtils.YUYV, WIDTH, HEIGHT, ColorConverter.COLOR_SPACE_BT709, bt709);
+
+        // 接近纯红，BT.709 的 V 对绿色分量的权重更小，绿色分量明显高于 BT.601
+        assertTrue(((bt709[0] >> 8) & 0xff) > ((bt601[0] >> 8) & 0xff) + 16);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shortDestinationIsRejected() {
+        ColorConverter.convertToArgb(yuyv(16, 128, 128), ImageUtils.YUYV, WIDTH, HEIGHT,
+                ColorConverter.COLOR_SPACE_BT601, new int[WIDTH]);
+    }
+}
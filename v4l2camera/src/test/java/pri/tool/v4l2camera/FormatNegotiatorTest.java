@@ -0,0 +1,97 @@
+package pri.tool.v4l2camera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import pri.tool.bean.Frame;
+import pri.tool.bean.FrameRate;
+import pri.tool.bean.Parameter;
+
+import static org.junit.Assert.*;
+
+public class FormatNegotiatorTest {
+
+    private static Frame frame(int width, int height, int... fps) {
+        ArrayList<FrameRate> rates = new ArrayList<>();
+        for (int f : fps) {
+            rates.add(new FrameRate(1, f));
+        }
+        return new Frame(width, height, rates);
+    }
+
+    private static Parameter parameter(int format, Frame... frames) {
+        return new Parameter(format, new ArrayList<>(Arrays.asList(frames)));
+    }
+
+    //常见 UVC 摄像头：YUYV 受 USB 2.0 带宽限制，MJPEG 各分辨率都能到 30fps
+    private static List<Parameter> uvcCamera() {
+        return Arrays.asList(
+                parameter(ImageUtils.YUYV,
+                        frame(640, 480, 30, 15),
+                        frame(1280, 720, 10, 5),
+                        frame(1920, 1080, 5)),
+                parameter(ImageUtils.MJPEG,
+                        frame(640, 480, 30),
+                        frame(1280, 720, 30),
+                        frame(1920, 1080, 30)));
+    }
+
+    private static void assertFormat(CaptureFormat format, int pixFormat, int width, int height, int fps) {
+        assertNotNull(format);
+        assertEquals(pixFormat, format.pixFormat);
+        assertEquals(width, format.width);
+        assertEquals(height, format.height);
+        assertEquals(fps, format.getFps(), 0.001);
+    }
+
+    @Test
+    public void highResolutionAtFullRateNeedsMjpeg() {
+        NegotiationTarget target = new NegotiationTarget(1920, 1080, 30,
+                NegotiationTarget.USB2_BANDWIDTH, ImageUtils.RGBA);
+
+        assertFormat(FormatNegotiator.negotiate(uvcCamera(), target), ImageUtils.MJPEG, 1920, 1080, 30);
+    }
+
+    @Test
+    public void cheaperConversionWinsWhenBothFit() {
+        NegotiationTarget target = new NegotiationTarget(640, 480, 30);
+
+        assertFormat(FormatNegotiator.negotiate(uvcCamera(), target), ImageUtils.YUYV, 640, 480, 30);
+    }
+
+    @Test
+    public void bandwidthLimitExcludesRawFormat() {
+        List<Parameter> parameters = Arrays.asList(
+                parameter(ImageUtils.YUYV, frame(1280, 720, 30)),
+                parameter(ImageUtils.MJPEG, frame(1280, 720, 30)));
+
+        assertFormat(FormatNegotiator.negotiate(parameters, new NegotiationTarget(1280, 720, 30)),
+                ImageUtils.YUYV, 1280, 720, 30);
+        assertFormat(FormatNegotiator.negotiate(parameters, new NegotiationTarget(1280, 720, 30,
+                NegotiationTarget.USB2_BANDWIDTH, ImageUtils.RGBA)), ImageUtils.MJPEG, 1280, 720, 30);
+    }
+
+    @Test
+    public void equalCostPrefersHigherFrameRate() {
+        NegotiationTarget target = new NegotiationTarget(640, 480, 15, 0, ImageUtils.YUYV);
+
+        assertFormat(FormatNegotiator.negotiate(uvcCamera(), target), ImageUtils.YUYV, 640, 480, 30);
+    }
+
+    @Test
+    public void smallerSizeIsPenalised() {
+        List<Parameter> parameters = Arrays.asList(
+                parameter(ImageUtils.YUYV, frame(320, 240, 30), frame(1280, 960, 30)));
+
+        assertFormat(FormatNegotiator.negotiate(parameters, new NegotiationTarget(640, 480, 30)),
+                ImageUtils.YUYV, 1280, 960, 30);
+    }
+
+    @Test
+    public void unreachableFrameRateReturnsNull() {
+        assertNull(FormatNegotiator.negotiate(uvcCamera(), new NegotiationTarget(640, 480, 60)));
+    }
+}
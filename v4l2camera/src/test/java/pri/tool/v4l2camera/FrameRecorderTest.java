@@ -0,0 +1,153 @@
+package pri.tool.v4l2camera;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameRecorderTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("recorder").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    //队列足够大并且逐帧等待，保证不会因为磁盘慢而丢帧
+    private static void offerAll(FrameRecorder recorder, int frames, int length, long intervalUs)
+            throws InterruptedException {
+        byte[] data = new byte[length];
+        for (int i = 0; i < frames; i++) {
+            data[0] = (byte) i;
+            while (!recorder.offer(data, length, ImageUtils.YUYV, 4, 2, i * intervalUs, i)) {
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    @Test
+    public void recordsReplayableSegmentWithIndex() throws Exception {
+        FrameRecorder recorder = new FrameRecorder(dir, "test");
+        recorder.setQueueFrames(4);
+        recorder.start();
+        offerAll(recorder, 10, 16, 33000);
+        ByteBuffer lease = ByteBuffer.allocateDirect(16);
+        lease.put(0, (byte) 10);
+        assertTrue(recorder.offer(lease, ImageUtils.YUYV, 4, 2, 10 * 33000, 10));
+        assertEquals(0, lease.position());
+        recorder.stop();
+
+        assertNull(recorder.getLastError());
+        List<File> segments = recorder.getSegments();
+        assertEquals(1, segments.size());
+        assertTrue(FrameFile.indexFile(segments.get(0)).isFile());
+        assertEquals(8 + 11 * (28 + 16), segments.get(0).length());
+
+        FrameFile frames = FrameFile.open(segments.get(0));
+        assertEquals(11, frames.getFrameCount());
+        byte[] data = new byte[16];
+        for (int i = 0; i < 11; i++) {
+            assertEquals(i * 33000L, frames.getTimestampUs(i));
+            assertEquals(i, frames.getSequence(i));
+            assertEquals(ImageUtils.YUYV, frames.getFormat(i));
+            frames.read(i, data);
+            assertEquals(i, data[0]);
+        }
+        assertEquals(4, frames.indexOf(4 * 33000 - 1));
+    }
+
+    @Test
+    public void rotatesBySizeAndTimeAndKeepsNewest() throws Exception {
+        FrameRecorder recorder = new FrameRecorder(dir, "test");
+        //每段最多 3 帧
+        recorder.setSegmentLimits(8 + 3 * (28 + 16), 1000);
+        recorder.setMaxSegments(2);
+        recorder.setQueueFrames(16);
+        recorder.start();
+        offerAll(recorder, 8, 16, 1000);
+        //第三段只有 2 帧，时间超过 1 秒切段
+        byte[] data = new byte[16];
+        while (!recorder.offer(data, 16, ImageUtils.YUYV, 4, 2, 5000000, 8)) {
+            Thread.sleep(1);
+        }
+        recorder.stop();
+
+        List<File> segments = recorder.getSegments();
+        assertEquals(2, segments.size());
+        assertEquals(2, FrameFile.open(segments.get(0)).getFrameCount());
+        FrameFile last = FrameFile.open(segments.get(1));
+        assertEquals(1, last.getFrameCount());
+        assertEquals(5000000, last.getTimestampUs(0));
+        assertEquals(4, dir.list().length);
+    }
+
+    @Test
+    public void unfinishedSegmentIsReplayable() throws Exception {
+        FrameRecorder recorder = new FrameRecorder(dir, "test");
+        recorder.setSegmentLimits(1 << 20, 60000);
+        recorder.start();
+        offerAll(recorder, 1, 16, 33000);
+        while (recorder.getRecordedFrames() < 1) {
+            Thread.sleep(1);
+        }
+
+        //分段还没有结束，没有索引，模拟进程中途退出；文件不预留空间，只有写入的部分
+        File segment = new File(dir, "test-00000" + FrameRecorder.SEGMENT_SUFFIX);
+        assertEquals(8 + 28 + 16, segment.length());
+        assertFalse(FrameFile.indexFile(segment).exists());
+        assertEquals(1, FrameFile.open(segment).getFrameCount());
+        recorder.stop();
+    }
+
+    @Test
+    public void frameFileStopsAtZeroFilledTail() throws Exception {
+        //预分配后没有截断的文件，记录之后全是 0
+        File file = new File(dir, "padded" + FrameRecorder.SEGMENT_SUFFIX);
+        ByteBuffer content = ByteBuffer.allocate(1 << 20);
+        content.putInt(FrameFile.MAGIC);
+        content.putShort((short) FrameFile.FORMAT_VERSION);
+        content.putShort((short) 0);
+        content.putInt(ImageUtils.YUYV).putInt(4).putInt(2).putLong(33000).putInt(1).putInt(16);
+        Files.write(file.toPath(), content.array());
+
+        FrameFile frames = FrameFile.open(file);
+        assertEquals(1, frames.getFrameCount());
+        assertEquals(16, frames.getMaxFrameLength());
+    }
+
+    @Test
+    public void dropsInsteadOfBlockingWhenQueueIsFull() throws Exception {
+        FrameRecorder recorder = new FrameRecorder(dir, "test");
+        recorder.setQueueFrames(1);
+        recorder.start();
+        byte[] data = new byte[1 << 16];
+        int offered = 2000;
+        for (int i = 0; i < offered; i++) {
+            recorder.offer(data, data.length, ImageUtils.MJPEG, 4, 2, i, i);
+        }
+        recorder.stop();
+
+        assertEquals(offered, recorder.getRecordedFrames() + recorder.getDroppedFrames());
+        assertTrue(recorder.getDroppedFrames() > 0);
+        assertFalse(recorder.offer(data, data.length, ImageUtils.MJPEG, 4, 2, offered, offered));
+    }
+}
@@ -0,0 +1,73 @@
+package pri.tool.v4l2camera;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import pri.tool.bean.StageSnapshot;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverValuesWithBoundedError() {
+        long[] values = {0, 1, 7, 8, 15, 16, 17, 100, 999, 1000, 33333, 1 << 20, (1L << 29) + 12345};
+        for (long value : values) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(value + " below bucket", LatencyHistogram.bucketLowerBound(index) <= value);
+            assertTrue(value + " above bucket", LatencyHistogram.bucketUpperBound(index) >= value);
+            assertTrue(value + " error", LatencyHistogram.bucketUpperBound(index) - value <= value / 8);
+        }
+
+        //桶连续且不重叠
+        for (int i = 1; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            assertEquals(LatencyHistogram.bucketUpperBound(i - 1) + 1, LatencyHistogram.bucketLowerBound(i));
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+        assertEquals(0, LatencyHistogram.bucketIndex(-5));
+    }
+
+    @Test
+    public void percentilesFollowDistribution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1000);
+        }
+        histogram.record(50000);
+
+        long[] counts = histogram.snapshot(false);
+        assertEquals(100, LatencyHistogram.count(counts));
+        assertEquals(1023, LatencyHistogram.percentile(counts, 50));
+        assertEquals(1023, LatencyHistogram.percentile(counts, 99));
+        assertTrue(LatencyHistogram.percentile(counts, 100) >= 50000);
+        assertTrue(LatencyHistogram.max(counts) >= 50000);
+    }
+
+    @Test
+    public void resetStartsNewPeriod() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        StageMetrics stage = metrics.stage("upload");
+        assertSame(stage, metrics.stage("upload"));
+
+        stage.record(200);
+        stage.addDrops(3);
+        metrics.addSource(new PipelineMetrics.Source() {
+            @Override
+            public void collect(List<StageSnapshot> out, boolean reset) {
+                out.add(new StageSnapshot("native", 1, 0, 10, 10, 10));
+            }
+        });
+
+        List<StageSnapshot> first = metrics.snapshot(true);
+        assertEquals(2, first.size());
+        assertEquals("native", first.get(0).name);
+        assertEquals(1, first.get(1).count);
+        assertEquals(3, first.get(1).drops);
+
+        StageSnapshot second = metrics.snapshot(false).get(1);
+        assertEquals(0, second.count);
+        assertEquals(0, second.drops);
+        assertEquals(0, second.p99Us);
+    }
+}
@@ -0,0 +1,58 @@
+package pri.tool.v4l2camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MjpegUtilsTest {
+
+    //SOI, DQT(长度 4), SOF0(长度 4), SOS(长度 4), 一个字节的熵编码数据, EOI
+    private static final byte[] NO_DHT = bytes(
+            0xff, 0xd8,
+            0xff, 0xdb, 0x00, 0x04, 0x00, 0x00,
+            0xff, 0xc0, 0x00, 0x04, 0x00, 0x00,
+            0xff, 0xda, 0x00, 0x04, 0x00, 0x00,
+            0x12,
+            0xff, 0xd9);
+
+    private static byte[] bytes(int... values) {
+        byte[] data = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            data[i] = (byte) values[i];
+        }
+        return data;
+    }
+
+    @Test
+    public void missingTablesAreDetected() {
+        assertTrue(MjpegUtils.isJpeg(NO_DHT, NO_DHT.length));
+        assertFalse(MjpegUtils.hasHuffmanTables(NO_DHT, NO_DHT.length));
+    }
+
+    @Test
+    public void insertedTablesFollowSoi() {
+        byte[] jpeg = MjpegUtils.toJpeg(NO_DHT, NO_DHT.length);
+
+        assertEquals(NO_DHT.length + MjpegUtils.getHuffmanTableSize(), jpeg.length);
+        assertEquals(0xd8, jpeg[1] & 0xff);
+        assertEquals(0xc4, jpeg[3] & 0xff);
+        //4 张标准表：2 * (17 + 12) + 2 * (17 + 162) + 2 字节长度
+        assertEquals(0x01a2, ((jpeg[4] & 0xff) << 8) | (jpeg[5] & 0xff));
+        assertTrue(MjpegUtils.hasHuffmanTables(jpeg, jpeg.length));
+        assertEquals(0xd9, jpeg[jpeg.length - 1] & 0xff);
+    }
+
+    @Test
+    public void completeJpegIsCopied() {
+        byte[] jpeg = MjpegUtils.toJpeg(NO_DHT, NO_DHT.length);
+        byte[] copy = MjpegUtils.toJpeg(jpeg, jpeg.length);
+
+        assertNotSame(jpeg, copy);
+        assertArrayEquals(jpeg, copy);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shortDestinationIsRejected() {
+        MjpegUtils.insertHuffmanTables(NO_DHT, NO_DHT.length, new byte[NO_DHT.length]);
+    }
+}
@@ -0,0 +1,173 @@
+package pri.tool.v4l2camera;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ReplayCameraTest {
+
+    private static final int FRAMES = 5;
+    private static final long INTERVAL_US = 20000;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("replay", ".v4lf");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(FrameFile.MAGIC);
+            out.writeShort(FrameFile.FORMAT_VERSION);
+            out.writeShort(0);
+            for (int i = 0; i < FRAMES; i++) {
+                //长度各不相同，模拟 MJPEG
+                byte[] data = new byte[8 + i];
+                data[0] = (byte) i;
+                out.writeInt(ImageUtils.MJPEG);
+                out.writeInt(4);
+                out.writeInt(2);
+                out.writeLong(1000000 + i * INTERVAL_US);
+                out.writeInt(100 + i);
+                out.writeInt(data.length);
+                out.write(data);
+            }
+            //录制中断留下的不完整记录
+            out.writeInt(ImageUtils.MJPEG);
+            out.writeInt(4);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static class Recorder implements IStateCallback, IDataCallback {
+        final List<Long> timestamps = new ArrayList<>();
+        final List<Integer> sequences = new ArrayList<>();
+        final List<Integer> lengths = new ArrayList<>();
+        final CountDownLatch opened = new CountDownLatch(1);
+        final CountDownLatch ended = new CountDownLatch(1);
+
+        @Override
+        public void onOpened() {
+            opened.countDown();
+        }
+
+        @Override
+        public void onError(int error) {
+            if (error == V4L2Camera.ERROR_END_OF_STREAM) {
+                ended.countDown();
+            }
+        }
+
+        @Override
+        public void onDataCallback(byte[] data, int dataType, int width, int height, long timestampUs, int sequence) {
+            assertEquals(ImageUtils.MJPEG, dataType);
+            assertEquals(4, width);
+            assertEquals(2, height);
+            assertEquals(sequence - 100, data[0]);
+            timestamps.add(timestampUs);
+            sequences.add(sequence);
+            lengths.add(data.length);
+        }
+    }
+
+    @Test
+    public void frameFileIgnoresTruncatedTail() throws IOException {
+        FrameFile frames = FrameFile.open(file);
+        assertEquals(FRAMES, frames.getFrameCount());
+        assertEquals(8 + FRAMES - 1, frames.getMaxFrameLength());
+        assertEquals(1000000 + 2 * INTERVAL_US, frames.getTimestampUs(2));
+        assertEquals(103, frames.getSequence(3));
+    }
+
+    @Test
+    public void fastModeDeliversAllFramesInOrder() throws InterruptedException {
+        Recorder recorder = new Recorder();
+        ReplayCamera camera = new ReplayCamera(file);
+        camera.init(recorder);
+        camera.setMode(ReplayCamera.MODE_FAST);
+        camera.open();
+        assertEquals(0, recorder.opened.getCount());
+
+        camera.startPreview(recorder);
+        assertTrue(recorder.ended.await(5, TimeUnit.SECONDS));
+        camera.release();
+
+        assertEquals(FRAMES, camera.getDeliveredFrames());
+        for (int i = 0; i < FRAMES; i++) {
+            assertEquals(1000000 + i * INTERVAL_US, (long) recorder.timestamps.get(i));
+            assertEquals(100 + i, (int) recorder.sequences.get(i));
+            assertEquals(8 + i, (int) recorder.lengths.get(i));
+        }
+    }
+
+    @Test
+    public void startsAgainAfterEndOfStreamWithoutStop() throws InterruptedException {
+        Recorder first = new Recorder();
+        ReplayCamera camera = new ReplayCamera(file);
+        camera.init(first);
+        camera.setMode(ReplayCamera.MODE_FAST);
+        camera.open();
+        camera.startPreview(first);
+        assertTrue(first.ended.await(5, TimeUnit.SECONDS));
+
+        //回放线程在回调结束流之前已经清空，不会报 ERROR_PREVIEW_FAIL
+        Recorder second = new Recorder();
+        camera.init(second);
+        camera.startPreview(second);
+        assertTrue(second.ended.await(5, TimeUnit.SECONDS));
+        camera.release();
+
+        assertEquals(FRAMES, first.sequences.size());
+        assertEquals(FRAMES, second.sequences.size());
+        assertEquals(FRAMES, camera.getDeliveredFrames());
+    }
+
+    @Test
+    public void pacedModeKeepsRecordedIntervals() throws InterruptedException {
+        Recorder recorder = new Recorder();
+        ReplayCamera camera = new ReplayCamera(file);
+        camera.init(recorder);
+        camera.open();
+
+        long start = System.nanoTime();
+        camera.startPreview(recorder);
+        assertTrue(recorder.ended.await(5, TimeUnit.SECONDS));
+        long elapsedUs = (System.nanoTime() - start) / 1000;
+        camera.release();
+
+        assertEquals(FRAMES, camera.getDeliveredFrames());
+        assertTrue(elapsedUs >= (FRAMES - 1) * INTERVAL_US);
+    }
+
+    @Test
+    public void openFailsOnMissingFile() {
+        final int[] error = {0};
+        ReplayCamera camera = new ReplayCamera(new File(file.getPath() + ".missing"));
+        camera.init(new IStateCallback() {
+            @Override
+            public void onOpened() {
+            }
+
+            @Override
+            public void onError(int code) {
+                error[0] = code;
+            }
+        });
+        camera.open();
+        assertEquals(V4L2Camera.ERROR_OPEN_FAIL, error[0]);
+        assertNull(camera.getFrameFile());
+    }
+}
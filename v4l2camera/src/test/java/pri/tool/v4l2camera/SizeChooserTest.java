@@ -0,0 +1,51 @@
+package pri.tool.v4l2camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SizeChooserTest {
+
+    private static final int[] WIDTHS = {1920, 1280, 640, 320, 160, 720};
+    private static final int[] HEIGHTS = {1080, 720, 480, 240, 120, 720};
+
+    private static int choose(int width, int height) {
+        return SizeChooser.choose(WIDTHS, HEIGHTS, WIDTHS.length, width, height, V4L2Camera.MINIMUM_PREVIEW_SIZE);
+    }
+
+    @Test
+    public void exactSizeWins() {
+        assertEquals(2, choose(640, 480));
+        //完全相同的尺寸即使很小也选它
+        assertEquals(4, choose(160, 120));
+    }
+
+    @Test
+    public void choosesSmallestAreaThatIsBigEnough() {
+        //宽高都不小于 min(800, 600) = 600：1920x1080、1280x720、720x720，面积最小的是 720x720
+        assertEquals(5, choose(800, 600));
+        //宽高都不小于 MINIMUM_PREVIEW_SIZE
+        assertEquals(2, choose(100, 100));
+        //高度不小于 800 的只有 1920x1080
+        assertEquals(0, choose(1000, 800));
+    }
+
+    @Test
+    public void fallsBackToFirstWhenNothingIsBigEnough() {
+        assertEquals(0, choose(4000, 3000));
+    }
+
+    @Test
+    public void equalAreasKeepFirst() {
+        int[] widths = {800, 600};
+        int[] heights = {600, 800};
+        assertEquals(0, SizeChooser.choose(widths, heights, 2, 500, 500, 320));
+    }
+
+    @Test
+    public void onlyLooksAtCount() {
+        assertEquals(-1, SizeChooser.choose(WIDTHS, HEIGHTS, 0, 640, 480, 320));
+        //只看前两个时 640x480 不在范围内
+        assertEquals(1, SizeChooser.choose(WIDTHS, HEIGHTS, 2, 640, 480, 320));
+    }
+}
@@ -0,0 +1,96 @@
+package pri.tool.v4l2camera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import pri.tool.bean.LoadStepResult;
+
+import static org.junit.Assert.*;
+
+public class SyntheticCameraTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 32;
+
+    private static int[] toArgb(int format, int frameNumber) {
+        byte[] pattern = new byte[ColorConverter.getFrameSize(format, WIDTH, HEIGHT)];
+        SyntheticCamera.drawPattern(pattern, format, WIDTH, HEIGHT);
+        byte[] frame = new byte[pattern.length];
+        SyntheticCamera.scroll(pattern, frame, format, WIDTH, HEIGHT, frameNumber);
+
+        int[] argb = new int[WIDTH * HEIGHT];
+        ColorConverter.convertToArgb(frame, format, WIDTH, HEIGHT, ColorConverter.COLOR_SPACE_BT601, argb);
+        return argb;
+    }
+
+    private static void assertClose(int expected, int actual) {
+        for (int shift = 0; shift < 24; shift += 8) {
+            assertEquals(expected >> shift & 0xff, actual >> shift & 0xff, 8);
+        }
+    }
+
+    @Test
+    public void yuvFormatsDrawTheSamePattern() {
+        int[] yuyv = toArgb(ImageUtils.YUYV, 3);
+        int[] nv21 = toArgb(ImageUtils.NV21, 3);
+        int[] yv12 = toArgb(ImageUtils.YV12, 3);
+        for (int i = 0; i < yuyv.length; i += 2) {
+            assertClose(yuyv[i], nv21[i]);
+            assertClose(yuyv[i], yv12[i]);
+        }
+    }
+
+    @Test
+    public void patternScrollsEveryFrame() {
+        int[] first = toArgb(ImageUtils.NV21, 0);
+        int[] second = toArgb(ImageUtils.NV21, 1);
+        assertFalse(Arrays.equals(first, second));
+        //每帧上移两行
+        assertEquals(first[2 * WIDTH + 5], second[5]);
+        assertArrayEquals(first, toArgb(ImageUtils.NV21, HEIGHT / 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMjpeg() {
+        new SyntheticCamera(ImageUtils.MJPEG, WIDTH, HEIGHT, 30);
+    }
+
+    @Test
+    public void deliversPacedFramesWithIncreasingSequence() throws InterruptedException {
+        final List<Integer> sequences = new ArrayList<>();
+        SyntheticCamera camera = new SyntheticCamera(ImageUtils.RGBA, WIDTH, HEIGHT, 200);
+        camera.startPreview((data, dataType, width, height, timestampUs, sequence) -> {
+            assertEquals(ImageUtils.RGBA, dataType);
+            assertEquals(WIDTH * HEIGHT * 4, data.length);
+            synchronized (sequences) {
+                sequences.add(sequence);
+            }
+        });
+        Thread.sleep(100);
+        camera.release();
+
+        synchronized (sequences) {
+            assertTrue(sequences.size() >= 5);
+            for (int i = 1; i < sequences.size(); i++) {
+                assertTrue(sequences.get(i) > sequences.get(i - 1));
+            }
+        }
+    }
+
+    @Test
+    public void harnessReportsThroughputAndLatency() throws InterruptedException {
+        LoadHarness harness = new LoadHarness(ImageUtils.YUYV, WIDTH, HEIGHT, 100);
+        harness.setDuration(50, 200);
+        LoadStepResult result = harness.run(2);
+
+        assertEquals(2, result.streams);
+        assertEquals(200, result.offeredFps, 1e-9);
+        assertEquals(2, result.perStream.length);
+        assertTrue(result.deliveredFps > 0);
+        assertTrue(result.p99Us >= result.p50Us);
+        assertTrue(result.worstStreamP99Us >= result.perStream[0].p99Us);
+    }
+}
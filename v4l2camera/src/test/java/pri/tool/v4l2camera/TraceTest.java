@@ -0,0 +1,103 @@
+package pri.tool.v4l2camera;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class TraceTest {
+
+    @After
+    public void tearDown() {
+        Trace.setEnabled(false);
+        Trace.setNativeSource(null);
+        Trace.clear();
+    }
+
+    private static String export() throws IOException {
+        StringWriter writer = new StringWriter();
+        Trace.exportChromeJson(writer);
+        return writer.toString();
+    }
+
+    @Test
+    public void copyRingSkipsSlotBeingWritten() {
+        Trace.Ring ring = new Trace.Ring();
+        for (int i = 0; i < Trace.RING_EVENTS + 3; i++) {
+            ring.record(0, 0, i);
+        }
+        long[] buffer = new long[Trace.RING_EVENTS * Trace.EVENT_WORDS];
+        //下一次写入会落在最旧的一格，它不能导出
+        assertEquals(Trace.RING_EVENTS - 1, Trace.copyRing(ring, buffer));
+        assertEquals(4, buffer[2]);
+
+        Trace.Ring partial = new Trace.Ring();
+        partial.record(0, 0, 7);
+        assertEquals(1, Trace.copyRing(partial, buffer));
+        assertEquals(7, buffer[2]);
+    }
+
+    @Test
+    public void disabledRecordsNothing() throws IOException {
+        int name = Trace.name("test.disabled");
+        Trace.begin(name);
+        Trace.end(name);
+        assertFalse(export().contains("test.disabled"));
+    }
+
+    @Test
+    public void exportsJavaAndNativeEvents() throws IOException {
+        Trace.setNativeSource(new Trace.NativeSource() {
+            @Override
+            public void setEnabled(boolean enabled) {
+            }
+
+            @Override
+            public int read(long[] out) {
+                //tid 7 上的 convert begin/end
+                out[0] = 1000;
+                out[1] = ((long) Trace.PHASE_BEGIN << 56) | (3L << 32) | 7;
+                out[3] = 2500;
+                out[4] = ((long) Trace.PHASE_END << 56) | (3L << 32) | 7;
+                return 2;
+            }
+        });
+        Trace.setEnabled(true);
+
+        int span = Trace.name("test.span");
+        int counter = Trace.name("test.counter");
+        assertEquals(span, Trace.name("test.span"));
+        Trace.begin(span);
+        Trace.counter(counter, 42);
+        Trace.end(span);
+
+        String json = export();
+        assertTrue(json.startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":["));
+        assertTrue(json.contains("\"name\":\"test.span\",\"ph\":\"B\""));
+        assertTrue(json.contains("\"name\":\"test.span\",\"ph\":\"E\""));
+        assertTrue(json.contains("\"name\":\"test.counter\",\"ph\":\"C\""));
+        assertTrue(json.contains("\"args\":{\"value\":42}"));
+        assertTrue(json.contains("{\"name\":\"convert\",\"ph\":\"B\",\"ts\":1.000,\"pid\":2,\"tid\":7}"));
+        assertTrue(json.contains("{\"name\":\"convert\",\"ph\":\"E\",\"ts\":2.500,\"pid\":2,\"tid\":7}"));
+    }
+
+    @Test
+    public void ringKeepsLatestEventsAndDropsOrphanEnds() throws IOException {
+        Trace.setEnabled(true);
+        int span = Trace.name("test.wrap");
+        Trace.begin(span);
+        for (int i = 0; i < Trace.RING_EVENTS; i++) {
+            Trace.instant(span);
+        }
+        //begin 已经被覆盖，对应的 end 不应该导出
+        Trace.end(span);
+
+        String json = export();
+        assertFalse(json.contains("\"name\":\"test.wrap\",\"ph\":\"B\""));
+        assertFalse(json.contains("\"name\":\"test.wrap\",\"ph\":\"E\""));
+        assertTrue(json.contains("\"name\":\"test.wrap\",\"ph\":\"i\""));
+    }
+}
@@ -0,0 +1,73 @@
+package pri.tool.v4l2camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TransformsTest {
+
+    private static float[] transform(int srcWidth, int srcHeight, int dstWidth, int dstHeight,
+                                     int rotation, boolean maintainAspectRatio) {
+        float[] values = new float[9];
+        Transforms.getTransformation(srcWidth, srcHeight, dstWidth, dstHeight, rotation, maintainAspectRatio, values);
+        return values;
+    }
+
+    //按 Matrix#mapPoints 的方式变换一个点
+    private static float[] map(float[] m, float x, float y) {
+        return new float[]{m[0] * x + m[1] * y + m[2], m[3] * x + m[4] * y + m[5]};
+    }
+
+    @Test
+    public void sameSizeWithoutRotationIsIdentity() {
+        assertArrayEquals(new float[]{1, 0, 0, 0, 1, 0, 0, 0, 1}, transform(640, 480, 640, 480, 0, true), 0);
+    }
+
+    @Test
+    public void scalesWithoutRotation() {
+        assertArrayEquals(new float[]{0.5f, 0, 0, 0, 0.5f, 0, 0, 0, 1}, transform(640, 480, 320, 240, 0, true), 0);
+    }
+
+    @Test
+    public void cropKeepsAspectRatioByLargerScale() {
+        //按较大的比例缩放，超出 300x300 的部分被裁掉
+        assertArrayEquals(new float[]{0.625f, 0, 0, 0, 0.625f, 0, 0, 0, 1},
+                transform(640, 480, 300, 300, 0, true), 0);
+        assertArrayEquals(new float[]{0.46875f, 0, 0, 0, 0.625f, 0, 0, 0, 1},
+                transform(640, 480, 300, 300, 0, false), 0);
+    }
+
+    @Test
+    public void rotate90MapsCornersClockwise() {
+        float[] m = transform(640, 480, 480, 640, 90, true);
+        assertArrayEquals(new float[]{0, -1, 480, 1, 0, 0, 0, 0, 1}, m, 0);
+        assertArrayEquals(new float[]{480, 0}, map(m, 0, 0), 0);
+        assertArrayEquals(new float[]{0, 640}, map(m, 640, 480), 0);
+    }
+
+    @Test
+    public void rotate180WithScale() {
+        float[] m = transform(640, 480, 320, 240, 180, true);
+        assertArrayEquals(new float[]{-0.5f, 0, 320, 0, -0.5f, 240, 0, 0, 1}, m, 0);
+    }
+
+    @Test
+    public void rotate270WithCrop() {
+        float[] m = transform(640, 480, 240, 240, -90, true);
+        //转置后 480x640 到 240x240，按 0.5 缩放，中心对齐
+        assertArrayEquals(new float[]{0, 0.5f, 0, -0.5f, 0, 280, 0, 0, 1}, m, 1e-5f);
+        assertArrayEquals(new float[]{120, 120}, map(m, 320, 240), 1e-4f);
+        assertArrayEquals(new float[]{0, 280}, map(m, 0, 0), 1e-4f);
+    }
+
+    @Test
+    public void arbitraryRotationMatchesTrigonometry() {
+        float[] m = new float[9];
+        Transforms.setIdentity(m);
+        Transforms.postRotate(m, 30);
+        assertEquals(Math.cos(Math.toRadians(30)), m[0], 1e-6);
+        assertEquals(-Math.sin(Math.toRadians(30)), m[1], 1e-6);
+        assertEquals(Math.sin(Math.toRadians(30)), m[3], 1e-6);
+        assertEquals(Math.cos(Math.toRadians(30)), m[4], 1e-6);
+    }
+}